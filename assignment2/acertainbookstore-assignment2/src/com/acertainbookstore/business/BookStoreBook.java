@@ -1,5 +1,7 @@
 package com.acertainbookstore.business;
 
+import java.util.concurrent.atomic.AtomicLong;
+
 import com.acertainbookstore.utils.BookStoreUtility;
 
 /**
@@ -13,20 +15,24 @@ import com.acertainbookstore.utils.BookStoreUtility;
  */
 public class BookStoreBook extends ImmutableBook {
 
-	/** The number of copies. */
-	private int numCopies;
+	/**
+	 * The copies, packed so that both halves change atomically: the copies
+	 * available in the high 32 bits, the copies reserved by purchases in
+	 * progress in the low 32 bits.
+	 */
+	private final AtomicLong copies = new AtomicLong();
 
 	/** The total rating. */
-	private long totalRating;
+	private final AtomicLong totalRating = new AtomicLong();
 
 	/** The number of times rated. */
-	private long numTimesRated;
+	private final AtomicLong numTimesRated = new AtomicLong();
 
 	/** The number of sale misses. */
-	private long numSaleMisses;
+	private final AtomicLong numSaleMisses = new AtomicLong();
 
 	/** Whether the book is editor picked. */
-	private boolean editorPick;
+	private volatile boolean editorPick;
 
 	/**
 	 * Instantiates a new {@link BookStoreBook}.
@@ -75,7 +81,7 @@ public class BookStoreBook extends ImmutableBook {
 	 * @return the total rating
 	 */
 	public long getTotalRating() {
-		return totalRating;
+		return totalRating.get();
 	}
 
 	/**
@@ -84,7 +90,7 @@ public class BookStoreBook extends ImmutableBook {
 	 * @return the number of times rated
 	 */
 	public long getNumTimesRated() {
-		return numTimesRated;
+		return numTimesRated.get();
 	}
 
 	/**
@@ -93,7 +99,20 @@ public class BookStoreBook extends ImmutableBook {
 	 * @return the number of copies
 	 */
 	public int getNumCopies() {
-		return numCopies;
+		long current = copies.get();
+
+		// Reserved copies are still in stock until the purchase is committed.
+		return available(current) + reserved(current);
+	}
+
+	/**
+	 * Gets the number of copies that are not reserved by a purchase in
+	 * progress.
+	 *
+	 * @return the number of available copies
+	 */
+	public int getNumAvailableCopies() {
+		return available(copies.get());
 	}
 
 	/**
@@ -102,7 +121,7 @@ public class BookStoreBook extends ImmutableBook {
 	 * @return the number of sale misses
 	 */
 	public long getNumSaleMisses() {
-		return numSaleMisses;
+		return numSaleMisses.get();
 	}
 
 	/**
@@ -111,7 +130,8 @@ public class BookStoreBook extends ImmutableBook {
 	 * @return the average rating
 	 */
 	public float getAverageRating() {
-		return (numTimesRated == 0 ? -1.0f : (float) totalRating / numTimesRated);
+		long timesRated = numTimesRated.get();
+		return (timesRated == 0 ? -1.0f : (float) totalRating.get() / timesRated);
 	}
 
 	/**
@@ -130,7 +150,7 @@ public class BookStoreBook extends ImmutableBook {
 	 *            the new total rating
 	 */
 	private void setTotalRating(long totalRating) {
-		this.totalRating = totalRating;
+		this.totalRating.set(totalRating);
 	}
 
 	/**
@@ -140,7 +160,7 @@ public class BookStoreBook extends ImmutableBook {
 	 *            the new number of times rated
 	 */
 	private void setNumTimesRated(long numTimesRated) {
-		this.numTimesRated = numTimesRated;
+		this.numTimesRated.set(numTimesRated);
 	}
 
 	/**
@@ -150,7 +170,15 @@ public class BookStoreBook extends ImmutableBook {
 	 *            the new number of copies
 	 */
 	private void setNumCopies(int numCopies) {
-		this.numCopies = numCopies;
+		this.copies.set((long) numCopies << 32);
+	}
+
+	private static int available(long copies) {
+		return (int) (copies >>> 32);
+	}
+
+	private static int reserved(long copies) {
+		return (int) copies;
 	}
 
 	/**
@@ -161,7 +189,7 @@ public class BookStoreBook extends ImmutableBook {
 	 *            the new sale misses
 	 */
 	private void setNumSaleMisses(long numSaleMisses) {
-		this.numSaleMisses = numSaleMisses;
+		this.numSaleMisses.set(numSaleMisses);
 	}
 
 	/**
@@ -183,23 +211,79 @@ public class BookStoreBook extends ImmutableBook {
 	 * @return true, if successful
 	 */
 	public boolean areCopiesInStore(int numCopies) {
-		return this.numCopies >= numCopies;
+		return getNumCopies() >= numCopies;
 	}
 
 	/**
-	 * Reduces the number of copies of the books.
+	 * Reduces the number of copies of the books. The check and the decrement
+	 * are applied atomically, so concurrent buyers can never drive the stock
+	 * below zero.
 	 *
 	 * @param numCopies
 	 *            the number of copies
 	 * @return true, if successful
 	 */
 	public boolean buyCopies(int numCopies) {
-		if (!BookStoreUtility.isInvalidNoCopies(numCopies) && areCopiesInStore(numCopies)) {
-			this.numCopies -= numCopies;
-			return true;
+		if (BookStoreUtility.isInvalidNoCopies(numCopies)) {
+			return false;
 		}
 
-		return false;
+		long current;
+
+		do {
+			current = copies.get();
+
+			if (available(current) < numCopies) {
+				return false;
+			}
+		} while (!copies.compareAndSet(current, current - ((long) numCopies << 32)));
+
+		return true;
+	}
+
+	/**
+	 * Sets <code>numCopies</code> aside for a purchase of several books, which
+	 * then either commits or cancels the reservation. The copies count as in
+	 * stock until then, but are no longer available to other buyers.
+	 *
+	 * @param numCopies
+	 *            the number of copies
+	 * @return true, if the copies were reserved
+	 */
+	public boolean reserveCopies(int numCopies) {
+		long current;
+
+		do {
+			current = copies.get();
+
+			if (available(current) < numCopies) {
+				return false;
+			}
+		} while (!copies.compareAndSet(current, current - ((long) numCopies << 32) + numCopies));
+
+		return true;
+	}
+
+	/**
+	 * Sells copies reserved by {@link #reserveCopies(int)}.
+	 *
+	 * @param numCopies
+	 *            the number of copies reserved
+	 */
+	public void commitReservation(int numCopies) {
+		copies.addAndGet(-numCopies);
+	}
+
+	/**
+	 * Gives back copies reserved by {@link #reserveCopies(int)}. Unlike
+	 * {@link #addCopies(int)} this does not reset the sale misses, since no new
+	 * stock arrived.
+	 *
+	 * @param numCopies
+	 *            the number of copies reserved
+	 */
+	public void cancelReservation(int numCopies) {
+		copies.addAndGet(((long) numCopies << 32) - numCopies);
 	}
 
 	/**
@@ -210,8 +294,8 @@ public class BookStoreBook extends ImmutableBook {
 	 */
 	public void addCopies(int numNewCopies) {
 		if (!BookStoreUtility.isInvalidNoCopies(numNewCopies)) {
-			this.numCopies += numNewCopies;
-			this.numSaleMisses = 0;
+			this.copies.addAndGet((long) numNewCopies << 32);
+			this.numSaleMisses.set(0);
 		}
 	}
 
@@ -222,7 +306,7 @@ public class BookStoreBook extends ImmutableBook {
 	 *            the number of sales misses encountered
 	 */
 	public void addSaleMiss(int numSaleMisses) {
-		this.numSaleMisses += numSaleMisses;
+		this.numSaleMisses.addAndGet(numSaleMisses);
 	}
 
 	/**
@@ -233,8 +317,8 @@ public class BookStoreBook extends ImmutableBook {
 	 */
 	public void addRating(int rating) {
 		if (!BookStoreUtility.isInvalidRating(rating)) {
-			this.totalRating += rating;
-			this.numTimesRated++;
+			this.totalRating.addAndGet(rating);
+			this.numTimesRated.incrementAndGet();
 		}
 	}
 
@@ -245,7 +329,7 @@ public class BookStoreBook extends ImmutableBook {
 	 * @return true, if successful
 	 */
 	public boolean hadSaleMiss() {
-		return this.numSaleMisses > 0;
+		return this.numSaleMisses.get() > 0;
 	}
 
 	/**
@@ -276,8 +360,8 @@ public class BookStoreBook extends ImmutableBook {
 	 */
 	public StockBook immutableStockBook() {
 		return new ImmutableStockBook(this.getISBN(), new String(this.getTitle()), new String(this.getAuthor()),
-				this.getPrice(), this.numCopies, this.numSaleMisses, this.numTimesRated, this.totalRating,
-				this.editorPick);
+				this.getPrice(), getNumCopies(), this.numSaleMisses.get(), this.numTimesRated.get(),
+				this.totalRating.get(), this.editorPick);
 	}
 
 	/**
@@ -287,6 +371,6 @@ public class BookStoreBook extends ImmutableBook {
 	 */
 	public BookStoreBook copy() {
 		return new BookStoreBook(this.getISBN(), new String(this.getTitle()), new String(this.getAuthor()),
-				this.getPrice(), this.numCopies);
+				this.getPrice(), getNumCopies());
 	}
 }
@@ -0,0 +1,464 @@
+package com.acertainbookstore.business;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+import com.acertainbookstore.interfaces.BookStore;
+import com.acertainbookstore.interfaces.StockManager;
+import com.acertainbookstore.utils.BookStoreConstants;
+import com.acertainbookstore.utils.BookStoreException;
+import com.acertainbookstore.utils.BookStoreUtility;
+
+/** {@link LockFreeConcurrentCertainBookStore} implements the {@link BookStore} and
+ * {@link StockManager} functionalities without taking any lock.
+ *
+ * The books are kept in a {@link ConcurrentHashMap} and every counter of a
+ * {@link BookStoreBook} is atomic, so reads never block and single-book writes
+ * are compare-and-set operations. Operations on several books are
+ * all-or-nothing: they validate every book first, and if one of the updates
+ * cannot be applied the ones already applied are compensated before the
+ * exception is thrown.
+ *
+ * A purchase first checks that every book has enough copies available, so a
+ * purchase short of one book never sets aside the copies of the others. It
+ * then reserves the copies of its books in ISBN order and sells them once
+ * every book is reserved. If another purchase took some of the copies in the
+ * meantime, the reservations are given back and the purchase starts over; it
+ * never waits for another purchase to finish. Reserved copies still count as
+ * in stock: a buyer short of copies only because other purchases hold them
+ * reserved fails, but counts no sale miss, since those purchases may give
+ * the copies back.
+ *
+ * A purchase of several books is not atomic to readers: it is committed one
+ * book at a time, so a concurrent read may see some of its books sold and the
+ * others not yet.
+ *
+ * @see BookStore
+ * @see StockManager
+ */
+public class LockFreeConcurrentCertainBookStore implements BookStore, StockManager {
+
+	/** The mapping of books from ISBN to {@link BookStoreBook}. */
+	private Map<Integer, BookStoreBook> bookMap = null;
+
+	/**
+	 * Instantiates a new {@link LockFreeConcurrentCertainBookStore}.
+	 */
+	public LockFreeConcurrentCertainBookStore() {
+		bookMap = new ConcurrentHashMap<>();
+	}
+
+	private void validate(StockBook book) throws BookStoreException {
+		int isbn = book.getISBN();
+		String bookTitle = book.getTitle();
+		String bookAuthor = book.getAuthor();
+		int noCopies = book.getNumCopies();
+		float bookPrice = book.getPrice();
+
+		if (BookStoreUtility.isInvalidISBN(isbn)) { // Check if the book has valid ISBN
+			throw new BookStoreException(BookStoreConstants.ISBN + isbn + BookStoreConstants.INVALID);
+		}
+
+		if (BookStoreUtility.isEmpty(bookTitle)) { // Check if the book has valid title
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (BookStoreUtility.isEmpty(bookAuthor)) { // Check if the book has valid author
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (BookStoreUtility.isInvalidNoCopies(noCopies)) { // Check if the book has at least one copy
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (bookPrice < 0.0) { // Check if the price of the book is valid
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (bookMap.containsKey(isbn)) {// Check if the book is not in stock
+			throw new BookStoreException(BookStoreConstants.ISBN + isbn + BookStoreConstants.DUPLICATED);
+		}
+	}
+
+	private BookStoreBook validate(BookCopy bookCopy) throws BookStoreException {
+		int isbn = bookCopy.getISBN();
+		int numCopies = bookCopy.getNumCopies();
+
+		BookStoreBook book = getBookInStock(isbn); // Check if the book has valid ISBN and in stock
+
+		if (BookStoreUtility.isInvalidNoCopies(numCopies)) { // Check if the number of the book copy is larger than zero
+			throw new BookStoreException(BookStoreConstants.NUM_COPIES + numCopies + BookStoreConstants.INVALID);
+		}
+
+		return book;
+	}
+
+	/**
+	 * Looks up a book with a single map access, checking that the ISBN is
+	 * valid and in stock.
+	 *
+	 * @param ISBN
+	 *            the ISBN
+	 * @return the book
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	private BookStoreBook getBookInStock(Integer ISBN) throws BookStoreException {
+		if (ISBN == null || BookStoreUtility.isInvalidISBN(ISBN)) { // Check if the book has valid ISBN
+			throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.INVALID);
+		}
+
+		BookStoreBook book = bookMap.get(ISBN);
+
+		if (book == null) {// Check if the book is in stock
+			throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.NOT_AVAILABLE);
+		}
+
+		return book;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#addBooks(java.util.Set)
+	 */
+	public void addBooks(Set<StockBook> bookSet) throws BookStoreException {
+		if (bookSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		// Check if all are there
+		for (StockBook book : bookSet) {
+			validate(book);
+		}
+
+		// Another client may have added one of the books since the check, in
+		// which case the books added so far are taken out again.
+		List<BookStoreBook> addedBooks = new ArrayList<>();
+
+		for (StockBook book : bookSet) {
+			BookStoreBook newBook = new BookStoreBook(book);
+
+			if (bookMap.putIfAbsent(book.getISBN(), newBook) != null) {
+				for (BookStoreBook addedBook : addedBooks) {
+					bookMap.remove(addedBook.getISBN(), addedBook);
+				}
+
+				throw new BookStoreException(BookStoreConstants.ISBN + book.getISBN() + BookStoreConstants.DUPLICATED);
+			}
+
+			addedBooks.add(newBook);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#addCopies(java.util.Set)
+	 */
+	public void addCopies(Set<BookCopy> bookCopiesSet) throws BookStoreException {
+		if (bookCopiesSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		BookStoreBook[] books = new BookStoreBook[bookCopiesSet.size()];
+		int[] numCopies = new int[books.length];
+		int i = 0;
+
+		for (BookCopy bookCopy : bookCopiesSet) {
+			books[i] = validate(bookCopy);
+			numCopies[i++] = bookCopy.getNumCopies();
+		}
+
+		// Update the number of copies; adding copies cannot fail once
+		// validated.
+		for (i = 0; i < books.length; i++) {
+			books[i].addCopies(numCopies[i]);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#getBooks()
+	 */
+	public List<StockBook> getBooks() {
+		return bookMap.values().stream()
+				.map(book -> book.immutableStockBook())
+				.collect(Collectors.toList());
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#updateEditorPicks(java.util
+	 * .Set)
+	 */
+	public void updateEditorPicks(Set<BookEditorPick> editorPicks) throws BookStoreException {
+		// Check that all ISBNs that we add/remove are there first.
+		if (editorPicks == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		BookStoreBook[] books = new BookStoreBook[editorPicks.size()];
+		int i = 0;
+
+		for (BookEditorPick editorPickArg : editorPicks) {
+			books[i++] = getBookInStock(editorPickArg.getISBN());
+		}
+
+		i = 0;
+
+		for (BookEditorPick editorPickArg : editorPicks) {
+			books[i++].setEditorPick(editorPickArg.isEditorPick());
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#buyBooks(java.util.Set)
+	 */
+	public void buyBooks(Set<BookCopy> bookCopiesToBuy) throws BookStoreException {
+		if (bookCopiesToBuy == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		// Check that all ISBNs that we buy are there first. Copies of a book
+		// asked for twice are bought together, and the books are reserved in
+		// ISBN order, so that of two purchases after the same copies the one
+		// reserving them first gets all of them.
+		SortedMap<Integer, Integer> copiesByISBN = new TreeMap<>();
+		Map<Integer, BookStoreBook> booksByISBN = new HashMap<>();
+
+		for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
+			BookStoreBook book = validate(bookCopyToBuy);
+			booksByISBN.put(book.getISBN(), book);
+			copiesByISBN.merge(book.getISBN(), bookCopyToBuy.getNumCopies(), Integer::sum);
+		}
+
+		BookStoreBook[] books = new BookStoreBook[copiesByISBN.size()];
+		int[] numCopies = new int[books.length];
+		int[] missedCopies = new int[books.length];
+		boolean saleMiss = false;
+		int i = 0;
+
+		for (Map.Entry<Integer, Integer> copiesOfBook : copiesByISBN.entrySet()) {
+			books[i] = booksByISBN.get(copiesOfBook.getKey());
+			numCopies[i++] = copiesOfBook.getValue();
+		}
+
+		while (true) {
+			// Check every book before reserving any, so that a purchase short
+			// of one book does not hold the copies of the others. Copies
+			// reserved by other purchases are still in stock, so only a book
+			// short of copies in stock is a sale miss.
+			boolean reservedByOthers = false;
+
+			for (i = 0; i < books.length; i++) {
+				int inStock = books[i].getNumCopies();
+
+				if (inStock < numCopies[i]) {
+					missedCopies[i] = numCopies[i] - inStock;
+					saleMiss = true;
+				} else if (books[i].getNumAvailableCopies() < numCopies[i]) {
+					reservedByOthers = true;
+				}
+			}
+
+			if (saleMiss) {
+				break;
+			}
+
+			if (reservedByOthers) {
+				// The copies are held by purchases in progress, which may still
+				// give them back, so fail without waiting and without a miss.
+				throw new BookStoreException(BookStoreConstants.BOOK + BookStoreConstants.NOT_AVAILABLE);
+			}
+
+			int reserved = 0;
+
+			while (reserved < books.length && books[reserved].reserveCopies(numCopies[reserved])) {
+				reserved++;
+			}
+
+			if (reserved == books.length) {
+				for (i = 0; i < books.length; i++) {
+					books[i].commitReservation(numCopies[i]);
+				}
+
+				return;
+			}
+
+			// Another purchase took copies since they were checked, so give the
+			// reservations back and start over.
+			while (reserved > 0) {
+				reserved--;
+				books[reserved].cancelReservation(numCopies[reserved]);
+			}
+		}
+
+		// We throw exception now since we want to see how many books in the
+		// order incurred misses which is used by books in demand
+		for (i = 0; i < books.length; i++) {
+			if (missedCopies[i] > 0) {
+				books[i].addSaleMiss(missedCopies[i]);
+			}
+		}
+
+		throw new BookStoreException(BookStoreConstants.BOOK + BookStoreConstants.NOT_AVAILABLE);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#getBooksByISBN(java.util.
+	 * Set)
+	 */
+	public List<StockBook> getBooksByISBN(Set<Integer> isbnSet) throws BookStoreException {
+		if (isbnSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		List<StockBook> ret = new ArrayList<>(isbnSet.size());
+
+		for (Integer ISBN : isbnSet) {
+			ret.add(getBookInStock(ISBN).immutableStockBook());
+		}
+
+		return ret;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getBooks(java.util.Set)
+	 */
+	public List<Book> getBooks(Set<Integer> isbnSet) throws BookStoreException {
+		if (isbnSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		List<Book> ret = new ArrayList<>(isbnSet.size());
+
+		for (Integer ISBN : isbnSet) {
+			ret.add(getBookInStock(ISBN).immutableBook());
+		}
+
+		return ret;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getEditorPicks(int)
+	 */
+	public List<Book> getEditorPicks(int numBooks) throws BookStoreException {
+		if (numBooks < 0) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+		}
+
+		List<BookStoreBook> listAllEditorPicks = bookMap.values().stream()
+				.filter(book -> book.isEditorPick())
+				.collect(Collectors.toList());
+
+		// Find numBooks random indices of books that will be picked.
+		Random rand = new Random();
+		Set<Integer> tobePicked = new HashSet<>();
+		int rangePicks = listAllEditorPicks.size();
+
+		if (rangePicks <= numBooks) {
+
+			// We need to add all books.
+			for (int i = 0; i < listAllEditorPicks.size(); i++) {
+				tobePicked.add(i);
+			}
+		} else {
+
+			// We need to pick randomly the books that need to be returned.
+			int randNum;
+
+			while (tobePicked.size() < numBooks) {
+				randNum = rand.nextInt(rangePicks);
+				tobePicked.add(randNum);
+			}
+		}
+
+		// Return all the books by the randomly chosen indices.
+		return tobePicked.stream()
+				.map(index -> listAllEditorPicks.get(index).immutableBook())
+				.collect(Collectors.toList());
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getTopRatedBooks(int)
+	 */
+	@Override
+	public List<Book> getTopRatedBooks(int numBooks) throws BookStoreException {
+		throw new BookStoreException();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#getBooksInDemand()
+	 */
+	@Override
+	public List<StockBook> getBooksInDemand() throws BookStoreException {
+		throw new BookStoreException();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#rateBooks(java.util.Set)
+	 */
+	@Override
+	public void rateBooks(Set<BookRating> bookRating) throws BookStoreException {
+		throw new BookStoreException();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#removeAllBooks()
+	 */
+	public void removeAllBooks() throws BookStoreException {
+		bookMap.clear();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#removeBooks(java.util.Set)
+	 */
+	public void removeBooks(Set<Integer> isbnSet) throws BookStoreException {
+		if (isbnSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		for (Integer ISBN : isbnSet) {
+			getBookInStock(ISBN);
+		}
+
+		for (int isbn : isbnSet) {
+			bookMap.remove(isbn);
+		}
+	}
+}
@@ -0,0 +1,121 @@
+package com.acertainbookstore.business;
+
+import java.util.Collection;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * {@link LockTransaction} holds the locks of one operation of the
+ * {@link TwoLevelLockingConcurrentCertainBookStore}, following the two-level
+ * protocol: first the list lock, then the item locks of the books touched.
+ *
+ * The item locks are taken all at once in ascending stripe order, whatever the
+ * iteration order of the caller's set, so overlapping transactions cannot
+ * deadlock. Everything is released by {@link #close()}, which callers must
+ * reach on every exit path, including the exceptions thrown by validation:
+ * they open the transaction in a try-with-resources block, or close it in a
+ * finally block when they only lock the list.
+ */
+public final class LockTransaction implements AutoCloseable {
+
+	/** The lock held on the list, either the read or the write lock. */
+	private final Lock listLock;
+
+	/** The item locks. */
+	private final StripedLockManager itemLocks;
+
+	/** The stripes held, or null if no item lock was taken yet. */
+	private int[] stripes = null;
+
+	/** Whether the stripes are held exclusively. */
+	private boolean exclusiveItems;
+
+	/**
+	 * Instantiates a new {@link LockTransaction} and acquires the list lock.
+	 *
+	 * @param listLock
+	 *            the list lock to acquire
+	 * @param itemLocks
+	 *            the item locks
+	 */
+	private LockTransaction(Lock listLock, StripedLockManager itemLocks) {
+		this.listLock = listLock;
+		this.itemLocks = itemLocks;
+		listLock.lock();
+	}
+
+	/**
+	 * Begins a transaction that updates or reads individual books; the list
+	 * read lock is used as an intention lock.
+	 *
+	 * @param listLock
+	 *            the list lock
+	 * @param itemLocks
+	 *            the item locks
+	 * @return the transaction
+	 */
+	public static LockTransaction onItems(ReentrantReadWriteLock listLock, StripedLockManager itemLocks) {
+		return new LockTransaction(listLock.readLock(), itemLocks);
+	}
+
+	/**
+	 * Begins a transaction that changes the set of books, holding the list
+	 * write lock.
+	 *
+	 * @param listLock
+	 *            the list lock
+	 * @param itemLocks
+	 *            the item locks
+	 * @return the transaction
+	 */
+	public static LockTransaction onList(ReentrantReadWriteLock listLock, StripedLockManager itemLocks) {
+		return new LockTransaction(listLock.writeLock(), itemLocks);
+	}
+
+	/**
+	 * Sorts the stripes of the ISBNs and locks all of them. It can only be
+	 * called once per transaction, since acquiring more locks later would break
+	 * the ordering.
+	 *
+	 * @param isbns
+	 *            the ISBNs
+	 * @param exclusive
+	 *            true for the write locks, false for the read locks
+	 */
+	public void lockItems(Collection<Integer> isbns, boolean exclusive) {
+		lockStripes(itemLocks.sortedStripesOf(isbns), exclusive);
+	}
+
+	/**
+	 * Locks every stripe, for operations that scan all books.
+	 *
+	 * @param exclusive
+	 *            true for the write locks, false for the read locks
+	 */
+	public void lockAllItems(boolean exclusive) {
+		lockStripes(itemLocks.allStripes(), exclusive);
+	}
+
+	private void lockStripes(int[] sortedStripes, boolean exclusive) {
+		if (stripes != null) {
+			throw new IllegalStateException("The item locks of a transaction must be acquired at once");
+		}
+
+		itemLocks.lockStripes(sortedStripes, exclusive);
+		stripes = sortedStripes;
+		exclusiveItems = exclusive;
+	}
+
+	/**
+	 * Releases the item locks, then the list lock.
+	 */
+	@Override
+	public void close() {
+		if (stripes != null) {
+			itemLocks.unlockStripes(stripes, exclusiveItems);
+			stripes = null;
+		}
+
+		listLock.unlock();
+	}
+}
@@ -0,0 +1,160 @@
+package com.acertainbookstore.business;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * {@link StripedLockManager} maps ISBNs onto a fixed, power-of-two number of
+ * {@link ReentrantReadWriteLock} stripes. The memory used for locking does not
+ * grow with the catalog, at the price of books that hash to the same stripe
+ * sharing a lock.
+ *
+ * Callers that need several stripes must take them through
+ * {@link #lockStripes(int[], boolean)}, which acquires them in ascending stripe
+ * order, so that two transactions can never wait for each other in a cycle.
+ */
+public class StripedLockManager {
+
+	/** The default number of stripes. */
+	public static final int DEFAULT_NUM_STRIPES = 1024;
+
+	/** The stripes, indexed by the hash of the ISBN. */
+	private final ReentrantReadWriteLock[] stripes;
+
+	/** The mask used to map a hash onto a stripe. */
+	private final int mask;
+
+	/**
+	 * Instantiates a new non-fair {@link StripedLockManager} with
+	 * {@link #DEFAULT_NUM_STRIPES} stripes.
+	 */
+	public StripedLockManager() {
+		this(DEFAULT_NUM_STRIPES, false);
+	}
+
+	/**
+	 * Instantiates a new {@link StripedLockManager}.
+	 *
+	 * @param numStripes
+	 *            the number of stripes, rounded up to a power of two
+	 * @param fair
+	 *            whether the stripes use a fair ordering policy; non-fair
+	 *            locks are considerably faster under contention
+	 */
+	public StripedLockManager(int numStripes, boolean fair) {
+		if (numStripes < 1) {
+			throw new IllegalArgumentException("numStripes = " + numStripes + ", but it must be positive");
+		}
+
+		int size = (numStripes == 1) ? 1 : Integer.highestOneBit(numStripes - 1) << 1;
+		stripes = new ReentrantReadWriteLock[size];
+		mask = size - 1;
+
+		for (int i = 0; i < size; i++) {
+			stripes[i] = new ReentrantReadWriteLock(fair);
+		}
+	}
+
+	/**
+	 * Gets the number of stripes.
+	 *
+	 * @return the number of stripes
+	 */
+	public int getNumStripes() {
+		return stripes.length;
+	}
+
+	/**
+	 * Gets the index of the stripe guarding the ISBN.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 * @return the stripe index
+	 */
+	public int stripeOf(int isbn) {
+		// ISBNs are often consecutive, so spread them before masking.
+		int hash = isbn * 0x9E3779B9;
+		return (hash ^ (hash >>> 16)) & mask;
+	}
+
+	/**
+	 * Gets the distinct stripes guarding the ISBNs, in ascending order.
+	 *
+	 * @param isbns
+	 *            the ISBNs
+	 * @return the sorted stripe indices
+	 */
+	public int[] sortedStripesOf(Collection<Integer> isbns) {
+		int[] indices = new int[isbns.size()];
+		int i = 0;
+
+		for (int isbn : isbns) {
+			indices[i++] = stripeOf(isbn);
+		}
+
+		Arrays.sort(indices);
+
+		// Drop the duplicates so every stripe is locked exactly once.
+		int distinct = 0;
+
+		for (i = 0; i < indices.length; i++) {
+			if (distinct == 0 || indices[distinct - 1] != indices[i]) {
+				indices[distinct++] = indices[i];
+			}
+		}
+
+		return Arrays.copyOf(indices, distinct);
+	}
+
+	/**
+	 * Gets the indices of all stripes, in ascending order.
+	 *
+	 * @return the stripe indices
+	 */
+	public int[] allStripes() {
+		int[] indices = new int[stripes.length];
+
+		for (int i = 0; i < indices.length; i++) {
+			indices[i] = i;
+		}
+
+		return indices;
+	}
+
+	/**
+	 * Locks the stripes in the order given, which must be ascending.
+	 *
+	 * @param indices
+	 *            the sorted stripe indices
+	 * @param exclusive
+	 *            true for the write locks, false for the read locks
+	 */
+	public void lockStripes(int[] indices, boolean exclusive) {
+		for (int index : indices) {
+			if (exclusive) {
+				stripes[index].writeLock().lock();
+			} else {
+				stripes[index].readLock().lock();
+			}
+		}
+	}
+
+	/**
+	 * Unlocks the stripes, in the reverse order of acquisition.
+	 *
+	 * @param indices
+	 *            the sorted stripe indices
+	 * @param exclusive
+	 *            true for the write locks, false for the read locks
+	 */
+	public void unlockStripes(int[] indices, boolean exclusive) {
+		for (int i = indices.length - 1; i >= 0; i--) {
+			if (exclusive) {
+				stripes[indices[i]].writeLock().unlock();
+			} else {
+				stripes[indices[i]].readLock().unlock();
+			}
+		}
+	}
+}
@@ -30,8 +30,9 @@ public class TwoLevelLockingConcurrentCertainBookStore implements BookStore, Sto
 
 	/** The mapping of books from ISBN to {@link BookStoreBook}. */
 	private Map<Integer, BookStoreBook> bookMap = null;
-	private Map<Integer, ReentrantReadWriteLock> itemLocksMap = null;
-	private final ReentrantReadWriteLock listLock = new ReentrantReadWriteLock(true);
+	/** The item locks, striped by ISBN so their number does not grow with the catalog. */
+	private final StripedLockManager itemLocks = new StripedLockManager();
+	private final ReentrantReadWriteLock listLock = new ReentrantReadWriteLock();
 
 	/**
 	 * Instantiates a new {@link CertainBookStore}.
@@ -39,7 +40,6 @@ public class TwoLevelLockingConcurrentCertainBookStore implements BookStore, Sto
 	public TwoLevelLockingConcurrentCertainBookStore() {
 		// Constructors are not synchronized
 		bookMap = new HashMap<>();
-		itemLocksMap = new HashMap<>();
 	}
 	
 	private void validate(StockBook book) throws BookStoreException {
@@ -78,27 +78,16 @@ public class TwoLevelLockingConcurrentCertainBookStore implements BookStore, Sto
 
 		int isbn = bookCopy.getISBN();
 		int numCopies = bookCopy.getNumCopies();
-		try {
-			validateISBNInStock(isbn); // Check if the book has valid ISBN and in stock
-		} catch (BookStoreException e) {
-//			itemLocksMap.get(isbn);
-			throw e;
-		}
+		validateISBNInStock(isbn); // Check if the book has valid ISBN and in stock
 
 		if (BookStoreUtility.isInvalidNoCopies(numCopies)) { // Check if the number of the book copy is larger than zero
-//			itemLocksMap.get(isbn).readLock().unlock();
 			throw new BookStoreException(BookStoreConstants.NUM_COPIES + numCopies + BookStoreConstants.INVALID);
 		}
-//		itemLocksMap.get(isbn).readLock().unlock();
 	}
 	
 	private void validate(BookEditorPick editorPickArg) throws BookStoreException {
 		int isbn = editorPickArg.getISBN();
-		try {
-			validateISBNInStock(isbn); // Check if the book has valid ISBN and in stock
-		} catch (BookStoreException e) {
-			throw e;
-		}
+		validateISBNInStock(isbn); // Check if the book has valid ISBN and in stock
 	}
 	
 	private void validateISBNInStock(Integer ISBN) throws BookStoreException {
@@ -122,25 +111,21 @@ public class TwoLevelLockingConcurrentCertainBookStore implements BookStore, Sto
 		}
 
 		//get the lock for the whole database
-		listLock.writeLock().lock();
-		// Check if all are there
-		for (StockBook book : bookSet) {
-			try {
+		LockTransaction txn = LockTransaction.onList(listLock, itemLocks);
+
+		try {
+			// Check if all are there
+			for (StockBook book : bookSet) {
 				validate(book);
-			} catch (BookStoreException e) {
-				//release if exception found
-				listLock.writeLock().unlock();
-				throw e;
 			}
-		}
 
-		for (StockBook book : bookSet) {
-			int isbn = book.getISBN();
-			bookMap.put(isbn, new BookStoreBook(book));
-			itemLocksMap.put(isbn, new ReentrantReadWriteLock(true));
+			for (StockBook book : bookSet) {
+				int isbn = book.getISBN();
+				bookMap.put(isbn, new BookStoreBook(book));
+			}
+		} finally {
+			txn.close();
 		}
-		//release in the end
-		listLock.writeLock().unlock();
 	}
 
 	/*
@@ -149,51 +134,33 @@ public class TwoLevelLockingConcurrentCertainBookStore implements BookStore, Sto
 	 * @see
 	 * com.acertainbookstore.interfaces.StockManager#addCopies(java.util.Set)
 	 */
-	//
 	public void addCopies(Set<BookCopy> bookCopiesSet) throws BookStoreException {
 		int isbn;
-		boolean flag = false;
 		int numCopies;
 
 		if (bookCopiesSet == null) {
 			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
 		}
 		//only update specific item -> use read lock as intention lock
-		listLock.readLock().lock();
-		List<Integer> lock_list = new ArrayList<>(); //list of items get locked
-		for (BookCopy bookCopy : bookCopiesSet) {
-			isbn = bookCopy.getISBN();
-			try {
-				if (itemLocksMap.containsKey(isbn)) {
-					//acquire lock for each valid item
-					itemLocksMap.get(isbn).writeLock().lock();
-					lock_list.add(isbn);
-					validate(bookCopy);
-				} else {
-					throw new BookStoreException(BookStoreConstants.ISBN + isbn + BookStoreConstants.INVALID);
-				}
-			} catch (BookStoreException e) {
-				//release all the locks if exception found
-				for (int i : lock_list)
-					itemLocksMap.get(i).writeLock().unlock();
-				listLock.readLock().unlock();
-				throw e;
+		try (LockTransaction txn = LockTransaction.onItems(listLock, itemLocks)) {
+			List<Integer> isbns = new ArrayList<>();
+			for (BookCopy bookCopy : bookCopiesSet) {
+				validate(bookCopy);
+				isbns.add(bookCopy.getISBN());
 			}
-		}
 
-//		System.out.println("copy finish validation");
-		BookStoreBook book;
+			//acquire the locks of all items in sorted order
+			txn.lockItems(isbns, true);
+			BookStoreBook book;
 
-		// Update the number of copies
-		for (BookCopy bookCopy : bookCopiesSet) {
-			isbn = bookCopy.getISBN();
-			numCopies = bookCopy.getNumCopies();
-			book = bookMap.get(isbn);
-			book.addCopies(numCopies);
-			//release immediately after modification
-			itemLocksMap.get(isbn).writeLock().unlock();
+			// Update the number of copies
+			for (BookCopy bookCopy : bookCopiesSet) {
+				isbn = bookCopy.getISBN();
+				numCopies = bookCopy.getNumCopies();
+				book = bookMap.get(isbn);
+				book.addCopies(numCopies);
+			}
 		}
-		listLock.readLock().unlock();
 	}
 
 	/*
@@ -202,19 +169,15 @@ public class TwoLevelLockingConcurrentCertainBookStore implements BookStore, Sto
 	 * @see com.acertainbookstore.interfaces.StockManager#getBooks()
 	 */
 	public List<StockBook> getBooks() {
-		listLock.readLock().lock();
-		List<StockBook> ret = new ArrayList<>();
-		for (int isbn : bookMap.keySet())
-		{
-			itemLocksMap.get(isbn).readLock().lock();
-			ret.add(bookMap.get(isbn).immutableStockBook());
+		try (LockTransaction txn = LockTransaction.onItems(listLock, itemLocks)) {
+			txn.lockAllItems(false);
+			List<StockBook> ret = new ArrayList<>();
+			for (BookStoreBook book : bookMap.values())
+			{
+				ret.add(book.immutableStockBook());
+			}
+			return ret;
 		}
-		//release the lock after reading
-		for (int isbn : bookMap.keySet())
-			itemLocksMap.get(isbn).readLock().unlock();
-
-		listLock.readLock().unlock();
-		return ret;
 	}
 
 	/*
@@ -229,37 +192,19 @@ public class TwoLevelLockingConcurrentCertainBookStore implements BookStore, Sto
 		if (editorPicks == null) {
 			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
 		}
-		listLock.readLock().lock();
-		int isbnValue;
-		List<Integer> lock_list = new ArrayList<>(); //list of needed locks
-
-		for (BookEditorPick editorPickArg : editorPicks) {
-			isbnValue = editorPickArg.getISBN();
-			try {
-
-				if (itemLocksMap.containsKey(isbnValue)) {
-					itemLocksMap.get(isbnValue).writeLock().lock();
-					lock_list.add(isbnValue);
-					validate(editorPickArg);
-				} else {
-					throw new BookStoreException(BookStoreConstants.ISBN + isbnValue + BookStoreConstants.INVALID);
-				}
-			} catch (BookStoreException e) {
-				//release if fail
-				for (int isbn : lock_list)
-					itemLocksMap.get(isbn).writeLock().unlock();
-				listLock.readLock().unlock();
-				throw e;
+		try (LockTransaction txn = LockTransaction.onItems(listLock, itemLocks)) {
+			List<Integer> isbns = new ArrayList<>(); //list of needed locks
+
+			for (BookEditorPick editorPickArg : editorPicks) {
+				validate(editorPickArg);
+				isbns.add(editorPickArg.getISBN());
 			}
-		}
 
-		for (BookEditorPick editorPickArg : editorPicks) {
-			isbnValue = editorPickArg.getISBN();
-			bookMap.get(editorPickArg.getISBN()).setEditorPick(editorPickArg.isEditorPick());
-			//release the lock immediately
-			itemLocksMap.get(isbnValue).writeLock().unlock();
+			txn.lockItems(isbns, true);
+			for (BookEditorPick editorPickArg : editorPicks) {
+				bookMap.get(editorPickArg.getISBN()).setEditorPick(editorPickArg.isEditorPick());
+			}
 		}
-		listLock.readLock().unlock();
 	}
 
 	/*
@@ -273,69 +218,46 @@ public class TwoLevelLockingConcurrentCertainBookStore implements BookStore, Sto
 		}
 
 		// Check that all ISBNs that we buy are there first.
-		int isbn = -1;
-		boolean flag = false;
+		int isbn;
 		BookStoreBook book;
 		Boolean saleMiss = false;
 
 		Map<Integer, Integer> salesMisses = new HashMap<>();
-		listLock.readLock().lock();
-		List<Integer> lock_list = new ArrayList<>();
-		for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
-
-			isbn = bookCopyToBuy.getISBN();
-			try {
-
-				if (itemLocksMap.containsKey(isbn)) {
-					//acquire the lock on items
-					itemLocksMap.get(isbn).writeLock().lock();
-					lock_list.add(isbn);
-					validate(bookCopyToBuy);
-					book = bookMap.get(isbn);
-
-					if (!book.areCopiesInStore(bookCopyToBuy.getNumCopies())) {
-						// If we cannot sell the copies of the book, it is a miss.
-						salesMisses.put(isbn, bookCopyToBuy.getNumCopies() - book.getNumCopies());
-						saleMiss = true;
-					}
-				} else {
-					throw new BookStoreException(BookStoreConstants.ISBN + isbn + BookStoreConstants.INVALID);
+		try (LockTransaction txn = LockTransaction.onItems(listLock, itemLocks)) {
+			List<Integer> isbns = new ArrayList<>();
+			for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
+				validate(bookCopyToBuy);
+				isbns.add(bookCopyToBuy.getISBN());
+			}
+
+			//acquire the locks of all items in sorted order
+			txn.lockItems(isbns, true);
+			for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
+				isbn = bookCopyToBuy.getISBN();
+				book = bookMap.get(isbn);
+
+				if (!book.areCopiesInStore(bookCopyToBuy.getNumCopies())) {
+					// If we cannot sell the copies of the book, it is a miss.
+					salesMisses.put(isbn, bookCopyToBuy.getNumCopies() - book.getNumCopies());
+					saleMiss = true;
 				}
-			} catch (BookStoreException e) {
-				//release if fail
-				for (int i : lock_list)
-					itemLocksMap.get(i).writeLock().unlock();
-				listLock.readLock().unlock();
-				throw e;
 			}
-		}
-		// We throw exception now since we want to see how many books in the
-		// order incurred misses which is used by books in demand
-		if (saleMiss) {
-			for (Map.Entry<Integer, Integer> saleMissEntry : salesMisses.entrySet()) {
-				isbn = saleMissEntry.getKey();
-				book = bookMap.get(saleMissEntry.getKey());
-				book.addSaleMiss(saleMissEntry.getValue());
-				lock_list.remove(Integer.valueOf(isbn));
-				//release on missed item
-				itemLocksMap.get(isbn).writeLock().unlock();
+			// We throw exception now since we want to see how many books in the
+			// order incurred misses which is used by books in demand
+			if (saleMiss) {
+				for (Map.Entry<Integer, Integer> saleMissEntry : salesMisses.entrySet()) {
+					book = bookMap.get(saleMissEntry.getKey());
+					book.addSaleMiss(saleMissEntry.getValue());
+				}
+				throw new BookStoreException(BookStoreConstants.BOOK + BookStoreConstants.NOT_AVAILABLE);
 			}
-			//release other if has a miss sale
-			for (int i : lock_list)
-				itemLocksMap.get(i).writeLock().unlock();
-			listLock.readLock().unlock();
-			throw new BookStoreException(BookStoreConstants.BOOK + BookStoreConstants.NOT_AVAILABLE);
-		}
 
-		// Then make the purchase.
-		for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
-			isbn = bookCopyToBuy.getISBN();
-			book = bookMap.get(bookCopyToBuy.getISBN());
-			book.buyCopies(bookCopyToBuy.getNumCopies());
-			//release the lock on item as soon as it is done
-			itemLocksMap.get(isbn).writeLock().unlock();
+			// Then make the purchase.
+			for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
+				book = bookMap.get(bookCopyToBuy.getISBN());
+				book.buyCopies(bookCopyToBuy.getNumCopies());
+			}
 		}
-		listLock.readLock().unlock();
 	}
 
 	/*
@@ -349,35 +271,18 @@ public class TwoLevelLockingConcurrentCertainBookStore implements BookStore, Sto
 		if (isbnSet == null) {
 			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
 		}
-		listLock.readLock().lock();
-		List<Integer> lock_list = new ArrayList<>();
-		for (Integer ISBN : isbnSet) {
-			try {
-				if (itemLocksMap.containsKey(ISBN)) {
-					itemLocksMap.get(ISBN).readLock().lock();
-					lock_list.add(ISBN);
-					validateISBNInStock(ISBN);
-				} else {
-					throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.INVALID);
-				}
-			} catch (BookStoreException e) {
-				//releas if fail
-				for (int i : lock_list)
-					itemLocksMap.get(i).readLock().unlock();
-				listLock.readLock().unlock();
-				throw e;
+		try (LockTransaction txn = LockTransaction.onItems(listLock, itemLocks)) {
+			for (Integer ISBN : isbnSet) {
+				validateISBNInStock(ISBN);
 			}
-		}
 
-		List<StockBook> ret = new ArrayList<>();
-		for (int isbn : isbnSet) {
-			ret.add(bookMap.get(isbn).immutableStockBook());
-			//release as soon as possible
-			itemLocksMap.get(isbn).readLock().lock();
+			txn.lockItems(isbnSet, false);
+			List<StockBook> ret = new ArrayList<>();
+			for (int isbn : isbnSet) {
+				ret.add(bookMap.get(isbn).immutableStockBook());
+			}
+			return ret;
 		}
-
-		listLock.readLock().lock();
-		return ret;
 	}
 
 	/*
@@ -390,35 +295,19 @@ public class TwoLevelLockingConcurrentCertainBookStore implements BookStore, Sto
 			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
 		}
 
-		listLock.readLock().lock();
-		List<Integer> lock_list = new ArrayList<>();
-		for (Integer ISBN : isbnSet) {
-			try {
-				if (itemLocksMap.containsKey(ISBN)) {
-					itemLocksMap.get(ISBN).readLock().lock();
-					lock_list.add(ISBN);
-					validateISBNInStock(ISBN);
-				} else {
-					throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.INVALID);
-				}
-			} catch (BookStoreException e) {
-				//release if fail
-				for (int i : lock_list)
-					itemLocksMap.get(i).readLock().unlock();
-				listLock.readLock().unlock();
-				throw e;
+		try (LockTransaction txn = LockTransaction.onItems(listLock, itemLocks)) {
+			// Check that all ISBNs that we rate are there to start with.
+			for (Integer ISBN : isbnSet) {
+				validateISBNInStock(ISBN);
 			}
-		}
 
-		// Check that all ISBNs that we rate are there to start with.
-		List<Book> ret = new ArrayList<>();
-		for (int isbn : isbnSet) {
-			ret.add(bookMap.get(isbn).immutableBook());
-			//release as soon as possible
-			itemLocksMap.get(isbn).readLock().lock();
+			txn.lockItems(isbnSet, false);
+			List<Book> ret = new ArrayList<>();
+			for (int isbn : isbnSet) {
+				ret.add(bookMap.get(isbn).immutableBook());
+			}
+			return ret;
 		}
-		listLock.readLock().unlock();
-		return ret;
 	}
 
 	/*
@@ -431,50 +320,44 @@ public class TwoLevelLockingConcurrentCertainBookStore implements BookStore, Sto
 			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
 		}
 
-		listLock.readLock().lock();
-		List<BookStoreBook> listAllEditorPicks = new ArrayList<>();
+		try (LockTransaction txn = LockTransaction.onItems(listLock, itemLocks)) {
+			txn.lockAllItems(false);
+			List<BookStoreBook> listAllEditorPicks = new ArrayList<>();
 
-		for (int isbn : bookMap.keySet()) {
-			itemLocksMap.get(isbn).readLock().lock();
-			if(bookMap.get(isbn).isEditorPick())
-				listAllEditorPicks.add(bookMap.get(isbn));
-		}
+			for (BookStoreBook book : bookMap.values()) {
+				if(book.isEditorPick())
+					listAllEditorPicks.add(book);
+			}
 
-		// Find numBooks random indices of books that will be picked.
-		Random rand = new Random();
-		Set<Integer> tobePicked = new HashSet<>();
-		int rangePicks = listAllEditorPicks.size();
+			// Find numBooks random indices of books that will be picked.
+			Random rand = new Random();
+			Set<Integer> tobePicked = new HashSet<>();
+			int rangePicks = listAllEditorPicks.size();
 
-		if (rangePicks <= numBooks) {
+			if (rangePicks <= numBooks) {
 
-			// We need to add all books.
-			for (int i = 0; i < listAllEditorPicks.size(); i++) {
-				tobePicked.add(i);
-			}
-		} else {
+				// We need to add all books.
+				for (int i = 0; i < listAllEditorPicks.size(); i++) {
+					tobePicked.add(i);
+				}
+			} else {
 
-			// We need to pick randomly the books that need to be returned.
-			int randNum;
+				// We need to pick randomly the books that need to be returned.
+				int randNum;
 
-			while (tobePicked.size() < numBooks) {
-				randNum = rand.nextInt(rangePicks);
-				tobePicked.add(randNum);
+				while (tobePicked.size() < numBooks) {
+					randNum = rand.nextInt(rangePicks);
+					tobePicked.add(randNum);
+				}
 			}
-		}
 
-		// Return all the books by the randomly chosen indices.
+			// Return all the books by the randomly chosen indices.
 
-		List<Book> ret =  tobePicked.stream()
-				.map(index -> listAllEditorPicks.get(index).immutableBook())
-				.collect(Collectors.toList());
-
-		for (int isbn : bookMap.keySet()) {
-			//release the lock after finish reading
-			itemLocksMap.get(isbn).readLock().unlock();
+			List<Book> ret =  tobePicked.stream()
+					.map(index -> listAllEditorPicks.get(index).immutableBook())
+					.collect(Collectors.toList());
+			return ret;
 		}
-
-		listLock.readLock().unlock();
-		return ret;
 	}
 
 	/*
@@ -514,10 +397,13 @@ public class TwoLevelLockingConcurrentCertainBookStore implements BookStore, Sto
 	 */
 	public void removeAllBooks() throws BookStoreException {
 		//lock the whole database
-		listLock.writeLock().lock();
-		bookMap.clear();
-		itemLocksMap.clear();
-		listLock.writeLock().unlock();
+		LockTransaction txn = LockTransaction.onList(listLock, itemLocks);
+
+		try {
+			bookMap.clear();
+		} finally {
+			txn.close();
+		}
 	}
 
 	/*
@@ -532,20 +418,18 @@ public class TwoLevelLockingConcurrentCertainBookStore implements BookStore, Sto
 		}
 
 		//lock the whole database for deletion
-		listLock.writeLock().lock();
-		for (Integer ISBN : isbnSet) {
-			if (BookStoreUtility.isInvalidISBN(ISBN)) {
-				throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.INVALID);
-			}
+		LockTransaction txn = LockTransaction.onList(listLock, itemLocks);
 
-			if (!bookMap.containsKey(ISBN)) {
-				throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.NOT_AVAILABLE);
+		try {
+			for (Integer ISBN : isbnSet) {
+				validateISBNInStock(ISBN);
 			}
-		}
 
-		for (int isbn : isbnSet) {
-			bookMap.remove(isbn);
+			for (int isbn : isbnSet) {
+				bookMap.remove(isbn);
+			}
+		} finally {
+			txn.close();
 		}
-		listLock.writeLock().unlock();
 	}
 }
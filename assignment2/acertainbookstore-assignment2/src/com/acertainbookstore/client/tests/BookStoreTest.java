@@ -14,6 +14,7 @@ import org.junit.Test;
 
 import com.acertainbookstore.business.Book;
 import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.business.LockFreeConcurrentCertainBookStore;
 import com.acertainbookstore.business.SingleLockConcurrentCertainBookStore;
 import com.acertainbookstore.business.ImmutableStockBook;
 import com.acertainbookstore.business.StockBook;
@@ -44,6 +45,9 @@ public class BookStoreTest {
 	/** Single lock test */
 	private static boolean singleLock = true;
 
+	/** Lock-free test */
+	private static boolean lockFree = false;
+
 	
 	/** The store manager. */
 	private static StockManager storeManager;
@@ -63,8 +67,15 @@ public class BookStoreTest {
 			String singleLockProperty = System.getProperty(BookStoreConstants.PROPERTY_KEY_SINGLE_LOCK);
 			singleLock = (singleLockProperty != null) ? Boolean.parseBoolean(singleLockProperty) : singleLock;
 
+			String lockFreeProperty = System.getProperty(BookStoreConstants.PROPERTY_KEY_LOCK_FREE);
+			lockFree = (lockFreeProperty != null) ? Boolean.parseBoolean(lockFreeProperty) : lockFree;
+
 			if (localTest) {
-				if (singleLock) {
+				if (lockFree) {
+					LockFreeConcurrentCertainBookStore store = new LockFreeConcurrentCertainBookStore();
+					storeManager = store;
+					client = store;
+				} else if (singleLock) {
 					SingleLockConcurrentCertainBookStore store = new SingleLockConcurrentCertainBookStore();
 					storeManager = store;
 					client = store;
@@ -2,9 +2,14 @@ package com.acertainbookstore.client.tests;
 
 import static org.junit.Assert.*;
 
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
 import com.acertainbookstore.business.*;
@@ -40,6 +45,9 @@ public class CustomTest {
     /** Single lock test */
     private static boolean singleLock = false;
 
+    /** Lock-free test */
+    private static boolean lockFree = false;
+
 
     /** The store manager. */
     private static StockManager storeManager;
@@ -59,8 +67,15 @@ public class CustomTest {
             String singleLockProperty = System.getProperty(BookStoreConstants.PROPERTY_KEY_SINGLE_LOCK);
             singleLock = (singleLockProperty != null) ? Boolean.parseBoolean(singleLockProperty) : singleLock;
 
+            String lockFreeProperty = System.getProperty(BookStoreConstants.PROPERTY_KEY_LOCK_FREE);
+            lockFree = (lockFreeProperty != null) ? Boolean.parseBoolean(lockFreeProperty) : lockFree;
+
             if (localTest) {
-                if (singleLock) {
+                if (lockFree) {
+                    LockFreeConcurrentCertainBookStore store = new LockFreeConcurrentCertainBookStore();
+                    storeManager = store;
+                    client = store;
+                } else if (singleLock) {
                     SingleLockConcurrentCertainBookStore store = new SingleLockConcurrentCertainBookStore();
                     storeManager = store;
                     client = store;
@@ -495,6 +510,162 @@ public class CustomTest {
         assertTrue(valid);
     }
 
+    //test 3: purchases that fail on one book must not make others fail or miss
+    //the books they did not lack
+    @Test(timeout = 10000)
+    public void testConcurrentBuyNoFalseSaleMisses() throws BookStoreException, InterruptedException {
+        final int buyers = 4;
+        final int rounds = 60;
+        final int plentiful = TEST_ISBN + 1;
+        final int scarce = TEST_ISBN + 2;
+
+        // Each single buyer gives its copy back before buying the next one, so
+        // there is always a copy of the plentiful book left for it, and only
+        // the scarce book can ever be missing.
+        addBooks(plentiful, buyers);
+        addBooks(scarce, 1);
+
+        Set<BookCopy> singleToBuy = new HashSet<BookCopy>();
+        singleToBuy.add(new BookCopy(plentiful, 1));
+        // The plentiful book comes first, so that a store buying in the order
+        // given holds its copy while it finds out the scarce book is missing.
+        Set<BookCopy> pairToBuy = new LinkedHashSet<BookCopy>();
+        pairToBuy.add(new BookCopy(plentiful, 1));
+        pairToBuy.add(new BookCopy(scarce, 2));
+
+        AtomicInteger failedSingles = new AtomicInteger();
+        AtomicInteger boughtPairs = new AtomicInteger();
+
+        class BuySingle implements Runnable {
+            public void run() {
+                for (int i = 0; i < rounds; ++i) {
+                    try {
+                        client.buyBooks(singleToBuy);
+                        storeManager.addCopies(singleToBuy);
+                    } catch (BookStoreException e) {
+                        failedSingles.incrementAndGet();
+                    }
+                }
+            }
+        }
+
+        class BuyPair implements Runnable {
+            public void run() {
+                for (int i = 0; i < rounds; ++i) {
+                    try {
+                        client.buyBooks(pairToBuy);
+                        boughtPairs.incrementAndGet();
+                    } catch (BookStoreException e) {
+                        ;
+                    }
+                }
+            }
+        }
+
+        List<Thread> threads = new ArrayList<>();
+
+        for (int i = 0; i < buyers; ++i) {
+            threads.add(new Thread(new BuySingle()));
+            threads.add(new Thread(new BuyPair()));
+        }
+
+        for (Thread thread : threads) {
+            thread.start();
+        }
+
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(0, failedSingles.get());
+        assertEquals(0, boughtPairs.get());
+
+        Set<Integer> isbns = new HashSet<>();
+        isbns.add(plentiful);
+        isbns.add(scarce);
+        Map<Integer, StockBook> books = storeManager.getBooksByISBN(isbns).stream()
+                .collect(Collectors.toMap(StockBook::getISBN, book -> book));
+
+        assertEquals(buyers, books.get(plentiful).getNumCopies());
+        assertEquals(1, books.get(scarce).getNumCopies());
+        assertEquals(buyers * rounds, books.get(scarce).getNumSaleMisses());
+    }
+
+    //test 4: multi-book purchases that reserve against each other and give
+    //their reservations back must not make others miss copies still in stock,
+    //and every round must sell something without any buyer waiting for another
+    @Test(timeout = 10000)
+    public void testConcurrentReservationsNoFalseSaleMisses() throws BookStoreException, InterruptedException {
+        final int buyers = 4;
+        final int rounds = 60;
+
+        for (int round = 0; round < rounds; ++round) {
+            final int first = TEST_ISBN + 1 + 2 * round;
+            final int second = first + 1;
+
+            // Each purchase takes one copy of both books, and there is one more
+            // copy of the first book than of the second, so only the second
+            // book can ever run out. Purchases racing for the last copies of
+            // the second book reserve the first book and then give it back.
+            addBooks(first, buyers + 1);
+            addBooks(second, buyers);
+
+            Set<BookCopy> pairToBuy = new HashSet<BookCopy>();
+            pairToBuy.add(new BookCopy(first, 1));
+            pairToBuy.add(new BookCopy(second, 1));
+
+            AtomicInteger boughtPairs = new AtomicInteger();
+            CountDownLatch start = new CountDownLatch(1);
+
+            class BuyPair implements Runnable {
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+
+                    for (int i = 0; i < 2; ++i) {
+                        try {
+                            client.buyBooks(pairToBuy);
+                            boughtPairs.incrementAndGet();
+                        } catch (BookStoreException e) {
+                            ;
+                        }
+                    }
+                }
+            }
+
+            List<Thread> threads = new ArrayList<>();
+
+            for (int i = 0; i < buyers; ++i) {
+                threads.add(new Thread(new BuyPair()));
+            }
+
+            for (Thread thread : threads) {
+                thread.start();
+            }
+
+            start.countDown();
+
+            for (Thread thread : threads) {
+                thread.join();
+            }
+
+            Set<Integer> isbns = new HashSet<>();
+            isbns.add(first);
+            isbns.add(second);
+            Map<Integer, StockBook> books = storeManager.getBooksByISBN(isbns).stream()
+                    .collect(Collectors.toMap(StockBook::getISBN, book -> book));
+
+            // A buyer may fail on copies others hold, but never misses them.
+            assertTrue(boughtPairs.get() > 0);
+            assertEquals(buyers - boughtPairs.get(), books.get(second).getNumCopies());
+            assertEquals(books.get(second).getNumCopies() + 1, books.get(first).getNumCopies());
+            assertEquals(0, books.get(first).getNumSaleMisses());
+        }
+    }
+
     /**
      * Tear down after class.
      *
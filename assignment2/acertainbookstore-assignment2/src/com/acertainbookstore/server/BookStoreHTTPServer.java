@@ -1,5 +1,6 @@
 package com.acertainbookstore.server;
 
+import com.acertainbookstore.business.LockFreeConcurrentCertainBookStore;
 import com.acertainbookstore.business.SingleLockConcurrentCertainBookStore;
 import com.acertainbookstore.business.TwoLevelLockingConcurrentCertainBookStore;
 
@@ -22,6 +23,11 @@ public class BookStoreHTTPServer {
 	 *  false - two-level locking */
 	private static final boolean SINGLE_LOCK = true;
 
+	/** The constant, defining whether to use the lock-free implementation
+	 *  instead of the locking schemes above; overridden by the lockfree
+	 *  property */
+	private static final boolean LOCK_FREE = false;
+
 	/**
 	 * Prevents the instantiation of a new {@link BookStoreHTTPServer}.
 	 */
@@ -39,8 +45,14 @@ public class BookStoreHTTPServer {
 		int listenOnPort = DEFAULT_PORT;
 		
 		BookStoreHTTPMessageHandler handler = null;
+
+		String lockFreeString = System.getProperty(BookStoreConstants.PROPERTY_KEY_LOCK_FREE);
+		boolean lockFree = (lockFreeString != null) ? Boolean.parseBoolean(lockFreeString) : LOCK_FREE;
 		
-		if (SINGLE_LOCK) {
+		if (lockFree) {
+			LockFreeConcurrentCertainBookStore bookStore = new LockFreeConcurrentCertainBookStore();
+			handler = new BookStoreHTTPMessageHandler(bookStore, bookStore);
+		} else if (SINGLE_LOCK) {
 			SingleLockConcurrentCertainBookStore bookStore = new SingleLockConcurrentCertainBookStore();
 			/* we pass bookStore to BookStoreHTTPMessageHandler constructor twice, 
 			 * since it implements both interfaces: BookStore and StockManager */
@@ -281,12 +281,19 @@ public class BookStoreBook extends ImmutableBook {
 	}
 
 	/**
-	 * Returns a {@link BookStoreBook} copy of the book.
+	 * Returns a {@link BookStoreBook} copy of the book, including its stock,
+	 * ratings, sale misses and editor pick. The title and author strings are
+	 * immutable and therefore shared with the copy.
 	 *
 	 * @return the book store book
 	 */
 	public BookStoreBook copy() {
-		return new BookStoreBook(this.getISBN(), new String(this.getTitle()), new String(this.getAuthor()),
-				this.getPrice(), this.numCopies);
+		BookStoreBook book = new BookStoreBook(this.getISBN(), this.getTitle(), this.getAuthor(), this.getPrice(),
+				this.numCopies);
+		book.setNumSaleMisses(this.numSaleMisses);
+		book.setNumTimesRated(this.numTimesRated);
+		book.setTotalRating(this.totalRating);
+		book.setEditorPick(this.editorPick);
+		return book;
 	}
 }
@@ -0,0 +1,101 @@
+package com.acertainbookstore.business;
+
+/**
+ * {@link BookVersion} is one committed version of a book in the
+ * {@link MultiVersionCertainBookStore}. Versions form a chain from the newest
+ * to the oldest; the {@link BookStoreBook} of a version is never modified
+ * after it has been published.
+ */
+final class BookVersion {
+
+	/** The ISBN of the book. */
+	private final int isbn;
+
+	/** The state of the book, or null if this version removes the book. */
+	private final BookStoreBook book;
+
+	/** The timestamp of the commit that created the version. */
+	private final long commitTimestamp;
+
+	/** The next older version, dropped once no snapshot can reach it. */
+	private volatile BookVersion older;
+
+	/**
+	 * Instantiates a new {@link BookVersion}.
+	 *
+	 * @param isbn
+	 *            the ISBN of the book
+	 * @param book
+	 *            the state of the book, or null for a removal
+	 * @param commitTimestamp
+	 *            the commit timestamp
+	 * @param older
+	 *            the next older version
+	 */
+	BookVersion(int isbn, BookStoreBook book, long commitTimestamp, BookVersion older) {
+		this.isbn = isbn;
+		this.book = book;
+		this.commitTimestamp = commitTimestamp;
+		this.older = older;
+	}
+
+	/**
+	 * Gets the ISBN of the book.
+	 *
+	 * @return the ISBN
+	 */
+	int getISBN() {
+		return isbn;
+	}
+
+	/**
+	 * Gets the state of the book.
+	 *
+	 * @return the book, or null if this version removes the book
+	 */
+	BookStoreBook getBook() {
+		return book;
+	}
+
+	/**
+	 * Gets the commit timestamp.
+	 *
+	 * @return the commit timestamp
+	 */
+	long getCommitTimestamp() {
+		return commitTimestamp;
+	}
+
+	/**
+	 * Checks if this version removes the book.
+	 *
+	 * @return true, if the book was removed
+	 */
+	boolean isRemoval() {
+		return book == null;
+	}
+
+	/**
+	 * Gets the newest version in the chain visible to a snapshot.
+	 *
+	 * @param snapshot
+	 *            the snapshot timestamp
+	 * @return the visible version, or null if the book did not exist yet
+	 */
+	BookVersion visibleAt(long snapshot) {
+		BookVersion version = this;
+
+		while (version != null && version.commitTimestamp > snapshot) {
+			version = version.older;
+		}
+
+		return version;
+	}
+
+	/**
+	 * Drops the versions older than this one.
+	 */
+	void dropOlder() {
+		older = null;
+	}
+}
@@ -0,0 +1,684 @@
+package com.acertainbookstore.business;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Collectors;
+
+import com.acertainbookstore.interfaces.BookStore;
+import com.acertainbookstore.interfaces.StockManager;
+import com.acertainbookstore.utils.BookStoreConstants;
+import com.acertainbookstore.utils.BookStoreException;
+import com.acertainbookstore.utils.BookStoreUtility;
+
+/**
+ * {@link MultiVersionCertainBookStore} implements the {@link BookStore} and
+ * {@link StockManager} functionalities with multi-version concurrency control.
+ *
+ * Writers are serialized by {@link #writeLock}. Each write copies the books
+ * it changes and publishes the copies as new {@link BookVersion}s carrying the
+ * commit timestamp. Readers register the last commit timestamp as their
+ * snapshot without taking a lock, and read the newest version of every book
+ * that is not newer than the snapshot. Versions that no open snapshot can see
+ * are dropped by the next writer.
+ *
+ * @see BookStore
+ * @see StockManager
+ */
+public class MultiVersionCertainBookStore implements BookStore, StockManager {
+
+	/** The order of the top rated books: best average rating first, then by ISBN. */
+	private static final Comparator<BookStoreBook> TOP_RATED_ORDER = (book1, book2) -> {
+		int byRating = Float.compare(book2.getAverageRating(), book1.getAverageRating());
+		return (byRating != 0) ? byRating : Integer.compare(book1.getISBN(), book2.getISBN());
+	};
+
+	/** The mapping of books from ISBN to their newest {@link BookVersion}. */
+	private final Map<Integer, BookVersion> versionMap = new ConcurrentHashMap<>();
+
+	/** The lock serializing the writers; readers never take it. */
+	private final ReentrantLock writeLock = new ReentrantLock();
+
+	/** The timestamp of the last commit, which new snapshots read from. */
+	private volatile long lastCommitTimestamp = 0;
+
+	/** The snapshots open by readers, with the number of readers of each. */
+	private final ConcurrentSkipListMap<Long, Integer> openSnapshots = new ConcurrentSkipListMap<>();
+
+	/** The versions committed but not yet garbage-collected, oldest first. */
+	private final Deque<BookVersion> uncollectedVersions = new ArrayDeque<>();
+
+	/**
+	 * Instantiates a new {@link MultiVersionCertainBookStore}.
+	 */
+	public MultiVersionCertainBookStore() {
+		// Nothing to initialize beyond the fields.
+	}
+
+	/**
+	 * Opens a snapshot at the last commit timestamp. The snapshot is
+	 * registered before it is used; if a commit slipped in between reading the
+	 * timestamp and registering it, the garbage collector may not have seen
+	 * the snapshot, so we retry with the newer timestamp.
+	 *
+	 * @return the snapshot timestamp
+	 */
+	private long openSnapshot() {
+		while (true) {
+			long snapshot = lastCommitTimestamp;
+			openSnapshots.merge(snapshot, 1, Integer::sum);
+
+			if (lastCommitTimestamp == snapshot) {
+				return snapshot;
+			}
+
+			closeSnapshot(snapshot);
+		}
+	}
+
+	/**
+	 * Closes a snapshot opened by {@link #openSnapshot()}.
+	 *
+	 * @param snapshot
+	 *            the snapshot timestamp
+	 */
+	private void closeSnapshot(long snapshot) {
+		openSnapshots.computeIfPresent(snapshot, (key, readers) -> (readers == 1) ? null : readers - 1);
+	}
+
+	/**
+	 * Gets the book as seen by a snapshot.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 * @param snapshot
+	 *            the snapshot timestamp
+	 * @return the book, or null if it is not in the store at the snapshot
+	 */
+	private BookStoreBook getVisibleBook(Integer isbn, long snapshot) {
+		BookVersion head = versionMap.get(isbn);
+		return (head == null) ? null : getVisibleBook(head, snapshot);
+	}
+
+	private BookStoreBook getVisibleBook(BookVersion head, long snapshot) {
+		BookVersion version = head.visibleAt(snapshot);
+		return (version == null) ? null : version.getBook();
+	}
+
+	/**
+	 * Gets the latest committed state of a book; only used by writers, while
+	 * holding the write lock.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 * @return the book, or null if it is not in the store
+	 */
+	private BookStoreBook getCurrentBook(Integer isbn) {
+		BookVersion head = versionMap.get(isbn);
+		return (head == null) ? null : head.getBook();
+	}
+
+	/**
+	 * Gets the copy of a book that a writer modifies before committing it.
+	 *
+	 * @param pendingVersions
+	 *            the books changed by the write so far
+	 * @param isbn
+	 *            the ISBN
+	 * @return the writable copy
+	 */
+	private BookStoreBook getWritableBook(Map<Integer, BookStoreBook> pendingVersions, int isbn) {
+		return pendingVersions.computeIfAbsent(isbn, key -> getCurrentBook(key).copy());
+	}
+
+	/**
+	 * Publishes the books changed by a write as new versions with the next
+	 * commit timestamp. The versions are linked in before the timestamp is
+	 * published, so snapshots older than the commit skip them. Must be called
+	 * while holding the write lock.
+	 *
+	 * @param pendingVersions
+	 *            the new state of each changed book, null for a removal
+	 */
+	private void commit(Map<Integer, BookStoreBook> pendingVersions) {
+		long commitTimestamp = lastCommitTimestamp + 1;
+
+		for (Map.Entry<Integer, BookStoreBook> pendingVersion : pendingVersions.entrySet()) {
+			Integer isbn = pendingVersion.getKey();
+			BookVersion version = new BookVersion(isbn, pendingVersion.getValue(), commitTimestamp,
+					versionMap.get(isbn));
+			versionMap.put(isbn, version);
+			uncollectedVersions.addLast(version);
+		}
+
+		lastCommitTimestamp = commitTimestamp;
+		collectGarbage();
+	}
+
+	/**
+	 * Drops the versions that no open or future snapshot can see: for every
+	 * version committed up to the oldest open snapshot, everything older than
+	 * it. Removed books disappear from the map once their removal is visible
+	 * to every snapshot. Each version is collected once, in commit order, so a
+	 * long-running reader does not make every commit rescan the store. Must be
+	 * called while holding the write lock.
+	 */
+	private void collectGarbage() {
+		Map.Entry<Long, Integer> oldestSnapshot = openSnapshots.firstEntry();
+		long watermark = (oldestSnapshot == null) ? lastCommitTimestamp
+				: Math.min(oldestSnapshot.getKey(), lastCommitTimestamp);
+
+		while (!uncollectedVersions.isEmpty() && uncollectedVersions.peekFirst().getCommitTimestamp() <= watermark) {
+			BookVersion version = uncollectedVersions.pollFirst();
+			version.dropOlder();
+
+			if (version.isRemoval()) {
+				versionMap.remove(version.getISBN(), version);
+			}
+		}
+	}
+
+	private void validate(StockBook book) throws BookStoreException {
+		int isbn = book.getISBN();
+		String bookTitle = book.getTitle();
+		String bookAuthor = book.getAuthor();
+		int noCopies = book.getNumCopies();
+		float bookPrice = book.getPrice();
+
+		if (BookStoreUtility.isInvalidISBN(isbn)) { // Check if the book has valid ISBN
+			throw new BookStoreException(BookStoreConstants.ISBN + isbn + BookStoreConstants.INVALID);
+		}
+
+		if (BookStoreUtility.isEmpty(bookTitle)) { // Check if the book has valid title
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (BookStoreUtility.isEmpty(bookAuthor)) { // Check if the book has valid author
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (BookStoreUtility.isInvalidNoCopies(noCopies)) { // Check if the book has at least one copy
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (bookPrice < 0.0) { // Check if the price of the book is valid
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (getCurrentBook(isbn) != null) {// Check if the book is not in stock
+			throw new BookStoreException(BookStoreConstants.ISBN + isbn + BookStoreConstants.DUPLICATED);
+		}
+	}
+
+	private void validate(BookCopy bookCopy) throws BookStoreException {
+		int isbn = bookCopy.getISBN();
+		int numCopies = bookCopy.getNumCopies();
+
+		validateISBNInStock(isbn, getCurrentBook(isbn)); // Check if the book has valid ISBN and in stock
+
+		if (BookStoreUtility.isInvalidNoCopies(numCopies)) { // Check if the number of the book copy is larger than zero
+			throw new BookStoreException(BookStoreConstants.NUM_COPIES + numCopies + BookStoreConstants.INVALID);
+		}
+	}
+
+	private void validateISBNInStock(Integer ISBN, BookStoreBook book) throws BookStoreException {
+		if (BookStoreUtility.isInvalidISBN(ISBN)) { // Check if the book has valid ISBN
+			throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.INVALID);
+		}
+		if (book == null) {// Check if the book is in stock
+			throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.NOT_AVAILABLE);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#addBooks(java.util.Set)
+	 */
+	public void addBooks(Set<StockBook> bookSet) throws BookStoreException {
+		if (bookSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		writeLock.lock();
+
+		try {
+			// Check if all are there
+			for (StockBook book : bookSet) {
+				validate(book);
+			}
+
+			Map<Integer, BookStoreBook> pendingVersions = new LinkedHashMap<>();
+
+			for (StockBook book : bookSet) {
+				pendingVersions.put(book.getISBN(), new BookStoreBook(book));
+			}
+
+			commit(pendingVersions);
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#addCopies(java.util.Set)
+	 */
+	public void addCopies(Set<BookCopy> bookCopiesSet) throws BookStoreException {
+		if (bookCopiesSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		writeLock.lock();
+
+		try {
+			for (BookCopy bookCopy : bookCopiesSet) {
+				validate(bookCopy);
+			}
+
+			// Update the number of copies
+			Map<Integer, BookStoreBook> pendingVersions = new LinkedHashMap<>();
+
+			for (BookCopy bookCopy : bookCopiesSet) {
+				getWritableBook(pendingVersions, bookCopy.getISBN()).addCopies(bookCopy.getNumCopies());
+			}
+
+			commit(pendingVersions);
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#getBooks()
+	 */
+	public List<StockBook> getBooks() {
+		long snapshot = openSnapshot();
+
+		try {
+			List<StockBook> books = new ArrayList<>();
+
+			for (BookVersion head : versionMap.values()) {
+				BookStoreBook book = getVisibleBook(head, snapshot);
+
+				if (book != null) {
+					books.add(book.immutableStockBook());
+				}
+			}
+
+			return books;
+		} finally {
+			closeSnapshot(snapshot);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#updateEditorPicks(java.util
+	 * .Set)
+	 */
+	public void updateEditorPicks(Set<BookEditorPick> editorPicks) throws BookStoreException {
+
+		// Check that all ISBNs that we add/remove are there first.
+		if (editorPicks == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		writeLock.lock();
+
+		try {
+			for (BookEditorPick editorPickArg : editorPicks) {
+				int isbn = editorPickArg.getISBN();
+				validateISBNInStock(isbn, getCurrentBook(isbn));
+			}
+
+			Map<Integer, BookStoreBook> pendingVersions = new LinkedHashMap<>();
+
+			for (BookEditorPick editorPickArg : editorPicks) {
+				getWritableBook(pendingVersions, editorPickArg.getISBN()).setEditorPick(editorPickArg.isEditorPick());
+			}
+
+			commit(pendingVersions);
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#buyBooks(java.util.Set)
+	 */
+	public void buyBooks(Set<BookCopy> bookCopiesToBuy) throws BookStoreException {
+		if (bookCopiesToBuy == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		writeLock.lock();
+
+		try {
+			// Check that all ISBNs that we buy are there first.
+			int isbn;
+			BookStoreBook book;
+			Boolean saleMiss = false;
+
+			Map<Integer, Integer> salesMisses = new HashMap<>();
+
+			for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
+				isbn = bookCopyToBuy.getISBN();
+
+				validate(bookCopyToBuy);
+
+				book = getCurrentBook(isbn);
+
+				if (!book.areCopiesInStore(bookCopyToBuy.getNumCopies())) {
+					// If we cannot sell the copies of the book, it is a miss.
+					salesMisses.put(isbn, bookCopyToBuy.getNumCopies() - book.getNumCopies());
+					saleMiss = true;
+				}
+			}
+
+			Map<Integer, BookStoreBook> pendingVersions = new LinkedHashMap<>();
+
+			// We throw exception now since we want to see how many books in the
+			// order incurred misses which is used by books in demand
+			if (saleMiss) {
+				for (Map.Entry<Integer, Integer> saleMissEntry : salesMisses.entrySet()) {
+					getWritableBook(pendingVersions, saleMissEntry.getKey()).addSaleMiss(saleMissEntry.getValue());
+				}
+
+				commit(pendingVersions);
+				throw new BookStoreException(BookStoreConstants.BOOK + BookStoreConstants.NOT_AVAILABLE);
+			}
+
+			// Then make the purchase.
+			for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
+				getWritableBook(pendingVersions, bookCopyToBuy.getISBN()).buyCopies(bookCopyToBuy.getNumCopies());
+			}
+
+			commit(pendingVersions);
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#getBooksByISBN(java.util.
+	 * Set)
+	 */
+	public List<StockBook> getBooksByISBN(Set<Integer> isbnSet) throws BookStoreException {
+		if (isbnSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		long snapshot = openSnapshot();
+
+		try {
+			List<StockBook> books = new ArrayList<>(isbnSet.size());
+
+			for (Integer ISBN : isbnSet) {
+				BookStoreBook book = getVisibleBook(ISBN, snapshot);
+				validateISBNInStock(ISBN, book);
+				books.add(book.immutableStockBook());
+			}
+
+			return books;
+		} finally {
+			closeSnapshot(snapshot);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getBooks(java.util.Set)
+	 */
+	public List<Book> getBooks(Set<Integer> isbnSet) throws BookStoreException {
+		if (isbnSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		long snapshot = openSnapshot();
+
+		try {
+			List<Book> books = new ArrayList<>(isbnSet.size());
+
+			for (Integer ISBN : isbnSet) {
+				BookStoreBook book = getVisibleBook(ISBN, snapshot);
+				validateISBNInStock(ISBN, book);
+				books.add(book.immutableBook());
+			}
+
+			return books;
+		} finally {
+			closeSnapshot(snapshot);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getEditorPicks(int)
+	 */
+	public List<Book> getEditorPicks(int numBooks) throws BookStoreException {
+		if (numBooks < 0) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+		}
+
+		long snapshot = openSnapshot();
+		List<BookStoreBook> listAllEditorPicks = new ArrayList<>();
+
+		try {
+			// Query for all books with the Editor Pick boolean set.
+			for (BookVersion head : versionMap.values()) {
+				BookStoreBook book = getVisibleBook(head, snapshot);
+
+				if (book != null && book.isEditorPick()) {
+					listAllEditorPicks.add(book);
+				}
+			}
+		} finally {
+			closeSnapshot(snapshot);
+		}
+
+		// Find numBooks random indices of books that will be picked.
+		Random rand = new Random();
+		Set<Integer> tobePicked = new HashSet<>();
+		int rangePicks = listAllEditorPicks.size();
+
+		if (rangePicks <= numBooks) {
+
+			// We need to add all books.
+			for (int i = 0; i < listAllEditorPicks.size(); i++) {
+				tobePicked.add(i);
+			}
+		} else {
+
+			// We need to pick randomly the books that need to be returned.
+			int randNum;
+
+			while (tobePicked.size() < numBooks) {
+				randNum = rand.nextInt(rangePicks);
+				tobePicked.add(randNum);
+			}
+		}
+
+		// Return all the books by the randomly chosen indices. The versions
+		// picked are immutable, so the snapshot is no longer needed here.
+		return tobePicked.stream()
+				.map(index -> listAllEditorPicks.get(index).immutableBook())
+				.collect(Collectors.toList());
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getTopRatedBooks(int)
+	 */
+	@Override
+	public List<Book> getTopRatedBooks(int numBooks) throws BookStoreException {
+		if (numBooks < 1) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+		}
+
+		long snapshot = openSnapshot();
+		List<BookStoreBook> ratedBooks = new ArrayList<>();
+
+		try {
+			for (BookVersion head : versionMap.values()) {
+				BookStoreBook book = getVisibleBook(head, snapshot);
+
+				if (book != null) {
+					ratedBooks.add(book);
+				}
+			}
+		} finally {
+			closeSnapshot(snapshot);
+		}
+
+		// The versions read are immutable, so they are sorted outside the
+		// snapshot.
+		return ratedBooks.stream()
+				.sorted(TOP_RATED_ORDER)
+				.limit(numBooks)
+				.map(book -> book.immutableBook())
+				.collect(Collectors.toList());
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#getBooksInDemand()
+	 */
+	@Override
+	public List<StockBook> getBooksInDemand() throws BookStoreException {
+		long snapshot = openSnapshot();
+
+		try {
+			List<StockBook> books = new ArrayList<>();
+
+			for (BookVersion head : versionMap.values()) {
+				BookStoreBook book = getVisibleBook(head, snapshot);
+
+				if (book != null && book.hadSaleMiss()) {
+					books.add(book.immutableStockBook());
+				}
+			}
+
+			return books;
+		} finally {
+			closeSnapshot(snapshot);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#rateBooks(java.util.Set)
+	 */
+	@Override
+	public void rateBooks(Set<BookRating> bookRating) throws BookStoreException {
+		if (bookRating == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		writeLock.lock();
+
+		try {
+			// Check that all ISBNs that we rate are there first.
+			for (BookRating rating : bookRating) {
+				int isbn = rating.getISBN();
+				validateISBNInStock(isbn, getCurrentBook(isbn));
+
+				if (BookStoreUtility.isInvalidRating(rating.getRating())) {
+					throw new BookStoreException(BookStoreConstants.RATING + rating.getRating()
+							+ BookStoreConstants.INVALID);
+				}
+			}
+
+			Map<Integer, BookStoreBook> pendingVersions = new LinkedHashMap<>();
+
+			for (BookRating rating : bookRating) {
+				getWritableBook(pendingVersions, rating.getISBN()).addRating(rating.getRating());
+			}
+
+			commit(pendingVersions);
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#removeAllBooks()
+	 */
+	public void removeAllBooks() throws BookStoreException {
+		writeLock.lock();
+
+		try {
+			Map<Integer, BookStoreBook> pendingVersions = new LinkedHashMap<>();
+
+			for (Map.Entry<Integer, BookVersion> head : versionMap.entrySet()) {
+				if (!head.getValue().isRemoval()) {
+					pendingVersions.put(head.getKey(), null);
+				}
+			}
+
+			commit(pendingVersions);
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#removeBooks(java.util.Set)
+	 */
+	public void removeBooks(Set<Integer> isbnSet) throws BookStoreException {
+		if (isbnSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		writeLock.lock();
+
+		try {
+			for (Integer ISBN : isbnSet) {
+				validateISBNInStock(ISBN, getCurrentBook(ISBN));
+			}
+
+			Map<Integer, BookStoreBook> pendingVersions = new LinkedHashMap<>();
+
+			for (Integer ISBN : isbnSet) {
+				pendingVersions.put(ISBN, null);
+			}
+
+			commit(pendingVersions);
+		} finally {
+			writeLock.unlock();
+		}
+	}
+}
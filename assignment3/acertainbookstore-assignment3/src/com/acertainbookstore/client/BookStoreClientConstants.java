@@ -14,6 +14,19 @@ public final class BookStoreClientConstants {
 	/** The Constant CLIENT_MAX_THREADSPOOL_THREADS. */
 	public static final int CLIENT_MAX_THREADSPOOL_THREADS = 250;
 
+	/**
+	 * The Constant CLIENT_H2C_CONNECTIONS, the connections to every address
+	 * the HTTP/2 requests are spread over.
+	 */
+	public static final int CLIENT_H2C_CONNECTIONS = 4;
+
+	/**
+	 * The Constant CLIENT_H2C_MAX_STREAMS, the most HTTP/2 requests in flight
+	 * at once; it stays below what the connections may carry, so that the
+	 * server never refuses a stream.
+	 */
+	public static final int CLIENT_H2C_MAX_STREAMS = 512;
+
 	/** The Constant CLIENT_MAX_TIMEOUT_MILLISECS. */
 	public static final int CLIENT_MAX_TIMEOUT_MILLISECS = 30000;
 
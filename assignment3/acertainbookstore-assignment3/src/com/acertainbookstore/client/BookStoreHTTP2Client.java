@@ -0,0 +1,530 @@
+package com.acertainbookstore.client;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+
+import org.eclipse.jetty.http.HttpFields;
+import org.eclipse.jetty.http.HttpHeader;
+import org.eclipse.jetty.http.HttpMethod;
+import org.eclipse.jetty.http.HttpURI;
+import org.eclipse.jetty.http.HttpVersion;
+import org.eclipse.jetty.http.MetaData;
+import org.eclipse.jetty.http2.ErrorCode;
+import org.eclipse.jetty.http2.api.Session;
+import org.eclipse.jetty.http2.api.Stream;
+import org.eclipse.jetty.http2.client.HTTP2Client;
+import org.eclipse.jetty.http2.frames.DataFrame;
+import org.eclipse.jetty.http2.frames.GoAwayFrame;
+import org.eclipse.jetty.http2.frames.HeadersFrame;
+import org.eclipse.jetty.http2.frames.ResetFrame;
+import org.eclipse.jetty.util.Callback;
+import org.eclipse.jetty.util.Promise;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.eclipse.jetty.util.thread.Scheduler;
+
+/**
+ * {@link BookStoreHTTP2Client} sends the requests of a proxy over HTTP/2
+ * cleartext (h2c), to a server known to speak it. The requests to a server
+ * share {@link BookStoreClientConstants#CLIENT_H2C_CONNECTIONS} connections,
+ * each carrying many requests at once as streams, with their headers
+ * compressed, where HTTP/1.1 takes a connection per request in flight.
+ *
+ * At most {@link BookStoreClientConstants#CLIENT_H2C_MAX_STREAMS} requests
+ * are in flight at once; the others wait for one to complete, as the
+ * HTTP/1.1 client queues the requests waiting for a connection.
+ */
+public final class BookStoreHTTP2Client {
+
+	/** The name of the content coding used to compress bodies. */
+	private static final String GZIP = "gzip";
+
+	/** The client. */
+	private final HTTP2Client client = new HTTP2Client();
+
+	/** Whether compressed responses are asked for. */
+	private final boolean compression;
+
+	/** The connections to the servers, by address and slot. */
+	private final ConcurrentMap<String, CompletableFuture<Session>> sessions = new ConcurrentHashMap<>();
+
+	/** The slot of the connection carrying the next request. */
+	private final AtomicInteger nextSlot = new AtomicInteger();
+
+	/** The permits of the requests in flight. */
+	private final Semaphore streams = new Semaphore(BookStoreClientConstants.CLIENT_H2C_MAX_STREAMS);
+
+	/** The requests waiting for a permit. */
+	private final Queue<Exchange> waitingRequests = new ConcurrentLinkedQueue<>();
+
+	/**
+	 * Instantiates a new {@link BookStoreHTTP2Client}, not started yet.
+	 *
+	 * @param compression
+	 *            whether compressed responses are asked for
+	 */
+	public BookStoreHTTP2Client(boolean compression) {
+		this.compression = compression;
+		client.setExecutor(new QueuedThreadPool(BookStoreClientConstants.CLIENT_MAX_THREADSPOOL_THREADS));
+		client.setConnectTimeout(BookStoreClientConstants.CLIENT_MAX_TIMEOUT_MILLISECS);
+	}
+
+	/**
+	 * Starts the client.
+	 *
+	 * @throws Exception
+	 *             if the client could not be started
+	 */
+	public void start() throws Exception {
+		client.start();
+	}
+
+	/**
+	 * Closes the connections and stops the client.
+	 *
+	 * @throws Exception
+	 *             if the client could not be stopped
+	 */
+	public void stop() throws Exception {
+		for (CompletableFuture<Session> session : sessions.values()) {
+			session.thenAccept(connected -> connected.close(ErrorCode.NO_ERROR.code, null, Callback.NOOP));
+		}
+
+		sessions.clear();
+		client.stop();
+	}
+
+	/**
+	 * Gets the executor of the client, which runs its callbacks.
+	 *
+	 * @return the executor
+	 */
+	public Executor getExecutor() {
+		return client.getExecutor();
+	}
+
+	/**
+	 * Checks whether compressed responses are asked for.
+	 *
+	 * @return true if they are
+	 */
+	public boolean isCompression() {
+		return compression;
+	}
+
+	/**
+	 * Sends a request without waiting for its response. The request is given
+	 * up if no reply came within
+	 * {@link BookStoreClientConstants#CLIENT_MAX_TIMEOUT_MILLISECS}, counting
+	 * the wait for a stream, or as soon as the caller cancels the future
+	 * reply: it is taken off the queue if it is still waiting, and its stream
+	 * is reset otherwise.
+	 *
+	 * @param method
+	 *            the method
+	 * @param urlString
+	 *            the URL, with an http scheme
+	 * @param headers
+	 *            the headers of the request
+	 * @param content
+	 *            the body of the request, or null if it has none; it must not
+	 *            change until the future reply completes
+	 * @return the future reply, failing with a {@link TimeoutException} if the
+	 *         server did not reply in time
+	 */
+	public CompletableFuture<Reply> send(HttpMethod method, String urlString, HttpFields headers, ByteBuffer content) {
+		HttpURI uri = new HttpURI(urlString);
+		boolean hasContent = (content != null) && content.hasRemaining();
+
+		if (compression) {
+			headers.put(HttpHeader.ACCEPT_ENCODING, GZIP);
+		}
+
+		// As the HTTP/1.1 client does, so that the server may read the body at once
+		if (hasContent) {
+			headers.putLongField(HttpHeader.CONTENT_LENGTH, content.remaining());
+		}
+
+		MetaData.Request metaData = new MetaData.Request(method.asString(), uri, HttpVersion.HTTP_2, headers);
+		Exchange exchange = new Exchange(uri, metaData, hasContent ? content : null);
+		CompletableFuture<Reply> futureReply = exchange.futureReply;
+
+		waitingRequests.add(exchange);
+		sendWaitingRequests();
+
+		Scheduler.Task timeout = client.getScheduler().schedule(
+				() -> futureReply.completeExceptionally(new TimeoutException("No reply to " + urlString)),
+				BookStoreClientConstants.CLIENT_MAX_TIMEOUT_MILLISECS, TimeUnit.MILLISECONDS);
+		futureReply.whenComplete((reply, failure) -> {
+			timeout.cancel();
+			exchange.end();
+		});
+
+		return futureReply;
+	}
+
+	/**
+	 * Sends the requests waiting, as long as there are permits left.
+	 */
+	private void sendWaitingRequests() {
+		while (!waitingRequests.isEmpty() && streams.tryAcquire()) {
+			Exchange exchange = waitingRequests.poll();
+
+			if (exchange == null) {
+				streams.release();
+			} else {
+				exchange.start();
+			}
+		}
+	}
+
+	/**
+	 * {@link Exchange} is a request, from the time it is queued until its
+	 * reply completes.
+	 */
+	private final class Exchange {
+
+		/** The URI. */
+		private final HttpURI uri;
+
+		/** The method, URI and headers. */
+		private final MetaData.Request metaData;
+
+		/** The body, or null if it has none. */
+		private final ByteBuffer content;
+
+		/** The future reply. */
+		private final CompletableFuture<Reply> futureReply = new CompletableFuture<>();
+
+		/** The stream, once opened. */
+		private volatile Stream stream = null;
+
+		/**
+		 * Instantiates a new {@link Exchange}.
+		 */
+		Exchange(HttpURI uri, MetaData.Request metaData, ByteBuffer content) {
+			this.uri = uri;
+			this.metaData = metaData;
+			this.content = content;
+		}
+
+		/**
+		 * Opens the stream of the request, once it holds a permit.
+		 */
+		void start() {
+			getSession(uri.getHost(), uri.getPort()).whenComplete((session, failure) -> {
+				if (failure != null) {
+					futureReply.completeExceptionally(failure);
+					return;
+				}
+
+				if (futureReply.isDone()) {
+					return;
+				}
+
+				session.newStream(new HeadersFrame(metaData, null, content == null), new Promise<Stream>() {
+
+					@Override
+					public void succeeded(Stream openedStream) {
+						stream = openedStream;
+
+						// Given up while the stream was opening
+						if (futureReply.isDone()) {
+							reset(openedStream);
+							return;
+						}
+
+						if (content != null) {
+							openedStream.data(new DataFrame(openedStream.getId(), content, true), new Callback() {
+
+								@Override
+								public void failed(Throwable x) {
+									futureReply.completeExceptionally(x);
+								}
+							});
+						}
+					}
+
+					@Override
+					public void failed(Throwable x) {
+						futureReply.completeExceptionally(x);
+					}
+				}, new ReplyListener(futureReply));
+			});
+		}
+
+		/**
+		 * Gives back the permit of the request, or takes the request off the
+		 * queue if it never got one, and resets its stream if it is still
+		 * open.
+		 */
+		void end() {
+			if (waitingRequests.remove(this)) {
+				return;
+			}
+
+			Stream openedStream = stream;
+
+			if (openedStream != null && !openedStream.isClosed()) {
+				reset(openedStream);
+			}
+
+			streams.release();
+			sendWaitingRequests();
+		}
+
+		private void reset(Stream openedStream) {
+			openedStream.reset(new ResetFrame(openedStream.getId(), ErrorCode.CANCEL_STREAM_ERROR.code),
+					Callback.NOOP);
+		}
+	}
+
+	/**
+	 * Gets a connection to a server, spreading the requests over the
+	 * connections in turn, and opening the connections missing or closed.
+	 *
+	 * @param host
+	 *            the host of the server
+	 * @param port
+	 *            the port of the server
+	 * @return the future connection
+	 */
+	private CompletableFuture<Session> getSession(String host, int port) {
+		int slot = Math.floorMod(nextSlot.getAndIncrement(), BookStoreClientConstants.CLIENT_H2C_CONNECTIONS);
+		String key = host + ":" + port + "#" + slot;
+
+		CompletableFuture<Session> session = sessions.computeIfAbsent(key, unused -> connect(key, host, port));
+
+		if (session.isDone() && (session.isCompletedExceptionally() || session.join().isClosed())) {
+			sessions.remove(key, session);
+			session = sessions.computeIfAbsent(key, unused -> connect(key, host, port));
+		}
+
+		return session;
+	}
+
+	/**
+	 * Opens a connection to a server, which forgets itself once closed.
+	 */
+	private CompletableFuture<Session> connect(String key, String host, int port) {
+		CompletableFuture<Session> futureSession = new CompletableFuture<>();
+
+		client.connect(new InetSocketAddress(host, port), new Session.Listener.Adapter() {
+
+			@Override
+			public void onClose(Session session, GoAwayFrame frame) {
+				sessions.remove(key, futureSession);
+			}
+
+			@Override
+			public void onFailure(Session session, Throwable failure) {
+				sessions.remove(key, futureSession);
+			}
+		}, new Promise<Session>() {
+
+			@Override
+			public void succeeded(Session session) {
+				futureSession.complete(session);
+			}
+
+			@Override
+			public void failed(Throwable x) {
+				// Replaced by the next request, as it may fail within computeIfAbsent
+				futureSession.completeExceptionally(x);
+			}
+		});
+
+		return futureSession;
+	}
+
+	/**
+	 * {@link ReplyListener} gathers the response of a stream.
+	 */
+	private static final class ReplyListener extends Stream.Listener.Adapter {
+
+		/** The future reply. */
+		private final CompletableFuture<Reply> futureReply;
+
+		/** The body received so far. */
+		private final ByteArrayOutputStream content = new ByteArrayOutputStream();
+
+		/** The response, once its headers are received. */
+		private MetaData.Response response = null;
+
+		/**
+		 * Instantiates a new {@link ReplyListener}.
+		 *
+		 * @param futureReply
+		 *            the future reply
+		 */
+		ReplyListener(CompletableFuture<Reply> futureReply) {
+			this.futureReply = futureReply;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see org.eclipse.jetty.http2.api.Stream.Listener.Adapter#onHeaders(org.
+		 * eclipse.jetty.http2.api.Stream,
+		 * org.eclipse.jetty.http2.frames.HeadersFrame)
+		 */
+		@Override
+		public void onHeaders(Stream stream, HeadersFrame frame) {
+			if (frame.getMetaData() instanceof MetaData.Response) {
+				response = (MetaData.Response) frame.getMetaData();
+			}
+
+			if (frame.isEndStream()) {
+				complete();
+			}
+		}
+
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see org.eclipse.jetty.http2.api.Stream.Listener.Adapter#onData(org.
+		 * eclipse.jetty.http2.api.Stream, org.eclipse.jetty.http2.frames.DataFrame,
+		 * org.eclipse.jetty.util.Callback)
+		 */
+		@Override
+		public void onData(Stream stream, DataFrame frame, Callback callback) {
+			byte[] data = new byte[frame.remaining()];
+			frame.getData().get(data);
+			content.write(data, 0, data.length);
+
+			callback.succeeded();
+
+			if (frame.isEndStream()) {
+				complete();
+			}
+		}
+
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see org.eclipse.jetty.http2.api.Stream.Listener.Adapter#onReset(org.
+		 * eclipse.jetty.http2.api.Stream,
+		 * org.eclipse.jetty.http2.frames.ResetFrame)
+		 */
+		@Override
+		public void onReset(Stream stream, ResetFrame frame) {
+			futureReply.completeExceptionally(
+					new IOException("Stream reset with " + ErrorCode.from(frame.getError())));
+		}
+
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see org.eclipse.jetty.http2.api.Stream.Listener.Adapter#onIdleTimeout(
+		 * org.eclipse.jetty.http2.api.Stream, java.lang.Throwable)
+		 */
+		@Override
+		public boolean onIdleTimeout(Stream stream, Throwable x) {
+			futureReply.completeExceptionally(new TimeoutException(x.getMessage()));
+			return true;
+		}
+
+		/**
+		 * Completes the reply, uncompressing its body if needed.
+		 */
+		private void complete() {
+			if (response == null) {
+				futureReply.completeExceptionally(new IOException("Stream ended without a response"));
+				return;
+			}
+
+			byte[] body = content.toByteArray();
+
+			if (response.getFields().contains(HttpHeader.CONTENT_ENCODING, GZIP)) {
+				try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(body))) {
+					ByteArrayOutputStream uncompressedBody = new ByteArrayOutputStream(body.length * 4);
+					byte[] buffer = new byte[8192];
+					int read;
+
+					while ((read = in.read(buffer)) != -1) {
+						uncompressedBody.write(buffer, 0, read);
+					}
+
+					body = uncompressedBody.toByteArray();
+				} catch (IOException ex) {
+					futureReply.completeExceptionally(ex);
+					return;
+				}
+			}
+
+			futureReply.complete(new Reply(response.getStatus(), response.getFields(), body));
+		}
+	}
+
+	/**
+	 * {@link Reply} is the response of the server to a request.
+	 */
+	public static final class Reply {
+
+		/** The status. */
+		private final int status;
+
+		/** The headers. */
+		private final HttpFields headers;
+
+		/** The body, uncompressed. */
+		private final byte[] content;
+
+		/**
+		 * Instantiates a new {@link Reply}.
+		 *
+		 * @param status
+		 *            the status
+		 * @param headers
+		 *            the headers
+		 * @param content
+		 *            the body, uncompressed
+		 */
+		Reply(int status, HttpFields headers, byte[] content) {
+			this.status = status;
+			this.headers = headers;
+			this.content = content;
+		}
+
+		/**
+		 * Gets the status.
+		 *
+		 * @return the status
+		 */
+		public int getStatus() {
+			return status;
+		}
+
+		/**
+		 * Gets the headers.
+		 *
+		 * @return the headers
+		 */
+		public HttpFields getHeaders() {
+			return headers;
+		}
+
+		/**
+		 * Gets the body, uncompressed.
+		 *
+		 * @return the body
+		 */
+		public byte[] getContent() {
+			return content;
+		}
+	}
+}
@@ -37,6 +37,9 @@ public class BookStoreHTTPProxy implements BookStore {
 	/** The server address. */
 	protected String serverAddress;
 
+	/** The HTTP/2 client, or null if the calls go over HTTP/1.1. */
+	private BookStoreHTTP2Client http2Client = null;
+
 	/** The serializer. */
 	private static ThreadLocal<BookStoreSerializer> serializer;
 
@@ -70,6 +73,14 @@ public class BookStoreHTTPProxy implements BookStore {
 		client.setConnectTimeout(BookStoreClientConstants.CLIENT_MAX_TIMEOUT_MILLISECS);
 
 		client.start();
+
+		// The calls go over HTTP/2 cleartext if told so.
+		String h2cString = System.getProperty(BookStoreConstants.PROPERTY_KEY_H2C);
+
+		if (h2cString != null && Boolean.parseBoolean(h2cString)) {
+			http2Client = new BookStoreHTTP2Client(false);
+			http2Client.start();
+		}
 	}
 
 	/**
@@ -99,7 +110,7 @@ public class BookStoreHTTPProxy implements BookStore {
 	public void buyBooks(Set<BookCopy> isbnSet) throws BookStoreException {
 		String urlString = serverAddress + "/" + BookStoreMessageTag.BUYBOOKS;
 		BookStoreRequest bookStoreRequest = BookStoreRequest.newPostRequest(urlString, isbnSet);
-		BookStoreUtility.performHttpExchange(client, bookStoreRequest, serializer.get());
+		performHttpExchange(bookStoreRequest);
 	}
 
 	/*
@@ -111,8 +122,7 @@ public class BookStoreHTTPProxy implements BookStore {
 	public List<Book> getBooks(Set<Integer> isbnSet) throws BookStoreException {
 		String urlString = serverAddress + "/" + BookStoreMessageTag.GETBOOKS;
 		BookStoreRequest bookStoreRequest = BookStoreRequest.newPostRequest(urlString, isbnSet);
-		BookStoreResponse bookStoreResponse = BookStoreUtility.performHttpExchange(client, bookStoreRequest,
-				serializer.get());
+		BookStoreResponse bookStoreResponse = performHttpExchange(bookStoreRequest);
 		return (List<Book>) bookStoreResponse.getList();
 	}
 
@@ -131,8 +141,7 @@ public class BookStoreHTTPProxy implements BookStore {
 				+ BookStoreConstants.BOOK_NUM_PARAM + "=" + urlEncodedNumBooks;
 
 		BookStoreRequest bookStoreRequest = BookStoreRequest.newGetRequest(urlString);
-		BookStoreResponse bookStoreResponse = BookStoreUtility.performHttpExchange(client, bookStoreRequest,
-				serializer.get());
+		BookStoreResponse bookStoreResponse = performHttpExchange(bookStoreRequest);
 		return (List<Book>) bookStoreResponse.getList();
 	}
 
@@ -142,6 +151,10 @@ public class BookStoreHTTPProxy implements BookStore {
 	public void stop() {
 		try {
 			client.stop();
+
+			if (http2Client != null) {
+				http2Client.stop();
+			}
 		} catch (Exception ex) {
 			System.err.println(ex.getStackTrace());
 		}
@@ -166,4 +179,22 @@ public class BookStoreHTTPProxy implements BookStore {
 	public List<Book> getTopRatedBooks(int numBooks) throws BookStoreException {
 		throw new BookStoreException();
 	}
+
+	/**
+	 * Sends a message and waits for its response, over HTTP/2 if the proxy
+	 * speaks it.
+	 *
+	 * @param bookStoreRequest
+	 *            the request
+	 * @return the response
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	private BookStoreResponse performHttpExchange(BookStoreRequest bookStoreRequest) throws BookStoreException {
+		if (http2Client != null) {
+			return BookStoreUtility.performHttpExchange(http2Client, bookStoreRequest, serializer.get());
+		}
+
+		return BookStoreUtility.performHttpExchange(client, bookStoreRequest, serializer.get());
+	}
 }
@@ -14,7 +14,9 @@ import org.junit.Test;
 
 import com.acertainbookstore.business.Book;
 import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.business.BookRating;
 import com.acertainbookstore.business.CertainBookStore;
+import com.acertainbookstore.business.MultiVersionCertainBookStore;
 import com.acertainbookstore.business.ImmutableStockBook;
 import com.acertainbookstore.business.StockBook;
 import com.acertainbookstore.client.BookStoreHTTPProxy;
@@ -40,6 +42,9 @@ public class BookStoreTest {
 	/** The local test. */
 	private static boolean localTest = true;
 
+	/** Whether the local test runs against the multi-version store. */
+	private static boolean multiVersion = false;
+
 	/** The store manager. */
 	private static StockManager storeManager;
 
@@ -55,10 +60,19 @@ public class BookStoreTest {
 			String localTestProperty = System.getProperty(BookStoreConstants.PROPERTY_KEY_LOCAL_TEST);
 			localTest = (localTestProperty != null) ? Boolean.parseBoolean(localTestProperty) : localTest;
 
+			String multiVersionProperty = System.getProperty(BookStoreConstants.PROPERTY_KEY_MULTI_VERSION);
+			multiVersion = (multiVersionProperty != null) ? Boolean.parseBoolean(multiVersionProperty) : multiVersion;
+
 			if (localTest) {
-				CertainBookStore store = new CertainBookStore();
-				storeManager = store;
-				client = store;
+				if (multiVersion) {
+					MultiVersionCertainBookStore store = new MultiVersionCertainBookStore();
+					storeManager = store;
+					client = store;
+				} else {
+					CertainBookStore store = new CertainBookStore();
+					storeManager = store;
+					client = store;
+				}
 			} else {
 				storeManager = new StockManagerHTTPProxy("http://localhost:8081/stock");
 				client = new BookStoreHTTPProxy("http://localhost:8081");
@@ -349,6 +363,63 @@ public class BookStoreTest {
 				&& booksInStorePreTest.size() == booksInStorePostTest.size());
 	}
 
+	/**
+	 * Tests that the multi-version store rates books, ranks them by rating and
+	 * lists the books in demand.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test
+	public void testMultiVersionRatingsAndDemand() throws BookStoreException {
+		MultiVersionCertainBookStore store = new MultiVersionCertainBookStore();
+		Set<StockBook> booksToAdd = new HashSet<StockBook>();
+		booksToAdd.add(getDefaultBook());
+		booksToAdd.add(new ImmutableStockBook(TEST_ISBN + 1, "Test of Thrones", "George RR Testin'", (float) 10,
+				NUM_COPIES, 0, 0, 0, false));
+		store.addBooks(booksToAdd);
+
+		Set<BookRating> ratings = new HashSet<BookRating>();
+		ratings.add(new BookRating(TEST_ISBN, 2));
+		ratings.add(new BookRating(TEST_ISBN + 1, 4));
+		store.rateBooks(ratings);
+
+		// An invalid rating rejects the whole set.
+		ratings.clear();
+		ratings.add(new BookRating(TEST_ISBN, 5));
+		ratings.add(new BookRating(TEST_ISBN + 1, 6));
+
+		try {
+			store.rateBooks(ratings);
+			fail();
+		} catch (BookStoreException ex) {
+			;
+		}
+
+		List<Book> topRatedBooks = store.getTopRatedBooks(2);
+		assertEquals(2, topRatedBooks.size());
+		assertEquals(TEST_ISBN + 1, topRatedBooks.get(0).getISBN());
+		assertEquals(TEST_ISBN, topRatedBooks.get(1).getISBN());
+		assertEquals(1, store.getTopRatedBooks(1).size());
+		assertEquals(6, store.getBooks().stream().mapToLong(StockBook::getTotalRating).sum());
+
+		assertTrue(store.getBooksInDemand().isEmpty());
+
+		Set<BookCopy> booksToBuy = new HashSet<BookCopy>();
+		booksToBuy.add(new BookCopy(TEST_ISBN, NUM_COPIES + 1));
+
+		try {
+			store.buyBooks(booksToBuy);
+			fail();
+		} catch (BookStoreException ex) {
+			;
+		}
+
+		List<StockBook> booksInDemand = store.getBooksInDemand();
+		assertEquals(1, booksInDemand.size());
+		assertEquals(TEST_ISBN, booksInDemand.get(0).getISBN());
+	}
+
 	/**
 	 * Tear down after class.
 	 *
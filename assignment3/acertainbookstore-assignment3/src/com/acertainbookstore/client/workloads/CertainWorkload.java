@@ -16,13 +16,18 @@ import java.util.concurrent.Future;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
+import org.eclipse.jetty.server.Server;
+
 import com.acertainbookstore.business.CertainBookStore;
+import com.acertainbookstore.business.MultiVersionCertainBookStore;
 import com.acertainbookstore.client.BookStoreClientConstants;
 import com.acertainbookstore.client.BookStoreHTTPProxy;
 import com.acertainbookstore.client.StockManagerHTTPProxy;
 import com.acertainbookstore.interfaces.BookStore;
 import com.acertainbookstore.interfaces.StockManager;
-import com.acertainbookstore.server.BookStoreHTTPServer;
+import com.acertainbookstore.server.BookStoreHTTPMessageHandler;
+import com.acertainbookstore.server.BookStoreHTTPServerConfiguration;
+import com.acertainbookstore.server.BookStoreHTTPServerUtility;
 import com.acertainbookstore.utils.BookStoreConstants;
 import com.acertainbookstore.utils.BookStoreException;
 
@@ -37,18 +42,124 @@ public class CertainWorkload {
 
 	public static List<String[]> dataLines;
 	private static String local = "";
+	private static String transport = "";
+
+	/** The numbers of workers run on platform threads, one pool thread each. */
+	private static final int[] PLATFORM_WORKLOAD_THREADS = { 10, 20, 30, 40, 50, 60, 70, 80, 90, 100 };
+
+	/** The numbers of workers run on virtual threads, which are cheap enough for many more. */
+	private static final int[] VIRTUAL_WORKLOAD_THREADS = { 10, 100, 1000, 10000 };
 
 	/**
 	 * @param args
 	 */
 	public static void main(String[] args) throws Exception {
 		dataLines = new ArrayList<>();
+		BookStoreHTTPServerConfiguration configuration = BookStoreHTTPServerConfiguration.fromSystemProperties();
+		String serverSweepProperty = System.getProperty(BookStoreConstants.PROPERTY_KEY_SERVER_SWEEP);
+		boolean serverSweep = (serverSweepProperty != null) && Boolean.parseBoolean(serverSweepProperty);
+
+		if (!serverSweep) {
+			// Runs against a server started on its own, with the same settings
+			runWorkloads(configuration);
+			return;
+		}
+
+		// Starts a server of each configuration in turn, with a fresh store
+		for (BookStoreHTTPServerConfiguration sweptConfiguration : sweepConfigurations(configuration)) {
+			System.out.println("Server configuration: " + sweptConfiguration);
+			Server server = BookStoreHTTPServerUtility.startServer(sweptConfiguration, newMessageHandler());
+
+			try {
+				runWorkloads(sweptConfiguration);
+			} finally {
+				server.stop();
+			}
+		}
+	}
+
+	/**
+	 * Lists the server configurations swept, each changing one setting of the
+	 * base configuration.
+	 * 
+	 * @param base
+	 *            the base configuration
+	 * @return the configurations, starting with the base one
+	 */
+	private static List<BookStoreHTTPServerConfiguration> sweepConfigurations(
+			BookStoreHTTPServerConfiguration base) {
+		List<BookStoreHTTPServerConfiguration> configurations = new ArrayList<>();
+		configurations.add(base);
+
+		BookStoreHTTPServerConfiguration configuration = new BookStoreHTTPServerConfiguration(base);
+		configuration.setAcceptors(1);
+		configuration.setSelectors(1);
+		configurations.add(configuration);
+
+		configuration = new BookStoreHTTPServerConfiguration(base);
+		configuration.setReservedThreads(0);
+		configurations.add(configuration);
+
+		configuration = new BookStoreHTTPServerConfiguration(base);
+		configuration.setAcceptQueueSize(1024);
+		configurations.add(configuration);
+
+		configuration = new BookStoreHTTPServerConfiguration(base);
+		configuration.setIdleTimeoutMillis(5000);
+		configurations.add(configuration);
+
+		for (int outputBufferSize : new int[] { 8 * 1024, 64 * 1024 }) {
+			configuration = new BookStoreHTTPServerConfiguration(base);
+			configuration.setOutputBufferSize(outputBufferSize);
+			configurations.add(configuration);
+		}
+
+		configuration = new BookStoreHTTPServerConfiguration(base);
+		configuration.setPersistentConnections(false);
+		configurations.add(configuration);
+
+		for (int maxThreads : new int[] { 50, 200 }) {
+			configuration = new BookStoreHTTPServerConfiguration(base);
+			configuration.setMaxThreads(maxThreads);
+			configurations.add(configuration);
+		}
+
+		return configurations;
+	}
+
+	/**
+	 * Creates the handler of an in-process server, over a fresh store.
+	 * 
+	 * @return the handler
+	 */
+	private static BookStoreHTTPMessageHandler newMessageHandler() {
+		String multiVersionProperty = System.getProperty(BookStoreConstants.PROPERTY_KEY_MULTI_VERSION);
+		boolean multiVersion = (multiVersionProperty != null) && Boolean.parseBoolean(multiVersionProperty);
+
+		if (multiVersion) {
+			MultiVersionCertainBookStore store = new MultiVersionCertainBookStore();
+			return new BookStoreHTTPMessageHandler(store, store);
+		}
+
+		CertainBookStore store = new CertainBookStore();
+		return new BookStoreHTTPMessageHandler(store, store);
+	}
+
+	/**
+	 * Runs the workloads of every number of workers, five times over.
+	 * 
+	 * @param configuration
+	 *            the configuration of the server, reported with the metrics
+	 */
+	private static void runWorkloads(BookStoreHTTPServerConfiguration configuration) throws Exception {
+		boolean virtualThreads = virtualThreadsFromSystemProperty();
+
 		for (int times = 0; times < 5; times++) {
-			for (int numConcurrentWorkloadThreads = 10; numConcurrentWorkloadThreads <= 100; numConcurrentWorkloadThreads+=10) {
+			for (int numConcurrentWorkloadThreads : virtualThreads ? VIRTUAL_WORKLOAD_THREADS
+					: PLATFORM_WORKLOAD_THREADS) {
 //			int numConcurrentWorkloadThreads = 10;
-				String serverAddress = "http://localhost:8081";
+				String serverAddress = "http://localhost:" + configuration.getPort();
 				boolean localTest = false;
-				local = localTest ? "local" : "RPC";
 				List<WorkerRunResult> workerRunResults = new ArrayList<WorkerRunResult>();
 				List<Future<WorkerRunResult>> runResults = new ArrayList<Future<WorkerRunResult>>();
 
@@ -58,10 +169,25 @@ public class CertainWorkload {
 						.getProperty(BookStoreConstants.PROPERTY_KEY_LOCAL_TEST);
 				localTest = (localTestProperty != null) ? Boolean
 						.parseBoolean(localTestProperty) : localTest;
+				local = localTest ? "local" : "RPC";
+
+				// The proxies speak HTTP/2 cleartext if the property is set
+				String h2cProperty = System.getProperty(BookStoreConstants.PROPERTY_KEY_H2C);
+				boolean h2c = (h2cProperty != null) && Boolean.parseBoolean(h2cProperty);
+				transport = localTest ? "none" : h2c ? "h2c" : "HTTP/1.1";
 
 				BookStore bookStore = null;
 				StockManager stockManager = null;
-				if (localTest) {
+				String multiVersionProperty = System
+						.getProperty(BookStoreConstants.PROPERTY_KEY_MULTI_VERSION);
+				boolean multiVersion = (multiVersionProperty != null) && Boolean
+						.parseBoolean(multiVersionProperty);
+
+				if (localTest && multiVersion) {
+					MultiVersionCertainBookStore store = new MultiVersionCertainBookStore();
+					bookStore = store;
+					stockManager = store;
+				} else if (localTest) {
 					CertainBookStore store = new CertainBookStore();
 					bookStore = store;
 					stockManager = store;
@@ -73,8 +199,8 @@ public class CertainWorkload {
 				// Generate data in the bookstore before running the workload
 				initializeBookStoreData(bookStore, stockManager);
 
-				ExecutorService exec = Executors
-						.newFixedThreadPool(numConcurrentWorkloadThreads);
+				ExecutorService exec = virtualThreads ? newVirtualThreadPerTaskExecutor()
+						: Executors.newFixedThreadPool(numConcurrentWorkloadThreads);
 
 				for (int i = 0; i < numConcurrentWorkloadThreads; i++) {
 					WorkloadConfiguration config = new WorkloadConfiguration(bookStore,
@@ -98,17 +224,60 @@ public class CertainWorkload {
 					((StockManagerHTTPProxy) stockManager).stop();
 				}
 
-				reportMetric(workerRunResults);
+				reportMetric(workerRunResults, configuration);
 			}
 		}
 	}
 
+	/**
+	 * Checks whether the workers are to run on virtual threads. A JVM without
+	 * them only gets a warning, and the workers keep the platform thread pools.
+	 * 
+	 * @return true if the workers run on virtual threads
+	 */
+	private static boolean virtualThreadsFromSystemProperty() {
+		String virtualThreadsProperty = System.getProperty(BookStoreConstants.PROPERTY_KEY_VIRTUAL_THREADS);
+
+		if (virtualThreadsProperty == null || !Boolean.parseBoolean(virtualThreadsProperty)) {
+			return false;
+		}
+
+		try {
+			newVirtualThreadPerTaskExecutor().shutdown();
+		} catch (UnsupportedOperationException ex) {
+			System.err.println("Virtual threads need Java 21, keeping the platform thread pools");
+			return false;
+		}
+
+		return true;
+	}
+
+	/**
+	 * Creates an executor running each worker on a virtual thread of its own.
+	 * It is looked up at run time, since the workload builds on Java 17 and
+	 * virtual threads are only final from Java 21 on.
+	 * 
+	 * @return the executor
+	 * @throws UnsupportedOperationException
+	 *             if the JVM has no virtual threads
+	 */
+	private static ExecutorService newVirtualThreadPerTaskExecutor() {
+		try {
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (ReflectiveOperationException ex) {
+			throw new UnsupportedOperationException("Virtual threads need Java 21", ex);
+		}
+	}
+
 	/**
 	 * Computes the metrics and prints them
 	 * 
 	 * @param workerRunResults
+	 * @param configuration
+	 *            the configuration of the server
 	 */
-	public static void reportMetric(List<WorkerRunResult> workerRunResults) {
+	public static void reportMetric(List<WorkerRunResult> workerRunResults,
+			BookStoreHTTPServerConfiguration configuration) {
 		// TODO: You should aggregate metrics and output them for plotting here
 		int totalInteractions = 0;
 		int successfulInteractions = 0;
@@ -148,14 +317,14 @@ public class CertainWorkload {
 
 		String is_binary = BookStoreConstants.BINARY_SERIALIZATION ? "1" : "0";
 		int client_max_threadpool_threads = BookStoreClientConstants.CLIENT_MAX_THREADSPOOL_THREADS;
-		int min_server_threadpool = BookStoreHTTPServer.getMinThreadpoolSize();
-		int max_server_threadpool = BookStoreHTTPServer.getMaxThreadpoolSize();
+		int min_server_threadpool = configuration.getMinThreads();
+		int max_server_threadpool = configuration.getMaxThreads();
 
 		String[] dataline = new String[]
-				{String.valueOf(workerRunResults.size()), String.valueOf(throughput), String.valueOf(avgLatency), String.valueOf(fail_goodput), String.valueOf(fail_customer_rate), is_binary, String.valueOf(client_max_threadpool_threads), String.valueOf(min_server_threadpool), String.valueOf(max_server_threadpool), local, "computer 3"};
+				{String.valueOf(workerRunResults.size()), String.valueOf(throughput), String.valueOf(avgLatency), String.valueOf(fail_goodput), String.valueOf(fail_customer_rate), is_binary, String.valueOf(client_max_threadpool_threads), String.valueOf(min_server_threadpool), String.valueOf(max_server_threadpool), local, transport, "computer 3", configuration.toString()};
 		String line = Stream.of(dataline).collect(Collectors.joining(","));
 
-		//Number of clients,throughput,latency,fail goodput,fail customer rate,binary serialization,client max threadpool threads,server min threadpool size,server max threadpool size,address space,machine
+		//Number of clients,throughput,latency,fail goodput,fail customer rate,binary serialization,client max threadpool threads,server min threadpool size,server max threadpool size,address space,transport,machine,server configuration
 		try {
 			FileWriter fw = new FileWriter("./result2.csv", true);
 			BufferedWriter bw = new BufferedWriter(fw);
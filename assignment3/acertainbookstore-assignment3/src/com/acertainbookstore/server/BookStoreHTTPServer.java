@@ -1,8 +1,7 @@
 package com.acertainbookstore.server;
 
-import org.eclipse.jetty.util.thread.QueuedThreadPool;
-
 import com.acertainbookstore.business.CertainBookStore;
+import com.acertainbookstore.business.MultiVersionCertainBookStore;
 import com.acertainbookstore.utils.BookStoreConstants;
 
 /**
@@ -11,18 +10,9 @@ import com.acertainbookstore.utils.BookStoreConstants;
  */
 public class BookStoreHTTPServer {
 
-	/** The Constant defaultListenOnPort. */
-	private static final int DEFAULT_PORT = 8081;
-	private static final int MIN_THREADPOOL_SIZE = 10;
-	private static final int MAX_THREADPOOL_SIZE = 100;
-
-	public static int getMinThreadpoolSize() {
-		return MIN_THREADPOOL_SIZE;
-	}
-
-	public static int getMaxThreadpoolSize() {
-		return MAX_THREADPOOL_SIZE;
-	}
+	/** Whether the multi-version store serves the requests; overridden by the
+	 *  multiversion property. */
+	private static final boolean MULTI_VERSION = false;
 
 	/**
 	 * Prevents the instantiation of a new {@link BookStoreHTTPServer}.
@@ -38,21 +28,21 @@ public class BookStoreHTTPServer {
 	 *            the arguments
 	 */
 	public static void main(String[] args) {
-		CertainBookStore bookStore = new CertainBookStore();
-		int listenOnPort = DEFAULT_PORT;
-
-		BookStoreHTTPMessageHandler handler = new BookStoreHTTPMessageHandler(bookStore);
-		String serverPortString = System.getProperty(BookStoreConstants.PROPERTY_KEY_SERVER_PORT);
-
-		if (serverPortString != null) {
-			try {
-				listenOnPort = Integer.parseInt(serverPortString);
-			} catch (NumberFormatException ex) {
-				System.err.println("Unsupported message tag");
-			}
+		String multiVersionString = System.getProperty(BookStoreConstants.PROPERTY_KEY_MULTI_VERSION);
+		boolean multiVersion = (multiVersionString != null) ? Boolean.parseBoolean(multiVersionString) : MULTI_VERSION;
+
+		BookStoreHTTPMessageHandler handler;
+
+		if (multiVersion) {
+			MultiVersionCertainBookStore bookStore = new MultiVersionCertainBookStore();
+			handler = new BookStoreHTTPMessageHandler(bookStore, bookStore);
+		} else {
+			CertainBookStore bookStore = new CertainBookStore();
+			handler = new BookStoreHTTPMessageHandler(bookStore, bookStore);
 		}
 
-		QueuedThreadPool threadpool = new QueuedThreadPool(MAX_THREADPOOL_SIZE, MIN_THREADPOOL_SIZE);
-		BookStoreHTTPServerUtility.createServer(listenOnPort, handler, threadpool);
+		BookStoreHTTPServerConfiguration configuration = BookStoreHTTPServerConfiguration.fromSystemProperties();
+		System.out.println("Server configuration: " + configuration);
+		BookStoreHTTPServerUtility.createServer(configuration, handler);
 	}
 }
@@ -60,6 +60,87 @@ public final class BookStoreConstants {
 	/** The Constant PROPERTY_KEY_SERVER_PORT. */
 	public static final String PROPERTY_KEY_SERVER_PORT = "port";
 
+	/** The Constant PROPERTY_KEY_MULTI_VERSION. */
+	public static final String PROPERTY_KEY_MULTI_VERSION = "multiversion";
+
+	/**
+	 * The Constant PROPERTY_KEY_VIRTUAL_THREADS, whether the workload runs its
+	 * workers on virtual threads, which needs Java 21.
+	 */
+	public static final String PROPERTY_KEY_VIRTUAL_THREADS = "virtualthreads";
+
+	/**
+	 * The Constant PROPERTY_KEY_SERVER_CONFIG, the path of a properties file
+	 * holding the server settings below; system properties override it.
+	 */
+	public static final String PROPERTY_KEY_SERVER_CONFIG = "serverconfig";
+
+	/** The Constant PROPERTY_KEY_MIN_THREADS, the least threads of the server. */
+	public static final String PROPERTY_KEY_MIN_THREADS = "minthreads";
+
+	/** The Constant PROPERTY_KEY_MAX_THREADS, the most threads of the server. */
+	public static final String PROPERTY_KEY_MAX_THREADS = "maxthreads";
+
+	/**
+	 * The Constant PROPERTY_KEY_RESERVED_THREADS, the threads of the server
+	 * kept ready to take over a connection; -1 lets Jetty choose.
+	 */
+	public static final String PROPERTY_KEY_RESERVED_THREADS = "reservedthreads";
+
+	/**
+	 * The Constant PROPERTY_KEY_ACCEPTORS, the threads accepting connections;
+	 * -1 lets Jetty choose.
+	 */
+	public static final String PROPERTY_KEY_ACCEPTORS = "acceptors";
+
+	/**
+	 * The Constant PROPERTY_KEY_SELECTORS, the threads selecting the ready
+	 * connections; -1 lets Jetty choose.
+	 */
+	public static final String PROPERTY_KEY_SELECTORS = "selectors";
+
+	/**
+	 * The Constant PROPERTY_KEY_ACCEPT_QUEUE_SIZE, the backlog of connections
+	 * waiting to be accepted; 0 uses the one of the operating system.
+	 */
+	public static final String PROPERTY_KEY_ACCEPT_QUEUE_SIZE = "acceptqueuesize";
+
+	/**
+	 * The Constant PROPERTY_KEY_IDLE_TIMEOUT, how long an idle connection is
+	 * kept open, in milliseconds.
+	 */
+	public static final String PROPERTY_KEY_IDLE_TIMEOUT = "idletimeout";
+
+	/**
+	 * The Constant PROPERTY_KEY_OUTPUT_BUFFER_SIZE, the bytes of a response
+	 * buffered before they are sent.
+	 */
+	public static final String PROPERTY_KEY_OUTPUT_BUFFER_SIZE = "outputbuffersize";
+
+	/**
+	 * The Constant PROPERTY_KEY_PERSISTENT_CONNECTIONS, whether connections are
+	 * kept open between HTTP/1.1 requests.
+	 */
+	public static final String PROPERTY_KEY_PERSISTENT_CONNECTIONS = "persistentconnections";
+
+	/**
+	 * The Constant PROPERTY_KEY_MAX_CONCURRENT_STREAMS, the most HTTP/2
+	 * requests in flight on one connection; 0 turns HTTP/2 off.
+	 */
+	public static final String PROPERTY_KEY_MAX_CONCURRENT_STREAMS = "maxconcurrentstreams";
+
+	/**
+	 * The Constant PROPERTY_KEY_H2C, whether the proxies send their messages
+	 * over HTTP/2 cleartext rather than HTTP/1.1.
+	 */
+	public static final String PROPERTY_KEY_H2C = "h2c";
+
+	/**
+	 * The Constant PROPERTY_KEY_SERVER_SWEEP, whether the workload runs its
+	 * own server once for each of a set of server configurations.
+	 */
+	public static final String PROPERTY_KEY_SERVER_SWEEP = "serversweep";
+
 	/** The Constant EPSILON used for floating point number comparison */
 	public static final float EPSILON = 0.000001F;
 
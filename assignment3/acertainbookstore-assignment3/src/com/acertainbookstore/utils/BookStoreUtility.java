@@ -1,7 +1,10 @@
 package com.acertainbookstore.utils;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
 import org.eclipse.jetty.client.HttpClient;
@@ -9,9 +12,11 @@ import org.eclipse.jetty.client.api.ContentProvider;
 import org.eclipse.jetty.client.api.ContentResponse;
 import org.eclipse.jetty.client.api.Request;
 import org.eclipse.jetty.client.util.BytesContentProvider;
+import org.eclipse.jetty.http.HttpFields;
 import org.eclipse.jetty.http.HttpMethod;
 
 import com.acertainbookstore.client.BookStoreClientConstants;
+import com.acertainbookstore.client.BookStoreHTTP2Client;
 import com.acertainbookstore.interfaces.BookStoreSerializer;
 import com.thoughtworks.xstream.XStream;
 import com.thoughtworks.xstream.io.xml.StaxDriver;
@@ -197,10 +202,86 @@ public final class BookStoreUtility {
 			throw new BookStoreException(BookStoreClientConstants.STR_ERR_CLIENT_REQUEST_EXCEPTION, ex);
 		}
 
+		return readHttpResponse(response.getContent(), serializer);
+	}
+
+	/**
+	 * Performs an HTTP exchange over HTTP/2, as
+	 * {@link #performHttpExchange(HttpClient, BookStoreRequest, BookStoreSerializer)}
+	 * does over HTTP/1.1.
+	 *
+	 * @param client
+	 *            the HTTP/2 client
+	 * @param bookStoreRequest
+	 *            the book store request
+	 * @param serializer
+	 *            the serializer
+	 * @return the book store response
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	public static BookStoreResponse performHttpExchange(BookStoreHTTP2Client client,
+			BookStoreRequest bookStoreRequest, BookStoreSerializer serializer) throws BookStoreException {
+		CompletableFuture<BookStoreHTTP2Client.Reply> futureReply;
+
+		switch (bookStoreRequest.getMethod()) {
+		case GET:
+			futureReply = client.send(HttpMethod.GET, bookStoreRequest.getURLString(), new HttpFields(), null);
+			break;
+
+		case POST:
+			try {
+				byte[] serializedValue = serializer.serialize(bookStoreRequest.getInputValue());
+				futureReply = client.send(HttpMethod.POST, bookStoreRequest.getURLString(), new HttpFields(),
+						ByteBuffer.wrap(serializedValue));
+			} catch (IOException ex) {
+				throw new BookStoreException("Serialization error", ex);
+			}
+
+			break;
+
+		default:
+			throw new IllegalArgumentException("HTTP Method not supported.");
+		}
+
+		BookStoreHTTP2Client.Reply reply;
+
+		try {
+			reply = futureReply.get(BookStoreClientConstants.CLIENT_MAX_TIMEOUT_MILLISECS, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException ex) {
+			// Given up, so that the request is not sent later on
+			futureReply.cancel(false);
+			throw new BookStoreException(BookStoreClientConstants.STR_ERR_CLIENT_REQUEST_SENDING, ex);
+		} catch (TimeoutException ex) {
+			futureReply.cancel(false);
+			throw new BookStoreException(BookStoreClientConstants.STR_ERR_CLIENT_REQUEST_TIMEOUT, ex);
+		} catch (ExecutionException ex) {
+			throw new BookStoreException(ex.getCause() instanceof TimeoutException
+					? BookStoreClientConstants.STR_ERR_CLIENT_REQUEST_TIMEOUT
+					: BookStoreClientConstants.STR_ERR_CLIENT_REQUEST_EXCEPTION, ex.getCause());
+		}
+
+		return readHttpResponse(reply.getContent(), serializer);
+	}
+
+	/**
+	 * Deserializes the content of an HTTP response.
+	 *
+	 * @param content
+	 *            the content
+	 * @param serializer
+	 *            the serializer
+	 * @return the book store response
+	 * @throws BookStoreException
+	 *             if the content cannot be deserialized, or holds the
+	 *             exception the server replied with
+	 */
+	private static BookStoreResponse readHttpResponse(byte[] content, BookStoreSerializer serializer)
+			throws BookStoreException {
 		BookStoreResponse bookStoreResponse;
 
 		try {
-			bookStoreResponse = (BookStoreResponse) serializer.deserialize(response.getContent());
+			bookStoreResponse = (BookStoreResponse) serializer.deserialize(content);
 		} catch (IOException ex) {
 			throw new BookStoreException("Deserialization error", ex);
 		}
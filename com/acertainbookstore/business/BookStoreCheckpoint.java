@@ -0,0 +1,336 @@
+package com.acertainbookstore.business;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * {@link BookStoreCheckpoint} is a snapshot of every book of a store, taken
+ * at a point of its {@link WriteAheadLog}. Recovering from a checkpoint only
+ * replays the records logged after that point.
+ *
+ * A checkpoint is taken in two steps so that the store is not stopped while
+ * it is written: {@link #capture(Collection, long)} copies the mutable fields
+ * of the books into primitive arrays while the store is locked, then
+ * {@link #write(File)} encodes them to a temporary file without the lock, and
+ * renames it over the previous checkpoint once it is synced.
+ *
+ * The file holds a header, the books and a CRC32 of both. It is read
+ * back through a memory mapping, without copying it onto the heap first.
+ */
+final class BookStoreCheckpoint {
+
+	/** The first bytes of a checkpoint file, "BSCP". */
+	private static final int MAGIC = 0x42534350;
+
+	/** The version of the file format. */
+	private static final int VERSION = 1;
+
+	/** The size of the magic, version, log sequence number and book count. */
+	private static final int HEADER_SIZE = 20;
+
+	/** The size of the fixed-size fields of a book, string lengths included. */
+	private static final int BOOK_FIXED_SIZE = 45;
+
+	/** The size of the buffer used to write the file. */
+	private static final int WRITE_BUFFER_SIZE = 1 << 20;
+
+	/** The largest part of the file mapped at once. */
+	private static final int MAX_MAPPING_SIZE = 1 << 30;
+
+	/** The log sequence number the checkpoint was taken at. */
+	private final long lsn;
+
+	/** The books, for their immutable fields. */
+	private final BookStoreBook[] books;
+
+	/** The mutable fields of the books when the checkpoint was captured. */
+	private final int[] numCopies;
+	private final long[] numSaleMisses;
+	private final long[] numTimesRated;
+	private final long[] totalRating;
+	private final boolean[] editorPick;
+
+	/**
+	 * Instantiates a new empty {@link BookStoreCheckpoint}.
+	 *
+	 * @param size
+	 *            the number of books
+	 * @param lsn
+	 *            the log sequence number
+	 */
+	private BookStoreCheckpoint(int size, long lsn) {
+		this.lsn = lsn;
+		this.books = new BookStoreBook[size];
+		this.numCopies = new int[size];
+		this.numSaleMisses = new long[size];
+		this.numTimesRated = new long[size];
+		this.totalRating = new long[size];
+		this.editorPick = new boolean[size];
+	}
+
+	/**
+	 * Captures the state of the books. It must be called while holding the
+	 * lock of the store, and is the only part of a checkpoint that does.
+	 *
+	 * @param bookCollection
+	 *            the books of the store
+	 * @param lsn
+	 *            the log sequence number of the last mutation applied
+	 * @return the checkpoint
+	 */
+	static BookStoreCheckpoint capture(Collection<BookStoreBook> bookCollection, long lsn) {
+		BookStoreCheckpoint checkpoint = new BookStoreCheckpoint(bookCollection.size(), lsn);
+		int i = 0;
+
+		for (BookStoreBook book : bookCollection) {
+			checkpoint.books[i] = book;
+			checkpoint.numCopies[i] = book.getNumCopies();
+			checkpoint.numSaleMisses[i] = book.getNumSaleMisses();
+			checkpoint.numTimesRated[i] = book.getNumTimesRated();
+			checkpoint.totalRating[i] = book.getTotalRating();
+			checkpoint.editorPick[i] = book.isEditorPick();
+			i++;
+		}
+
+		return checkpoint;
+	}
+
+	/**
+	 * Gets the log sequence number the checkpoint was taken at.
+	 *
+	 * @return the log sequence number
+	 */
+	long getLsn() {
+		return lsn;
+	}
+
+	/**
+	 * Writes the checkpoint, replacing the file atomically.
+	 *
+	 * @param file
+	 *            the checkpoint file
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	void write(File file) throws IOException {
+		File tempFile = new File(file.getPath() + ".tmp");
+		CRC32 crc = new CRC32();
+
+		try (FileChannel channel = FileChannel.open(tempFile.toPath(), StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+			ByteBuffer buffer = ByteBuffer.allocate(WRITE_BUFFER_SIZE);
+			buffer.putInt(MAGIC);
+			buffer.putInt(VERSION);
+			buffer.putLong(lsn);
+			buffer.putInt(books.length);
+
+			for (int i = 0; i < books.length; i++) {
+				byte[] title = books[i].getTitle().getBytes(StandardCharsets.UTF_8);
+				byte[] author = books[i].getAuthor().getBytes(StandardCharsets.UTF_8);
+				int bookSize = BOOK_FIXED_SIZE + title.length + author.length;
+
+				if (buffer.remaining() < bookSize) {
+					crc.update(buffer.array(), 0, buffer.position());
+					flush(channel, buffer);
+
+					if (buffer.capacity() < bookSize) {
+						buffer = ByteBuffer.allocate(bookSize);
+					}
+				}
+
+				buffer.putInt(books[i].getISBN());
+				buffer.putFloat(books[i].getPrice());
+				buffer.putInt(numCopies[i]);
+				buffer.putLong(numSaleMisses[i]);
+				buffer.putLong(numTimesRated[i]);
+				buffer.putLong(totalRating[i]);
+				buffer.put((byte) (editorPick[i] ? 1 : 0));
+				buffer.putInt(title.length);
+				buffer.put(title);
+				buffer.putInt(author.length);
+				buffer.put(author);
+			}
+
+			crc.update(buffer.array(), 0, buffer.position());
+
+			if (buffer.remaining() < Integer.BYTES) {
+				flush(channel, buffer);
+			}
+
+			buffer.putInt((int) crc.getValue());
+			flush(channel, buffer);
+			channel.force(true);
+		}
+
+		Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	private static void flush(FileChannel channel, ByteBuffer buffer) throws IOException {
+		buffer.flip();
+
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+
+		buffer.clear();
+	}
+
+	/**
+	 * Reads a checkpoint, checking it before handing out any book.
+	 *
+	 * @param file
+	 *            the checkpoint file
+	 * @param loader
+	 *            the consumer of the books, called in the order they were
+	 *            captured
+	 * @return the log sequence number the checkpoint was taken at
+	 * @throws IOException
+	 *             if the file cannot be read or is corrupt
+	 */
+	static long load(File file, Consumer<BookStoreBook> loader) throws IOException {
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			MappedReader reader = new MappedReader(channel);
+
+			if (reader.size < HEADER_SIZE + Integer.BYTES) {
+				throw new IOException("The checkpoint " + file + " is truncated");
+			}
+
+			reader.require(HEADER_SIZE);
+
+			if (reader.mapping.getInt() != MAGIC || reader.mapping.getInt() != VERSION) {
+				throw new IOException(file + " is not a checkpoint");
+			}
+
+			long lsn = reader.mapping.getLong();
+			int size = reader.mapping.getInt();
+
+			long booksEnd = reader.size - Integer.BYTES;
+			reader.seek(booksEnd);
+			reader.require(Integer.BYTES);
+			int checksum = reader.mapping.getInt();
+
+			if (reader.checksum(0, booksEnd) != checksum) {
+				throw new IOException("The checkpoint " + file + " is corrupt");
+			}
+
+			reader.seek(HEADER_SIZE);
+
+			for (int i = 0; i < size; i++) {
+				reader.require(BOOK_FIXED_SIZE - 2 * Integer.BYTES);
+				MappedByteBuffer mapping = reader.mapping;
+				int isbn = mapping.getInt();
+				float price = mapping.getFloat();
+				int numCopies = mapping.getInt();
+				long numSaleMisses = mapping.getLong();
+				long numTimesRated = mapping.getLong();
+				long totalRating = mapping.getLong();
+				boolean editorPick = mapping.get() != 0;
+				String title = reader.readString();
+				String author = reader.readString();
+
+				loader.accept(new BookStoreBook(new ImmutableStockBook(isbn, title, author, price, numCopies,
+						numSaleMisses, numTimesRated, totalRating, editorPick)));
+			}
+
+			return lsn;
+		}
+	}
+
+	/**
+	 * {@link MappedReader} reads a file through a sliding read-only mapping,
+	 * since a single mapping cannot exceed 2GB.
+	 */
+	private static final class MappedReader {
+
+		private final FileChannel channel;
+		private final long size;
+
+		/** The current mapping. */
+		private MappedByteBuffer mapping;
+
+		/** The offset in the file of the current mapping. */
+		private long mappingStart;
+
+		MappedReader(FileChannel channel) throws IOException {
+			this.channel = channel;
+			this.size = channel.size();
+			map(0);
+		}
+
+		private void map(long start) throws IOException {
+			mappingStart = start;
+			mapping = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(MAX_MAPPING_SIZE, size - start));
+		}
+
+		/**
+		 * Moves to an offset of the file.
+		 */
+		void seek(long position) throws IOException {
+			if (position >= mappingStart && position <= mappingStart + mapping.limit()) {
+				mapping.position((int) (position - mappingStart));
+			} else {
+				map(position);
+			}
+		}
+
+		/**
+		 * Makes sure the next <code>length</code> bytes are mapped.
+		 */
+		void require(int length) throws IOException {
+			long position = mappingStart + mapping.position();
+
+			if (position + length > size) {
+				throw new IOException("The checkpoint is truncated");
+			}
+
+			if (mapping.remaining() < length) {
+				map(position);
+			}
+		}
+
+		String readString() throws IOException {
+			require(Integer.BYTES);
+			int length = mapping.getInt();
+
+			if (length < 0) {
+				throw new IOException("The checkpoint is corrupt");
+			}
+
+			require(length);
+			byte[] bytes = new byte[length];
+			mapping.get(bytes);
+			return new String(bytes, StandardCharsets.UTF_8);
+		}
+
+		/**
+		 * Computes the CRC32 of a range of the file.
+		 */
+		int checksum(long start, long end) throws IOException {
+			CRC32 crc = new CRC32();
+			seek(start);
+
+			for (long position = start; position < end;) {
+				int length = (int) Math.min(MAX_MAPPING_SIZE, end - position);
+				require(length);
+				ByteBuffer range = mapping.slice();
+				range.limit(length);
+				crc.update(range);
+				mapping.position(mapping.position() + length);
+				position += length;
+			}
+
+			return (int) crc.getValue();
+		}
+	}
+}
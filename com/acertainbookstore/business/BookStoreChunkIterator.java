@@ -0,0 +1,93 @@
+package com.acertainbookstore.business;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * {@link BookStoreChunkIterator} hands out the books of a store in chunks,
+ * from a snapshot of their ISBNs. Each chunk is copied from the store only
+ * when it is asked for, so that only the ISBNs and a single chunk are held at
+ * once. A book removed before its chunk is copied is skipped.
+ */
+final class BookStoreChunkIterator implements Iterator<List<StockBook>> {
+
+	/**
+	 * {@link ChunkReader} copies a chunk of books out of a store.
+	 */
+	@FunctionalInterface
+	interface ChunkReader {
+
+		/**
+		 * Copies the books of a range of ISBNs that are still in the store,
+		 * locking the store while it does.
+		 *
+		 * @param isbns
+		 *            the ISBNs
+		 * @param from
+		 *            the first ISBN of the range
+		 * @param to
+		 *            the end of the range, exclusive
+		 * @return the books
+		 */
+		List<StockBook> read(int[] isbns, int from, int to);
+	}
+
+	/** The ISBNs of the books when the iteration started. */
+	private final int[] isbns;
+
+	/** The most books in a chunk. */
+	private final int chunkSize;
+
+	/** The reader of the chunks. */
+	private final ChunkReader reader;
+
+	/** The first ISBN of the next chunk to read. */
+	private int position = 0;
+
+	/** The next chunk, once read, or null. */
+	private List<StockBook> nextChunk = null;
+
+	/**
+	 * Instantiates a new {@link BookStoreChunkIterator}.
+	 *
+	 * @param isbns
+	 *            the ISBNs of the books, copied while the store was locked
+	 * @param chunkSize
+	 *            the most books in a chunk
+	 * @param reader
+	 *            the reader of the chunks
+	 */
+	BookStoreChunkIterator(int[] isbns, int chunkSize, ChunkReader reader) {
+		this.isbns = isbns;
+		this.chunkSize = chunkSize;
+		this.reader = reader;
+	}
+
+	@Override
+	public boolean hasNext() {
+		// Chunks whose books were all removed are skipped, so none is empty.
+		while (nextChunk == null && position < isbns.length) {
+			int end = (int) Math.min((long) position + chunkSize, isbns.length);
+			List<StockBook> chunk = reader.read(isbns, position, end);
+			position = end;
+
+			if (!chunk.isEmpty()) {
+				nextChunk = chunk;
+			}
+		}
+
+		return nextChunk != null;
+	}
+
+	@Override
+	public List<StockBook> next() {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+
+		List<StockBook> chunk = nextChunk;
+		nextChunk = null;
+		return chunk;
+	}
+}
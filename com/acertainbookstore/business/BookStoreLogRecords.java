@@ -0,0 +1,337 @@
+package com.acertainbookstore.business;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import com.acertainbookstore.interfaces.BookStore;
+import com.acertainbookstore.interfaces.StockManager;
+import com.acertainbookstore.utils.BookStoreException;
+
+/**
+ * {@link BookStoreLogRecords} encodes the mutations of a bookstore as
+ * {@link WriteAheadLog} records, and replays them.
+ *
+ * A record holds the arguments of a call that passed validation, so replaying
+ * the calls in log order against an empty store rebuilds its state. Sets are
+ * decoded in the order they were encoded.
+ */
+final class BookStoreLogRecords {
+
+	private static final byte ADD_BOOKS = 1;
+	private static final byte ADD_COPIES = 2;
+	private static final byte BUY_BOOKS = 3;
+	private static final byte RATE_BOOKS = 4;
+	private static final byte UPDATE_EDITOR_PICKS = 5;
+	private static final byte REMOVE_BOOKS = 6;
+	private static final byte REMOVE_ALL_BOOKS = 7;
+
+	/**
+	 * Prevents the instantiation of {@link BookStoreLogRecords}.
+	 */
+	private BookStoreLogRecords() {
+		// Prevent instantiation.
+	}
+
+	/**
+	 * Encodes a call to {@link StockManager#addBooks(Set)}.
+	 *
+	 * @param bookSet
+	 *            the books added
+	 * @return the record
+	 */
+	static byte[] addBooks(Set<StockBook> bookSet) {
+		Encoder encoder = new Encoder(ADD_BOOKS, bookSet.size());
+
+		for (StockBook book : bookSet) {
+			encoder.writeInt(book.getISBN());
+			encoder.writeString(book.getTitle());
+			encoder.writeString(book.getAuthor());
+			encoder.writeFloat(book.getPrice());
+			encoder.writeInt(book.getNumCopies());
+			encoder.writeLong(book.getNumSaleMisses());
+			encoder.writeLong(book.getNumTimesRated());
+			encoder.writeLong(book.getTotalRating());
+			encoder.writeBoolean(book.isEditorPick());
+		}
+
+		return encoder.toByteArray();
+	}
+
+	/**
+	 * Encodes a call to {@link StockManager#addCopies(Set)}.
+	 *
+	 * @param bookCopiesSet
+	 *            the copies added
+	 * @return the record
+	 */
+	static byte[] addCopies(Set<BookCopy> bookCopiesSet) {
+		return bookCopies(ADD_COPIES, bookCopiesSet);
+	}
+
+	/**
+	 * Encodes a call to {@link BookStore#buyBooks(Set)}, whether the purchase
+	 * went through or only recorded sale misses.
+	 *
+	 * @param bookCopiesToBuy
+	 *            the copies bought
+	 * @return the record
+	 */
+	static byte[] buyBooks(Set<BookCopy> bookCopiesToBuy) {
+		return bookCopies(BUY_BOOKS, bookCopiesToBuy);
+	}
+
+	private static byte[] bookCopies(byte type, Set<BookCopy> bookCopies) {
+		Encoder encoder = new Encoder(type, bookCopies.size());
+
+		for (BookCopy bookCopy : bookCopies) {
+			encoder.writeInt(bookCopy.getISBN());
+			encoder.writeInt(bookCopy.getNumCopies());
+		}
+
+		return encoder.toByteArray();
+	}
+
+	/**
+	 * Encodes a call to {@link BookStore#rateBooks(Set)}.
+	 *
+	 * @param bookRatings
+	 *            the ratings
+	 * @return the record
+	 */
+	static byte[] rateBooks(Set<BookRating> bookRatings) {
+		Encoder encoder = new Encoder(RATE_BOOKS, bookRatings.size());
+
+		for (BookRating bookRating : bookRatings) {
+			encoder.writeInt(bookRating.getISBN());
+			encoder.writeInt(bookRating.getRating());
+		}
+
+		return encoder.toByteArray();
+	}
+
+	/**
+	 * Encodes a call to {@link StockManager#updateEditorPicks(Set)}.
+	 *
+	 * @param editorPicks
+	 *            the editor picks
+	 * @return the record
+	 */
+	static byte[] updateEditorPicks(Set<BookEditorPick> editorPicks) {
+		Encoder encoder = new Encoder(UPDATE_EDITOR_PICKS, editorPicks.size());
+
+		for (BookEditorPick editorPick : editorPicks) {
+			encoder.writeInt(editorPick.getISBN());
+			encoder.writeBoolean(editorPick.isEditorPick());
+		}
+
+		return encoder.toByteArray();
+	}
+
+	/**
+	 * Encodes a call to {@link StockManager#removeBooks(Set)}.
+	 *
+	 * @param isbns
+	 *            the ISBNs of the books removed
+	 * @return the record
+	 */
+	static byte[] removeBooks(int[] isbns) {
+		Encoder encoder = new Encoder(REMOVE_BOOKS, isbns.length);
+
+		for (int isbn : isbns) {
+			encoder.writeInt(isbn);
+		}
+
+		return encoder.toByteArray();
+	}
+
+	/**
+	 * Encodes a call to {@link StockManager#removeAllBooks()}.
+	 *
+	 * @return the record
+	 */
+	static byte[] removeAllBooks() {
+		return new Encoder(REMOVE_ALL_BOOKS, 0).toByteArray();
+	}
+
+	/**
+	 * Replays a record by making the call it encodes. A purchase that recorded
+	 * sale misses fails again when replayed, which is expected.
+	 *
+	 * @param record
+	 *            the record
+	 * @param bookStore
+	 *            the bookstore to replay against
+	 * @param stockManager
+	 *            the stock manager to replay against
+	 */
+	static void replay(byte[] record, BookStore bookStore, StockManager stockManager) {
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(record));
+
+		try {
+			byte type = in.readByte();
+			int count = in.readInt();
+
+			switch (type) {
+			case ADD_BOOKS:
+				Set<StockBook> books = new LinkedHashSet<>();
+
+				for (int i = 0; i < count; i++) {
+					books.add(new ImmutableStockBook(in.readInt(), readString(in), readString(in), in.readFloat(),
+							in.readInt(), in.readLong(), in.readLong(), in.readLong(), in.readBoolean()));
+				}
+
+				stockManager.addBooks(books);
+				break;
+
+			case ADD_COPIES:
+				stockManager.addCopies(readBookCopies(in, count));
+				break;
+
+			case BUY_BOOKS:
+				try {
+					bookStore.buyBooks(readBookCopies(in, count));
+				} catch (BookStoreException ex) {
+					// The sale misses were recorded before the purchase failed.
+				}
+				break;
+
+			case RATE_BOOKS:
+				Set<BookRating> ratings = new LinkedHashSet<>();
+
+				for (int i = 0; i < count; i++) {
+					ratings.add(new BookRating(in.readInt(), in.readInt()));
+				}
+
+				bookStore.rateBooks(ratings);
+				break;
+
+			case UPDATE_EDITOR_PICKS:
+				Set<BookEditorPick> editorPicks = new LinkedHashSet<>();
+
+				for (int i = 0; i < count; i++) {
+					editorPicks.add(new BookEditorPick(in.readInt(), in.readBoolean()));
+				}
+
+				stockManager.updateEditorPicks(editorPicks);
+				break;
+
+			case REMOVE_BOOKS:
+				Set<Integer> isbns = new LinkedHashSet<>();
+
+				for (int i = 0; i < count; i++) {
+					isbns.add(in.readInt());
+				}
+
+				stockManager.removeBooks(isbns);
+				break;
+
+			case REMOVE_ALL_BOOKS:
+				stockManager.removeAllBooks();
+				break;
+
+			default:
+				throw new IllegalStateException("Unknown write-ahead log record type " + type);
+			}
+		} catch (IOException ex) {
+			throw new UncheckedIOException(ex);
+		} catch (BookStoreException ex) {
+			// Only calls that passed validation are logged.
+			throw new IllegalStateException("The write-ahead log does not match the bookstore", ex);
+		}
+	}
+
+	private static Set<BookCopy> readBookCopies(DataInputStream in, int count) throws IOException {
+		Set<BookCopy> bookCopies = new LinkedHashSet<>();
+
+		for (int i = 0; i < count; i++) {
+			bookCopies.add(new BookCopy(in.readInt(), in.readInt()));
+		}
+
+		return bookCopies;
+	}
+
+	private static String readString(DataInputStream in) throws IOException {
+		byte[] bytes = new byte[in.readInt()];
+		in.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * {@link Encoder} writes the type and element count of a record, then its
+	 * elements.
+	 */
+	private static final class Encoder {
+
+		private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		private final DataOutputStream out = new DataOutputStream(bytes);
+
+		Encoder(byte type, int count) {
+			writeByte(type);
+			writeInt(count);
+		}
+
+		// A DataOutputStream over a ByteArrayOutputStream never throws.
+
+		void writeByte(byte value) {
+			try {
+				out.writeByte(value);
+			} catch (IOException ex) {
+				throw new UncheckedIOException(ex);
+			}
+		}
+
+		void writeBoolean(boolean value) {
+			try {
+				out.writeBoolean(value);
+			} catch (IOException ex) {
+				throw new UncheckedIOException(ex);
+			}
+		}
+
+		void writeInt(int value) {
+			try {
+				out.writeInt(value);
+			} catch (IOException ex) {
+				throw new UncheckedIOException(ex);
+			}
+		}
+
+		void writeLong(long value) {
+			try {
+				out.writeLong(value);
+			} catch (IOException ex) {
+				throw new UncheckedIOException(ex);
+			}
+		}
+
+		void writeFloat(float value) {
+			try {
+				out.writeFloat(value);
+			} catch (IOException ex) {
+				throw new UncheckedIOException(ex);
+			}
+		}
+
+		void writeString(String value) {
+			byte[] encoded = value.getBytes(StandardCharsets.UTF_8);
+
+			try {
+				out.writeInt(encoded.length);
+				out.write(encoded);
+			} catch (IOException ex) {
+				throw new UncheckedIOException(ex);
+			}
+		}
+
+		byte[] toByteArray() {
+			return bytes.toByteArray();
+		}
+	}
+}
@@ -1,7 +1,14 @@
 package com.acertainbookstore.business;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.*;
 import java.util.Map.Entry;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -20,8 +27,52 @@ import com.acertainbookstore.utils.BookStoreUtility;
  */
 public class CertainBookStore implements BookStore, StockManager {
 
+	/**
+	 * The lock of the state of the store. A lock rather than the monitor of the
+	 * store, so that a virtual thread blocked on it, or on the log while holding
+	 * it, does not pin its carrier thread.
+	 */
+	private final ReentrantLock lock = new ReentrantLock();
+
 	/** The mapping of books from ISBN to {@link BookStoreBook}. */
-	private Map<Integer, BookStoreBook> bookMap = null;
+	private IntObjectHashMap<BookStoreBook> bookMap = null;
+
+	/**
+	 * The order of the rating index: highest average rating first, ties broken
+	 * by ascending ISBN.
+	 */
+	private static final Comparator<BookStoreBook> TOP_RATED_ORDER = (book1, book2) -> {
+		int byRating = Float.compare(book2.getAverageRating(), book1.getAverageRating());
+		return (byRating != 0) ? byRating : Integer.compare(book1.getISBN(), book2.getISBN());
+	};
+
+	/**
+	 * The books ordered by {@link #TOP_RATED_ORDER}. A book's position depends
+	 * on its rating, so it must be taken out of the index before its rating
+	 * changes and put back afterwards.
+	 */
+	private NavigableSet<BookStoreBook> ratingIndex = null;
+
+	/** The books that are editor picks, in no particular order. */
+	private List<BookStoreBook> editorPicks = null;
+
+	/** The position of each editor pick in {@link #editorPicks}, by ISBN. */
+	private Map<Integer, Integer> editorPickPositions = null;
+
+	/** The ISBNs of the books that had sale misses since their last restock. */
+	private Set<Integer> booksInDemand = null;
+
+	/** The log the mutations are made durable in, or null if the store is not durable. */
+	private final WriteAheadLog writeAheadLog;
+
+	/** The file the checkpoints are written to, or null if there is none. */
+	private final File checkpointFile;
+
+	/** The lock letting one checkpoint be taken at a time. */
+	private final ReentrantLock checkpointLock = new ReentrantLock();
+
+	/** The thread taking periodic checkpoints, or null if there is none. */
+	private final ScheduledExecutorService checkpointer;
 
 	/**
 	 * Instantiates a new {@link CertainBookStore}.
@@ -29,10 +80,295 @@ public class CertainBookStore implements BookStore, StockManager {
 	public CertainBookStore() {
 
 		// Constructors are not synchronized
-		bookMap = new HashMap<>();
+		bookMap = new IntObjectHashMap<>();
+		ratingIndex = new TreeSet<>(TOP_RATED_ORDER);
+		editorPicks = new ArrayList<>();
+		editorPickPositions = new HashMap<>();
+		booksInDemand = new HashSet<>();
+		writeAheadLog = null;
+		checkpointFile = null;
+		checkpointer = null;
+	}
+
+	/**
+	 * Instantiates a new durable {@link CertainBookStore}, rebuilding its state
+	 * from the mutations already in the log. A mutation returns only once it
+	 * is durable in the log.
+	 *
+	 * @param logFile
+	 *            the write-ahead log file
+	 * @param batchWindowMicros
+	 *            how long the log waits for more mutations before each fsync,
+	 *            in microseconds
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public CertainBookStore(File logFile, long batchWindowMicros) throws IOException {
+		this(logFile, batchWindowMicros, null, 0);
+	}
+
+	/**
+	 * Instantiates a new durable {@link CertainBookStore} with checkpoints. Its
+	 * state is rebuilt from the last checkpoint, if any, and the mutations
+	 * logged after it.
+	 *
+	 * @param logFile
+	 *            the write-ahead log file
+	 * @param batchWindowMicros
+	 *            how long the log waits for more mutations before each fsync,
+	 *            in microseconds
+	 * @param checkpointFile
+	 *            the checkpoint file, or null for no checkpoints
+	 * @param checkpointIntervalSeconds
+	 *            the time between two background checkpoints, in seconds; 0
+	 *            only takes them when {@link #checkpoint()} is called
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public CertainBookStore(File logFile, long batchWindowMicros, File checkpointFile, long checkpointIntervalSeconds)
+			throws IOException {
+		bookMap = new IntObjectHashMap<>();
+		ratingIndex = new TreeSet<>(TOP_RATED_ORDER);
+		editorPicks = new ArrayList<>();
+		editorPickPositions = new HashMap<>();
+		booksInDemand = new HashSet<>();
+		this.checkpointFile = checkpointFile;
+
+		long checkpointLsn = 0;
+
+		if (checkpointFile != null && checkpointFile.exists()) {
+			List<BookStoreBook> books = new ArrayList<>();
+			checkpointLsn = BookStoreCheckpoint.load(checkpointFile, books::add);
+			restore(books);
+		}
+
+		// The log is not assigned yet, so the replayed mutations are not logged again.
+		writeAheadLog = WriteAheadLog.open(logFile, batchWindowMicros, checkpointLsn,
+				record -> BookStoreLogRecords.replay(record, this, this));
+
+		if (checkpointFile != null && checkpointIntervalSeconds > 0) {
+			checkpointer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+				Thread thread = new Thread(runnable, "bookstore-checkpointer");
+				thread.setDaemon(true);
+				return thread;
+			});
+			checkpointer.scheduleWithFixedDelay(this::checkpointQuietly, checkpointIntervalSeconds,
+					checkpointIntervalSeconds, TimeUnit.SECONDS);
+		} else {
+			checkpointer = null;
+		}
 	}
 
-	private synchronized void validate(StockBook book) throws BookStoreException {
+	/**
+	 * Adds a book to the rating, editor pick and demand indexes.
+	 *
+	 * @param book
+	 *            the book, already in {@link #bookMap}
+	 */
+	private void indexBook(BookStoreBook book) {
+		ratingIndex.add(book);
+
+		if (book.isEditorPick()) {
+			indexEditorPick(book);
+		}
+
+		if (book.hadSaleMiss()) {
+			booksInDemand.add(book.getISBN());
+		}
+	}
+
+	/**
+	 * Fills the empty store with the books of a checkpoint.
+	 *
+	 * @param books
+	 *            the books of the checkpoint
+	 */
+	private void restore(List<BookStoreBook> books) {
+		bookMap = new IntObjectHashMap<>(books.size());
+
+		for (BookStoreBook book : books) {
+			bookMap.put(book.getISBN(), book);
+
+			if (book.isEditorPick()) {
+				indexEditorPick(book);
+			}
+
+			if (book.hadSaleMiss()) {
+				booksInDemand.add(book.getISBN());
+			}
+		}
+
+		ratingIndex.addAll(books);
+	}
+
+	/**
+	 * Writes a checkpoint of the store and drops the mutations logged before
+	 * it from the write-ahead log, so that recovery only replays the
+	 * mutations logged after it. The store is locked only while the state of
+	 * the books is copied; it is written to disk concurrently with other
+	 * requests.
+	 *
+	 * @throws BookStoreException
+	 *             if the store has no checkpoint file or the checkpoint could
+	 *             not be written
+	 */
+	public void checkpoint() throws BookStoreException {
+		if (checkpointFile == null) {
+			throw new BookStoreException("The bookstore has no checkpoint file");
+		}
+
+		checkpointLock.lock();
+
+		try {
+			BookStoreCheckpoint checkpoint;
+
+			lock.lock();
+
+			try {
+				// Every mutation applied so far has been appended to the log.
+				checkpoint = BookStoreCheckpoint.capture(ratingIndex, writeAheadLog.getAppendedLsn());
+			} finally {
+				lock.unlock();
+			}
+
+			// The checkpoint must not get ahead of the log it is replayed with.
+			writeAheadLog.awaitDurable(checkpoint.getLsn());
+
+			try {
+				checkpoint.write(checkpointFile);
+			} catch (IOException ex) {
+				throw new BookStoreException("Could not write the checkpoint " + checkpointFile, ex);
+			}
+
+			// Recovery now starts at the checkpoint, so the records before it
+			// are dropped; a crash before this only leaves them in the log.
+			try {
+				writeAheadLog.truncate(checkpoint.getLsn());
+			} catch (IOException ex) {
+				throw new BookStoreException("Could not truncate the write-ahead log", ex);
+			}
+		} finally {
+			checkpointLock.unlock();
+		}
+	}
+
+	private void checkpointQuietly() {
+		try {
+			checkpoint();
+		} catch (BookStoreException ex) {
+			System.err.println(ex.getMessage());
+		}
+	}
+
+	/**
+	 * Appends a mutation to the write-ahead log. It must be called while
+	 * holding {@link #lock}, so that the log order is the order in which
+	 * mutations are applied, after the mutation is validated and before any of
+	 * it is applied, so that a log that failed or was closed leaves the store
+	 * as it was. A failed log stays failed, so the store stops accepting
+	 * mutations until it is restarted and recovered from the log.
+	 *
+	 * @param record
+	 *            the record of the mutation, or null if the store is not durable
+	 * @return the log sequence number of the record, 0 if the store is not
+	 *         durable
+	 * @throws BookStoreException
+	 *             if the log failed
+	 */
+	private long log(byte[] record) throws BookStoreException {
+		return (writeAheadLog == null) ? 0 : writeAheadLog.append(record);
+	}
+
+	/**
+	 * Waits until a mutation is durable. It must be called without holding the
+	 * lock of the store, so that other requests proceed during the fsync and
+	 * can share it.
+	 *
+	 * @param lsn
+	 *            the log sequence number of the mutation
+	 * @throws BookStoreException
+	 *             if the log failed
+	 */
+	private void awaitDurable(long lsn) throws BookStoreException {
+		if (writeAheadLog != null) {
+			writeAheadLog.awaitDurable(lsn);
+		}
+	}
+
+	/**
+	 * Stops the background checkpoints and closes the write-ahead log, if the
+	 * store is durable.
+	 *
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public void close() throws IOException {
+		if (checkpointer != null) {
+			checkpointer.shutdown();
+		}
+
+		// Let a checkpoint in progress finish before the log goes away.
+		checkpointLock.lock();
+
+		try {
+			if (writeAheadLog != null) {
+				writeAheadLog.close();
+			}
+		} finally {
+			checkpointLock.unlock();
+		}
+	}
+
+	/**
+	 * Adds the book to the editor picks, unless it is already there.
+	 *
+	 * @param book
+	 *            the book
+	 */
+	private void indexEditorPick(BookStoreBook book) {
+		if (editorPickPositions.putIfAbsent(book.getISBN(), editorPicks.size()) == null) {
+			editorPicks.add(book);
+		}
+	}
+
+	/**
+	 * Removes the book from the editor picks, if it is there, by moving the
+	 * last pick into its slot.
+	 *
+	 * @param isbn
+	 *            the ISBN of the book
+	 */
+	private void unindexEditorPick(int isbn) {
+		Integer position = editorPickPositions.remove(isbn);
+
+		if (position == null) {
+			return;
+		}
+
+		BookStoreBook last = editorPicks.remove(editorPicks.size() - 1);
+
+		if (position < editorPicks.size()) {
+			editorPicks.set(position, last);
+			editorPickPositions.put(last.getISBN(), position);
+		}
+	}
+
+	/**
+	 * Swaps two editor picks in {@link #editorPicks}.
+	 *
+	 * @param i
+	 *            the position of the first pick
+	 * @param j
+	 *            the position of the second pick
+	 */
+	private void swapEditorPicks(int i, int j) {
+		BookStoreBook book = editorPicks.get(i);
+		editorPicks.set(i, editorPicks.set(j, book));
+		editorPickPositions.put(editorPicks.get(i).getISBN(), i);
+		editorPickPositions.put(book.getISBN(), j);
+	}
+
+	private void validate(StockBook book) throws BookStoreException {
 		int isbn = book.getISBN();
 		String bookTitle = book.getTitle();
 		String bookAuthor = book.getAuthor();
@@ -64,7 +400,7 @@ public class CertainBookStore implements BookStore, StockManager {
 		}
 	}
 
-	private synchronized void validate(BookCopy bookCopy) throws BookStoreException {
+	private void validate(BookCopy bookCopy) throws BookStoreException {
 		int isbn = bookCopy.getISBN();
 		int numCopies = bookCopy.getNumCopies();
 
@@ -75,12 +411,12 @@ public class CertainBookStore implements BookStore, StockManager {
 		}
 	}
 
-	private synchronized void validate(BookEditorPick editorPickArg) throws BookStoreException {
+	private void validate(BookEditorPick editorPickArg) throws BookStoreException {
 		int isbn = editorPickArg.getISBN();
 		validateISBNInStock(isbn); // Check if the book has valid ISBN and in stock
 	}
 
-	private synchronized void validateISBNInStock(Integer ISBN) throws BookStoreException {
+	private void validateISBNInStock(int ISBN) throws BookStoreException {
 		if (BookStoreUtility.isInvalidISBN(ISBN)) { // Check if the book has valid ISBN
 			throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.INVALID);
 		}
@@ -89,27 +425,48 @@ public class CertainBookStore implements BookStore, StockManager {
 		}
 	}
 
+	private void validateISBNsInStock(int[] isbns) throws BookStoreException {
+		for (int isbn : isbns) {
+			validateISBNInStock(isbn);
+		}
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * 
 	 * @see com.acertainbookstore.interfaces.StockManager#addBooks(java.util.Set)
 	 */
-	public synchronized void addBooks(Set<StockBook> bookSet) throws BookStoreException {
+	public void addBooks(Set<StockBook> bookSet) throws BookStoreException {
 		if (bookSet == null) {
 			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
 		}
 
-		// Check that all books are there first.
-		for (StockBook book : bookSet) {
-			validate(book);
-		}
+		long lsn;
 
-		// Then add these books to the store.
-		for (StockBook book : bookSet) {
-			int isbn = book.getISBN();
-			bookMap.put(isbn, new BookStoreBook(book));
+		lock.lock();
+
+		try {
+			// Check that all books are there first.
+			for (StockBook book : bookSet) {
+				validate(book);
+			}
+
+			byte[] record = (writeAheadLog == null) ? null : BookStoreLogRecords.addBooks(bookSet);
+			lsn = log(record);
+
+			// Then add these books to the store, one per ISBN, so that the
+			// indexes hold the same book as the map.
+			for (StockBook book : BookStoreUtility.lastBookPerISBN(bookSet)) {
+				int isbn = book.getISBN();
+				BookStoreBook bookStoreBook = new BookStoreBook(book);
+				bookMap.put(isbn, bookStoreBook);
+				indexBook(bookStoreBook);
+			}
+		} finally {
+			lock.unlock();
 		}
 
+		awaitDurable(lsn);
 	}
 
 	/*
@@ -117,7 +474,7 @@ public class CertainBookStore implements BookStore, StockManager {
 	 * 
 	 * @see com.acertainbookstore.interfaces.StockManager#addCopies(java.util.Set)
 	 */
-	public synchronized void addCopies(Set<BookCopy> bookCopiesSet) throws BookStoreException {
+	public void addCopies(Set<BookCopy> bookCopiesSet) throws BookStoreException {
 		int isbn;
 		int numCopies;
 
@@ -125,21 +482,36 @@ public class CertainBookStore implements BookStore, StockManager {
 			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
 		}
 
-		// Check that all books are there first.
-		for (BookCopy bookCopy : bookCopiesSet) {
-			validate(bookCopy);
-		}
+		long lsn;
 
-		BookStoreBook book;
+		lock.lock();
+
+		try {
+			// Check that all books are there first.
+			for (BookCopy bookCopy : bookCopiesSet) {
+				validate(bookCopy);
+			}
+
+			byte[] record = (writeAheadLog == null) ? null : BookStoreLogRecords.addCopies(bookCopiesSet);
+			lsn = log(record);
+
+			BookStoreBook book;
 
-		// Then update the number of copies.
-		for (BookCopy bookCopy : bookCopiesSet) {
-			isbn = bookCopy.getISBN();
-			numCopies = bookCopy.getNumCopies();
-			book = bookMap.get(isbn);
-			book.addCopies(numCopies);
+			// Then update the number of copies.
+			for (BookCopy bookCopy : bookCopiesSet) {
+				isbn = bookCopy.getISBN();
+				numCopies = bookCopy.getNumCopies();
+				book = bookMap.get(isbn);
+				book.addCopies(numCopies);
+
+				// Restocking clears the sale misses of the book.
+				booksInDemand.remove(isbn);
+			}
+		} finally {
+			lock.unlock();
 		}
 
+		awaitDurable(lsn);
 	}
 
 	/*
@@ -147,10 +519,69 @@ public class CertainBookStore implements BookStore, StockManager {
 	 * 
 	 * @see com.acertainbookstore.interfaces.StockManager#getBooks()
 	 */
-	public synchronized List<StockBook> getBooks() {
-		Collection<BookStoreBook> bookMapValues = bookMap.values();
+	public List<StockBook> getBooks() {
+		lock.lock();
+
+		try {
+			Collection<BookStoreBook> bookMapValues = bookMap.values();
+
+			return bookMapValues.stream().map(book -> book.immutableStockBook()).collect(Collectors.toList());
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#getBookChunks(int)
+	 */
+	public Iterator<List<StockBook>> getBookChunks(int chunkSize) throws BookStoreException {
+		if (chunkSize < 1) {
+			throw new BookStoreException("chunkSize = " + chunkSize + ", but it must be positive");
+		}
+
+		int[] isbns;
+		lock.lock();
+
+		try {
+			isbns = bookMap.values().stream().mapToInt(BookStoreBook::getISBN).toArray();
+		} finally {
+			lock.unlock();
+		}
+
+		return new BookStoreChunkIterator(isbns, chunkSize, this::copyBooks);
+	}
+
+	/**
+	 * Copies the books of a range of ISBNs that are still in the store.
+	 *
+	 * @param isbns
+	 *            the ISBNs
+	 * @param from
+	 *            the first ISBN of the range
+	 * @param to
+	 *            the end of the range, exclusive
+	 * @return the books
+	 */
+	private List<StockBook> copyBooks(int[] isbns, int from, int to) {
+		lock.lock();
+
+		try {
+			List<StockBook> books = new ArrayList<>(to - from);
 
-		return bookMapValues.stream().map(book -> book.immutableStockBook()).collect(Collectors.toList());
+			for (int i = from; i < to; i++) {
+				BookStoreBook book = bookMap.get(isbns[i]);
+
+				if (book != null) {
+					books.add(book.immutableStockBook());
+				}
+			}
+
+			return books;
+		} finally {
+			lock.unlock();
+		}
 	}
 
 	/*
@@ -160,21 +591,41 @@ public class CertainBookStore implements BookStore, StockManager {
 	 * com.acertainbookstore.interfaces.StockManager#updateEditorPicks(java.util
 	 * .Set)
 	 */
-	public synchronized void updateEditorPicks(Set<BookEditorPick> editorPicks) throws BookStoreException {
+	public void updateEditorPicks(Set<BookEditorPick> editorPicks) throws BookStoreException {
 
 		if (editorPicks == null) {
 			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
 		}
 
-		// Check that all books are there first.
-		for (BookEditorPick editorPickArg : editorPicks) {
-			validate(editorPickArg);
-		}
+		long lsn;
+
+		lock.lock();
 
-		// Then set the editor pick.
-		for (BookEditorPick editorPickArg : editorPicks) {
-			bookMap.get(editorPickArg.getISBN()).setEditorPick(editorPickArg.isEditorPick());
+		try {
+			// Check that all books are there first.
+			for (BookEditorPick editorPickArg : editorPicks) {
+				validate(editorPickArg);
+			}
+
+			byte[] record = (writeAheadLog == null) ? null : BookStoreLogRecords.updateEditorPicks(editorPicks);
+			lsn = log(record);
+
+			// Then set the editor pick.
+			for (BookEditorPick editorPickArg : editorPicks) {
+				BookStoreBook book = bookMap.get(editorPickArg.getISBN());
+				book.setEditorPick(editorPickArg.isEditorPick());
+
+				if (editorPickArg.isEditorPick()) {
+					indexEditorPick(book);
+				} else {
+					unindexEditorPick(book.getISBN());
+				}
+			}
+		} finally {
+			lock.unlock();
 		}
+
+		awaitDurable(lsn);
 	}
 
 	/*
@@ -182,7 +633,7 @@ public class CertainBookStore implements BookStore, StockManager {
 	 * 
 	 * @see com.acertainbookstore.interfaces.BookStore#buyBooks(java.util.Set)
 	 */
-	public synchronized void buyBooks(Set<BookCopy> bookCopiesToBuy) throws BookStoreException {
+	public void buyBooks(Set<BookCopy> bookCopiesToBuy) throws BookStoreException {
 		if (bookCopiesToBuy == null) {
 			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
 		}
@@ -192,36 +643,53 @@ public class CertainBookStore implements BookStore, StockManager {
 		Boolean saleMiss = false;
 
 		Map<Integer, Integer> salesMisses = new HashMap<>();
+		long lsn;
+
+		lock.lock();
+
+		try {
+			for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
+				// Check whether the book is in stock.
+				validate(bookCopyToBuy);
+				isbn = bookCopyToBuy.getISBN();
+
+				book = bookMap.get(isbn);
+				// Check whether the number of book copy is enough for the request.
+				if (!book.areCopiesInStore(bookCopyToBuy.getNumCopies())) {
+					// If we cannot sell the copies of the book, it is a miss.
+					salesMisses.put(isbn, bookCopyToBuy.getNumCopies() - book.getNumCopies());
+					saleMiss = true;
+				}
+			}
 
-		for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
-			// Check whether the book is in stock.
-			validate(bookCopyToBuy);
-			isbn = bookCopyToBuy.getISBN();
-
-			book = bookMap.get(isbn);
-			// Check whether the number of book copy is enough for the request.
-			if (!book.areCopiesInStore(bookCopyToBuy.getNumCopies())) {
-				// If we cannot sell the copies of the book, it is a miss.
-				salesMisses.put(isbn, bookCopyToBuy.getNumCopies() - book.getNumCopies());
-				saleMiss = true;
+			// The sale misses are state too, so a failed purchase is logged.
+			byte[] record = (writeAheadLog == null) ? null : BookStoreLogRecords.buyBooks(bookCopiesToBuy);
+			lsn = log(record);
+
+			if (saleMiss) {
+				for (Map.Entry<Integer, Integer> saleMissEntry : salesMisses.entrySet()) {
+					book = bookMap.get(saleMissEntry.getKey());
+					book.addSaleMiss(saleMissEntry.getValue());
+					booksInDemand.add(saleMissEntry.getKey());
+				}
+			} else {
+				// Then make the purchase.
+				for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
+					book = bookMap.get(bookCopyToBuy.getISBN());
+					book.buyCopies(bookCopyToBuy.getNumCopies());
+				}
 			}
+		} finally {
+			lock.unlock();
 		}
 
+		awaitDurable(lsn);
+
 		// We throw exception now since we want to see how many books in the
 		// order incurred misses which is used by books in demand.
 		if (saleMiss) {
-			for (Map.Entry<Integer, Integer> saleMissEntry : salesMisses.entrySet()) {
-				book = bookMap.get(saleMissEntry.getKey());
-				book.addSaleMiss(saleMissEntry.getValue());
-			}
 			throw new BookStoreException(BookStoreConstants.BOOK + BookStoreConstants.NOT_AVAILABLE);
 		}
-
-		// Then make the purchase.
-		for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
-			book = bookMap.get(bookCopyToBuy.getISBN());
-			book.buyCopies(bookCopyToBuy.getNumCopies());
-		}
 	}
 
 	/*
@@ -230,17 +698,28 @@ public class CertainBookStore implements BookStore, StockManager {
 	 * @see com.acertainbookstore.interfaces.StockManager#getBooksByISBN(java.util.
 	 * Set)
 	 */
-	public synchronized List<StockBook> getBooksByISBN(Set<Integer> isbnSet) throws BookStoreException {
-		if (isbnSet == null) {
-			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
-		}
+	public List<StockBook> getBooksByISBN(Set<Integer> isbnSet) throws BookStoreException {
+		lock.lock();
 
-		for (Integer ISBN : isbnSet) {
-			validateISBNInStock(ISBN);
-		}
+		try {
+			if (isbnSet == null) {
+				throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+			}
+
+			int[] isbns = BookStoreUtility.toIntArray(isbnSet);
+			validateISBNsInStock(isbns);
+
+			// Return the set of books matching isbns in the validated set.
+			List<StockBook> books = new ArrayList<>(isbns.length);
+
+			for (int isbn : isbns) {
+				books.add(bookMap.get(isbn).immutableStockBook());
+			}
 
-		// Return the set of books matching isbns in the validated set.
-		return isbnSet.stream().map(isbn -> bookMap.get(isbn).immutableStockBook()).collect(Collectors.toList());
+			return books;
+		} finally {
+			lock.unlock();
+		}
 	}
 
 	/*
@@ -248,17 +727,28 @@ public class CertainBookStore implements BookStore, StockManager {
 	 * 
 	 * @see com.acertainbookstore.interfaces.BookStore#getBooks(java.util.Set)
 	 */
-	public synchronized List<Book> getBooks(Set<Integer> isbnSet) throws BookStoreException {
-		if (isbnSet == null) {
-			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
-		}
+	public List<Book> getBooks(Set<Integer> isbnSet) throws BookStoreException {
+		lock.lock();
 
-		// Check that all ISBNs that we rate are there to start with.
-		for (Integer ISBN : isbnSet) {
-			validateISBNInStock(ISBN);
-		}
+		try {
+			if (isbnSet == null) {
+				throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+			}
 
-		return isbnSet.stream().map(isbn -> bookMap.get(isbn).immutableBook()).collect(Collectors.toList());
+			// Check that all ISBNs that we rate are there to start with.
+			int[] isbns = BookStoreUtility.toIntArray(isbnSet);
+			validateISBNsInStock(isbns);
+
+			List<Book> books = new ArrayList<>(isbns.length);
+
+			for (int isbn : isbns) {
+				books.add(bookMap.get(isbn).immutableBook());
+			}
+
+			return books;
+		} finally {
+			lock.unlock();
+		}
 	}
 
 	/*
@@ -266,40 +756,29 @@ public class CertainBookStore implements BookStore, StockManager {
 	 * 
 	 * @see com.acertainbookstore.interfaces.BookStore#getEditorPicks(int)
 	 */
-	public synchronized List<Book> getEditorPicks(int numBooks) throws BookStoreException {
-		if (numBooks < 0) {
-			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
-		}
-
-		// Get all books that are editor picks.
-		List<BookStoreBook> listAllEditorPicks = bookMap.entrySet().stream().map(pair -> pair.getValue())
-				.filter(book -> book.isEditorPick()).collect(Collectors.toList());
+	public List<Book> getEditorPicks(int numBooks) throws BookStoreException {
+		lock.lock();
 
-		// Find numBooks random indices of books that will be picked.
-		Random rand = new Random();
-		Set<Integer> tobePicked = new HashSet<>();
-		int rangePicks = listAllEditorPicks.size();
-
-		if (rangePicks <= numBooks) {
-
-			// We need to add all books.
-			for (int i = 0; i < listAllEditorPicks.size(); i++) {
-				tobePicked.add(i);
+		try {
+			if (numBooks < 0) {
+				throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
 			}
-		} else {
 
-			// We need to pick randomly the books that need to be returned.
-			int randNum;
+			// Move a uniform sample of numBooks picks to the front of the index
+			// with a partial Fisher-Yates shuffle, then return the front.
+			int numPicks = Math.min(numBooks, editorPicks.size());
+			ThreadLocalRandom rand = ThreadLocalRandom.current();
+			List<Book> pickedBooks = new ArrayList<>(numPicks);
 
-			while (tobePicked.size() < numBooks) {
-				randNum = rand.nextInt(rangePicks);
-				tobePicked.add(randNum);
+			for (int i = 0; i < numPicks; i++) {
+				swapEditorPicks(i, rand.nextInt(i, editorPicks.size()));
+				pickedBooks.add(editorPicks.get(i).immutableBook());
 			}
-		}
 
-		// Return all the books by the randomly chosen indices.
-		return tobePicked.stream().map(index -> listAllEditorPicks.get(index).immutableBook())
-				.collect(Collectors.toList());
+			return pickedBooks;
+		} finally {
+			lock.unlock();
+		}
 	}
 
 	/*
@@ -308,24 +787,28 @@ public class CertainBookStore implements BookStore, StockManager {
 	 * @see com.acertainbookstore.interfaces.BookStore#getTopRatedBooks(int)
 	 */
 	@Override
-	public synchronized List<Book> getTopRatedBooks(int numBooks) throws BookStoreException {
-//		throw new BookStoreException();
-		//positive numBook
-		if (numBooks < 1) {
-			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
-		}
+	public List<Book> getTopRatedBooks(int numBooks) throws BookStoreException {
+		lock.lock();
+
+		try {
+	//		throw new BookStoreException();
+			//positive numBook
+			if (numBooks < 1) {
+				throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+			}
+
+			// The index is already sorted, so only the first numBooks are visited.
+			List<Book> topRatedBooks = new ArrayList<>(Math.min(numBooks, bookMap.size()));
+			Iterator<BookStoreBook> it = ratingIndex.iterator();
+
+			while (topRatedBooks.size() < numBooks && it.hasNext()) {
+				topRatedBooks.add(it.next().immutableBook());
+			}
 
-		//sort the list book based on avg rating
-		Comparator<BookStoreBook> comparator = Comparator.comparing(BookStoreBook::getAverageRating);
-		List<BookStoreBook> sortedList = bookMap.entrySet().stream().map(pair->pair.getValue()).sorted(comparator.reversed())
-				.collect(Collectors.toList());
-		int rangePicks = sortedList.size();
-		Set<Integer> tobePicked = new HashSet<>();
-		//pick out top min(K, size)
-		for (int i = 0; i < Math.min(rangePicks, numBooks); ++i) {
-			tobePicked.add(i);
+			return topRatedBooks;
+		} finally {
+			lock.unlock();
 		}
-		return tobePicked.stream().map(index -> sortedList.get(index).immutableBook()).collect(Collectors.toList());
 	}
 
 	/*
@@ -334,11 +817,22 @@ public class CertainBookStore implements BookStore, StockManager {
 	 * @see com.acertainbookstore.interfaces.StockManager#getBooksInDemand()
 	 */
 	@Override
-	public synchronized List<StockBook> getBooksInDemand()  {
-//		throw new BookStoreException();
-		//only acquire the ones that had sale miss
-		return bookMap.entrySet().stream().map(pair -> pair.getValue()).filter(book -> book.hadSaleMiss())
-				.map(book -> book.immutableStockBook()).collect(Collectors.toList());
+	public List<StockBook> getBooksInDemand()  {
+		lock.lock();
+
+		try {
+	//		throw new BookStoreException();
+			//only acquire the ones that had sale miss
+			List<StockBook> inDemandBooks = new ArrayList<>(booksInDemand.size());
+
+			for (int isbn : booksInDemand) {
+				inDemandBooks.add(bookMap.get(isbn).immutableStockBook());
+			}
+
+			return inDemandBooks;
+		} finally {
+			lock.unlock();
+		}
 	}
 
 	/*
@@ -347,26 +841,41 @@ public class CertainBookStore implements BookStore, StockManager {
 	 * @see com.acertainbookstore.interfaces.BookStore#rateBooks(java.util.Set)
 	 */
 	@Override
-	public synchronized void rateBooks(Set<BookRating> bookRating) throws BookStoreException {
-		//check validity of parameters
-		for (BookRating br : bookRating) {
-			int isbn = br.getISBN();
-			int rating = br.getRating();
+	public void rateBooks(Set<BookRating> bookRating) throws BookStoreException {
+		long lsn;
 
-			validateISBNInStock(isbn);
+		lock.lock();
 
-			if (BookStoreUtility.isInvalidRating(rating)) {
-				throw new BookStoreException(BookStoreConstants.RATING + rating + BookStoreConstants.INVALID);
+		try {
+			//check validity of parameters
+			for (BookRating br : bookRating) {
+				int isbn = br.getISBN();
+				int rating = br.getRating();
+
+				validateISBNInStock(isbn);
+
+				if (BookStoreUtility.isInvalidRating(rating)) {
+					throw new BookStoreException(BookStoreConstants.RATING + rating + BookStoreConstants.INVALID);
+				}
 			}
-		}
 
-		//update the state
-		for (BookRating br : bookRating) {
-			int isbn = br.getISBN();
-			int rating = br.getRating();
-			BookStoreBook book = bookMap.get(isbn);
-			book.addRating(rating);
+			byte[] record = (writeAheadLog == null) ? null : BookStoreLogRecords.rateBooks(bookRating);
+			lsn = log(record);
+
+			//update the state
+			for (BookRating br : bookRating) {
+				int isbn = br.getISBN();
+				int rating = br.getRating();
+				BookStoreBook book = bookMap.get(isbn);
+				ratingIndex.remove(book);
+				book.addRating(rating);
+				ratingIndex.add(book);
+			}
+		} finally {
+			lock.unlock();
 		}
+
+		awaitDurable(lsn);
 	}
 
 	/*
@@ -374,8 +883,25 @@ public class CertainBookStore implements BookStore, StockManager {
 	 * 
 	 * @see com.acertainbookstore.interfaces.StockManager#removeAllBooks()
 	 */
-	public synchronized void removeAllBooks() throws BookStoreException {
-		bookMap.clear();
+	public void removeAllBooks() throws BookStoreException {
+		long lsn;
+
+		lock.lock();
+
+		try {
+			byte[] record = (writeAheadLog == null) ? null : BookStoreLogRecords.removeAllBooks();
+			lsn = log(record);
+
+			bookMap.clear();
+			ratingIndex.clear();
+			editorPicks.clear();
+			editorPickPositions.clear();
+			booksInDemand.clear();
+		} finally {
+			lock.unlock();
+		}
+
+		awaitDurable(lsn);
 	}
 
 	/*
@@ -383,23 +909,31 @@ public class CertainBookStore implements BookStore, StockManager {
 	 * 
 	 * @see com.acertainbookstore.interfaces.StockManager#removeBooks(java.util.Set)
 	 */
-	public synchronized void removeBooks(Set<Integer> isbnSet) throws BookStoreException {
+	public void removeBooks(Set<Integer> isbnSet) throws BookStoreException {
 		if (isbnSet == null) {
 			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
 		}
 
-		for (Integer ISBN : isbnSet) {
-			if (BookStoreUtility.isInvalidISBN(ISBN)) {
-				throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.INVALID);
-			}
+		int[] isbns = BookStoreUtility.toIntArray(isbnSet);
+		long lsn;
+
+		lock.lock();
 
-			if (!bookMap.containsKey(ISBN)) {
-				throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.NOT_AVAILABLE);
+		try {
+			validateISBNsInStock(isbns);
+
+			byte[] record = (writeAheadLog == null) ? null : BookStoreLogRecords.removeBooks(isbns);
+			lsn = log(record);
+
+			for (int isbn : isbns) {
+				ratingIndex.remove(bookMap.remove(isbn));
+				unindexEditorPick(isbn);
+				booksInDemand.remove(isbn);
 			}
+		} finally {
+			lock.unlock();
 		}
 
-		for (int isbn : isbnSet) {
-			bookMap.remove(isbn);
-		}
+		awaitDurable(lsn);
 	}
 }
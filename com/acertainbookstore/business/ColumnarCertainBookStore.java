@@ -0,0 +1,692 @@
+package com.acertainbookstore.business;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.acertainbookstore.interfaces.BookStore;
+import com.acertainbookstore.interfaces.StockManager;
+import com.acertainbookstore.utils.BookStoreConstants;
+import com.acertainbookstore.utils.BookStoreException;
+import com.acertainbookstore.utils.BookStoreUtility;
+
+/**
+ * {@link ColumnarCertainBookStore} implements the {@link BookStore} and
+ * {@link StockManager} functionalities with the books stored column by column
+ * instead of as one {@link BookStoreBook} object each.
+ *
+ * Every book occupies a slot, and each of its fields is kept in a primitive
+ * array indexed by that slot. The slots are kept dense: removing a book moves
+ * the last book into its slot. Scans such as {@link #getBooksInDemand()} and
+ * {@link #getTopRatedBooks(int)} then read one or two contiguous arrays
+ * instead of following a pointer per book. Titles and authors, which no scan
+ * reads, are kept in separate columns.
+ *
+ * @see BookStore
+ * @see StockManager
+ */
+public class ColumnarCertainBookStore implements BookStore, StockManager {
+
+	/** The initial number of slots of the columns. */
+	private static final int INITIAL_CAPACITY = 16;
+
+	/**
+	 * The lock of the state of the store. A lock rather than the monitor of the
+	 * store, so that a virtual thread waiting for it does not pin its carrier
+	 * thread.
+	 */
+	private final ReentrantLock lock = new ReentrantLock();
+
+	/** The mapping of books from ISBN to their slot, -1 for missing books. */
+	private IntIntHashMap slotMap = null;
+
+	/** The number of slots in use; slots [0, size) hold books. */
+	private int size = 0;
+
+	/** The ISBN column. */
+	private int[] isbns;
+
+	/** The title column. */
+	private String[] titles;
+
+	/** The author column. */
+	private String[] authors;
+
+	/** The price column. */
+	private float[] prices;
+
+	/** The number of copies column. */
+	private int[] numCopies;
+
+	/** The total rating column. */
+	private long[] totalRating;
+
+	/** The number of times rated column. */
+	private long[] numTimesRated;
+
+	/** The number of sale misses column. */
+	private long[] numSaleMisses;
+
+	/** The editor pick column, one bit per slot. */
+	private BitSet editorPicks;
+
+	/**
+	 * Instantiates a new {@link ColumnarCertainBookStore}.
+	 */
+	public ColumnarCertainBookStore() {
+
+		// Constructors are not synchronized
+		slotMap = new IntIntHashMap(-1);
+		allocate(INITIAL_CAPACITY);
+		editorPicks = new BitSet();
+	}
+
+	private void allocate(int capacity) {
+		isbns = (isbns == null) ? new int[capacity] : Arrays.copyOf(isbns, capacity);
+		titles = (titles == null) ? new String[capacity] : Arrays.copyOf(titles, capacity);
+		authors = (authors == null) ? new String[capacity] : Arrays.copyOf(authors, capacity);
+		prices = (prices == null) ? new float[capacity] : Arrays.copyOf(prices, capacity);
+		numCopies = (numCopies == null) ? new int[capacity] : Arrays.copyOf(numCopies, capacity);
+		totalRating = (totalRating == null) ? new long[capacity] : Arrays.copyOf(totalRating, capacity);
+		numTimesRated = (numTimesRated == null) ? new long[capacity] : Arrays.copyOf(numTimesRated, capacity);
+		numSaleMisses = (numSaleMisses == null) ? new long[capacity] : Arrays.copyOf(numSaleMisses, capacity);
+	}
+
+	/**
+	 * Gets the slot of a book.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 * @return the slot, or -1 if the book is not in the store
+	 */
+	private int slotOf(int isbn) {
+		return slotMap.get(isbn);
+	}
+
+	/**
+	 * Appends a book in the first free slot.
+	 *
+	 * @param book
+	 *            the book
+	 */
+	private void append(StockBook book) {
+		if (size == isbns.length) {
+			allocate(isbns.length << 1);
+		}
+
+		int slot = size++;
+		isbns[slot] = book.getISBN();
+		titles[slot] = book.getTitle();
+		authors[slot] = book.getAuthor();
+		prices[slot] = book.getPrice();
+		numCopies[slot] = book.getNumCopies();
+		totalRating[slot] = book.getTotalRating();
+		numTimesRated[slot] = book.getNumTimesRated();
+		numSaleMisses[slot] = book.getNumSaleMisses();
+		editorPicks.set(slot, book.isEditorPick());
+		slotMap.put(book.getISBN(), slot);
+	}
+
+	/**
+	 * Removes the book in a slot by moving the last book into it.
+	 *
+	 * @param slot
+	 *            the slot
+	 */
+	private void delete(int slot) {
+		int last = --size;
+		slotMap.remove(isbns[slot]);
+
+		if (slot != last) {
+			isbns[slot] = isbns[last];
+			titles[slot] = titles[last];
+			authors[slot] = authors[last];
+			prices[slot] = prices[last];
+			numCopies[slot] = numCopies[last];
+			totalRating[slot] = totalRating[last];
+			numTimesRated[slot] = numTimesRated[last];
+			numSaleMisses[slot] = numSaleMisses[last];
+			editorPicks.set(slot, editorPicks.get(last));
+			slotMap.put(isbns[slot], slot);
+		}
+
+		titles[last] = null;
+		authors[last] = null;
+		editorPicks.clear(last);
+	}
+
+	private float averageRating(int slot) {
+		return (numTimesRated[slot] == 0 ? -1.0f : (float) totalRating[slot] / numTimesRated[slot]);
+	}
+
+	/**
+	 * Compares the books in two slots by rating, the higher average rating
+	 * being greater, and the lower ISBN being greater among equal ratings.
+	 *
+	 * @param slot1
+	 *            the first slot
+	 * @param slot2
+	 *            the second slot
+	 * @return a positive number if the first book ranks higher
+	 */
+	private int compareRatings(int slot1, int slot2) {
+		int byRating = Float.compare(averageRating(slot1), averageRating(slot2));
+		return (byRating != 0) ? byRating : Integer.compare(isbns[slot2], isbns[slot1]);
+	}
+
+	private Book immutableBook(int slot) {
+		return new ImmutableBook(isbns[slot], titles[slot], authors[slot], prices[slot]);
+	}
+
+	private StockBook immutableStockBook(int slot) {
+		return new ImmutableStockBook(isbns[slot], titles[slot], authors[slot], prices[slot], numCopies[slot],
+				numSaleMisses[slot], numTimesRated[slot], totalRating[slot], editorPicks.get(slot));
+	}
+
+	private void validate(StockBook book) throws BookStoreException {
+		int isbn = book.getISBN();
+		String bookTitle = book.getTitle();
+		String bookAuthor = book.getAuthor();
+		int noCopies = book.getNumCopies();
+		float bookPrice = book.getPrice();
+
+		if (BookStoreUtility.isInvalidISBN(isbn)) { // Check if the book has valid ISBN
+			throw new BookStoreException(BookStoreConstants.ISBN + isbn + BookStoreConstants.INVALID);
+		}
+
+		if (BookStoreUtility.isEmpty(bookTitle)) { // Check if the book has valid title
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (BookStoreUtility.isEmpty(bookAuthor)) { // Check if the book has valid author
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (BookStoreUtility.isInvalidNoCopies(noCopies)) { // Check if the book has at least one copy
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (bookPrice < 0.0) { // Check if the price of the book is valid
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (slotMap.containsKey(isbn)) {// Check if the book is not in stock
+			throw new BookStoreException(BookStoreConstants.ISBN + isbn + BookStoreConstants.DUPLICATED);
+		}
+	}
+
+	private void validate(BookCopy bookCopy) throws BookStoreException {
+		int isbn = bookCopy.getISBN();
+		int numCopies = bookCopy.getNumCopies();
+
+		validateISBNInStock(isbn); // Check if the book has valid ISBN and in stock
+
+		if (BookStoreUtility.isInvalidNoCopies(numCopies)) { // Check if the number of the book copy is larger than zero
+			throw new BookStoreException(BookStoreConstants.NUM_COPIES + numCopies + BookStoreConstants.INVALID);
+		}
+	}
+
+	private void validateISBNInStock(int ISBN) throws BookStoreException {
+		if (BookStoreUtility.isInvalidISBN(ISBN)) { // Check if the book has valid ISBN
+			throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.INVALID);
+		}
+		if (!slotMap.containsKey(ISBN)) {// Check if the book is in stock
+			throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.NOT_AVAILABLE);
+		}
+	}
+
+	private void validateISBNsInStock(int[] isbns) throws BookStoreException {
+		for (int isbn : isbns) {
+			validateISBNInStock(isbn);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#addBooks(java.util.Set)
+	 */
+	public void addBooks(Set<StockBook> bookSet) throws BookStoreException {
+		if (bookSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		lock.lock();
+
+		try {
+			// Check that all books are there first.
+			for (StockBook book : bookSet) {
+				validate(book);
+			}
+
+			// Then add these books to the store, one slot per ISBN.
+			for (StockBook book : BookStoreUtility.lastBookPerISBN(bookSet)) {
+				append(book);
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#addCopies(java.util.Set)
+	 */
+	public void addCopies(Set<BookCopy> bookCopiesSet) throws BookStoreException {
+		if (bookCopiesSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		lock.lock();
+
+		try {
+			// Check that all books are there first.
+			for (BookCopy bookCopy : bookCopiesSet) {
+				validate(bookCopy);
+			}
+
+			// Then update the number of copies, which clears the sale misses.
+			for (BookCopy bookCopy : bookCopiesSet) {
+				int slot = slotOf(bookCopy.getISBN());
+				numCopies[slot] += bookCopy.getNumCopies();
+				numSaleMisses[slot] = 0;
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#getBooks()
+	 */
+	public List<StockBook> getBooks() {
+		lock.lock();
+
+		try {
+			List<StockBook> books = new ArrayList<>(size);
+
+			for (int slot = 0; slot < size; slot++) {
+				books.add(immutableStockBook(slot));
+			}
+
+			return books;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#getBookChunks(int)
+	 */
+	public Iterator<List<StockBook>> getBookChunks(int chunkSize) throws BookStoreException {
+		if (chunkSize < 1) {
+			throw new BookStoreException("chunkSize = " + chunkSize + ", but it must be positive");
+		}
+
+		int[] isbns;
+		lock.lock();
+
+		try {
+			isbns = Arrays.copyOf(this.isbns, size);
+		} finally {
+			lock.unlock();
+		}
+
+		return new BookStoreChunkIterator(isbns, chunkSize, this::copyBooks);
+	}
+
+	/**
+	 * Copies the books of a range of ISBNs that are still in the store.
+	 *
+	 * @param isbns
+	 *            the ISBNs
+	 * @param from
+	 *            the first ISBN of the range
+	 * @param to
+	 *            the end of the range, exclusive
+	 * @return the books
+	 */
+	private List<StockBook> copyBooks(int[] isbns, int from, int to) {
+		lock.lock();
+
+		try {
+			List<StockBook> books = new ArrayList<>(to - from);
+
+			for (int i = from; i < to; i++) {
+				int slot = slotOf(isbns[i]);
+
+				if (slot != -1) {
+					books.add(immutableStockBook(slot));
+				}
+			}
+
+			return books;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#updateEditorPicks(java.util
+	 * .Set)
+	 */
+	public void updateEditorPicks(Set<BookEditorPick> editorPicksArg) throws BookStoreException {
+		if (editorPicksArg == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		lock.lock();
+
+		try {
+			// Check that all books are there first.
+			for (BookEditorPick editorPickArg : editorPicksArg) {
+				validateISBNInStock(editorPickArg.getISBN());
+			}
+
+			// Then set the editor pick.
+			for (BookEditorPick editorPickArg : editorPicksArg) {
+				editorPicks.set(slotOf(editorPickArg.getISBN()), editorPickArg.isEditorPick());
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#buyBooks(java.util.Set)
+	 */
+	public void buyBooks(Set<BookCopy> bookCopiesToBuy) throws BookStoreException {
+		if (bookCopiesToBuy == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		lock.lock();
+
+		try {
+			int slot;
+			Boolean saleMiss = false;
+
+			Map<Integer, Integer> salesMisses = new HashMap<>();
+
+			for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
+				// Check whether the book is in stock.
+				validate(bookCopyToBuy);
+				slot = slotOf(bookCopyToBuy.getISBN());
+
+				// Check whether the number of book copy is enough for the request.
+				if (numCopies[slot] < bookCopyToBuy.getNumCopies()) {
+					// If we cannot sell the copies of the book, it is a miss.
+					salesMisses.put(slot, bookCopyToBuy.getNumCopies() - numCopies[slot]);
+					saleMiss = true;
+				}
+			}
+
+			// We throw exception now since we want to see how many books in the
+			// order incurred misses which is used by books in demand.
+			if (saleMiss) {
+				for (Map.Entry<Integer, Integer> saleMissEntry : salesMisses.entrySet()) {
+					numSaleMisses[saleMissEntry.getKey()] += saleMissEntry.getValue();
+				}
+				throw new BookStoreException(BookStoreConstants.BOOK + BookStoreConstants.NOT_AVAILABLE);
+			}
+
+			// Then make the purchase.
+			for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
+				numCopies[slotOf(bookCopyToBuy.getISBN())] -= bookCopyToBuy.getNumCopies();
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#getBooksByISBN(java.util.
+	 * Set)
+	 */
+	public List<StockBook> getBooksByISBN(Set<Integer> isbnSet) throws BookStoreException {
+		if (isbnSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		lock.lock();
+
+		try {
+			int[] isbnsArg = BookStoreUtility.toIntArray(isbnSet);
+			validateISBNsInStock(isbnsArg);
+
+			// Return the set of books matching isbns in the validated set.
+			List<StockBook> books = new ArrayList<>(isbnsArg.length);
+
+			for (int isbn : isbnsArg) {
+				books.add(immutableStockBook(slotOf(isbn)));
+			}
+
+			return books;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getBooks(java.util.Set)
+	 */
+	public List<Book> getBooks(Set<Integer> isbnSet) throws BookStoreException {
+		if (isbnSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		lock.lock();
+
+		try {
+			int[] isbnsArg = BookStoreUtility.toIntArray(isbnSet);
+			validateISBNsInStock(isbnsArg);
+
+			List<Book> books = new ArrayList<>(isbnsArg.length);
+
+			for (int isbn : isbnsArg) {
+				books.add(immutableBook(slotOf(isbn)));
+			}
+
+			return books;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getEditorPicks(int)
+	 */
+	public List<Book> getEditorPicks(int numBooks) throws BookStoreException {
+		lock.lock();
+
+		try {
+			if (numBooks < 0) {
+				throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+			}
+
+			// Collect the slots of the editor picks, a word of the bitmap at a time.
+			int[] pickSlots = editorPicks.stream().toArray();
+
+			// Move a uniform sample of numBooks picks to the front with a partial
+			// Fisher-Yates shuffle, then return the front.
+			int numPicks = Math.min(numBooks, pickSlots.length);
+			ThreadLocalRandom rand = ThreadLocalRandom.current();
+			List<Book> pickedBooks = new ArrayList<>(numPicks);
+
+			for (int i = 0; i < numPicks; i++) {
+				int j = rand.nextInt(i, pickSlots.length);
+				int slot = pickSlots[j];
+				pickSlots[j] = pickSlots[i];
+				pickedBooks.add(immutableBook(slot));
+			}
+
+			return pickedBooks;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getTopRatedBooks(int)
+	 */
+	@Override
+	public List<Book> getTopRatedBooks(int numBooks) throws BookStoreException {
+		lock.lock();
+
+		try {
+			if (numBooks < 1) {
+				throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+			}
+
+			// Keep the best numBooks slots seen so far in a heap whose head is the
+			// worst of them: highest average rating first, ties by ascending ISBN.
+			PriorityQueue<Integer> best = new PriorityQueue<>(this::compareRatings);
+
+			for (int slot = 0; slot < size; slot++) {
+				if (best.size() < numBooks) {
+					best.add(slot);
+				} else if (compareRatings(slot, best.peek()) > 0) {
+					// Most slots are rejected here without touching the heap.
+					best.poll();
+					best.add(slot);
+				}
+			}
+
+			Book[] topRatedBooks = new Book[best.size()];
+
+			for (int i = topRatedBooks.length - 1; i >= 0; i--) {
+				topRatedBooks[i] = immutableBook(best.poll());
+			}
+
+			return Arrays.asList(topRatedBooks);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#getBooksInDemand()
+	 */
+	@Override
+	public List<StockBook> getBooksInDemand() {
+		lock.lock();
+
+		try {
+			//only acquire the ones that had sale miss
+			List<StockBook> inDemandBooks = new ArrayList<>();
+
+			for (int slot = 0; slot < size; slot++) {
+				if (numSaleMisses[slot] > 0) {
+					inDemandBooks.add(immutableStockBook(slot));
+				}
+			}
+
+			return inDemandBooks;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#rateBooks(java.util.Set)
+	 */
+	@Override
+	public void rateBooks(Set<BookRating> bookRating) throws BookStoreException {
+		lock.lock();
+
+		try {
+			//check validity of parameters
+			for (BookRating br : bookRating) {
+				int rating = br.getRating();
+
+				validateISBNInStock(br.getISBN());
+
+				if (BookStoreUtility.isInvalidRating(rating)) {
+					throw new BookStoreException(BookStoreConstants.RATING + rating + BookStoreConstants.INVALID);
+				}
+			}
+
+			//update the state
+			for (BookRating br : bookRating) {
+				int slot = slotOf(br.getISBN());
+				totalRating[slot] += br.getRating();
+				numTimesRated[slot]++;
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#removeAllBooks()
+	 */
+	public void removeAllBooks() throws BookStoreException {
+		lock.lock();
+
+		try {
+			slotMap.clear();
+			Arrays.fill(titles, 0, size, null);
+			Arrays.fill(authors, 0, size, null);
+			editorPicks.clear();
+			size = 0;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#removeBooks(java.util.Set)
+	 */
+	public void removeBooks(Set<Integer> isbnSet) throws BookStoreException {
+		if (isbnSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		lock.lock();
+
+		try {
+			int[] isbnsArg = BookStoreUtility.toIntArray(isbnSet);
+			validateISBNsInStock(isbnsArg);
+
+			for (int isbn : isbnsArg) {
+				delete(slotOf(isbn));
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+}
@@ -0,0 +1,283 @@
+package com.acertainbookstore.business;
+
+import java.util.Arrays;
+
+/**
+ * {@link IntIntHashMap} maps primitive <code>int</code> keys to primitive
+ * <code>int</code> values with open addressing and linear probing, like
+ * {@link IntObjectHashMap}, but without boxing the values either: keys and
+ * values are kept in two parallel <code>int</code> arrays, so the map costs
+ * about 8 bytes per slot and a lookup never allocates.
+ *
+ * A key that is not mapped reads as the missing value the map was created
+ * with, which should be a value never stored. Removals shift the following
+ * entries of the probe run back instead of leaving tombstones. The map is not
+ * thread-safe.
+ */
+public final class IntIntHashMap {
+
+	/** The key marking a free slot; the mapping of key 0 is kept apart. */
+	private static final int FREE_KEY = 0;
+
+	/** The maximum ratio of used slots before the table grows. */
+	private static final float LOAD_FACTOR = 0.75f;
+
+	/** The default number of mappings the map holds without growing. */
+	private static final int DEFAULT_EXPECTED_SIZE = 16;
+
+	/** The value read for keys that are not mapped. */
+	private final int missingValue;
+
+	/** The keys, {@link #FREE_KEY} for free slots. */
+	private int[] keys;
+
+	/** The values, at the slot of their key. */
+	private int[] values;
+
+	/** The mask used to map a hash onto a slot. */
+	private int mask;
+
+	/** The number of mappings in the table. */
+	private int size = 0;
+
+	/** The number of mappings the table holds before it grows. */
+	private int resizeThreshold;
+
+	/** Whether key 0 is mapped. */
+	private boolean hasZeroKey = false;
+
+	/** The value mapped to key 0, if it is mapped. */
+	private int zeroKeyValue;
+
+	/**
+	 * Instantiates a new empty {@link IntIntHashMap}.
+	 *
+	 * @param missingValue
+	 *            the value read for keys that are not mapped
+	 */
+	public IntIntHashMap(int missingValue) {
+		this(DEFAULT_EXPECTED_SIZE, missingValue);
+	}
+
+	/**
+	 * Instantiates a new empty {@link IntIntHashMap} sized to hold
+	 * <code>expectedSize</code> mappings without growing.
+	 *
+	 * @param expectedSize
+	 *            the expected number of mappings
+	 * @param missingValue
+	 *            the value read for keys that are not mapped
+	 */
+	public IntIntHashMap(int expectedSize, int missingValue) {
+		if (expectedSize < 0) {
+			throw new IllegalArgumentException("expectedSize = " + expectedSize + ", but it must not be negative");
+		}
+
+		this.missingValue = missingValue;
+		this.zeroKeyValue = missingValue;
+		allocate(capacityFor(expectedSize));
+	}
+
+	private static int capacityFor(int expectedSize) {
+		int minCapacity = (int) Math.ceil(Math.max(expectedSize, 2) / LOAD_FACTOR);
+		return Integer.highestOneBit(minCapacity - 1) << 1;
+	}
+
+	private void allocate(int capacity) {
+		keys = new int[capacity];
+		values = new int[capacity];
+		mask = capacity - 1;
+		resizeThreshold = (int) (capacity * LOAD_FACTOR);
+	}
+
+	/**
+	 * Gets the home slot of the key.
+	 *
+	 * @param key
+	 *            the key
+	 * @return the slot
+	 */
+	private int slotOf(int key) {
+		// ISBNs are often consecutive, so spread them before masking.
+		int hash = key * 0x9E3779B9;
+		return (hash ^ (hash >>> 16)) & mask;
+	}
+
+	/**
+	 * Finds the slot holding the key, or the free slot ending its probe run.
+	 *
+	 * @param key
+	 *            the key, which must not be {@link #FREE_KEY}
+	 * @return the slot
+	 */
+	private int probe(int key) {
+		int slot = slotOf(key);
+
+		while (keys[slot] != FREE_KEY && keys[slot] != key) {
+			slot = (slot + 1) & mask;
+		}
+
+		return slot;
+	}
+
+	/**
+	 * Gets the number of mappings.
+	 *
+	 * @return the size
+	 */
+	public int size() {
+		return size + (hasZeroKey ? 1 : 0);
+	}
+
+	/**
+	 * Checks if the map is empty.
+	 *
+	 * @return true, if there is no mapping
+	 */
+	public boolean isEmpty() {
+		return size() == 0;
+	}
+
+	/**
+	 * Gets the value mapped to the key.
+	 *
+	 * @param key
+	 *            the key
+	 * @return the value, or the missing value if the key is not mapped
+	 */
+	public int get(int key) {
+		if (key == FREE_KEY) {
+			return zeroKeyValue;
+		}
+
+		int slot = probe(key);
+		return (keys[slot] == FREE_KEY) ? missingValue : values[slot];
+	}
+
+	/**
+	 * Checks if the key is mapped.
+	 *
+	 * @param key
+	 *            the key
+	 * @return true, if the key is mapped
+	 */
+	public boolean containsKey(int key) {
+		return (key == FREE_KEY) ? hasZeroKey : keys[probe(key)] != FREE_KEY;
+	}
+
+	/**
+	 * Maps the key to the value.
+	 *
+	 * @param key
+	 *            the key
+	 * @param value
+	 *            the value
+	 * @return the value previously mapped to the key, or the missing value
+	 */
+	public int put(int key, int value) {
+		if (key == FREE_KEY) {
+			int previous = zeroKeyValue;
+			hasZeroKey = true;
+			zeroKeyValue = value;
+			return previous;
+		}
+
+		int slot = probe(key);
+
+		if (keys[slot] != FREE_KEY) {
+			int previous = values[slot];
+			values[slot] = value;
+			return previous;
+		}
+
+		keys[slot] = key;
+		values[slot] = value;
+
+		if (++size > resizeThreshold) {
+			rehash(keys.length << 1);
+		}
+
+		return missingValue;
+	}
+
+	/**
+	 * Removes the mapping of the key.
+	 *
+	 * @param key
+	 *            the key
+	 * @return the value that was mapped to the key, or the missing value
+	 */
+	public int remove(int key) {
+		if (key == FREE_KEY) {
+			int previous = zeroKeyValue;
+			hasZeroKey = false;
+			zeroKeyValue = missingValue;
+			return previous;
+		}
+
+		int slot = probe(key);
+
+		if (keys[slot] == FREE_KEY) {
+			return missingValue;
+		}
+
+		int previous = values[slot];
+		size--;
+		shiftBack(slot);
+		return previous;
+	}
+
+	/**
+	 * Frees the slot, moving back any later entry of the probe run whose home
+	 * slot does not lie between the freed slot and its current slot.
+	 *
+	 * @param freed
+	 *            the slot to free
+	 */
+	private void shiftBack(int freed) {
+		int slot = freed;
+
+		while (true) {
+			slot = (slot + 1) & mask;
+
+			if (keys[slot] == FREE_KEY) {
+				break;
+			}
+
+			int home = slotOf(keys[slot]);
+
+			// Distances are taken modulo the capacity, since runs wrap around.
+			if (((slot - home) & mask) >= ((slot - freed) & mask)) {
+				keys[freed] = keys[slot];
+				values[freed] = values[slot];
+				freed = slot;
+			}
+		}
+
+		keys[freed] = FREE_KEY;
+	}
+
+	private void rehash(int newCapacity) {
+		int[] oldKeys = keys;
+		int[] oldValues = values;
+		allocate(newCapacity);
+
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldKeys[i] != FREE_KEY) {
+				int slot = probe(oldKeys[i]);
+				keys[slot] = oldKeys[i];
+				values[slot] = oldValues[i];
+			}
+		}
+	}
+
+	/**
+	 * Removes all the mappings, keeping the capacity.
+	 */
+	public void clear() {
+		Arrays.fill(keys, FREE_KEY);
+		size = 0;
+		hasZeroKey = false;
+		zeroKeyValue = missingValue;
+	}
+}
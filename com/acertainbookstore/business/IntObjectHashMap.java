@@ -0,0 +1,331 @@
+package com.acertainbookstore.business;
+
+import java.util.AbstractCollection;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * {@link IntObjectHashMap} maps primitive <code>int</code> keys to objects
+ * with open addressing and linear probing. Keys and values are kept in two
+ * parallel arrays, so a lookup neither boxes the key nor follows an entry
+ * object, and the map costs about 12 bytes per slot instead of the ~48 bytes
+ * per mapping of a {@link java.util.HashMap HashMap&lt;Integer, V&gt;}.
+ *
+ * Removals shift the following entries of the probe run back instead of
+ * leaving tombstones, so lookups never slow down as books come and go. Null
+ * values are not allowed. The map is not thread-safe.
+ *
+ * @param <V>
+ *            the type of the values
+ */
+public final class IntObjectHashMap<V> {
+
+	/** The key marking a free slot; the mapping of key 0 is kept apart. */
+	private static final int FREE_KEY = 0;
+
+	/** The maximum ratio of used slots before the table grows. */
+	private static final float LOAD_FACTOR = 0.75f;
+
+	/** The default number of mappings the map holds without growing. */
+	private static final int DEFAULT_EXPECTED_SIZE = 16;
+
+	/** The keys, {@link #FREE_KEY} for free slots. */
+	private int[] keys;
+
+	/** The values, at the slot of their key. */
+	private Object[] values;
+
+	/** The mask used to map a hash onto a slot. */
+	private int mask;
+
+	/** The number of mappings in the table. */
+	private int size = 0;
+
+	/** The number of mappings the table holds before it grows. */
+	private int resizeThreshold;
+
+	/** The value mapped to key 0, or null. */
+	private V zeroKeyValue = null;
+
+	/**
+	 * Instantiates a new empty {@link IntObjectHashMap}.
+	 */
+	public IntObjectHashMap() {
+		this(DEFAULT_EXPECTED_SIZE);
+	}
+
+	/**
+	 * Instantiates a new empty {@link IntObjectHashMap} sized to hold
+	 * <code>expectedSize</code> mappings without growing.
+	 *
+	 * @param expectedSize
+	 *            the expected number of mappings
+	 */
+	public IntObjectHashMap(int expectedSize) {
+		if (expectedSize < 0) {
+			throw new IllegalArgumentException("expectedSize = " + expectedSize + ", but it must not be negative");
+		}
+
+		allocate(capacityFor(expectedSize));
+	}
+
+	private static int capacityFor(int expectedSize) {
+		int minCapacity = (int) Math.ceil(Math.max(expectedSize, 2) / LOAD_FACTOR);
+		return Integer.highestOneBit(minCapacity - 1) << 1;
+	}
+
+	private void allocate(int capacity) {
+		keys = new int[capacity];
+		values = new Object[capacity];
+		mask = capacity - 1;
+		resizeThreshold = (int) (capacity * LOAD_FACTOR);
+	}
+
+	/**
+	 * Gets the home slot of the key.
+	 *
+	 * @param key
+	 *            the key
+	 * @return the slot
+	 */
+	private int slotOf(int key) {
+		// ISBNs are often consecutive, so spread them before masking.
+		int hash = key * 0x9E3779B9;
+		return (hash ^ (hash >>> 16)) & mask;
+	}
+
+	/**
+	 * Finds the slot holding the key, or the free slot ending its probe run.
+	 *
+	 * @param key
+	 *            the key, which must not be {@link #FREE_KEY}
+	 * @return the slot
+	 */
+	private int probe(int key) {
+		int slot = slotOf(key);
+
+		while (keys[slot] != FREE_KEY && keys[slot] != key) {
+			slot = (slot + 1) & mask;
+		}
+
+		return slot;
+	}
+
+	/**
+	 * Gets the number of mappings.
+	 *
+	 * @return the size
+	 */
+	public int size() {
+		return size + ((zeroKeyValue == null) ? 0 : 1);
+	}
+
+	/**
+	 * Checks if the map is empty.
+	 *
+	 * @return true, if there is no mapping
+	 */
+	public boolean isEmpty() {
+		return size() == 0;
+	}
+
+	/**
+	 * Gets the value mapped to the key.
+	 *
+	 * @param key
+	 *            the key
+	 * @return the value, or null if the key is not mapped
+	 */
+	@SuppressWarnings("unchecked")
+	public V get(int key) {
+		if (key == FREE_KEY) {
+			return zeroKeyValue;
+		}
+
+		return (V) values[probe(key)];
+	}
+
+	/**
+	 * Checks if the key is mapped.
+	 *
+	 * @param key
+	 *            the key
+	 * @return true, if the key is mapped
+	 */
+	public boolean containsKey(int key) {
+		return get(key) != null;
+	}
+
+	/**
+	 * Maps the key to the value.
+	 *
+	 * @param key
+	 *            the key
+	 * @param value
+	 *            the value, which must not be null
+	 * @return the value previously mapped to the key, or null
+	 */
+	@SuppressWarnings("unchecked")
+	public V put(int key, V value) {
+		if (value == null) {
+			throw new NullPointerException("IntObjectHashMap does not allow null values");
+		}
+
+		if (key == FREE_KEY) {
+			V previous = zeroKeyValue;
+			zeroKeyValue = value;
+			return previous;
+		}
+
+		int slot = probe(key);
+		V previous = (V) values[slot];
+		values[slot] = value;
+
+		if (previous == null) {
+			keys[slot] = key;
+
+			if (++size > resizeThreshold) {
+				rehash(keys.length << 1);
+			}
+		}
+
+		return previous;
+	}
+
+	/**
+	 * Removes the mapping of the key.
+	 *
+	 * @param key
+	 *            the key
+	 * @return the value that was mapped to the key, or null
+	 */
+	@SuppressWarnings("unchecked")
+	public V remove(int key) {
+		if (key == FREE_KEY) {
+			V previous = zeroKeyValue;
+			zeroKeyValue = null;
+			return previous;
+		}
+
+		int slot = probe(key);
+		V previous = (V) values[slot];
+
+		if (previous != null) {
+			size--;
+			shiftBack(slot);
+		}
+
+		return previous;
+	}
+
+	/**
+	 * Frees the slot, moving back any later entry of the probe run whose home
+	 * slot does not lie between the freed slot and its current slot.
+	 *
+	 * @param freed
+	 *            the slot to free
+	 */
+	private void shiftBack(int freed) {
+		int slot = freed;
+
+		while (true) {
+			slot = (slot + 1) & mask;
+
+			if (keys[slot] == FREE_KEY) {
+				break;
+			}
+
+			int home = slotOf(keys[slot]);
+
+			// Distances are taken modulo the capacity, since runs wrap around.
+			if (((slot - home) & mask) >= ((slot - freed) & mask)) {
+				keys[freed] = keys[slot];
+				values[freed] = values[slot];
+				freed = slot;
+			}
+		}
+
+		keys[freed] = FREE_KEY;
+		values[freed] = null;
+	}
+
+	private void rehash(int newCapacity) {
+		int[] oldKeys = keys;
+		Object[] oldValues = values;
+		allocate(newCapacity);
+
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldKeys[i] != FREE_KEY) {
+				int slot = probe(oldKeys[i]);
+				keys[slot] = oldKeys[i];
+				values[slot] = oldValues[i];
+			}
+		}
+	}
+
+	/**
+	 * Removes all the mappings, keeping the capacity.
+	 */
+	public void clear() {
+		Arrays.fill(keys, FREE_KEY);
+		Arrays.fill(values, null);
+		size = 0;
+		zeroKeyValue = null;
+	}
+
+	/**
+	 * Gets a view of the values, in no particular order. The view must not be
+	 * used across modifications of the map.
+	 *
+	 * @return the values
+	 */
+	public Collection<V> values() {
+		return new AbstractCollection<V>() {
+
+			@Override
+			public Iterator<V> iterator() {
+				return new ValueIterator();
+			}
+
+			@Override
+			public int size() {
+				return IntObjectHashMap.this.size();
+			}
+		};
+	}
+
+	/**
+	 * {@link ValueIterator} walks the table, then the value of key 0.
+	 */
+	private final class ValueIterator implements Iterator<V> {
+
+		/** The next slot to look at; the table length stands for key 0. */
+		private int slot = 0;
+
+		@Override
+		public boolean hasNext() {
+			while (slot < keys.length && keys[slot] == FREE_KEY) {
+				slot++;
+			}
+
+			return slot < keys.length || (slot == keys.length && zeroKeyValue != null);
+		}
+
+		@Override
+		@SuppressWarnings("unchecked")
+		public V next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+
+			if (slot < keys.length) {
+				return (V) values[slot++];
+			}
+
+			slot++;
+			return zeroKeyValue;
+		}
+	}
+}
@@ -0,0 +1,953 @@
+package com.acertainbookstore.business;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.acertainbookstore.interfaces.BookStore;
+import com.acertainbookstore.interfaces.StockManager;
+import com.acertainbookstore.utils.BookStoreConstants;
+import com.acertainbookstore.utils.BookStoreException;
+import com.acertainbookstore.utils.BookStoreUtility;
+
+/**
+ * {@link OffHeapCertainBookStore} implements the {@link BookStore} and
+ * {@link StockManager} functionalities with the books kept outside of the
+ * Java heap, so that the garbage collector never has to trace them.
+ *
+ * Each book is a fixed-width record in a direct buffer of records, and its
+ * title and author are UTF-8 bytes in a direct buffer of strings. The records
+ * are kept dense: removing a book moves the last record into its slot. The
+ * only heap structure is the index from ISBN to slot, an open-addressing
+ * table of slot numbers whose keys are read back from the records. Book
+ * objects are only materialized when a response is built.
+ *
+ * @see BookStore
+ * @see StockManager
+ */
+public class OffHeapCertainBookStore implements BookStore, StockManager {
+
+	/** The offset of the ISBN in a record. */
+	private static final int ISBN_OFFSET = 0;
+
+	/** The offset of the price in a record. */
+	private static final int PRICE_OFFSET = 4;
+
+	/** The offset of the number of copies in a record. */
+	private static final int NUM_COPIES_OFFSET = 8;
+
+	/** The offset of the editor pick flag in a record. */
+	private static final int EDITOR_PICK_OFFSET = 12;
+
+	/** The offset of the total rating in a record. */
+	private static final int TOTAL_RATING_OFFSET = 16;
+
+	/** The offset of the number of times rated in a record. */
+	private static final int NUM_TIMES_RATED_OFFSET = 24;
+
+	/** The offset of the number of sale misses in a record. */
+	private static final int NUM_SALE_MISSES_OFFSET = 32;
+
+	/** The offset of the title, then author, in the strings buffer. */
+	private static final int STRINGS_OFFSET = 40;
+
+	/** The offset of the title length in bytes in a record. */
+	private static final int TITLE_LENGTH_OFFSET = 44;
+
+	/** The offset of the author length in bytes in a record. */
+	private static final int AUTHOR_LENGTH_OFFSET = 48;
+
+	/** The size of a record, padded to keep the longs aligned. */
+	private static final int RECORD_SIZE = 56;
+
+	/** The largest number of records a buffer can hold. */
+	private static final int MAX_RECORDS = Integer.MAX_VALUE / RECORD_SIZE;
+
+	/** The initial number of records the store holds without growing. */
+	private static final int INITIAL_CAPACITY = 1024;
+
+	/** The initial size of the strings buffer, in bytes. */
+	private static final int INITIAL_STRINGS_CAPACITY = 64 * 1024;
+
+	/** The marker of a free entry in the index. */
+	private static final int FREE = -1;
+
+	/**
+	 * The lock of the state of the store. A lock rather than the monitor of the
+	 * store, so that a virtual thread waiting for it does not pin its carrier
+	 * thread.
+	 */
+	private final ReentrantLock lock = new ReentrantLock();
+
+	/** The records, slots [0, size) hold books. */
+	private ByteBuffer records;
+
+	/** The titles and authors. */
+	private ByteBuffer strings;
+
+	/** The number of records in use. */
+	private int size = 0;
+
+	/** The number of bytes in use in the strings buffer. */
+	private int stringsUsed = 0;
+
+	/** The number of those bytes left behind by removed books. */
+	private int stringsGarbage = 0;
+
+	/** The index from ISBN to slot, {@link #FREE} for free entries. */
+	private int[] index;
+
+	/** The mask used to map a hash onto an index entry. */
+	private int indexMask;
+
+	/**
+	 * Instantiates a new {@link OffHeapCertainBookStore}.
+	 */
+	public OffHeapCertainBookStore() {
+
+		// Constructors are not synchronized
+		records = ByteBuffer.allocateDirect(INITIAL_CAPACITY * RECORD_SIZE).order(ByteOrder.nativeOrder());
+		strings = ByteBuffer.allocateDirect(INITIAL_STRINGS_CAPACITY).order(ByteOrder.nativeOrder());
+		allocateIndex(INITIAL_CAPACITY * 2);
+	}
+
+	/*
+	 * Record accessors.
+	 */
+
+	private int isbnAt(int slot) {
+		return records.getInt(slot * RECORD_SIZE + ISBN_OFFSET);
+	}
+
+	private float priceAt(int slot) {
+		return records.getFloat(slot * RECORD_SIZE + PRICE_OFFSET);
+	}
+
+	private int numCopiesAt(int slot) {
+		return records.getInt(slot * RECORD_SIZE + NUM_COPIES_OFFSET);
+	}
+
+	private boolean editorPickAt(int slot) {
+		return records.getInt(slot * RECORD_SIZE + EDITOR_PICK_OFFSET) != 0;
+	}
+
+	private long totalRatingAt(int slot) {
+		return records.getLong(slot * RECORD_SIZE + TOTAL_RATING_OFFSET);
+	}
+
+	private long numTimesRatedAt(int slot) {
+		return records.getLong(slot * RECORD_SIZE + NUM_TIMES_RATED_OFFSET);
+	}
+
+	private long numSaleMissesAt(int slot) {
+		return records.getLong(slot * RECORD_SIZE + NUM_SALE_MISSES_OFFSET);
+	}
+
+	private String titleAt(int slot) {
+		int base = slot * RECORD_SIZE;
+		return readString(records.getInt(base + STRINGS_OFFSET), records.getInt(base + TITLE_LENGTH_OFFSET));
+	}
+
+	private String authorAt(int slot) {
+		int base = slot * RECORD_SIZE;
+		return readString(records.getInt(base + STRINGS_OFFSET) + records.getInt(base + TITLE_LENGTH_OFFSET),
+				records.getInt(base + AUTHOR_LENGTH_OFFSET));
+	}
+
+	private float averageRatingAt(int slot) {
+		long numTimesRated = numTimesRatedAt(slot);
+		return (numTimesRated == 0 ? -1.0f : (float) totalRatingAt(slot) / numTimesRated);
+	}
+
+	private Book immutableBook(int slot) {
+		return new ImmutableBook(isbnAt(slot), titleAt(slot), authorAt(slot), priceAt(slot));
+	}
+
+	private StockBook immutableStockBook(int slot) {
+		return new ImmutableStockBook(isbnAt(slot), titleAt(slot), authorAt(slot), priceAt(slot), numCopiesAt(slot),
+				numSaleMissesAt(slot), numTimesRatedAt(slot), totalRatingAt(slot), editorPickAt(slot));
+	}
+
+	/*
+	 * Strings buffer.
+	 */
+
+	private String readString(int offset, int length) {
+		byte[] bytes = new byte[length];
+		strings.position(offset);
+		strings.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Appends the title and author of a book to the strings buffer, compacting
+	 * or growing it first if needed.
+	 *
+	 * @param title
+	 *            the title bytes
+	 * @param author
+	 *            the author bytes
+	 * @return the offset of the title
+	 */
+	private int appendStrings(byte[] title, byte[] author) {
+		int length = title.length + author.length;
+
+		if ((long) stringsUsed + length > strings.capacity()) {
+			long live = (long) stringsUsed - stringsGarbage;
+			long capacity = strings.capacity();
+
+			// The caller checked that the live strings fit in the largest buffer.
+			while (live + length > capacity / 2 && capacity < Integer.MAX_VALUE) {
+				capacity = Math.min(capacity * 2, Integer.MAX_VALUE);
+			}
+
+			compactStrings((int) capacity);
+		}
+
+		int offset = stringsUsed;
+		strings.position(offset);
+		strings.put(title);
+		strings.put(author);
+		stringsUsed += length;
+		return offset;
+	}
+
+	/**
+	 * Copies the strings of the books in the store into a new buffer, leaving
+	 * out those of the books removed.
+	 *
+	 * @param capacity
+	 *            the capacity of the new buffer
+	 */
+	private void compactStrings(int capacity) {
+		ByteBuffer compacted = ByteBuffer.allocateDirect(capacity).order(ByteOrder.nativeOrder());
+
+		for (int slot = 0; slot < size; slot++) {
+			int base = slot * RECORD_SIZE;
+			int offset = records.getInt(base + STRINGS_OFFSET);
+			int length = records.getInt(base + TITLE_LENGTH_OFFSET) + records.getInt(base + AUTHOR_LENGTH_OFFSET);
+			ByteBuffer bytes = strings.duplicate();
+			bytes.position(offset);
+			bytes.limit(offset + length);
+			records.putInt(base + STRINGS_OFFSET, compacted.position());
+			compacted.put(bytes);
+		}
+
+		stringsUsed = compacted.position();
+		stringsGarbage = 0;
+		strings = compacted;
+	}
+
+	/*
+	 * Index from ISBN to slot.
+	 */
+
+	private void allocateIndex(int capacity) {
+		index = new int[capacity];
+		indexMask = capacity - 1;
+		Arrays.fill(index, FREE);
+	}
+
+	private int homeOf(int isbn) {
+		// ISBNs are often consecutive, so spread them before masking.
+		int hash = isbn * 0x9E3779B9;
+		return (hash ^ (hash >>> 16)) & indexMask;
+	}
+
+	/**
+	 * Finds the index entry of the ISBN, or the free entry ending its run.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 * @return the index entry
+	 */
+	private int probe(int isbn) {
+		int entry = homeOf(isbn);
+
+		while (index[entry] != FREE && isbnAt(index[entry]) != isbn) {
+			entry = (entry + 1) & indexMask;
+		}
+
+		return entry;
+	}
+
+	/**
+	 * Gets the slot of a book.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 * @return the slot, or {@link #FREE} if the book is not in the store
+	 */
+	private int slotOf(int isbn) {
+		return index[probe(isbn)];
+	}
+
+	/**
+	 * Frees an index entry, moving back the later entries of its run whose
+	 * home does not lie between the freed entry and their current one.
+	 *
+	 * @param freed
+	 *            the entry to free
+	 */
+	private void unindex(int freed) {
+		int entry = freed;
+
+		while (true) {
+			entry = (entry + 1) & indexMask;
+
+			if (index[entry] == FREE) {
+				break;
+			}
+
+			int home = homeOf(isbnAt(index[entry]));
+
+			// Distances are taken modulo the capacity, since runs wrap around.
+			if (((entry - home) & indexMask) >= ((entry - freed) & indexMask)) {
+				index[freed] = index[entry];
+				freed = entry;
+			}
+		}
+
+		index[freed] = FREE;
+	}
+
+	private void rebuildIndex(int capacity) {
+		allocateIndex(capacity);
+
+		for (int slot = 0; slot < size; slot++) {
+			index[probe(isbnAt(slot))] = slot;
+		}
+	}
+
+	/*
+	 * Records.
+	 */
+
+	/**
+	 * Checks that the store can take more books, so that they are either all
+	 * added or none is.
+	 *
+	 * @param books
+	 *            the books to be added
+	 * @throws BookStoreException
+	 *             if the records or the strings of the books would not fit in
+	 *             a buffer
+	 */
+	private void checkCapacity(Collection<StockBook> books) throws BookStoreException {
+		long stringsLength = (long) stringsUsed - stringsGarbage;
+
+		for (StockBook book : books) {
+			stringsLength += book.getTitle().getBytes(StandardCharsets.UTF_8).length
+					+ book.getAuthor().getBytes(StandardCharsets.UTF_8).length;
+		}
+
+		if ((long) size + books.size() > MAX_RECORDS || stringsLength > Integer.MAX_VALUE) {
+			throw new BookStoreException(BookStoreConstants.STORE_FULL);
+		}
+	}
+
+	/**
+	 * Appends a book in the first free slot. The caller checked that it fits
+	 * with {@link #checkCapacity(Collection)}.
+	 *
+	 * @param book
+	 *            the book
+	 */
+	private void append(StockBook book) {
+		if (size == records.capacity() / RECORD_SIZE) {
+			int capacity = (int) Math.min(2L * records.capacity(), (long) MAX_RECORDS * RECORD_SIZE);
+			ByteBuffer grown = ByteBuffer.allocateDirect(capacity).order(ByteOrder.nativeOrder());
+			records.clear();
+			grown.put(records);
+			records = grown;
+		}
+
+		// Keep the index at most half full.
+		if ((size + 1) * 2 > index.length) {
+			rebuildIndex(index.length * 2);
+		}
+
+		byte[] title = book.getTitle().getBytes(StandardCharsets.UTF_8);
+		byte[] author = book.getAuthor().getBytes(StandardCharsets.UTF_8);
+		int stringsOffset = appendStrings(title, author);
+
+		int slot = size++;
+		int base = slot * RECORD_SIZE;
+		records.putInt(base + ISBN_OFFSET, book.getISBN());
+		records.putFloat(base + PRICE_OFFSET, book.getPrice());
+		records.putInt(base + NUM_COPIES_OFFSET, book.getNumCopies());
+		records.putInt(base + EDITOR_PICK_OFFSET, book.isEditorPick() ? 1 : 0);
+		records.putLong(base + TOTAL_RATING_OFFSET, book.getTotalRating());
+		records.putLong(base + NUM_TIMES_RATED_OFFSET, book.getNumTimesRated());
+		records.putLong(base + NUM_SALE_MISSES_OFFSET, book.getNumSaleMisses());
+		records.putInt(base + STRINGS_OFFSET, stringsOffset);
+		records.putInt(base + TITLE_LENGTH_OFFSET, title.length);
+		records.putInt(base + AUTHOR_LENGTH_OFFSET, author.length);
+		index[probe(book.getISBN())] = slot;
+	}
+
+	/**
+	 * Removes the book in a slot by moving the last record into it.
+	 *
+	 * @param slot
+	 *            the slot
+	 */
+	private void delete(int slot) {
+		int base = slot * RECORD_SIZE;
+		stringsGarbage += records.getInt(base + TITLE_LENGTH_OFFSET) + records.getInt(base + AUTHOR_LENGTH_OFFSET);
+		unindex(probe(isbnAt(slot)));
+
+		int last = --size;
+
+		if (slot != last) {
+			ByteBuffer lastRecord = records.duplicate();
+			lastRecord.position(last * RECORD_SIZE);
+			lastRecord.limit(last * RECORD_SIZE + RECORD_SIZE);
+			records.position(base);
+			records.put(lastRecord);
+			index[probe(isbnAt(slot))] = slot;
+		}
+	}
+
+	private void validate(StockBook book) throws BookStoreException {
+		int isbn = book.getISBN();
+		String bookTitle = book.getTitle();
+		String bookAuthor = book.getAuthor();
+		int noCopies = book.getNumCopies();
+		float bookPrice = book.getPrice();
+
+		if (BookStoreUtility.isInvalidISBN(isbn)) { // Check if the book has valid ISBN
+			throw new BookStoreException(BookStoreConstants.ISBN + isbn + BookStoreConstants.INVALID);
+		}
+
+		if (BookStoreUtility.isEmpty(bookTitle)) { // Check if the book has valid title
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (BookStoreUtility.isEmpty(bookAuthor)) { // Check if the book has valid author
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (BookStoreUtility.isInvalidNoCopies(noCopies)) { // Check if the book has at least one copy
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (bookPrice < 0.0) { // Check if the price of the book is valid
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (slotOf(isbn) != FREE) {// Check if the book is not in stock
+			throw new BookStoreException(BookStoreConstants.ISBN + isbn + BookStoreConstants.DUPLICATED);
+		}
+	}
+
+	private void validate(BookCopy bookCopy) throws BookStoreException {
+		int isbn = bookCopy.getISBN();
+		int numCopies = bookCopy.getNumCopies();
+
+		validateISBNInStock(isbn); // Check if the book has valid ISBN and in stock
+
+		if (BookStoreUtility.isInvalidNoCopies(numCopies)) { // Check if the number of the book copy is larger than zero
+			throw new BookStoreException(BookStoreConstants.NUM_COPIES + numCopies + BookStoreConstants.INVALID);
+		}
+	}
+
+	private void validateISBNInStock(int ISBN) throws BookStoreException {
+		if (BookStoreUtility.isInvalidISBN(ISBN)) { // Check if the book has valid ISBN
+			throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.INVALID);
+		}
+		if (slotOf(ISBN) == FREE) {// Check if the book is in stock
+			throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.NOT_AVAILABLE);
+		}
+	}
+
+	private void validateISBNsInStock(int[] isbns) throws BookStoreException {
+		for (int isbn : isbns) {
+			validateISBNInStock(isbn);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#addBooks(java.util.Set)
+	 */
+	public void addBooks(Set<StockBook> bookSet) throws BookStoreException {
+		if (bookSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		lock.lock();
+
+		try {
+			// Check that all books are there first.
+			for (StockBook book : bookSet) {
+				validate(book);
+			}
+
+			// A set may hold books sharing an ISBN, which take one record.
+			Collection<StockBook> booksToAdd = BookStoreUtility.lastBookPerISBN(bookSet);
+			checkCapacity(booksToAdd);
+
+			// Then add these books to the store.
+			for (StockBook book : booksToAdd) {
+				append(book);
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#addCopies(java.util.Set)
+	 */
+	public void addCopies(Set<BookCopy> bookCopiesSet) throws BookStoreException {
+		if (bookCopiesSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		lock.lock();
+
+		try {
+			// Check that all books are there first.
+			for (BookCopy bookCopy : bookCopiesSet) {
+				validate(bookCopy);
+			}
+
+			// Then update the number of copies, which clears the sale misses.
+			for (BookCopy bookCopy : bookCopiesSet) {
+				int base = slotOf(bookCopy.getISBN()) * RECORD_SIZE;
+				records.putInt(base + NUM_COPIES_OFFSET, records.getInt(base + NUM_COPIES_OFFSET) + bookCopy.getNumCopies());
+				records.putLong(base + NUM_SALE_MISSES_OFFSET, 0);
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#getBooks()
+	 */
+	public List<StockBook> getBooks() {
+		lock.lock();
+
+		try {
+			List<StockBook> books = new ArrayList<>(size);
+
+			for (int slot = 0; slot < size; slot++) {
+				books.add(immutableStockBook(slot));
+			}
+
+			return books;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#getBookChunks(int)
+	 */
+	public Iterator<List<StockBook>> getBookChunks(int chunkSize) throws BookStoreException {
+		if (chunkSize < 1) {
+			throw new BookStoreException("chunkSize = " + chunkSize + ", but it must be positive");
+		}
+
+		int[] isbns;
+		lock.lock();
+
+		try {
+			isbns = new int[size];
+
+			for (int slot = 0; slot < size; slot++) {
+				isbns[slot] = isbnAt(slot);
+			}
+		} finally {
+			lock.unlock();
+		}
+
+		return new BookStoreChunkIterator(isbns, chunkSize, this::copyBooks);
+	}
+
+	/**
+	 * Copies the books of a range of ISBNs that are still in the store.
+	 *
+	 * @param isbns
+	 *            the ISBNs
+	 * @param from
+	 *            the first ISBN of the range
+	 * @param to
+	 *            the end of the range, exclusive
+	 * @return the books
+	 */
+	private List<StockBook> copyBooks(int[] isbns, int from, int to) {
+		lock.lock();
+
+		try {
+			List<StockBook> books = new ArrayList<>(to - from);
+
+			for (int i = from; i < to; i++) {
+				int slot = slotOf(isbns[i]);
+
+				if (slot != FREE) {
+					books.add(immutableStockBook(slot));
+				}
+			}
+
+			return books;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#updateEditorPicks(java.util
+	 * .Set)
+	 */
+	public void updateEditorPicks(Set<BookEditorPick> editorPicks) throws BookStoreException {
+		if (editorPicks == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		lock.lock();
+
+		try {
+			// Check that all books are there first.
+			for (BookEditorPick editorPickArg : editorPicks) {
+				validateISBNInStock(editorPickArg.getISBN());
+			}
+
+			// Then set the editor pick.
+			for (BookEditorPick editorPickArg : editorPicks) {
+				records.putInt(slotOf(editorPickArg.getISBN()) * RECORD_SIZE + EDITOR_PICK_OFFSET,
+						editorPickArg.isEditorPick() ? 1 : 0);
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#buyBooks(java.util.Set)
+	 */
+	public void buyBooks(Set<BookCopy> bookCopiesToBuy) throws BookStoreException {
+		if (bookCopiesToBuy == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		lock.lock();
+
+		try {
+			int slot;
+			Boolean saleMiss = false;
+
+			Map<Integer, Integer> salesMisses = new HashMap<>();
+
+			for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
+				// Check whether the book is in stock.
+				validate(bookCopyToBuy);
+				slot = slotOf(bookCopyToBuy.getISBN());
+
+				// Check whether the number of book copy is enough for the request.
+				if (numCopiesAt(slot) < bookCopyToBuy.getNumCopies()) {
+					// If we cannot sell the copies of the book, it is a miss.
+					salesMisses.put(slot, bookCopyToBuy.getNumCopies() - numCopiesAt(slot));
+					saleMiss = true;
+				}
+			}
+
+			// We throw exception now since we want to see how many books in the
+			// order incurred misses which is used by books in demand.
+			if (saleMiss) {
+				for (Map.Entry<Integer, Integer> saleMissEntry : salesMisses.entrySet()) {
+					int base = saleMissEntry.getKey() * RECORD_SIZE;
+					records.putLong(base + NUM_SALE_MISSES_OFFSET,
+							records.getLong(base + NUM_SALE_MISSES_OFFSET) + saleMissEntry.getValue());
+				}
+				throw new BookStoreException(BookStoreConstants.BOOK + BookStoreConstants.NOT_AVAILABLE);
+			}
+
+			// Then make the purchase.
+			for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
+				int base = slotOf(bookCopyToBuy.getISBN()) * RECORD_SIZE;
+				records.putInt(base + NUM_COPIES_OFFSET, records.getInt(base + NUM_COPIES_OFFSET) - bookCopyToBuy.getNumCopies());
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#getBooksByISBN(java.util.
+	 * Set)
+	 */
+	public List<StockBook> getBooksByISBN(Set<Integer> isbnSet) throws BookStoreException {
+		if (isbnSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		lock.lock();
+
+		try {
+			int[] isbns = BookStoreUtility.toIntArray(isbnSet);
+			validateISBNsInStock(isbns);
+
+			// Return the set of books matching isbns in the validated set.
+			List<StockBook> books = new ArrayList<>(isbns.length);
+
+			for (int isbn : isbns) {
+				books.add(immutableStockBook(slotOf(isbn)));
+			}
+
+			return books;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getBooks(java.util.Set)
+	 */
+	public List<Book> getBooks(Set<Integer> isbnSet) throws BookStoreException {
+		if (isbnSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		lock.lock();
+
+		try {
+			int[] isbns = BookStoreUtility.toIntArray(isbnSet);
+			validateISBNsInStock(isbns);
+
+			List<Book> books = new ArrayList<>(isbns.length);
+
+			for (int isbn : isbns) {
+				books.add(immutableBook(slotOf(isbn)));
+			}
+
+			return books;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getEditorPicks(int)
+	 */
+	public List<Book> getEditorPicks(int numBooks) throws BookStoreException {
+		lock.lock();
+
+		try {
+			if (numBooks < 0) {
+				throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+			}
+
+			// Collect the slots of the editor picks.
+			int[] pickSlots = new int[size];
+			int numAllPicks = 0;
+
+			for (int slot = 0; slot < size; slot++) {
+				if (editorPickAt(slot)) {
+					pickSlots[numAllPicks++] = slot;
+				}
+			}
+
+			// Move a uniform sample of numBooks picks to the front with a partial
+			// Fisher-Yates shuffle, then return the front.
+			int numPicks = Math.min(numBooks, numAllPicks);
+			ThreadLocalRandom rand = ThreadLocalRandom.current();
+			List<Book> pickedBooks = new ArrayList<>(numPicks);
+
+			for (int i = 0; i < numPicks; i++) {
+				int j = rand.nextInt(i, numAllPicks);
+				int slot = pickSlots[j];
+				pickSlots[j] = pickSlots[i];
+				pickedBooks.add(immutableBook(slot));
+			}
+
+			return pickedBooks;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Compares the books in two slots by rating, the higher average rating
+	 * being greater, and the lower ISBN being greater among equal ratings.
+	 *
+	 * @param slot1
+	 *            the first slot
+	 * @param slot2
+	 *            the second slot
+	 * @return a positive number if the first book ranks higher
+	 */
+	private int compareRatings(int slot1, int slot2) {
+		int byRating = Float.compare(averageRatingAt(slot1), averageRatingAt(slot2));
+		return (byRating != 0) ? byRating : Integer.compare(isbnAt(slot2), isbnAt(slot1));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getTopRatedBooks(int)
+	 */
+	@Override
+	public List<Book> getTopRatedBooks(int numBooks) throws BookStoreException {
+		lock.lock();
+
+		try {
+			if (numBooks < 1) {
+				throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+			}
+
+			// Keep the best numBooks slots seen so far in a heap whose head is the
+			// worst of them.
+			PriorityQueue<Integer> best = new PriorityQueue<>(this::compareRatings);
+
+			for (int slot = 0; slot < size; slot++) {
+				if (best.size() < numBooks) {
+					best.add(slot);
+				} else if (compareRatings(slot, best.peek()) > 0) {
+					best.poll();
+					best.add(slot);
+				}
+			}
+
+			Book[] topRatedBooks = new Book[best.size()];
+
+			for (int i = topRatedBooks.length - 1; i >= 0; i--) {
+				topRatedBooks[i] = immutableBook(best.poll());
+			}
+
+			return Arrays.asList(topRatedBooks);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#getBooksInDemand()
+	 */
+	@Override
+	public List<StockBook> getBooksInDemand() {
+		lock.lock();
+
+		try {
+			//only acquire the ones that had sale miss
+			List<StockBook> inDemandBooks = new ArrayList<>();
+
+			for (int slot = 0; slot < size; slot++) {
+				if (numSaleMissesAt(slot) > 0) {
+					inDemandBooks.add(immutableStockBook(slot));
+				}
+			}
+
+			return inDemandBooks;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#rateBooks(java.util.Set)
+	 */
+	@Override
+	public void rateBooks(Set<BookRating> bookRating) throws BookStoreException {
+		lock.lock();
+
+		try {
+			//check validity of parameters
+			for (BookRating br : bookRating) {
+				int rating = br.getRating();
+
+				validateISBNInStock(br.getISBN());
+
+				if (BookStoreUtility.isInvalidRating(rating)) {
+					throw new BookStoreException(BookStoreConstants.RATING + rating + BookStoreConstants.INVALID);
+				}
+			}
+
+			//update the state
+			for (BookRating br : bookRating) {
+				int base = slotOf(br.getISBN()) * RECORD_SIZE;
+				records.putLong(base + TOTAL_RATING_OFFSET, records.getLong(base + TOTAL_RATING_OFFSET) + br.getRating());
+				records.putLong(base + NUM_TIMES_RATED_OFFSET, records.getLong(base + NUM_TIMES_RATED_OFFSET) + 1);
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#removeAllBooks()
+	 */
+	public void removeAllBooks() throws BookStoreException {
+		lock.lock();
+
+		try {
+			size = 0;
+			stringsUsed = 0;
+			stringsGarbage = 0;
+			Arrays.fill(index, FREE);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#removeBooks(java.util.Set)
+	 */
+	public void removeBooks(Set<Integer> isbnSet) throws BookStoreException {
+		if (isbnSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		lock.lock();
+
+		try {
+			int[] isbns = BookStoreUtility.toIntArray(isbnSet);
+			validateISBNsInStock(isbns);
+
+			for (int isbn : isbns) {
+				delete(slotOf(isbn));
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+}
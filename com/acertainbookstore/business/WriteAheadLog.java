@@ -0,0 +1,619 @@
+package com.acertainbookstore.business;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+import com.acertainbookstore.utils.BookStoreException;
+
+/**
+ * {@link WriteAheadLog} is an append-only file of records made durable with
+ * group commit.
+ *
+ * {@link #append(byte[])} only copies the record into an in-memory buffer
+ * and returns its log sequence number, the number of bytes logged up to the
+ * end of it since the log was created.
+ * A single flusher thread writes everything appended so far with one
+ * sequential write and one fsync, then wakes up the callers of
+ * {@link #awaitDurable(long)}; requests arriving while an fsync is in progress
+ * share the next one. Waiting for a configurable batch window before each
+ * flush lets more requests share an fsync at the price of latency.
+ *
+ * Each record is framed by its length and a CRC32 checksum, so that a record
+ * torn by a crash is detected, and cut off, when the log is opened again.
+ *
+ * The file starts with a header holding the log sequence number of its first
+ * record. Once a checkpoint covers the records before a sequence number,
+ * {@link #truncate(long)} drops them, so the file only holds the records a
+ * recovery still replays while sequence numbers keep growing.
+ */
+public final class WriteAheadLog implements Closeable {
+
+	/** The first bytes of a log file, "BSWL". */
+	private static final int MAGIC = 0x4253574C;
+
+	/** The size of the magic and the sequence number of the first record. */
+	private static final int FILE_HEADER_SIZE = 12;
+
+	/** The size of the length and checksum preceding each record. */
+	private static final int HEADER_SIZE = 8;
+
+	/** The size of the buffer the log is read through when replayed. */
+	private static final int REPLAY_BUFFER_SIZE = 1 << 20;
+
+	/** The initial size of the append buffers. */
+	private static final int INITIAL_BUFFER_SIZE = 64 * 1024;
+
+	/** The log file. */
+	private final File file;
+
+	/** The open log file, replaced by {@link #truncate(long)}. */
+	private FileChannel channel;
+
+	/** The log sequence number of the first record of the file. */
+	private long baseLsn;
+
+	/**
+	 * The lock guarding the file, held while the flusher writes it and while
+	 * it is truncated.
+	 */
+	private final ReentrantLock fileLock = new ReentrantLock();
+
+	/** How long the flusher waits for more records before each flush. */
+	private final long batchWindowNanos;
+
+	/** The lock guarding the buffers and the sequence numbers. */
+	private final ReentrantLock lock = new ReentrantLock();
+
+	/** Signaled when records are appended or the log is closed. */
+	private final Condition appended = lock.newCondition();
+
+	/** Signaled when records become durable or the flusher fails. */
+	private final Condition flushed = lock.newCondition();
+
+	/** The buffer records are appended to. */
+	private byte[] appendBuffer = new byte[INITIAL_BUFFER_SIZE];
+
+	/** The number of bytes in {@link #appendBuffer}. */
+	private int appendCount = 0;
+
+	/** The buffer written by the flusher, swapped with the append buffer. */
+	private byte[] flushBuffer = new byte[INITIAL_BUFFER_SIZE];
+
+	/** The sequence number of the last record appended. */
+	private long appendedLsn;
+
+	/** The sequence number up to which the log is durable. */
+	private long durableLsn;
+
+	/** The failure that stopped the flusher, if any. */
+	private Throwable failure = null;
+
+	/** Whether the log was closed. */
+	private boolean closed = false;
+
+	/** The thread flushing the log. */
+	private final Thread flusher;
+
+	/**
+	 * Instantiates a new {@link WriteAheadLog} on an open file.
+	 *
+	 * @param file
+	 *            the log file
+	 * @param channel
+	 *            the open log file, positioned at the end of its valid records
+	 * @param baseLsn
+	 *            the log sequence number of the first record of the file
+	 * @param batchWindowMicros
+	 *            the batch window, in microseconds
+	 */
+	private WriteAheadLog(File file, FileChannel channel, long baseLsn, long batchWindowMicros) throws IOException {
+		this.file = file;
+		this.channel = channel;
+		this.baseLsn = baseLsn;
+		this.batchWindowNanos = TimeUnit.MICROSECONDS.toNanos(batchWindowMicros);
+		this.appendedLsn = baseLsn + channel.position() - FILE_HEADER_SIZE;
+		this.durableLsn = appendedLsn;
+
+		flusher = new Thread(this::flushLoop, "wal-flusher-" + channel.hashCode());
+		flusher.setDaemon(true);
+		flusher.start();
+	}
+
+	/**
+	 * Opens a log, creating it if it does not exist, and replays the records
+	 * it holds in order, starting at a log sequence number. A torn record at
+	 * the end of the file is discarded.
+	 *
+	 * @param file
+	 *            the log file
+	 * @param batchWindowMicros
+	 *            how long to wait for more records before each fsync, in
+	 *            microseconds; 0 flushes as soon as the previous fsync is done
+	 * @param fromLsn
+	 *            the log sequence number to replay from, 0 for the whole log
+	 * @param replayer
+	 *            the consumer of the records found in the log
+	 * @return the log, ready for appending
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public static WriteAheadLog open(File file, long batchWindowMicros, long fromLsn, Consumer<byte[]> replayer)
+			throws IOException {
+		if (batchWindowMicros < 0) {
+			throw new IllegalArgumentException("batchWindowMicros = " + batchWindowMicros + ", but it must not be negative");
+		}
+
+		FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE);
+
+		try {
+			long baseLsn;
+
+			if (channel.size() >= FILE_HEADER_SIZE) {
+				baseLsn = readHeader(channel, file);
+			} else if (fromLsn == 0) {
+				// A new log, or one torn while it was being created.
+				baseLsn = 0;
+				channel.truncate(0);
+				writeHeader(channel, baseLsn);
+				channel.force(true);
+			} else {
+				throw new IOException("The write-ahead log " + file + " ends before " + fromLsn);
+			}
+
+			if (baseLsn > fromLsn) {
+				throw new IOException("The write-ahead log " + file + " starts after " + fromLsn);
+			}
+
+			long fromPosition = FILE_HEADER_SIZE + fromLsn - baseLsn;
+
+			if (channel.size() < fromPosition) {
+				throw new IOException("The write-ahead log " + file + " ends before " + fromLsn);
+			}
+
+			long validEnd = replay(channel, fromPosition, replayer);
+			channel.truncate(validEnd);
+			channel.position(validEnd);
+			return new WriteAheadLog(file, channel, baseLsn, batchWindowMicros);
+		} catch (IOException | RuntimeException ex) {
+			channel.close();
+			throw ex;
+		}
+	}
+
+	/**
+	 * Reads the header of a log file.
+	 *
+	 * @param channel
+	 *            the log file
+	 * @param file
+	 *            the log file, for the error messages
+	 * @return the log sequence number of the first record of the file
+	 */
+	private static long readHeader(FileChannel channel, File file) throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_SIZE);
+
+		while (header.hasRemaining()) {
+			if (channel.read(header, header.position()) < 0) {
+				throw new IOException("The write-ahead log " + file + " is truncated");
+			}
+		}
+
+		header.flip();
+
+		if (header.getInt() != MAGIC) {
+			throw new IOException(file + " is not a write-ahead log");
+		}
+
+		return header.getLong();
+	}
+
+	/**
+	 * Writes the header of a log file at its current position.
+	 *
+	 * @param channel
+	 *            the log file
+	 * @param baseLsn
+	 *            the log sequence number of the first record of the file
+	 */
+	private static void writeHeader(FileChannel channel, long baseLsn) throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_SIZE);
+		header.putInt(MAGIC);
+		header.putLong(baseLsn);
+		header.flip();
+
+		while (header.hasRemaining()) {
+			channel.write(header);
+		}
+	}
+
+	/**
+	 * Reads the records of the file from a position.
+	 *
+	 * @param channel
+	 *            the log file
+	 * @param position
+	 *            the position of the first record to read
+	 * @param replayer
+	 *            the consumer of the records
+	 * @return the position just past the last valid record
+	 */
+	private static long replay(FileChannel channel, long position, Consumer<byte[]> replayer) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(REPLAY_BUFFER_SIZE);
+		CRC32 crc = new CRC32();
+		long size = channel.size();
+
+		// The buffer holds the bytes of the file from position on.
+		buffer.flip();
+
+		while (true) {
+			if (buffer.remaining() < HEADER_SIZE && !fill(channel, buffer, position, HEADER_SIZE)) {
+				break;
+			}
+
+			int length = buffer.getInt(buffer.position());
+			int checksum = buffer.getInt(buffer.position() + Integer.BYTES);
+
+			if (length < 0 || position + HEADER_SIZE + length > size) {
+				break;
+			}
+
+			if (buffer.remaining() < HEADER_SIZE + length) {
+				if (buffer.capacity() < HEADER_SIZE + length) {
+					ByteBuffer larger = ByteBuffer.allocate(HEADER_SIZE + length);
+					larger.put(buffer);
+					larger.flip();
+					buffer = larger;
+				}
+
+				if (!fill(channel, buffer, position, HEADER_SIZE + length)) {
+					break;
+				}
+			}
+
+			byte[] record = new byte[length];
+			buffer.position(buffer.position() + HEADER_SIZE);
+			buffer.get(record);
+
+			crc.reset();
+			crc.update(record, 0, length);
+
+			if ((int) crc.getValue() != checksum) {
+				break;
+			}
+
+			replayer.accept(record);
+			position += HEADER_SIZE + length;
+		}
+
+		return position;
+	}
+
+	/**
+	 * Reads more of the file into the buffer, after the bytes it still holds.
+	 *
+	 * @param channel
+	 *            the log file
+	 * @param buffer
+	 *            the buffer, ready to be read from, starting at position
+	 * @param position
+	 *            the offset in the file of the first byte of the buffer
+	 * @param length
+	 *            the number of bytes needed
+	 * @return true, if the buffer holds at least length bytes
+	 */
+	private static boolean fill(FileChannel channel, ByteBuffer buffer, long position, int length) throws IOException {
+		long readPosition = position + buffer.remaining();
+		buffer.compact();
+
+		while (buffer.position() < length) {
+			int read = channel.read(buffer, readPosition);
+
+			if (read < 0) {
+				break;
+			}
+
+			readPosition += read;
+		}
+
+		buffer.flip();
+		return buffer.remaining() >= length;
+	}
+
+	/**
+	 * Appends a record to the log. The record is not durable until
+	 * {@link #awaitDurable(long)} returns for the sequence number returned.
+	 *
+	 * @param record
+	 *            the record
+	 * @return the log sequence number of the record
+	 * @throws BookStoreException
+	 *             if the log is closed or failed
+	 */
+	public long append(byte[] record) throws BookStoreException {
+		CRC32 crc = new CRC32();
+		crc.update(record, 0, record.length);
+		int frameLength = HEADER_SIZE + record.length;
+
+		lock.lock();
+
+		try {
+			checkUsable();
+
+			if (appendCount + frameLength > appendBuffer.length) {
+				appendBuffer = Arrays.copyOf(appendBuffer, Math.max(appendBuffer.length * 2, appendCount + frameLength));
+			}
+
+			ByteBuffer frame = ByteBuffer.wrap(appendBuffer, appendCount, frameLength);
+			frame.putInt(record.length);
+			frame.putInt((int) crc.getValue());
+			frame.put(record);
+			appendCount += frameLength;
+			appendedLsn += frameLength;
+
+			appended.signal();
+			return appendedLsn;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Waits until the log is durable up to a sequence number.
+	 *
+	 * @param lsn
+	 *            the log sequence number returned by {@link #append(byte[])}
+	 * @throws BookStoreException
+	 *             if the log failed or the wait was interrupted
+	 */
+	public void awaitDurable(long lsn) throws BookStoreException {
+		lock.lock();
+
+		try {
+			while (durableLsn < lsn) {
+				checkUsable();
+				flushed.await();
+			}
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new BookStoreException("Interrupted while waiting for the write-ahead log", ex);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Gets the sequence number of the last record appended.
+	 *
+	 * @return the appended log sequence number
+	 */
+	public long getAppendedLsn() {
+		lock.lock();
+
+		try {
+			return appendedLsn;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Gets the sequence number up to which the log is durable.
+	 *
+	 * @return the durable log sequence number
+	 */
+	public long getDurableLsn() {
+		lock.lock();
+
+		try {
+			return durableLsn;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Drops the records before a log sequence number, once a checkpoint
+	 * covers them. The records from that number on are copied to a new file,
+	 * which then replaces the log atomically, so that a crash leaves either
+	 * the old or the new log. Appends go on meanwhile; only the flusher waits.
+	 *
+	 * @param lsn
+	 *            the log sequence number of the first record to keep, which
+	 *            must be durable
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public void truncate(long lsn) throws IOException {
+		if (lsn > getDurableLsn()) {
+			throw new IllegalArgumentException("lsn = " + lsn + ", but the log is only durable up to " + getDurableLsn());
+		}
+
+		fileLock.lock();
+
+		try {
+			if (lsn <= baseLsn) {
+				return;
+			}
+
+			File tempFile = new File(file.getPath() + ".tmp");
+			FileChannel truncated = FileChannel.open(tempFile.toPath(), StandardOpenOption.CREATE,
+					StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+			try {
+				writeHeader(truncated, lsn);
+
+				// The flusher is not writing, so the file ends with the last
+				// durable record.
+				long position = FILE_HEADER_SIZE + lsn - baseLsn;
+				long end = channel.size();
+
+				while (position < end) {
+					position += channel.transferTo(position, end - position, truncated);
+				}
+
+				truncated.force(true);
+				Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+						StandardCopyOption.ATOMIC_MOVE);
+			} catch (IOException | RuntimeException ex) {
+				truncated.close();
+				throw ex;
+			}
+
+			channel.close();
+			channel = truncated;
+			baseLsn = lsn;
+		} finally {
+			fileLock.unlock();
+		}
+	}
+
+	private void checkUsable() throws BookStoreException {
+		if (failure != null) {
+			throw new BookStoreException("The write-ahead log failed", failure);
+		}
+
+		if (closed) {
+			throw new BookStoreException("The write-ahead log is closed");
+		}
+	}
+
+	/**
+	 * Writes and syncs batches of records until the log is closed or the
+	 * flusher fails, in which case the failure is recorded and the log
+	 * becomes unusable.
+	 */
+	private void flushLoop() {
+		try {
+			while (true) {
+				lock.lock();
+
+				try {
+					while (appendCount == 0 && !closed) {
+						appended.await();
+					}
+
+					if (appendCount == 0) {
+						return;
+					}
+				} finally {
+					lock.unlock();
+				}
+
+				if (batchWindowNanos > 0) {
+					TimeUnit.NANOSECONDS.sleep(batchWindowNanos);
+				}
+
+				flushBatch();
+			}
+		} catch (Throwable ex) {
+			// Whatever stopped the flusher, nothing appended from now on can
+			// become durable, so the waiters must not wait for it.
+			lock.lock();
+
+			try {
+				failure = ex;
+				flushed.signalAll();
+			} finally {
+				lock.unlock();
+			}
+
+			if (ex instanceof InterruptedException) {
+				Thread.currentThread().interrupt();
+			} else if (ex instanceof Error) {
+				throw (Error) ex;
+			}
+		}
+	}
+
+	/**
+	 * Takes every record appended so far, writes them and syncs the file.
+	 */
+	private void flushBatch() throws IOException {
+		byte[] batch;
+		int batchCount;
+		long batchLsn;
+
+		lock.lock();
+
+		try {
+			batch = appendBuffer;
+			batchCount = appendCount;
+			batchLsn = appendedLsn;
+
+			// Appends go on in the other buffer while this batch is written.
+			appendBuffer = flushBuffer;
+			appendCount = 0;
+			flushBuffer = batch;
+		} finally {
+			lock.unlock();
+		}
+
+		ByteBuffer data = ByteBuffer.wrap(batch, 0, batchCount);
+
+		fileLock.lock();
+
+		try {
+			while (data.hasRemaining()) {
+				channel.write(data);
+			}
+
+			channel.force(false);
+		} finally {
+			fileLock.unlock();
+		}
+
+		lock.lock();
+
+		try {
+			durableLsn = batchLsn;
+			flushed.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Flushes the records appended so far and closes the log.
+	 *
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	@Override
+	public void close() throws IOException {
+		lock.lock();
+
+		try {
+			closed = true;
+			appended.signal();
+		} finally {
+			lock.unlock();
+		}
+
+		try {
+			flusher.join();
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		} finally {
+			fileLock.lock();
+
+			try {
+				channel.close();
+			} finally {
+				fileLock.unlock();
+			}
+		}
+	}
+}
@@ -14,9 +14,31 @@ public final class BookStoreClientConstants {
 	/** The Constant CLIENT_MAX_THREADSPOOL_THREADS. */
 	public static final int CLIENT_MAX_THREADSPOOL_THREADS = 250;
 
+	/**
+	 * The Constant CLIENT_MAX_QUEUED_REQUESTS, the most requests waiting for a
+	 * connection to an address, which asynchronous calls can run into.
+	 */
+	public static final int CLIENT_MAX_QUEUED_REQUESTS = 65536;
+
+	/**
+	 * The Constant CLIENT_H2C_CONNECTIONS, the connections to every address
+	 * the HTTP/2 requests are spread over.
+	 */
+	public static final int CLIENT_H2C_CONNECTIONS = 4;
+
+	/**
+	 * The Constant CLIENT_H2C_MAX_STREAMS, the most HTTP/2 requests in flight
+	 * at once; it stays below what the connections may carry, so that the
+	 * server never refuses a stream.
+	 */
+	public static final int CLIENT_H2C_MAX_STREAMS = 512;
+
 	/** The Constant CLIENT_MAX_TIMEOUT_MILLISECS. */
 	public static final int CLIENT_MAX_TIMEOUT_MILLISECS = 30000;
 
+	/** The Constant CLIENT_MAX_BATCH_SIZE, the most messages sent in one batch. */
+	public static final int CLIENT_MAX_BATCH_SIZE = 256;
+
 	/** The Constant strERR_CLIENT_REQUEST_SENDING. */
 	public static final String STR_ERR_CLIENT_REQUEST_SENDING = "ERR_CLIENT_REQUEST_SENDING";
 
@@ -26,6 +48,12 @@ public final class BookStoreClientConstants {
 	/** The Constant strERR_CLIENT_REQUEST_TIMEOUT. */
 	public static final String STR_ERR_CLIENT_REQUEST_TIMEOUT = "CLIENT_REQUEST_TIMEOUT";
 
+	/**
+	 * The Constant STR_ERR_CLIENT_SERVER_OVERLOADED, when the server turned
+	 * the request away rather than queue it.
+	 */
+	public static final String STR_ERR_CLIENT_SERVER_OVERLOADED = "CLIENT_SERVER_OVERLOADED";
+
 	/** The Constant strERR_CLIENT_RESPONSE_DECODING. */
 	public static final String STR_ERR_CLIENT_RESPONSE_DECODING = "CLIENT_RESPONSE_DECODING";
 
@@ -5,6 +5,7 @@ import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 
 import com.acertainbookstore.business.CertainBookStore;
 import org.eclipse.jetty.client.HttpClient;
@@ -14,20 +15,23 @@ import com.acertainbookstore.business.Book;
 import com.acertainbookstore.business.BookCopy;
 import com.acertainbookstore.business.BookRating;
 import com.acertainbookstore.interfaces.BookStore;
-import com.acertainbookstore.utils.BookStoreKryoSerializer;
 import com.acertainbookstore.interfaces.BookStoreSerializer;
-import com.acertainbookstore.utils.BookStoreXStreamSerializer;
 import com.acertainbookstore.utils.BookStoreConstants;
 import com.acertainbookstore.utils.BookStoreException;
 import com.acertainbookstore.utils.BookStoreMessageTag;
 import com.acertainbookstore.utils.BookStoreRequest;
 import com.acertainbookstore.utils.BookStoreResponse;
+import com.acertainbookstore.utils.BookStoreSerializationFormat;
 import com.acertainbookstore.utils.BookStoreUtility;
 
 /**
  * {@link BookStoreHTTPProxy} implements the client level synchronous
  * {@link CertainBookStore} API declared in the {@link BookStore} class.
  * 
+ * Each call also has an asynchronous variant, returning a
+ * {@link CompletableFuture} without waiting for the round trip, so that a
+ * single thread can keep many calls in flight.
+ * 
  * @see BookStore
  * @see CertainBookStore
  */
@@ -39,8 +43,14 @@ public class BookStoreHTTPProxy implements BookStore {
 	/** The server address. */
 	protected String serverAddress;
 
-	/** The serializer. */
-	private static ThreadLocal<BookStoreSerializer> serializer;
+	/** The serializer, one per thread. */
+	private final ThreadLocal<BookStoreSerializer> serializer;
+
+	/** The HTTP/2 client, or null if the calls go over HTTP/1.1. */
+	private BookStoreHTTP2Client http2Client = null;
+
+	/** The batcher coalescing the calls, or null if they are not batched. */
+	private BookStoreRequestBatcher batcher = null;
 
 	/**
 	 * Initializes a new {@link BookStoreHTTPProxy}.
@@ -51,13 +61,26 @@ public class BookStoreHTTPProxy implements BookStore {
 	 *             the exception
 	 */
 	public BookStoreHTTPProxy(String serverAddress) throws Exception {
+		this(serverAddress, 0);
+	}
+
+	/**
+	 * Initializes a new {@link BookStoreHTTPProxy} coalescing the calls made
+	 * within a window into one round trip.
+	 *
+	 * @param serverAddress
+	 *            the server address
+	 * @param batchWindowMillis
+	 *            how long a call waits for others to share its round trip, in
+	 *            milliseconds; 0 sends every call on its own
+	 * @throws Exception
+	 *             the exception
+	 */
+	public BookStoreHTTPProxy(String serverAddress, long batchWindowMillis) throws Exception {
 
 		// Setup the type of serializer.
-		if (BookStoreConstants.BINARY_SERIALIZATION) {
-			serializer = ThreadLocal.withInitial(BookStoreKryoSerializer::new);
-		} else {
-			serializer = ThreadLocal.withInitial(BookStoreXStreamSerializer::new);
-		}
+		BookStoreSerializationFormat serializationFormat = BookStoreSerializationFormat.fromSystemProperty();
+		serializer = ThreadLocal.withInitial(serializationFormat::newSerializer);
 
 		setServerAddress(serverAddress);
 		client = new HttpClient();
@@ -65,6 +88,9 @@ public class BookStoreHTTPProxy implements BookStore {
 		// Max concurrent connections to every address.
 		client.setMaxConnectionsPerDestination(BookStoreClientConstants.CLIENT_MAX_CONNECTION_ADDRESS);
 
+		// Max requests waiting for a connection to every address.
+		client.setMaxRequestsQueuedPerDestination(BookStoreClientConstants.CLIENT_MAX_QUEUED_REQUESTS);
+
 		// Max number of threads.
 		client.setExecutor(new QueuedThreadPool(BookStoreClientConstants.CLIENT_MAX_THREADSPOOL_THREADS));
 
@@ -72,6 +98,27 @@ public class BookStoreHTTPProxy implements BookStore {
 		client.setConnectTimeout(BookStoreClientConstants.CLIENT_MAX_TIMEOUT_MILLISECS);
 
 		client.start();
+
+		// The client asks for compressed responses unless told not to.
+		String compressionString = System.getProperty(BookStoreConstants.PROPERTY_KEY_COMPRESSION);
+
+		if (compressionString != null && !Boolean.parseBoolean(compressionString)) {
+			client.getContentDecoderFactories().clear();
+		}
+
+		// The calls go over HTTP/2 cleartext if told so; the batches and the
+		// streamed responses, which take one request each, stay on HTTP/1.1.
+		String h2cString = System.getProperty(BookStoreConstants.PROPERTY_KEY_H2C);
+
+		if (h2cString != null && Boolean.parseBoolean(h2cString)) {
+			http2Client = new BookStoreHTTP2Client(!client.getContentDecoderFactories().isEmpty());
+			http2Client.start();
+		}
+
+		if (batchWindowMillis > 0) {
+			batcher = new BookStoreRequestBatcher(client, serverAddress + "/" + BookStoreMessageTag.BATCH,
+					() -> serializer.get(), batchWindowMillis);
+		}
 	}
 
 	/**
@@ -99,9 +146,14 @@ public class BookStoreHTTPProxy implements BookStore {
 	 * @see com.acertainbookstore.interfaces.BookStore#buyBooks(java.util.Set)
 	 */
 	public void buyBooks(Set<BookCopy> isbnSet) throws BookStoreException {
+		if (batcher != null) {
+			batcher.call(BookStoreMessageTag.BUYBOOKS, isbnSet);
+			return;
+		}
+
 		String urlString = serverAddress + "/" + BookStoreMessageTag.BUYBOOKS;
 		BookStoreRequest bookStoreRequest = BookStoreRequest.newPostRequest(urlString, isbnSet);
-		BookStoreUtility.performHttpExchange(client, bookStoreRequest, serializer.get());
+		performHttpExchange(bookStoreRequest);
 	}
 
 	/*
@@ -111,10 +163,13 @@ public class BookStoreHTTPProxy implements BookStore {
 	 */
 	@SuppressWarnings("unchecked")
 	public List<Book> getBooks(Set<Integer> isbnSet) throws BookStoreException {
+		if (batcher != null) {
+			return (List<Book>) batcher.call(BookStoreMessageTag.GETBOOKS, isbnSet).getList();
+		}
+
 		String urlString = serverAddress + "/" + BookStoreMessageTag.GETBOOKS;
 		BookStoreRequest bookStoreRequest = BookStoreRequest.newPostRequest(urlString, isbnSet);
-		BookStoreResponse bookStoreResponse = BookStoreUtility.performHttpExchange(client, bookStoreRequest,
-				serializer.get());
+		BookStoreResponse bookStoreResponse = performHttpExchange(bookStoreRequest);
 		return (List<Book>) bookStoreResponse.getList();
 	}
 
@@ -125,6 +180,10 @@ public class BookStoreHTTPProxy implements BookStore {
 	 */
 	@SuppressWarnings("unchecked")
 	public List<Book> getEditorPicks(int numBooks) throws BookStoreException {
+		if (batcher != null) {
+			return (List<Book>) batcher.call(BookStoreMessageTag.GETEDITORPICKS, numBooks).getList();
+		}
+
 		String urlEncodedNumBooks = null;
 
 		urlEncodedNumBooks = URLEncoder.encode(Integer.toString(numBooks), StandardCharsets.UTF_8);
@@ -133,8 +192,7 @@ public class BookStoreHTTPProxy implements BookStore {
 				+ BookStoreConstants.BOOK_NUM_PARAM + "=" + urlEncodedNumBooks;
 
 		BookStoreRequest bookStoreRequest = BookStoreRequest.newGetRequest(urlString);
-		BookStoreResponse bookStoreResponse = BookStoreUtility.performHttpExchange(client, bookStoreRequest,
-				serializer.get());
+		BookStoreResponse bookStoreResponse = performHttpExchange(bookStoreRequest);
 		return (List<Book>) bookStoreResponse.getList();
 	}
 
@@ -142,8 +200,16 @@ public class BookStoreHTTPProxy implements BookStore {
 	 * Stops the proxy.
 	 */
 	public void stop() {
+		if (batcher != null) {
+			batcher.stop();
+		}
+
 		try {
 			client.stop();
+
+			if (http2Client != null) {
+				http2Client.stop();
+			}
 		} catch (Exception ex) {
 			System.err.println(ex.getStackTrace());
 		}
@@ -157,9 +223,14 @@ public class BookStoreHTTPProxy implements BookStore {
 	@Override
 	public void rateBooks(Set<BookRating> bookRating) throws BookStoreException {
 //		throw new BookStoreException();
+		if (batcher != null) {
+			batcher.call(BookStoreMessageTag.RATEBOOKS, bookRating);
+			return;
+		}
+
 		String urlString = serverAddress + "/" + BookStoreMessageTag.RATEBOOKS;
 		BookStoreRequest bookStoreRequest = BookStoreRequest.newPostRequest(urlString, bookRating);
-		BookStoreUtility.performHttpExchange(client, bookStoreRequest, serializer.get());
+		performHttpExchange(bookStoreRequest);
 	}
 
 	/*
@@ -168,7 +239,12 @@ public class BookStoreHTTPProxy implements BookStore {
 	 * @see com.acertainbookstore.interfaces.BookStore#getTopRatedBooks(int)
 	 */
 	@Override
+	@SuppressWarnings("unchecked")
 	public List<Book> getTopRatedBooks(int numBooks) throws BookStoreException {
+		if (batcher != null) {
+			return (List<Book>) batcher.call(BookStoreMessageTag.GETTOPRATEBOOKS, numBooks).getList();
+		}
+
 		String urlEncodedNumBooks = null;
 
 		urlEncodedNumBooks = URLEncoder.encode(Integer.toString(numBooks), StandardCharsets.UTF_8);
@@ -177,8 +253,132 @@ public class BookStoreHTTPProxy implements BookStore {
 				+ BookStoreConstants.BOOK_NUM_PARAM + "=" + urlEncodedNumBooks;
 
 		BookStoreRequest bookStoreRequest = BookStoreRequest.newGetRequest(urlString);
-		BookStoreResponse bookStoreResponse = BookStoreUtility.performHttpExchange(client, bookStoreRequest,
-				serializer.get());
+		BookStoreResponse bookStoreResponse = performHttpExchange(bookStoreRequest);
 		return (List<Book>) bookStoreResponse.getList();
 	}
+
+	/**
+	 * Buys books, like {@link #buyBooks(Set)}, without blocking the caller.
+	 *
+	 * @param isbnSet
+	 *            the copies to buy
+	 * @return the future completion, failing with a {@link BookStoreException} as
+	 *         the synchronous call would throw it
+	 */
+	public CompletableFuture<Void> buyBooksAsync(Set<BookCopy> isbnSet) {
+		String urlString = serverAddress + "/" + BookStoreMessageTag.BUYBOOKS;
+		BookStoreRequest bookStoreRequest = BookStoreRequest.newPostRequest(urlString, isbnSet);
+		return exchangeAsync(BookStoreMessageTag.BUYBOOKS, isbnSet, bookStoreRequest)
+				.thenApply(bookStoreResponse -> null);
+	}
+
+	/**
+	 * Gets books, like {@link #getBooks(Set)}, without blocking the caller.
+	 *
+	 * @param isbnSet
+	 *            the ISBNs
+	 * @return the future books, failing with a {@link BookStoreException} as the
+	 *         synchronous call would throw it
+	 */
+	@SuppressWarnings("unchecked")
+	public CompletableFuture<List<Book>> getBooksAsync(Set<Integer> isbnSet) {
+		String urlString = serverAddress + "/" + BookStoreMessageTag.GETBOOKS;
+		BookStoreRequest bookStoreRequest = BookStoreRequest.newPostRequest(urlString, isbnSet);
+		return exchangeAsync(BookStoreMessageTag.GETBOOKS, isbnSet, bookStoreRequest)
+				.thenApply(bookStoreResponse -> (List<Book>) bookStoreResponse.getList());
+	}
+
+	/**
+	 * Gets editor picks, like {@link #getEditorPicks(int)}, without blocking
+	 * the caller.
+	 *
+	 * @param numBooks
+	 *            the number of books
+	 * @return the future books, failing with a {@link BookStoreException} as the
+	 *         synchronous call would throw it
+	 */
+	@SuppressWarnings("unchecked")
+	public CompletableFuture<List<Book>> getEditorPicksAsync(int numBooks) {
+		String urlString = serverAddress + "/" + BookStoreMessageTag.GETEDITORPICKS + "?"
+				+ BookStoreConstants.BOOK_NUM_PARAM + "=" + numBooks;
+		BookStoreRequest bookStoreRequest = BookStoreRequest.newGetRequest(urlString);
+		return exchangeAsync(BookStoreMessageTag.GETEDITORPICKS, numBooks, bookStoreRequest)
+				.thenApply(bookStoreResponse -> (List<Book>) bookStoreResponse.getList());
+	}
+
+	/**
+	 * Rates books, like {@link #rateBooks(Set)}, without blocking the caller.
+	 *
+	 * @param bookRating
+	 *            the ratings
+	 * @return the future completion, failing with a {@link BookStoreException} as
+	 *         the synchronous call would throw it
+	 */
+	public CompletableFuture<Void> rateBooksAsync(Set<BookRating> bookRating) {
+		String urlString = serverAddress + "/" + BookStoreMessageTag.RATEBOOKS;
+		BookStoreRequest bookStoreRequest = BookStoreRequest.newPostRequest(urlString, bookRating);
+		return exchangeAsync(BookStoreMessageTag.RATEBOOKS, bookRating, bookStoreRequest)
+				.thenApply(bookStoreResponse -> null);
+	}
+
+	/**
+	 * Gets the top rated books, like {@link #getTopRatedBooks(int)}, without
+	 * blocking the caller.
+	 *
+	 * @param numBooks
+	 *            the number of books
+	 * @return the future books, failing with a {@link BookStoreException} as the
+	 *         synchronous call would throw it
+	 */
+	@SuppressWarnings("unchecked")
+	public CompletableFuture<List<Book>> getTopRatedBooksAsync(int numBooks) {
+		String urlString = serverAddress + "/" + BookStoreMessageTag.GETTOPRATEBOOKS + "?"
+				+ BookStoreConstants.BOOK_NUM_PARAM + "=" + numBooks;
+		BookStoreRequest bookStoreRequest = BookStoreRequest.newGetRequest(urlString);
+		return exchangeAsync(BookStoreMessageTag.GETTOPRATEBOOKS, numBooks, bookStoreRequest)
+				.thenApply(bookStoreResponse -> (List<Book>) bookStoreResponse.getList());
+	}
+
+	/**
+	 * Sends a message without waiting for its response, batched if the proxy
+	 * batches its calls.
+	 *
+	 * @param messageTag
+	 *            the message tag
+	 * @param inputValue
+	 *            the input value, as a batched message takes it
+	 * @param bookStoreRequest
+	 *            the request, as sent on its own
+	 * @return the future response
+	 */
+	private CompletableFuture<BookStoreResponse> exchangeAsync(BookStoreMessageTag messageTag, Object inputValue,
+			BookStoreRequest bookStoreRequest) {
+		if (batcher != null) {
+			return batcher.submit(messageTag, inputValue);
+		}
+
+		if (http2Client != null) {
+			return BookStoreUtility.performHttpExchangeAsync(http2Client, bookStoreRequest, () -> serializer.get());
+		}
+
+		return BookStoreUtility.performHttpExchangeAsync(client, bookStoreRequest, () -> serializer.get());
+	}
+
+	/**
+	 * Sends a message on its own and waits for its response, over HTTP/2 if
+	 * the proxy speaks it.
+	 *
+	 * @param bookStoreRequest
+	 *            the request
+	 * @return the response
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	private BookStoreResponse performHttpExchange(BookStoreRequest bookStoreRequest) throws BookStoreException {
+		if (http2Client != null) {
+			return BookStoreUtility.performHttpExchange(http2Client, bookStoreRequest, serializer.get());
+		}
+
+		return BookStoreUtility.performHttpExchange(client, bookStoreRequest, serializer.get());
+	}
 }
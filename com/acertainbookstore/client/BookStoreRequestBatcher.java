@@ -0,0 +1,237 @@
+package com.acertainbookstore.client;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+import org.eclipse.jetty.client.HttpClient;
+
+import com.acertainbookstore.interfaces.BookStoreSerializer;
+import com.acertainbookstore.utils.BookStoreBatchOperation;
+import com.acertainbookstore.utils.BookStoreException;
+import com.acertainbookstore.utils.BookStoreMessageTag;
+import com.acertainbookstore.utils.BookStoreRequest;
+import com.acertainbookstore.utils.BookStoreResponse;
+import com.acertainbookstore.utils.BookStoreUtility;
+
+/**
+ * {@link BookStoreRequestBatcher} coalesces the messages a proxy sends within
+ * a short window into one {@link BookStoreMessageTag#BATCH} request, so that
+ * they pay for one round trip instead of one each.
+ *
+ * The first message of a batch starts the window; the batch is sent when the
+ * window closes, or as soon as it holds
+ * {@link BookStoreClientConstants#CLIENT_MAX_BATCH_SIZE} messages. Each caller
+ * gets the response to its own message, so a failed message only fails its
+ * caller.
+ */
+final class BookStoreRequestBatcher {
+
+	/** The client. */
+	private final HttpClient client;
+
+	/** The URL batches are posted to. */
+	private final String batchURLString;
+
+	/** The serializer of the calling thread. */
+	private final Supplier<BookStoreSerializer> serializer;
+
+	/** How long a batch waits for more messages, in milliseconds. */
+	private final long batchWindowMillis;
+
+	/** The thread handing the batches over to the client. */
+	private final ScheduledExecutorService sender;
+
+	/** The batches sent and not answered yet. */
+	private final Set<CompletableFuture<Void>> inFlightBatches = ConcurrentHashMap.newKeySet();
+
+	/** The messages waiting to be sent. */
+	private List<BookStoreBatchOperation> pendingOperations = new ArrayList<>();
+
+	/** The responses to the messages waiting to be sent, in the same order. */
+	private List<CompletableFuture<BookStoreResponse>> pendingResponses = new ArrayList<>();
+
+	/**
+	 * Instantiates a new {@link BookStoreRequestBatcher}.
+	 *
+	 * @param client
+	 *            the client
+	 * @param batchURLString
+	 *            the URL batches are posted to
+	 * @param serializer
+	 *            the serializer of the calling thread
+	 * @param batchWindowMillis
+	 *            how long a batch waits for more messages, in milliseconds
+	 */
+	BookStoreRequestBatcher(HttpClient client, String batchURLString, Supplier<BookStoreSerializer> serializer,
+			long batchWindowMillis) {
+		this.client = client;
+		this.batchURLString = batchURLString;
+		this.serializer = serializer;
+		this.batchWindowMillis = batchWindowMillis;
+		this.sender = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "bookstore-batcher");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/**
+	 * Sends a message as part of the next batch and waits for its response.
+	 *
+	 * @param messageTag
+	 *            the message tag
+	 * @param inputValue
+	 *            the input value, or null if the message takes none
+	 * @return the response to the message
+	 * @throws BookStoreException
+	 *             if the message failed or the batch could not be sent
+	 */
+	BookStoreResponse call(BookStoreMessageTag messageTag, Object inputValue) throws BookStoreException {
+		BookStoreResponse bookStoreResponse;
+
+		try {
+			bookStoreResponse = submit(messageTag, inputValue).get();
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new BookStoreException(BookStoreClientConstants.STR_ERR_CLIENT_REQUEST_SENDING, ex);
+		} catch (ExecutionException ex) {
+			if (ex.getCause() instanceof BookStoreException) {
+				throw (BookStoreException) ex.getCause();
+			}
+
+			throw new BookStoreException(BookStoreClientConstants.STR_ERR_CLIENT_UNKNOWN, ex.getCause());
+		}
+
+		return bookStoreResponse;
+	}
+
+	/**
+	 * Adds a message to the next batch.
+	 *
+	 * @param messageTag
+	 *            the message tag
+	 * @param inputValue
+	 *            the input value, or null if the message takes none
+	 * @return the future response to the message, failing with a
+	 *         {@link BookStoreException} if the message failed or the batch
+	 *         could not be sent
+	 */
+	CompletableFuture<BookStoreResponse> submit(BookStoreMessageTag messageTag, Object inputValue) {
+		CompletableFuture<BookStoreResponse> futureResponse = new CompletableFuture<>();
+
+		synchronized (this) {
+			pendingOperations.add(new BookStoreBatchOperation(messageTag, inputValue));
+			pendingResponses.add(futureResponse);
+
+			if (pendingOperations.size() >= BookStoreClientConstants.CLIENT_MAX_BATCH_SIZE) {
+				sender.execute(this::sendPending);
+			} else if (pendingOperations.size() == 1) {
+				sender.schedule(this::sendPending, batchWindowMillis, TimeUnit.MILLISECONDS);
+			}
+		}
+
+		return futureResponse;
+	}
+
+	/**
+	 * Sends the messages waiting, if any, as one batch.
+	 */
+	private void sendPending() {
+		List<BookStoreBatchOperation> operations;
+		List<CompletableFuture<BookStoreResponse>> futureResponses;
+
+		synchronized (this) {
+			if (pendingOperations.isEmpty()) {
+				return;
+			}
+
+			operations = pendingOperations;
+			futureResponses = pendingResponses;
+			pendingOperations = new ArrayList<>();
+			pendingResponses = new ArrayList<>();
+		}
+
+		// The sender only hands the batch over, so that the next window is not
+		// held up by the round trip of this one.
+		BookStoreRequest bookStoreRequest = BookStoreRequest.newPostRequest(batchURLString, operations);
+		CompletableFuture<Void> futureBatch = BookStoreUtility
+				.performHttpExchangeAsync(client, bookStoreRequest, serializer)
+				.handle((bookStoreResponse, failure) -> {
+					complete(futureResponses, bookStoreResponse, failure);
+					return null;
+				});
+
+		inFlightBatches.add(futureBatch);
+		futureBatch.whenComplete((ignored, failure) -> inFlightBatches.remove(futureBatch));
+	}
+
+	/**
+	 * Completes the responses to the messages of a batch.
+	 *
+	 * @param futureResponses
+	 *            the responses to the messages, in order
+	 * @param bookStoreResponse
+	 *            the response to the batch, or null if it failed
+	 * @param failure
+	 *            the failure of the batch, or null if it succeeded
+	 */
+	private static void complete(List<CompletableFuture<BookStoreResponse>> futureResponses,
+			BookStoreResponse bookStoreResponse, Throwable failure) {
+		if (failure != null) {
+			Throwable cause = (failure instanceof CompletionException) ? failure.getCause() : failure;
+
+			for (CompletableFuture<BookStoreResponse> futureResponse : futureResponses) {
+				futureResponse.completeExceptionally(cause);
+			}
+
+			return;
+		}
+
+		try {
+			List<?> responses = bookStoreResponse.getList();
+
+			for (int i = 0; i < futureResponses.size(); i++) {
+				BookStoreResponse response = (BookStoreResponse) responses.get(i);
+
+				if (response.getException() != null) {
+					futureResponses.get(i).completeExceptionally(response.getException());
+				} else {
+					futureResponses.get(i).complete(response);
+				}
+			}
+		} catch (RuntimeException ex) {
+			for (CompletableFuture<BookStoreResponse> futureResponse : futureResponses) {
+				futureResponse.completeExceptionally(ex);
+			}
+		}
+	}
+
+	/**
+	 * Sends the messages waiting, waits for the batches sent to be answered
+	 * and stops the batcher.
+	 */
+	void stop() {
+		sender.execute(this::sendPending);
+		sender.shutdown();
+
+		try {
+			sender.awaitTermination(BookStoreClientConstants.CLIENT_MAX_TIMEOUT_MILLISECS, TimeUnit.MILLISECONDS);
+			CompletableFuture.allOf(inFlightBatches.toArray(new CompletableFuture<?>[0]))
+					.get(BookStoreClientConstants.CLIENT_MAX_TIMEOUT_MILLISECS, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException | TimeoutException ex) {
+			// The callers of the batches left were told why they failed.
+		}
+	}
+}
@@ -0,0 +1,203 @@
+package com.acertainbookstore.client;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+import org.eclipse.jetty.client.HttpClient;
+import org.eclipse.jetty.client.api.Response;
+import org.eclipse.jetty.client.util.InputStreamResponseListener;
+import org.eclipse.jetty.http.HttpHeader;
+import org.eclipse.jetty.http.HttpMethod;
+
+import com.acertainbookstore.interfaces.BookStoreSerializer;
+import com.acertainbookstore.utils.BookStoreException;
+import com.acertainbookstore.utils.BookStoreResponse;
+import com.acertainbookstore.utils.BookStoreUtility;
+
+/**
+ * {@link BookStoreStreamReader} iterates over the elements of a streamed
+ * response while it is still arriving, one chunk at a time, as written by the
+ * server for {@link com.acertainbookstore.utils.BookStoreMessageTag#STREAMBOOKS}.
+ *
+ * The response is read through a blocking input stream fed by the client as
+ * the content arrives, so at most one chunk is held in memory. Closing the
+ * reader before the end of the stream aborts the response.
+ *
+ * @param <T>
+ *            the type of the elements
+ */
+final class BookStoreStreamReader<T> implements Iterator<T>, Closeable {
+
+	/** The response content. */
+	private final DataInputStream in;
+
+	/** The serializer of the calling thread. */
+	private final Supplier<BookStoreSerializer> serializer;
+
+	/** The chunk being iterated over. */
+	private List<T> chunk = Collections.emptyList();
+
+	/** The position of the next element in the chunk. */
+	private int next = 0;
+
+	/** Whether the last chunk was read. */
+	private boolean ended = false;
+
+	/**
+	 * Instantiates a new {@link BookStoreStreamReader}.
+	 *
+	 * @param in
+	 *            the response content
+	 * @param serializer
+	 *            the serializer of the calling thread
+	 */
+	private BookStoreStreamReader(DataInputStream in, Supplier<BookStoreSerializer> serializer) {
+		this.in = in;
+		this.serializer = serializer;
+	}
+
+	/**
+	 * Sends a request for a stream and reads its first chunk, so that a
+	 * request the server failed is reported here rather than while iterating.
+	 *
+	 * @param <T>
+	 *            the type of the elements
+	 * @param client
+	 *            the client
+	 * @param urlString
+	 *            the URL of the stream
+	 * @param serializer
+	 *            the serializer of the calling thread
+	 * @return the reader, positioned before the first element
+	 * @throws BookStoreException
+	 *             if the request failed
+	 */
+	static <T> BookStoreStreamReader<T> open(HttpClient client, String urlString,
+			Supplier<BookStoreSerializer> serializer) throws BookStoreException {
+		InputStreamResponseListener listener = new InputStreamResponseListener();
+		client.newRequest(urlString).method(HttpMethod.GET).header(HttpHeader.ACCEPT, serializer.get().getContentType())
+				.send(listener);
+
+		Response response;
+
+		try {
+			response = listener.get(BookStoreClientConstants.CLIENT_MAX_TIMEOUT_MILLISECS, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new BookStoreException(BookStoreClientConstants.STR_ERR_CLIENT_REQUEST_SENDING, ex);
+		} catch (TimeoutException ex) {
+			throw new BookStoreException(BookStoreClientConstants.STR_ERR_CLIENT_REQUEST_TIMEOUT, ex);
+		} catch (ExecutionException ex) {
+			throw new BookStoreException(BookStoreClientConstants.STR_ERR_CLIENT_REQUEST_EXCEPTION, ex);
+		}
+
+		BookStoreStreamReader<T> reader = new BookStoreStreamReader<>(new DataInputStream(listener.getInputStream()),
+				serializer);
+
+		try {
+			BookStoreUtility.checkHttpStatus(response);
+			reader.readChunk();
+		} catch (IOException ex) {
+			reader.close();
+			throw new BookStoreException(BookStoreClientConstants.STR_ERR_CLIENT_RESPONSE_DECODING, ex);
+		} catch (BookStoreException ex) {
+			reader.close();
+			throw ex;
+		}
+
+		return reader;
+	}
+
+	/**
+	 * Reads the next chunk, or the end of the stream.
+	 *
+	 * @throws IOException
+	 *             if the response cannot be read
+	 * @throws BookStoreException
+	 *             if the chunk holds an exception
+	 */
+	@SuppressWarnings("unchecked")
+	private void readChunk() throws IOException, BookStoreException {
+		int length = in.readInt();
+
+		if (length == 0) {
+			ended = true;
+			chunk = Collections.emptyList();
+			in.close();
+			return;
+		}
+
+		byte[] serializedChunk = new byte[length];
+		in.readFully(serializedChunk);
+
+		BookStoreResponse bookStoreResponse = (BookStoreResponse) serializer.get().deserialize(serializedChunk);
+
+		if (bookStoreResponse.getException() != null) {
+			throw bookStoreResponse.getException();
+		}
+
+		chunk = (List<T>) bookStoreResponse.getList();
+		next = 0;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.util.Iterator#hasNext()
+	 */
+	@Override
+	public boolean hasNext() {
+		while (next == chunk.size() && !ended) {
+			try {
+				readChunk();
+			} catch (IOException ex) {
+				close();
+				throw new UncheckedIOException(ex);
+			} catch (BookStoreException ex) {
+				close();
+				throw new IllegalStateException(ex);
+			}
+		}
+
+		return next < chunk.size();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.util.Iterator#next()
+	 */
+	@Override
+	public T next() {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+
+		return chunk.get(next++);
+	}
+
+	/**
+	 * Stops reading the stream, aborting the response if it did not end.
+	 */
+	@Override
+	public void close() {
+		ended = true;
+		chunk = Collections.emptyList();
+
+		try {
+			in.close();
+		} catch (IOException ex) {
+			ex.printStackTrace();
+		}
+	}
+}
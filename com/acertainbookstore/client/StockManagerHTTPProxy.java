@@ -1,7 +1,14 @@
 package com.acertainbookstore.client;
 
+import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import com.acertainbookstore.business.CertainBookStore;
 import org.eclipse.jetty.client.HttpClient;
@@ -10,15 +17,14 @@ import org.eclipse.jetty.util.thread.QueuedThreadPool;
 import com.acertainbookstore.business.BookCopy;
 import com.acertainbookstore.business.BookEditorPick;
 import com.acertainbookstore.business.StockBook;
-import com.acertainbookstore.utils.BookStoreKryoSerializer;
 import com.acertainbookstore.interfaces.BookStoreSerializer;
-import com.acertainbookstore.utils.BookStoreXStreamSerializer;
 import com.acertainbookstore.interfaces.StockManager;
 import com.acertainbookstore.utils.BookStoreConstants;
 import com.acertainbookstore.utils.BookStoreException;
 import com.acertainbookstore.utils.BookStoreMessageTag;
 import com.acertainbookstore.utils.BookStoreRequest;
 import com.acertainbookstore.utils.BookStoreResponse;
+import com.acertainbookstore.utils.BookStoreSerializationFormat;
 import com.acertainbookstore.utils.BookStoreUtility;
 
 /**
@@ -26,6 +32,10 @@ import com.acertainbookstore.utils.BookStoreUtility;
  * {@link CertainBookStore} API declared in the {@link StockManager} class. Uses
  * the HTTP protocol for communication with the server.
  * 
+ * Each call also has an asynchronous variant, returning a
+ * {@link CompletableFuture} without waiting for the round trip, so that a
+ * single thread can keep many calls in flight.
+ * 
  * @see CertainBookStore
  * @see StockManager
  */
@@ -37,8 +47,14 @@ public class StockManagerHTTPProxy implements StockManager {
 	/** The server address. */
 	protected String serverAddress;
 
-	/** The serializer. */
-	private static ThreadLocal<BookStoreSerializer> serializer;
+	/** The serializer, one per thread. */
+	private final ThreadLocal<BookStoreSerializer> serializer;
+
+	/** The HTTP/2 client, or null if the calls go over HTTP/1.1. */
+	private BookStoreHTTP2Client http2Client = null;
+
+	/** The batcher coalescing the calls, or null if they are not batched. */
+	private BookStoreRequestBatcher batcher = null;
 
 	/**
 	 * Initializes a new {@link StockManagerHTTPProxy}.
@@ -49,13 +65,26 @@ public class StockManagerHTTPProxy implements StockManager {
 	 *             the exception
 	 */
 	public StockManagerHTTPProxy(String serverAddress) throws Exception {
+		this(serverAddress, 0);
+	}
+
+	/**
+	 * Initializes a new {@link StockManagerHTTPProxy} coalescing the calls
+	 * made within a window into one round trip.
+	 *
+	 * @param serverAddress
+	 *            the server address
+	 * @param batchWindowMillis
+	 *            how long a call waits for others to share its round trip, in
+	 *            milliseconds; 0 sends every call on its own
+	 * @throws Exception
+	 *             the exception
+	 */
+	public StockManagerHTTPProxy(String serverAddress, long batchWindowMillis) throws Exception {
 
 		// Setup the type of serializer.
-		if (BookStoreConstants.BINARY_SERIALIZATION) {
-			serializer = ThreadLocal.withInitial(BookStoreKryoSerializer::new);
-		} else {
-			serializer = ThreadLocal.withInitial(BookStoreXStreamSerializer::new);
-		}
+		BookStoreSerializationFormat serializationFormat = BookStoreSerializationFormat.fromSystemProperty();
+		serializer = ThreadLocal.withInitial(serializationFormat::newSerializer);
 
 		setServerAddress(serverAddress);
 		client = new HttpClient();
@@ -63,6 +92,9 @@ public class StockManagerHTTPProxy implements StockManager {
 		// Max concurrent connections to every address.
 		client.setMaxConnectionsPerDestination(BookStoreClientConstants.CLIENT_MAX_CONNECTION_ADDRESS);
 
+		// Max requests waiting for a connection to every address.
+		client.setMaxRequestsQueuedPerDestination(BookStoreClientConstants.CLIENT_MAX_QUEUED_REQUESTS);
+
 		// Max number of threads.
 		client.setExecutor(new QueuedThreadPool(BookStoreClientConstants.CLIENT_MAX_THREADSPOOL_THREADS));
 
@@ -70,6 +102,27 @@ public class StockManagerHTTPProxy implements StockManager {
 		client.setConnectTimeout(BookStoreClientConstants.CLIENT_MAX_TIMEOUT_MILLISECS);
 
 		client.start();
+
+		// The client asks for compressed responses unless told not to.
+		String compressionString = System.getProperty(BookStoreConstants.PROPERTY_KEY_COMPRESSION);
+
+		if (compressionString != null && !Boolean.parseBoolean(compressionString)) {
+			client.getContentDecoderFactories().clear();
+		}
+
+		// The calls go over HTTP/2 cleartext if told so; the batches and the
+		// streamed responses, which take one request each, stay on HTTP/1.1.
+		String h2cString = System.getProperty(BookStoreConstants.PROPERTY_KEY_H2C);
+
+		if (h2cString != null && Boolean.parseBoolean(h2cString)) {
+			http2Client = new BookStoreHTTP2Client(!client.getContentDecoderFactories().isEmpty());
+			http2Client.start();
+		}
+
+		if (batchWindowMillis > 0) {
+			batcher = new BookStoreRequestBatcher(client, serverAddress + "/" + BookStoreMessageTag.BATCH,
+					() -> serializer.get(), batchWindowMillis);
+		}
 	}
 
 	/**
@@ -98,9 +151,14 @@ public class StockManagerHTTPProxy implements StockManager {
 	 * com.acertainbookstore.interfaces.StockManager#addBooks(java.util.Set)
 	 */
 	public void addBooks(Set<StockBook> bookSet) throws BookStoreException {
+		if (batcher != null) {
+			batcher.call(BookStoreMessageTag.ADDBOOKS, bookSet);
+			return;
+		}
+
 		String urlString = serverAddress + "/" + BookStoreMessageTag.ADDBOOKS;
 		BookStoreRequest bookStoreRequest = BookStoreRequest.newPostRequest(urlString, bookSet);
-		BookStoreUtility.performHttpExchange(client, bookStoreRequest, serializer.get());
+		performHttpExchange(bookStoreRequest);
 	}
 
 	/*
@@ -110,9 +168,14 @@ public class StockManagerHTTPProxy implements StockManager {
 	 * com.acertainbookstore.interfaces.StockManager#addCopies(java.util.Set)
 	 */
 	public void addCopies(Set<BookCopy> bookCopiesSet) throws BookStoreException {
+		if (batcher != null) {
+			batcher.call(BookStoreMessageTag.ADDCOPIES, bookCopiesSet);
+			return;
+		}
+
 		String urlString = serverAddress + "/" + BookStoreMessageTag.ADDCOPIES;
 		BookStoreRequest bookStoreRequest = BookStoreRequest.newPostRequest(urlString, bookCopiesSet);
-		BookStoreUtility.performHttpExchange(client, bookStoreRequest, serializer.get());
+		performHttpExchange(bookStoreRequest);
 	}
 
 	/*
@@ -122,13 +185,45 @@ public class StockManagerHTTPProxy implements StockManager {
 	 */
 	@SuppressWarnings("unchecked")
 	public List<StockBook> getBooks() throws BookStoreException {
+		if (batcher != null) {
+			return (List<StockBook>) batcher.call(BookStoreMessageTag.LISTBOOKS, null).getList();
+		}
+
 		String urlString = serverAddress + "/" + BookStoreMessageTag.LISTBOOKS;
 		BookStoreRequest bookStoreRequest = BookStoreRequest.newGetRequest(urlString);
-		BookStoreResponse bookStoreResponse = BookStoreUtility.performHttpExchange(client, bookStoreRequest,
-				serializer.get());
+		BookStoreResponse bookStoreResponse = performHttpExchange(bookStoreRequest);
 		return (List<StockBook>) bookStoreResponse.getList();
 	}
 
+	/**
+	 * Gets the books chunk by chunk, as {@link StockManager#getBookChunks(int)}
+	 * does. The books are fetched with a single request and then split, since
+	 * nothing would close a connection left open by an unfinished iteration;
+	 * {@link #streamBooks()} reads them as the server sends them.
+	 *
+	 * @param chunkSize
+	 *            the most books in a chunk
+	 * @return the chunks, none of them empty
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	public Iterator<List<StockBook>> getBookChunks(int chunkSize) throws BookStoreException {
+		if (chunkSize < 1) {
+			throw new BookStoreException("chunkSize = " + chunkSize + ", but it must be positive");
+		}
+
+		List<StockBook> books = getBooks();
+		List<List<StockBook>> chunks = new ArrayList<>();
+
+		for (int start = 0; start < books.size();) {
+			int end = start + Math.min(chunkSize, books.size() - start);
+			chunks.add(books.subList(start, end));
+			start = end;
+		}
+
+		return chunks.iterator();
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * 
@@ -137,9 +232,14 @@ public class StockManagerHTTPProxy implements StockManager {
 	 * .Set)
 	 */
 	public void updateEditorPicks(Set<BookEditorPick> editorPicksValues) throws BookStoreException {
+		if (batcher != null) {
+			batcher.call(BookStoreMessageTag.UPDATEEDITORPICKS, editorPicksValues);
+			return;
+		}
+
 		String urlString = serverAddress + "/" + BookStoreMessageTag.UPDATEEDITORPICKS + "?";
 		BookStoreRequest bookStoreRequest = BookStoreRequest.newPostRequest(urlString, editorPicksValues);
-		BookStoreUtility.performHttpExchange(client, bookStoreRequest, serializer.get());
+		performHttpExchange(bookStoreRequest);
 	}
 
 	/*
@@ -148,12 +248,16 @@ public class StockManagerHTTPProxy implements StockManager {
 	 * @see com.acertainbookstore.interfaces.StockManager#getBooksInDemand()
 	 */
 	@Override
+	@SuppressWarnings("unchecked")
 	public List<StockBook> getBooksInDemand() throws BookStoreException {
 //		throw new BookStoreException("Not implemented");
+		if (batcher != null) {
+			return (List<StockBook>) batcher.call(BookStoreMessageTag.GETBOOKSINDEMAND, null).getList();
+		}
+
 		String urlString = serverAddress + "/" + BookStoreMessageTag.GETBOOKSINDEMAND;
 		BookStoreRequest bookStoreRequest = BookStoreRequest.newGetRequest(urlString);
-		BookStoreResponse bookStoreResponse = BookStoreUtility.performHttpExchange(client, bookStoreRequest,
-				serializer.get());
+		BookStoreResponse bookStoreResponse = performHttpExchange(bookStoreRequest);
 		return (List<StockBook>) bookStoreResponse.getList();
 	}
 
@@ -163,13 +267,18 @@ public class StockManagerHTTPProxy implements StockManager {
 	 * @see com.acertainbookstore.interfaces.StockManager#removeAllBooks()
 	 */
 	public void removeAllBooks() throws BookStoreException {
+		if (batcher != null) {
+			batcher.call(BookStoreMessageTag.REMOVEALLBOOKS, null);
+			return;
+		}
+
 		String urlString = serverAddress + "/" + BookStoreMessageTag.REMOVEALLBOOKS;
 
 		// Creating zero-length buffer for POST request body, because we don't
 		// need to send any data; this request is just a signal to remove all
 		// books.
 		BookStoreRequest bookStoreRequest = BookStoreRequest.newPostRequest(urlString, "");
-		BookStoreUtility.performHttpExchange(client, bookStoreRequest, serializer.get());
+		performHttpExchange(bookStoreRequest);
 	}
 
 	/*
@@ -179,9 +288,14 @@ public class StockManagerHTTPProxy implements StockManager {
 	 * com.acertainbookstore.interfaces.StockManager#removeBooks(java.util.Set)
 	 */
 	public void removeBooks(Set<Integer> isbnSet) throws BookStoreException {
+		if (batcher != null) {
+			batcher.call(BookStoreMessageTag.REMOVEBOOKS, isbnSet);
+			return;
+		}
+
 		String urlString = serverAddress + "/" + BookStoreMessageTag.REMOVEBOOKS;
 		BookStoreRequest bookStoreRequest = BookStoreRequest.newPostRequest(urlString, isbnSet);
-		BookStoreUtility.performHttpExchange(client, bookStoreRequest, serializer.get());
+		performHttpExchange(bookStoreRequest);
 	}
 
 	/*
@@ -193,21 +307,214 @@ public class StockManagerHTTPProxy implements StockManager {
 	 */
 	@SuppressWarnings("unchecked")
 	public List<StockBook> getBooksByISBN(Set<Integer> isbns) throws BookStoreException {
+		if (batcher != null) {
+			return (List<StockBook>) batcher.call(BookStoreMessageTag.GETSTOCKBOOKSBYISBN, isbns).getList();
+		}
+
 		String urlString = serverAddress + "/" + BookStoreMessageTag.GETSTOCKBOOKSBYISBN;
 		BookStoreRequest bookStoreRequest = BookStoreRequest.newPostRequest(urlString, isbns);
-		BookStoreResponse bookStoreResponse = BookStoreUtility.performHttpExchange(client, bookStoreRequest,
-				serializer.get());
+		BookStoreResponse bookStoreResponse = performHttpExchange(bookStoreRequest);
 		return (List<StockBook>) bookStoreResponse.getList();
 	}
 
+	/**
+	 * Lists the books like {@link #getBooks()}, but as a stream read while the
+	 * response is arriving, so the books can be processed before the last of
+	 * them is received and without holding the whole list in memory. The
+	 * stream must be closed if it is not consumed to the end.
+	 *
+	 * @return the books
+	 * @throws BookStoreException
+	 *             if the request failed; failures while the stream is read
+	 *             are thrown as unchecked exceptions
+	 */
+	public Stream<StockBook> streamBooks() throws BookStoreException {
+		String urlString = serverAddress + "/" + BookStoreMessageTag.STREAMBOOKS;
+		BookStoreStreamReader<StockBook> reader = BookStoreStreamReader.open(client, urlString, () -> serializer.get());
+		Spliterator<StockBook> books = Spliterators.spliteratorUnknownSize(reader,
+				Spliterator.ORDERED | Spliterator.NONNULL);
+		return StreamSupport.stream(books, false).onClose(reader::close);
+	}
+
 	/**
 	 * Stops the proxy.
 	 */
 	public void stop() {
+		if (batcher != null) {
+			batcher.stop();
+		}
+
 		try {
 			client.stop();
+
+			if (http2Client != null) {
+				http2Client.stop();
+			}
 		} catch (Exception ex) {
 			System.err.println(ex.getStackTrace());
 		}
 	}
+
+	/**
+	 * Adds books, like {@link #addBooks(Set)}, without blocking the caller.
+	 *
+	 * @param bookSet
+	 *            the books
+	 * @return the future completion, failing with a {@link BookStoreException} as
+	 *         the synchronous call would throw it
+	 */
+	public CompletableFuture<Void> addBooksAsync(Set<StockBook> bookSet) {
+		String urlString = serverAddress + "/" + BookStoreMessageTag.ADDBOOKS;
+		BookStoreRequest bookStoreRequest = BookStoreRequest.newPostRequest(urlString, bookSet);
+		return exchangeAsync(BookStoreMessageTag.ADDBOOKS, bookSet, bookStoreRequest)
+				.thenApply(bookStoreResponse -> null);
+	}
+
+	/**
+	 * Adds copies, like {@link #addCopies(Set)}, without blocking the caller.
+	 *
+	 * @param bookCopiesSet
+	 *            the copies
+	 * @return the future completion, failing with a {@link BookStoreException} as
+	 *         the synchronous call would throw it
+	 */
+	public CompletableFuture<Void> addCopiesAsync(Set<BookCopy> bookCopiesSet) {
+		String urlString = serverAddress + "/" + BookStoreMessageTag.ADDCOPIES;
+		BookStoreRequest bookStoreRequest = BookStoreRequest.newPostRequest(urlString, bookCopiesSet);
+		return exchangeAsync(BookStoreMessageTag.ADDCOPIES, bookCopiesSet, bookStoreRequest)
+				.thenApply(bookStoreResponse -> null);
+	}
+
+	/**
+	 * Gets every book, like {@link #getBooks()}, without blocking the caller.
+	 *
+	 * @return the future books, failing with a {@link BookStoreException} as the
+	 *         synchronous call would throw it
+	 */
+	@SuppressWarnings("unchecked")
+	public CompletableFuture<List<StockBook>> getBooksAsync() {
+		String urlString = serverAddress + "/" + BookStoreMessageTag.LISTBOOKS;
+		BookStoreRequest bookStoreRequest = BookStoreRequest.newGetRequest(urlString);
+		return exchangeAsync(BookStoreMessageTag.LISTBOOKS, null, bookStoreRequest)
+				.thenApply(bookStoreResponse -> (List<StockBook>) bookStoreResponse.getList());
+	}
+
+	/**
+	 * Updates editor picks, like {@link #updateEditorPicks(Set)}, without
+	 * blocking the caller.
+	 *
+	 * @param editorPicksValues
+	 *            the editor picks
+	 * @return the future completion, failing with a {@link BookStoreException} as
+	 *         the synchronous call would throw it
+	 */
+	public CompletableFuture<Void> updateEditorPicksAsync(Set<BookEditorPick> editorPicksValues) {
+		String urlString = serverAddress + "/" + BookStoreMessageTag.UPDATEEDITORPICKS;
+		BookStoreRequest bookStoreRequest = BookStoreRequest.newPostRequest(urlString, editorPicksValues);
+		return exchangeAsync(BookStoreMessageTag.UPDATEEDITORPICKS, editorPicksValues, bookStoreRequest)
+				.thenApply(bookStoreResponse -> null);
+	}
+
+	/**
+	 * Gets the books in demand, like {@link #getBooksInDemand()}, without
+	 * blocking the caller.
+	 *
+	 * @return the future books, failing with a {@link BookStoreException} as the
+	 *         synchronous call would throw it
+	 */
+	@SuppressWarnings("unchecked")
+	public CompletableFuture<List<StockBook>> getBooksInDemandAsync() {
+		String urlString = serverAddress + "/" + BookStoreMessageTag.GETBOOKSINDEMAND;
+		BookStoreRequest bookStoreRequest = BookStoreRequest.newGetRequest(urlString);
+		return exchangeAsync(BookStoreMessageTag.GETBOOKSINDEMAND, null, bookStoreRequest)
+				.thenApply(bookStoreResponse -> (List<StockBook>) bookStoreResponse.getList());
+	}
+
+	/**
+	 * Removes every book, like {@link #removeAllBooks()}, without blocking
+	 * the caller.
+	 *
+	 * @return the future completion, failing with a {@link BookStoreException} as
+	 *         the synchronous call would throw it
+	 */
+	public CompletableFuture<Void> removeAllBooksAsync() {
+		String urlString = serverAddress + "/" + BookStoreMessageTag.REMOVEALLBOOKS;
+		BookStoreRequest bookStoreRequest = BookStoreRequest.newPostRequest(urlString, "");
+		return exchangeAsync(BookStoreMessageTag.REMOVEALLBOOKS, null, bookStoreRequest)
+				.thenApply(bookStoreResponse -> null);
+	}
+
+	/**
+	 * Removes books, like {@link #removeBooks(Set)}, without blocking the caller.
+	 *
+	 * @param isbnSet
+	 *            the ISBNs
+	 * @return the future completion, failing with a {@link BookStoreException} as
+	 *         the synchronous call would throw it
+	 */
+	public CompletableFuture<Void> removeBooksAsync(Set<Integer> isbnSet) {
+		String urlString = serverAddress + "/" + BookStoreMessageTag.REMOVEBOOKS;
+		BookStoreRequest bookStoreRequest = BookStoreRequest.newPostRequest(urlString, isbnSet);
+		return exchangeAsync(BookStoreMessageTag.REMOVEBOOKS, isbnSet, bookStoreRequest)
+				.thenApply(bookStoreResponse -> null);
+	}
+
+	/**
+	 * Gets books, like {@link #getBooksByISBN(Set)}, without blocking the caller.
+	 *
+	 * @param isbns
+	 *            the ISBNs
+	 * @return the future books, failing with a {@link BookStoreException} as the
+	 *         synchronous call would throw it
+	 */
+	@SuppressWarnings("unchecked")
+	public CompletableFuture<List<StockBook>> getBooksByISBNAsync(Set<Integer> isbns) {
+		String urlString = serverAddress + "/" + BookStoreMessageTag.GETSTOCKBOOKSBYISBN;
+		BookStoreRequest bookStoreRequest = BookStoreRequest.newPostRequest(urlString, isbns);
+		return exchangeAsync(BookStoreMessageTag.GETSTOCKBOOKSBYISBN, isbns, bookStoreRequest)
+				.thenApply(bookStoreResponse -> (List<StockBook>) bookStoreResponse.getList());
+	}
+
+	/**
+	 * Sends a message without waiting for its response, batched if the proxy
+	 * batches its calls.
+	 *
+	 * @param messageTag
+	 *            the message tag
+	 * @param inputValue
+	 *            the input value, as a batched message takes it
+	 * @param bookStoreRequest
+	 *            the request, as sent on its own
+	 * @return the future response
+	 */
+	private CompletableFuture<BookStoreResponse> exchangeAsync(BookStoreMessageTag messageTag, Object inputValue,
+			BookStoreRequest bookStoreRequest) {
+		if (batcher != null) {
+			return batcher.submit(messageTag, inputValue);
+		}
+
+		if (http2Client != null) {
+			return BookStoreUtility.performHttpExchangeAsync(http2Client, bookStoreRequest, () -> serializer.get());
+		}
+
+		return BookStoreUtility.performHttpExchangeAsync(client, bookStoreRequest, () -> serializer.get());
+	}
+
+	/**
+	 * Sends a message on its own and waits for its response, over HTTP/2 if
+	 * the proxy speaks it.
+	 *
+	 * @param bookStoreRequest
+	 *            the request
+	 * @return the response
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	private BookStoreResponse performHttpExchange(BookStoreRequest bookStoreRequest) throws BookStoreException {
+		if (http2Client != null) {
+			return BookStoreUtility.performHttpExchange(http2Client, bookStoreRequest, serializer.get());
+		}
+
+		return BookStoreUtility.performHttpExchange(client, bookStoreRequest, serializer.get());
+	}
 }
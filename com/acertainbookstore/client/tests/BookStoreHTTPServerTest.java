@@ -0,0 +1,283 @@
+package com.acertainbookstore.client.tests;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jetty.client.HttpClient;
+import org.eclipse.jetty.client.api.ContentResponse;
+import org.eclipse.jetty.http.HttpHeader;
+import org.eclipse.jetty.http.HttpHeaderValue;
+import org.eclipse.jetty.http.HttpStatus;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.junit.Test;
+
+import com.acertainbookstore.business.Book;
+import com.acertainbookstore.business.CertainBookStore;
+import com.acertainbookstore.business.StockBook;
+import com.acertainbookstore.server.BookStoreHTTPAdmissionControl;
+import com.acertainbookstore.server.BookStoreHTTPMessageHandler;
+import com.acertainbookstore.server.BookStoreHTTPNamespace;
+import com.acertainbookstore.server.BookStoreHTTPServerConfiguration;
+import com.acertainbookstore.server.BookStoreHTTPServerUtility;
+import com.acertainbookstore.utils.BookStoreConstants;
+import com.acertainbookstore.utils.BookStoreException;
+import com.acertainbookstore.utils.BookStoreMessageTag;
+import com.acertainbookstore.utils.BookStoreThreads;
+
+/**
+ * {@link BookStoreHTTPServerTest} tests the admission control and the
+ * configuration of the HTTP server.
+ *
+ * @see BookStoreHTTPAdmissionControl
+ * @see BookStoreHTTPServerConfiguration
+ */
+public class BookStoreHTTPServerTest {
+
+	/**
+	 * Tests that a full stock manager pool, or a message tag at its limit,
+	 * turns messages away at once, while the customers keep being served.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testAdmissionControl() throws Exception {
+		Map<BookStoreHTTPNamespace, Integer> threads = new EnumMap<>(BookStoreHTTPNamespace.class);
+		threads.put(BookStoreHTTPNamespace.STOCK, 1);
+		Map<BookStoreHTTPNamespace, Integer> queueCapacities = new EnumMap<>(BookStoreHTTPNamespace.class);
+		queueCapacities.put(BookStoreHTTPNamespace.STOCK, 1);
+		Map<BookStoreMessageTag, Integer> concurrencyLimits = new EnumMap<>(BookStoreMessageTag.class);
+		concurrencyLimits.put(BookStoreMessageTag.LISTBOOKS, 1);
+
+		BookStoreHTTPAdmissionControl admissionControl = new BookStoreHTTPAdmissionControl(threads,
+				queueCapacities, concurrencyLimits);
+		CountDownLatch stockBlocked = new CountDownLatch(1);
+		CountDownLatch stockReleased = new CountDownLatch(1);
+		CountDownLatch customerServed = new CountDownLatch(1);
+		Runnable blockStock = () -> {
+			stockBlocked.countDown();
+
+			try {
+				stockReleased.await();
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+			}
+		};
+
+		try {
+			assertTrue(admissionControl.submit(BookStoreHTTPNamespace.STOCK, BookStoreMessageTag.LISTBOOKS,
+					blockStock));
+			assertTrue(stockBlocked.await(10, TimeUnit.SECONDS));
+
+			// The only LISTBOOKS permit is taken.
+			assertFalse(admissionControl.submit(BookStoreHTTPNamespace.STOCK, BookStoreMessageTag.LISTBOOKS,
+					() -> {
+					}));
+
+			// Batching the message does not get it past the limit of its tag.
+			assertFalse(admissionControl.enterBatch(BookStoreMessageTag.LISTBOOKS));
+			assertTrue(admissionControl.enterBatch(BookStoreMessageTag.ADDBOOKS));
+			admissionControl.leaveBatch(BookStoreMessageTag.ADDBOOKS);
+
+			// The queue holds one message, and turns the next away.
+			assertTrue(admissionControl.submit(BookStoreHTTPNamespace.STOCK, BookStoreMessageTag.ADDBOOKS, () -> {
+			}));
+			assertFalse(admissionControl.submit(BookStoreHTTPNamespace.STOCK, BookStoreMessageTag.ADDCOPIES, () -> {
+			}));
+
+			// The customers have their own pool.
+			assertTrue(admissionControl.submit(BookStoreHTTPNamespace.CUSTOMER, BookStoreMessageTag.GETBOOKS,
+					customerServed::countDown));
+			assertTrue(customerServed.await(10, TimeUnit.SECONDS));
+
+			assertEquals(2, admissionControl.getRejected(BookStoreMessageTag.LISTBOOKS));
+			assertEquals(1, admissionControl.getRejected(BookStoreMessageTag.ADDCOPIES));
+			assertEquals(0, admissionControl.getRejected(BookStoreMessageTag.ADDBOOKS));
+		} finally {
+			stockReleased.countDown();
+			admissionControl.shutdown();
+		}
+	}
+
+	/**
+	 * Tests that asking for virtual threads on a JVM without them keeps the
+	 * platform thread pools, which still serve the messages, while a JVM with
+	 * them runs each message on a virtual thread of its own.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testVirtualThreadsFallBack() throws Exception {
+		int feature = Runtime.version().feature();
+
+		if (feature >= 21) {
+			assertTrue(BookStoreThreads.isVirtualThreadsSupported());
+		} else if (feature < 19) {
+			assertFalse(BookStoreThreads.isVirtualThreadsSupported());
+		}
+
+		String virtualThreadsString = System.setProperty(BookStoreConstants.PROPERTY_KEY_VIRTUAL_THREADS, "true");
+		BookStoreHTTPAdmissionControl admissionControl;
+
+		try {
+			assertEquals(BookStoreThreads.isVirtualThreadsSupported(), BookStoreThreads.fromSystemProperty());
+			admissionControl = BookStoreHTTPAdmissionControl.fromSystemProperties();
+		} finally {
+			if (virtualThreadsString == null) {
+				System.clearProperty(BookStoreConstants.PROPERTY_KEY_VIRTUAL_THREADS);
+			} else {
+				System.setProperty(BookStoreConstants.PROPERTY_KEY_VIRTUAL_THREADS, virtualThreadsString);
+			}
+		}
+
+		CompletableFuture<Thread> servingThread = new CompletableFuture<>();
+
+		try {
+			assertTrue(admissionControl.submit(BookStoreHTTPNamespace.CUSTOMER, BookStoreMessageTag.GETBOOKS,
+					() -> servingThread.complete(Thread.currentThread())));
+			Thread thread = servingThread.get(10, TimeUnit.SECONDS);
+			assertTrue(thread.getName().startsWith("bookstore-customer-"));
+
+			// Thread.isVirtual() is only there from Java 19 on.
+			if (!BookStoreThreads.isVirtualThreadsSupported()) {
+				assertTrue(thread.isDaemon());
+			}
+		} finally {
+			admissionControl.shutdown();
+		}
+
+		if (!BookStoreThreads.isVirtualThreadsSupported()) {
+			try {
+				BookStoreThreads.newVirtualThreadPerTaskExecutor("bookstore-test-");
+				fail("Virtual threads were created on a JVM without them");
+			} catch (UnsupportedOperationException ex) {
+				;
+			}
+
+			try {
+				new BookStoreHTTPAdmissionControl(Collections.emptyMap(), Collections.emptyMap(),
+						Collections.emptyMap(), true);
+				fail("Virtual threads were asked for on a JVM without them");
+			} catch (UnsupportedOperationException ex) {
+				;
+			}
+		}
+	}
+
+	/**
+	 * Tests that a server in virtual thread mode runs the messages of both
+	 * namespaces on virtual threads. It only runs on a JVM with virtual
+	 * threads, such as Java 21.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testMessagesRunOnVirtualThreads() throws Exception {
+		assumeTrue(BookStoreThreads.isVirtualThreadsSupported());
+
+		Set<Thread> storeThreads = ConcurrentHashMap.newKeySet();
+		CertainBookStore store = new CertainBookStore() {
+
+			@Override
+			public List<StockBook> getBooks() {
+				storeThreads.add(Thread.currentThread());
+				return super.getBooks();
+			}
+
+			@Override
+			public List<Book> getEditorPicks(int numBooks) throws BookStoreException {
+				storeThreads.add(Thread.currentThread());
+				return super.getEditorPicks(numBooks);
+			}
+		};
+
+		Properties properties = new Properties();
+		properties.setProperty(BookStoreConstants.PROPERTY_KEY_SERVER_PORT, "0");
+		BookStoreHTTPAdmissionControl admissionControl = new BookStoreHTTPAdmissionControl(Collections.emptyMap(),
+				Collections.emptyMap(), Collections.emptyMap(), true);
+		BookStoreHTTPServerConfiguration configuration = BookStoreHTTPServerConfiguration.fromProperties(properties);
+		Server server = BookStoreHTTPServerUtility.startServer(configuration,
+				new BookStoreHTTPMessageHandler(store, store).createContextHandlers(admissionControl));
+		HttpClient httpClient = new HttpClient();
+		httpClient.start();
+
+		try {
+			String serverAddress = "http://localhost:" + ((ServerConnector) server.getConnectors()[0]).getLocalPort();
+			assertEquals(HttpStatus.OK_200, httpClient.GET(serverAddress + "/stock/LISTBOOKS").getStatus());
+			assertEquals(HttpStatus.OK_200, httpClient.GET(serverAddress + "/GETEDITORPICKS?"
+					+ BookStoreConstants.BOOK_NUM_PARAM + "=1").getStatus());
+		} finally {
+			httpClient.stop();
+			server.stop();
+			admissionControl.shutdown();
+		}
+
+		// Thread.isVirtual() is only there from Java 19 on.
+		Method isVirtual = Thread.class.getMethod("isVirtual");
+		assertEquals(2, storeThreads.size());
+
+		for (Thread thread : storeThreads) {
+			assertTrue(thread.getName(), (Boolean) isVirtual.invoke(thread));
+			assertTrue(thread.getName().startsWith("bookstore-"));
+		}
+	}
+
+	/**
+	 * Tests that a server is configured from properties, and closes the
+	 * connections when persistent connections are turned off.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testServerConfiguration() throws Exception {
+		Properties properties = new Properties();
+		properties.setProperty(BookStoreConstants.PROPERTY_KEY_SERVER_PORT, "0");
+		properties.setProperty(BookStoreConstants.PROPERTY_KEY_ACCEPTORS, "1");
+		properties.setProperty(BookStoreConstants.PROPERTY_KEY_SELECTORS, "2");
+		properties.setProperty(BookStoreConstants.PROPERTY_KEY_IDLE_TIMEOUT, "5000");
+		properties.setProperty(BookStoreConstants.PROPERTY_KEY_PERSISTENT_CONNECTIONS, "false");
+
+		BookStoreHTTPServerConfiguration configuration = BookStoreHTTPServerConfiguration.fromProperties(properties);
+		assertEquals(1, configuration.getAcceptors());
+		assertEquals(2, configuration.getSelectors());
+		assertEquals(5000, configuration.getIdleTimeoutMillis());
+		assertFalse(configuration.isPersistentConnections());
+		assertEquals(BookStoreHTTPServerConfiguration.DEFAULT_MAX_THREADS, configuration.getMaxThreads());
+
+		CertainBookStore store = new CertainBookStore();
+		Server server = BookStoreHTTPServerUtility.startServer(configuration,
+				new BookStoreHTTPMessageHandler(store, store).createContextHandlers());
+		HttpClient httpClient = new HttpClient();
+		httpClient.start();
+
+		try {
+			ServerConnector connector = (ServerConnector) server.getConnectors()[0];
+			assertEquals(1, connector.getAcceptors());
+			assertEquals(5000, connector.getIdleTimeout());
+
+			ContentResponse response = httpClient
+					.GET("http://localhost:" + connector.getLocalPort() + "/stock/LISTBOOKS");
+			assertEquals(HttpStatus.OK_200, response.getStatus());
+			assertTrue(response.getHeaders().contains(HttpHeader.CONNECTION, HttpHeaderValue.CLOSE.asString()));
+		} finally {
+			httpClient.stop();
+			server.stop();
+		}
+	}
+}
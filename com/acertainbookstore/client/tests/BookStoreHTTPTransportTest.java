@@ -0,0 +1,673 @@
+package com.acertainbookstore.client.tests;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeFalse;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jetty.client.HttpClient;
+import org.eclipse.jetty.client.api.ContentResponse;
+import org.eclipse.jetty.client.util.BytesContentProvider;
+import org.eclipse.jetty.http.HttpFields;
+import org.eclipse.jetty.http.HttpHeader;
+import org.eclipse.jetty.http.HttpMethod;
+import org.eclipse.jetty.http.HttpStatus;
+import org.eclipse.jetty.io.ConnectionStatistics;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.acertainbookstore.business.Book;
+import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.business.CertainBookStore;
+import com.acertainbookstore.business.ColumnarCertainBookStore;
+import com.acertainbookstore.business.OffHeapCertainBookStore;
+import com.acertainbookstore.business.ImmutableStockBook;
+import com.acertainbookstore.business.StockBook;
+import com.acertainbookstore.client.BookStoreClientConstants;
+import com.acertainbookstore.client.BookStoreHTTP2Client;
+import com.acertainbookstore.client.BookStoreHTTPProxy;
+import com.acertainbookstore.client.StockManagerHTTPProxy;
+import com.acertainbookstore.interfaces.BookStoreSerializer;
+import com.acertainbookstore.interfaces.StockManager;
+import com.acertainbookstore.server.BookStoreHTTPMessageHandler;
+import com.acertainbookstore.server.BookStoreHTTPServerConfiguration;
+import com.acertainbookstore.server.BookStoreHTTPServerUtility;
+import com.acertainbookstore.utils.BookStoreBatchOperation;
+import com.acertainbookstore.utils.BookStoreConstants;
+import com.acertainbookstore.utils.BookStoreException;
+import com.acertainbookstore.utils.BookStoreMessageTag;
+import com.acertainbookstore.utils.BookStoreResponse;
+import com.acertainbookstore.utils.BookStoreSerializationFormat;
+
+/**
+ * {@link BookStoreHTTPTransportTest} tests how the proxies and the server
+ * talk over HTTP: batched and streamed calls, HTTP/2 cleartext, compression
+ * and the serialization formats.
+ *
+ * @see BookStoreHTTPProxy
+ * @see StockManagerHTTPProxy
+ */
+public class BookStoreHTTPTransportTest {
+
+	/** The Constant TEST_ISBN. */
+	private static final Integer TEST_ISBN = 30345650;
+
+	/** The Constant NUM_COPIES. */
+	private static final Integer NUM_COPIES = 5;
+
+	/** The local test. */
+	private static boolean localTest = false;
+
+	/** Whether the local test runs against the columnar store. */
+	private static boolean columnar = false;
+
+	/** Whether the local test runs against the off-heap store. */
+	private static boolean offHeap = false;
+
+	/** The store manager. */
+	private static StockManager storeManager;
+
+	/**
+	 * Initializes a new instance.
+	 */
+	@BeforeClass
+	public static void setUpBeforeClass() {
+		try {
+			String localTestProperty = System.getProperty(BookStoreConstants.PROPERTY_KEY_LOCAL_TEST);
+			localTest = (localTestProperty != null) ? Boolean.parseBoolean(localTestProperty) : localTest;
+
+			String columnarProperty = System.getProperty(BookStoreConstants.PROPERTY_KEY_COLUMNAR);
+			columnar = (columnarProperty != null) ? Boolean.parseBoolean(columnarProperty) : columnar;
+
+			String offHeapProperty = System.getProperty(BookStoreConstants.PROPERTY_KEY_OFF_HEAP);
+			offHeap = (offHeapProperty != null) ? Boolean.parseBoolean(offHeapProperty) : offHeap;
+			
+			if (localTest) {
+				if (offHeap) {
+					storeManager = new OffHeapCertainBookStore();
+				} else if (columnar) {
+					storeManager = new ColumnarCertainBookStore();
+				} else {
+					storeManager = new CertainBookStore();
+				}
+			} else {
+				storeManager = new StockManagerHTTPProxy("http://localhost:8081/stock");
+			}
+			
+			storeManager.removeAllBooks();
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Helper method to get the default book used by initializeBooks.
+	 *
+	 * @return the default book
+	 */
+	public StockBook getDefaultBook() {
+		return new ImmutableStockBook(TEST_ISBN, "Harry Potter and JUnit", "JK Unit", (float) 10, NUM_COPIES, 0, 0, 0,
+				false);
+	}
+
+	/**
+	 * Method to add a book, executed before every test case is run.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Before
+	public void initializeBooks() throws BookStoreException {
+		Set<StockBook> booksToAdd = new HashSet<StockBook>();
+		booksToAdd.add(getDefaultBook());
+
+		storeManager.addBooks(booksToAdd);
+	}
+
+	/**
+	 * Method to clean up the book store, execute after every test case is run.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@After
+	public void cleanupBooks() throws BookStoreException {
+		storeManager.removeAllBooks();
+	}
+
+	/**
+	 * Tests that concurrent calls through batching proxies each get their own
+	 * response, and that a failed call does not fail the others of its batch.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testBatchedCalls() throws Exception {
+		assumeFalse(localTest);
+
+		BookStoreHTTPProxy batchingClient = new BookStoreHTTPProxy("http://localhost:8081", 50);
+		StockManagerHTTPProxy batchingStoreManager = new StockManagerHTTPProxy("http://localhost:8081/stock", 50);
+		ExecutorService executor = Executors.newFixedThreadPool(10);
+
+		try {
+			Set<Integer> isbnSet = Collections.singleton(TEST_ISBN);
+			List<Future<List<Book>>> booksFound = new ArrayList<>();
+
+			for (int i = 0; i < 8; i++) {
+				booksFound.add(executor.submit(() -> batchingClient.getBooks(isbnSet)));
+			}
+
+			Future<Void> failedPurchase = executor.submit(() -> {
+				batchingClient.buyBooks(Collections.singleton(new BookCopy(TEST_ISBN, NUM_COPIES + 1)));
+				return null;
+			});
+			Future<List<StockBook>> booksInStore = executor.submit(() -> batchingStoreManager.getBooks());
+
+			for (Future<List<Book>> books : booksFound) {
+				assertTrue(books.get().size() == 1 && books.get().get(0).equals(getDefaultBook()));
+			}
+
+			try {
+				failedPurchase.get();
+				fail();
+			} catch (ExecutionException ex) {
+				assertTrue(ex.getCause() instanceof BookStoreException);
+			}
+
+			assertEquals(1, booksInStore.get().size());
+		} finally {
+			executor.shutdown();
+			batchingClient.stop();
+			batchingStoreManager.stop();
+		}
+	}
+
+	/**
+	 * Tests that a batched message with a missing or mistyped input value
+	 * fails on its own, and that the other messages of its batch still
+	 * succeed.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	@SuppressWarnings("unchecked")
+	public void testBatchWithBadInputs() throws Exception {
+		Properties properties = new Properties();
+		properties.setProperty(BookStoreConstants.PROPERTY_KEY_SERVER_PORT, "0");
+
+		CertainBookStore store = new CertainBookStore();
+		store.addBooks(Collections.singleton(getDefaultBook()));
+
+		Server server = BookStoreHTTPServerUtility.startServer(
+				BookStoreHTTPServerConfiguration.fromProperties(properties),
+				new BookStoreHTTPMessageHandler(store, store).createContextHandlers());
+		HttpClient httpClient = new HttpClient();
+		httpClient.start();
+
+		try {
+			String urlString = "http://localhost:" + ((ServerConnector) server.getConnectors()[0]).getLocalPort()
+					+ "/" + BookStoreMessageTag.BATCH;
+			Set<Integer> isbnSet = Collections.singleton(TEST_ISBN);
+			List<BookStoreBatchOperation> operations = new ArrayList<>();
+			operations.add(new BookStoreBatchOperation(BookStoreMessageTag.GETBOOKS, isbnSet));
+			operations.add(new BookStoreBatchOperation(BookStoreMessageTag.GETEDITORPICKS, null));
+			operations.add(new BookStoreBatchOperation(BookStoreMessageTag.GETBOOKS, TEST_ISBN));
+			operations.add(new BookStoreBatchOperation(BookStoreMessageTag.GETTOPRATEBOOKS, 1));
+
+			BookStoreSerializer batchSerializer = BookStoreSerializationFormat.KRYO.newSerializer();
+			ContentResponse response = httpClient.POST(urlString)
+					.content(new BytesContentProvider(BookStoreSerializationFormat.KRYO.getContentType(),
+							batchSerializer.serialize(operations)))
+					.header(HttpHeader.ACCEPT, BookStoreSerializationFormat.KRYO.getContentType()).send();
+
+			assertEquals(HttpStatus.OK_200, response.getStatus());
+
+			List<BookStoreResponse> responses = (List<BookStoreResponse>) ((BookStoreResponse) batchSerializer
+					.deserialize(response.getContent())).getList();
+			assertEquals(operations.size(), responses.size());
+
+			assertNull(responses.get(0).getException());
+			assertTrue(responses.get(0).getList().size() == 1
+					&& responses.get(0).getList().get(0).equals(getDefaultBook()));
+
+			assertEquals(BookStoreConstants.NULL_INPUT, responses.get(1).getException().getMessage());
+			assertTrue(responses.get(2).getException().getMessage().endsWith(BookStoreConstants.INVALID));
+
+			assertNull(responses.get(3).getException());
+			assertEquals(1, responses.get(3).getList().size());
+		} finally {
+			httpClient.stop();
+			server.stop();
+		}
+	}
+
+	/**
+	 * Tests that a message sent alone with a missing or mistyped input value
+	 * fails with the same exception it would fail with in a batch.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testSingleCallsWithBadInputs() throws Exception {
+		Properties properties = new Properties();
+		properties.setProperty(BookStoreConstants.PROPERTY_KEY_SERVER_PORT, "0");
+
+		CertainBookStore store = new CertainBookStore();
+		store.addBooks(Collections.singleton(getDefaultBook()));
+
+		Server server = BookStoreHTTPServerUtility.startServer(
+				BookStoreHTTPServerConfiguration.fromProperties(properties),
+				new BookStoreHTTPMessageHandler(store, store).createContextHandlers());
+		HttpClient httpClient = new HttpClient();
+		httpClient.start();
+
+		try {
+			String address = "http://localhost:" + ((ServerConnector) server.getConnectors()[0]).getLocalPort();
+			BookStoreSerializer serializer = BookStoreSerializationFormat.KRYO.newSerializer();
+
+			ContentResponse response = httpClient.POST(address + "/" + BookStoreMessageTag.GETBOOKS)
+					.content(new BytesContentProvider(BookStoreSerializationFormat.KRYO.getContentType(),
+							serializer.serialize(TEST_ISBN)))
+					.header(HttpHeader.ACCEPT, BookStoreSerializationFormat.KRYO.getContentType()).send();
+			assertEquals(HttpStatus.OK_200, response.getStatus());
+			assertTrue(((BookStoreResponse) serializer.deserialize(response.getContent())).getException()
+					.getMessage().endsWith(BookStoreConstants.INVALID));
+
+			response = httpClient.newRequest(address + "/" + BookStoreMessageTag.GETEDITORPICKS)
+					.header(HttpHeader.ACCEPT, BookStoreSerializationFormat.KRYO.getContentType()).send();
+			assertEquals(HttpStatus.OK_200, response.getStatus());
+			assertEquals(BookStoreConstants.NULL_INPUT,
+					((BookStoreResponse) serializer.deserialize(response.getContent())).getException().getMessage());
+
+			// The store is left as it was.
+			BookStoreTestUtility.assertSameStock(Collections.singletonList(getDefaultBook()), store.getBooks());
+		} finally {
+			httpClient.stop();
+			server.stop();
+		}
+	}
+
+	/**
+	 * Tests that streaming the books returns the same books as listing them,
+	 * across several chunks.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test
+	public void testStreamBooks() throws BookStoreException {
+		assumeFalse(localTest);
+
+		Set<StockBook> booksToAdd = new HashSet<StockBook>();
+
+		for (int i = 1; i <= 2 * BookStoreConstants.STREAM_CHUNK_SIZE + 1; i++) {
+			booksToAdd.add(new ImmutableStockBook(TEST_ISBN + i, "Streamed book " + i, "Author " + i, (float) 10, i, 0,
+					0, 0, false));
+		}
+
+		storeManager.addBooks(booksToAdd);
+
+		List<StockBook> streamedBooks;
+
+		try (Stream<StockBook> books = ((StockManagerHTTPProxy) storeManager).streamBooks()) {
+			streamedBooks = books.collect(Collectors.toList());
+		}
+
+		BookStoreTestUtility.assertSameStock(storeManager.getBooks(), streamedBooks);
+
+		// A stream closed early aborts its response without failing the proxy.
+		try (Stream<StockBook> books = ((StockManagerHTTPProxy) storeManager).streamBooks()) {
+			assertEquals(1, books.limit(1).count());
+		}
+
+		assertEquals(booksToAdd.size() + 1, storeManager.getBooks().size());
+	}
+
+	/**
+	 * Tests that paths naming no message of their namespace are not found.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testUnknownPaths() throws Exception {
+		assumeFalse(localTest);
+
+		HttpClient httpClient = new HttpClient();
+		httpClient.start();
+
+		try {
+			assertEquals(HttpStatus.NOT_FOUND_404, httpClient.GET("http://localhost:8081/stock/NOSUCHBOOKS").getStatus());
+			assertEquals(HttpStatus.NOT_FOUND_404, httpClient.GET("http://localhost:8081/LISTBOOKS").getStatus());
+			assertEquals(HttpStatus.NOT_FOUND_404, httpClient.GET("http://localhost:8081/stock/BUYBOOKS").getStatus());
+			assertEquals(HttpStatus.OK_200, httpClient.GET("http://localhost:8081/stock/listbooks").getStatus());
+		} finally {
+			httpClient.stop();
+		}
+	}
+
+	/**
+	 * Tests that proxies speaking HTTP/2 cleartext share a few connections for
+	 * many calls in flight at once.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testHttp2Cleartext() throws Exception {
+		Properties properties = new Properties();
+		properties.setProperty(BookStoreConstants.PROPERTY_KEY_SERVER_PORT, "0");
+
+		CertainBookStore store = new CertainBookStore();
+		BookStoreHTTPServerConfiguration configuration = BookStoreHTTPServerConfiguration.fromProperties(properties);
+		Server server = BookStoreHTTPServerUtility.startServer(configuration,
+				new BookStoreHTTPMessageHandler(store, store).createContextHandlers());
+		ServerConnector connector = (ServerConnector) server.getConnectors()[0];
+		ConnectionStatistics statistics = new ConnectionStatistics();
+		connector.addBean(statistics);
+		statistics.start(); // the connector is started already
+
+		String address = "http://localhost:" + connector.getLocalPort();
+		String h2cString = System.setProperty(BookStoreConstants.PROPERTY_KEY_H2C, "true");
+		StockManagerHTTPProxy stockManager = new StockManagerHTTPProxy(address + "/stock");
+		BookStoreHTTPProxy bookStore = new BookStoreHTTPProxy(address);
+
+		try {
+			stockManager.addBooks(Collections.singleton(getDefaultBook()));
+
+			List<CompletableFuture<List<Book>>> futureBooks = new ArrayList<>();
+
+			for (int i = 0; i < 200; i++) {
+				futureBooks.add(bookStore.getBooksAsync(Collections.singleton(TEST_ISBN)));
+			}
+
+			for (CompletableFuture<List<Book>> books : futureBooks) {
+				assertEquals(TEST_ISBN.intValue(), books.get().get(0).getISBN());
+			}
+
+			// Each proxy has connections of its own; HTTP/1.1 would open one per call in flight
+			assertTrue(statistics.getConnectionsMax() <= 2 * BookStoreClientConstants.CLIENT_H2C_CONNECTIONS);
+		} finally {
+			if (h2cString == null) {
+				System.clearProperty(BookStoreConstants.PROPERTY_KEY_H2C);
+			} else {
+				System.setProperty(BookStoreConstants.PROPERTY_KEY_H2C, h2cString);
+			}
+
+			bookStore.stop();
+			stockManager.stop();
+			server.stop();
+		}
+	}
+
+	/**
+	 * Tests that an HTTP/2 request given up while it waits for a stream is
+	 * never sent.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testHttp2CancelledRequestIsNotSent() throws Exception {
+		AtomicInteger handled = new AtomicInteger();
+		AtomicBoolean parking = new AtomicBoolean(true);
+		Queue<AsyncContext> parked = new ConcurrentLinkedQueue<>();
+
+		Properties properties = new Properties();
+		properties.setProperty(BookStoreConstants.PROPERTY_KEY_SERVER_PORT, "0");
+		Server server = BookStoreHTTPServerUtility.startServer(BookStoreHTTPServerConfiguration.fromProperties(properties),
+				new AbstractHandler() {
+
+					@Override
+					public void handle(String target, Request baseRequest, HttpServletRequest request,
+							HttpServletResponse response) {
+						baseRequest.setHandled(true);
+						handled.incrementAndGet();
+
+						if (parking.get()) {
+							AsyncContext async = request.startAsync();
+							async.setTimeout(0);
+							parked.add(async);
+						}
+					}
+				});
+		String urlString = "http://localhost:" + ((ServerConnector) server.getConnectors()[0]).getLocalPort() + "/";
+		BookStoreHTTP2Client client = new BookStoreHTTP2Client(false);
+		client.start();
+
+		try {
+			List<CompletableFuture<BookStoreHTTP2Client.Reply>> replies = new ArrayList<>();
+
+			for (int i = 0; i < BookStoreClientConstants.CLIENT_H2C_MAX_STREAMS; i++) {
+				replies.add(client.send(HttpMethod.GET, urlString, new HttpFields(), null));
+			}
+
+			// Every stream is taken, so this one waits
+			CompletableFuture<BookStoreHTTP2Client.Reply> waiting = client.send(HttpMethod.POST, urlString,
+					new HttpFields(), ByteBuffer.wrap(new byte[] { 1 }));
+
+			while (handled.get() < BookStoreClientConstants.CLIENT_H2C_MAX_STREAMS) {
+				Thread.sleep(10);
+			}
+
+			waiting.cancel(false);
+			parking.set(false);
+
+			for (AsyncContext async : parked) {
+				async.complete();
+			}
+
+			for (CompletableFuture<BookStoreHTTP2Client.Reply> reply : replies) {
+				assertEquals(HttpStatus.OK_200, reply.get().getStatus());
+			}
+
+			// The streams given back carry the next requests, but not the one given up
+			assertEquals(HttpStatus.OK_200, client.send(HttpMethod.GET, urlString, new HttpFields(), null).get()
+					.getStatus());
+			assertEquals(BookStoreClientConstants.CLIENT_H2C_MAX_STREAMS + 1, handled.get());
+		} finally {
+			client.stop();
+			server.stop();
+		}
+	}
+
+	/**
+	 * Tests that large requests and responses, which are compressed, arrive
+	 * intact.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test
+	public void testCompressedBodies() throws BookStoreException {
+		Set<StockBook> booksToAdd = new HashSet<StockBook>();
+		Set<Integer> isbns = new HashSet<Integer>();
+
+		for (int i = 1; i <= 1000; i++) {
+			booksToAdd.add(new ImmutableStockBook(TEST_ISBN + i, "Compressed book " + i, "Author " + (i % 10),
+					(float) 10, NUM_COPIES, 0, 0, 0, false));
+			isbns.add(TEST_ISBN + i);
+		}
+
+		storeManager.addBooks(booksToAdd);
+
+		List<StockBook> books = storeManager.getBooksByISBN(isbns);
+		assertEquals(booksToAdd.size(), books.size());
+
+		for (StockBook book : books) {
+			StockBook addedBook = booksToAdd.stream().filter(b -> b.getISBN() == book.getISBN()).findAny().get();
+			assertEquals(addedBook.getTitle(), book.getTitle());
+			assertEquals(addedBook.getAuthor(), book.getAuthor());
+		}
+
+		assertEquals(booksToAdd.size() + 1, storeManager.getBooks().size());
+	}
+
+	/**
+	 * Tests that the server answers clients in each serialization format.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testSerializationFormats() throws Exception {
+		assumeFalse(localTest);
+
+		Set<StockBook> booksToAdd = new HashSet<StockBook>();
+		booksToAdd.add(new ImmutableStockBook(TEST_ISBN + 1, "Caf\u00e9 society", "Author", (float) 10, NUM_COPIES, 0, 0,
+				0, false));
+		storeManager.addBooks(booksToAdd);
+
+		List<StockBook> expectedBooks = storeManager.getBooks();
+		String serializerProperty = System.getProperty(BookStoreConstants.PROPERTY_KEY_SERIALIZER);
+
+		try {
+			for (BookStoreSerializationFormat format : BookStoreSerializationFormat.values()) {
+				System.setProperty(BookStoreConstants.PROPERTY_KEY_SERIALIZER, format.name());
+				StockManagerHTTPProxy formatManager = new StockManagerHTTPProxy("http://localhost:8081/stock");
+
+				try {
+					BookStoreTestUtility.assertSameStock(expectedBooks, formatManager.getBooks());
+
+					// Errors travel in every format too.
+					try {
+						formatManager.removeBooks(Collections.singleton(-1));
+						fail();
+					} catch (BookStoreException ex) {
+						;
+					}
+				} finally {
+					formatManager.stop();
+				}
+			}
+		} finally {
+			if (serializerProperty == null) {
+				System.clearProperty(BookStoreConstants.PROPERTY_KEY_SERIALIZER);
+			} else {
+				System.setProperty(BookStoreConstants.PROPERTY_KEY_SERIALIZER, serializerProperty);
+			}
+		}
+	}
+
+	/**
+	 * Tests that an exception makes the round trip in every serialization
+	 * format, message included. Only the message travels, so this needs no
+	 * access to the internals of {@link Throwable}.
+	 *
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	@Test
+	public void testExceptionRoundTrip() throws IOException {
+		BookStoreResponse bookStoreResponse = new BookStoreResponse();
+		bookStoreResponse.setException(new BookStoreException(BookStoreConstants.BOOK + BookStoreConstants.NOT_AVAILABLE,
+				new IOException("Not sent")));
+
+		for (BookStoreSerializationFormat format : BookStoreSerializationFormat.values()) {
+			BookStoreSerializer formatSerializer = format.newSerializer();
+			BookStoreResponse received = (BookStoreResponse) formatSerializer
+					.deserialize(formatSerializer.serialize(bookStoreResponse));
+
+			assertEquals(bookStoreResponse.getException().getMessage(), received.getException().getMessage());
+			assertNull(received.getList());
+		}
+	}
+
+	/**
+	 * Tests that a request is decoded in the format named by its Content-Type
+	 * and answered in the one named by its Accept header.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	@SuppressWarnings("unchecked")
+	public void testMixedSerializationFormats() throws Exception {
+		Properties properties = new Properties();
+		properties.setProperty(BookStoreConstants.PROPERTY_KEY_SERVER_PORT, "0");
+
+		CertainBookStore store = new CertainBookStore();
+		Set<StockBook> booksToAdd = new HashSet<StockBook>();
+		booksToAdd.add(getDefaultBook());
+		store.addBooks(booksToAdd);
+
+		Server server = BookStoreHTTPServerUtility.startServer(
+				BookStoreHTTPServerConfiguration.fromProperties(properties),
+				new BookStoreHTTPMessageHandler(store, store).createContextHandlers());
+		HttpClient httpClient = new HttpClient();
+		httpClient.start();
+
+		try {
+			String urlString = "http://localhost:" + ((ServerConnector) server.getConnectors()[0]).getLocalPort()
+					+ "/stock/" + BookStoreMessageTag.GETSTOCKBOOKSBYISBN;
+
+			for (BookStoreSerializationFormat requestFormat : BookStoreSerializationFormat.values()) {
+				for (BookStoreSerializationFormat responseFormat : BookStoreSerializationFormat.values()) {
+					byte[] content = requestFormat.newSerializer().serialize(Collections.singleton(TEST_ISBN));
+					ContentResponse response = httpClient.POST(urlString)
+							.content(new BytesContentProvider(requestFormat.getContentType(), content))
+							.header(HttpHeader.ACCEPT, "text/plain, " + responseFormat.getContentType()).send();
+
+					assertEquals(HttpStatus.OK_200, response.getStatus());
+					assertEquals(responseFormat,
+							BookStoreSerializationFormat.fromContentType(response.getMediaType()));
+
+					BookStoreResponse bookStoreResponse = (BookStoreResponse) responseFormat.newSerializer()
+							.deserialize(response.getContent());
+					assertNull(bookStoreResponse.getException());
+					BookStoreTestUtility.assertSameStock(store.getBooks(), (List<StockBook>) bookStoreResponse.getList());
+				}
+			}
+		} finally {
+			httpClient.stop();
+			server.stop();
+		}
+	}
+
+	/**
+	 * Tear down after class.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@AfterClass
+	public static void tearDownAfterClass() throws BookStoreException {
+		storeManager.removeAllBooks();
+
+		if (!localTest) {
+			((StockManagerHTTPProxy) storeManager).stop();
+		}
+	}
+}
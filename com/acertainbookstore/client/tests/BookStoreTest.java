@@ -1,8 +1,11 @@
 package com.acertainbookstore.client.tests;
 
 import static org.junit.Assert.*;
+import static org.junit.Assume.assumeFalse;
 
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ThreadLocalRandom;
 
 import com.acertainbookstore.business.*;
@@ -35,6 +38,12 @@ public class BookStoreTest {
 	/** The local test. */
 	private static boolean localTest = true;
 
+	/** Whether the local test runs against the columnar store. */
+	private static boolean columnar = false;
+
+	/** Whether the local test runs against the off-heap store. */
+	private static boolean offHeap = false;
+
 	/** The store manager. */
 	private static StockManager storeManager;
 
@@ -50,10 +59,26 @@ public class BookStoreTest {
 			String localTestProperty = System.getProperty(BookStoreConstants.PROPERTY_KEY_LOCAL_TEST);
 			localTest = (localTestProperty != null) ? Boolean.parseBoolean(localTestProperty) : localTest;
 
+			String columnarProperty = System.getProperty(BookStoreConstants.PROPERTY_KEY_COLUMNAR);
+			columnar = (columnarProperty != null) ? Boolean.parseBoolean(columnarProperty) : columnar;
+
+			String offHeapProperty = System.getProperty(BookStoreConstants.PROPERTY_KEY_OFF_HEAP);
+			offHeap = (offHeapProperty != null) ? Boolean.parseBoolean(offHeapProperty) : offHeap;
+
 			if (localTest) {
-				CertainBookStore store = new CertainBookStore();
-				storeManager = store;
-				client = store;
+				if (offHeap) {
+					OffHeapCertainBookStore store = new OffHeapCertainBookStore();
+					storeManager = store;
+					client = store;
+				} else if (columnar) {
+					ColumnarCertainBookStore store = new ColumnarCertainBookStore();
+					storeManager = store;
+					client = store;
+				} else {
+					CertainBookStore store = new CertainBookStore();
+					storeManager = store;
+					client = store;
+				}
 			} else {
 				storeManager = new StockManagerHTTPProxy("http://localhost:8081/stock");
 				client = new BookStoreHTTPProxy("http://localhost:8081");
@@ -321,6 +346,29 @@ public class BookStoreTest {
 			assertTrue(isbn == ref_isbn);
 		}
 	}
+	//testGetTopK: ties are ordered by ISBN, and re-rating moves a book
+	@Test
+	public void testTiedGetTopK() throws BookStoreException {
+		addBooks(119103, "Biochemical Testing", "Kwang Zeus'", (float) 119, 1, 0, 0, 0, false);
+		addBooks(1,1);
+
+		Set<BookRating> ratings = new HashSet<BookRating>();
+		ratings.add(new BookRating(TEST_ISBN, 4));
+		ratings.add(new BookRating(119103, 4));
+		ratings.add(new BookRating(1, 4));
+
+		client.rateBooks(ratings);
+		List<Book> listBooks = client.getTopRatedBooks(3);
+		assertTrue(listBooks.get(0).getISBN() == 1 && listBooks.get(1).getISBN() == 119103
+				&& listBooks.get(2).getISBN() == TEST_ISBN);
+
+		ratings.clear();
+		ratings.add(new BookRating(TEST_ISBN, 5));
+
+		client.rateBooks(ratings);
+		listBooks = client.getTopRatedBooks(1);
+		assertTrue(listBooks.size() == 1 && listBooks.get(0).getISBN() == TEST_ISBN);
+	}
 	//testGetTopK: invalid (K<1)
 	@Test
 	public void testOutOfRangeGetTopK() throws BookStoreException {
@@ -605,14 +653,91 @@ public class BookStoreTest {
 		}
 
 		// Check if the book that we tried to buy is now in the in demand books
+		// The books in demand come in no particular order.
+		List<StockBook> inDemandBooks = storeManager.getBooksInDemand();
+		Set<Integer> inDemandIsbns = new HashSet<Integer>();
+
+		for (StockBook inDemandBook : inDemandBooks) {
+			inDemandIsbns.add(inDemandBook.getISBN());
+		}
+
+		assertTrue(inDemandBooks.size() == 2 && inDemandIsbns.contains(TEST_ISBN)
+				&& inDemandIsbns.contains(TEST_ISBN + 2));
+	}
+
+	@Test
+	public void testRestockedOrRemovedNotInDemand() throws BookStoreException {
+		addBooks(TEST_ISBN + 1, NUM_COPIES);
+
+		// Try to buy more copies than there are in store.
+		HashSet<BookCopy> booksToBuy = new HashSet<BookCopy>();
+		booksToBuy.add(new BookCopy(TEST_ISBN, NUM_COPIES + 1));
+		booksToBuy.add(new BookCopy(TEST_ISBN + 1, NUM_COPIES + 1));
+
+		try {
+			client.buyBooks(booksToBuy);
+			fail();
+		} catch (BookStoreException ex) {
+			;
+		}
+
+		assertEquals(2, storeManager.getBooksInDemand().size());
+
+		// Restocking a book clears its sale misses.
+		HashSet<BookCopy> booksToCopy = new HashSet<BookCopy>();
+		booksToCopy.add(new BookCopy(TEST_ISBN, 1));
+		storeManager.addCopies(booksToCopy);
+
 		List<StockBook> inDemandBooks = storeManager.getBooksInDemand();
-		StockBook inDemandBook1 = inDemandBooks.get(0);
-		StockBook inDemandBook2 = inDemandBooks.get(1);
+		assertTrue(inDemandBooks.size() == 1 && inDemandBooks.get(0).getISBN() == TEST_ISBN + 1);
 
-		assertTrue(TEST_ISBN + 2 ==  inDemandBook1.getISBN() && inDemandBook2.getISBN() == TEST_ISBN);
+		// Removing a book drops it from the books in demand.
+		HashSet<Integer> isbnSet = new HashSet<Integer>();
+		isbnSet.add(TEST_ISBN + 1);
+		storeManager.removeBooks(isbnSet);
+
+		assertTrue(storeManager.getBooksInDemand().isEmpty());
 	}
 
 
+	/**
+	 * Tests that one thread can keep many asynchronous calls in flight, and
+	 * that each of them completes with its own result or exception.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testAsyncCalls() throws Exception {
+		assumeFalse(localTest);
+
+		BookStoreHTTPProxy asyncClient = (BookStoreHTTPProxy) client;
+		Set<Integer> isbnSet = Collections.singleton(TEST_ISBN);
+		List<CompletableFuture<List<Book>>> booksFound = new ArrayList<>();
+
+		for (int i = 0; i < 1000; i++) {
+			booksFound.add(asyncClient.getBooksAsync(isbnSet));
+		}
+
+		CompletableFuture<Void> failedPurchase = asyncClient
+				.buyBooksAsync(Collections.singleton(new BookCopy(TEST_ISBN, NUM_COPIES + 1)));
+
+		for (CompletableFuture<List<Book>> books : booksFound) {
+			assertTrue(books.get().size() == 1 && books.get().get(0).equals(getDefaultBook()));
+		}
+
+		try {
+			failedPurchase.get();
+			fail();
+		} catch (ExecutionException ex) {
+			assertTrue(ex.getCause() instanceof BookStoreException);
+		}
+
+		asyncClient.rateBooksAsync(Collections.singleton(new BookRating(TEST_ISBN, 4))).get();
+		List<Book> topRatedBooks = asyncClient.getTopRatedBooksAsync(1).get();
+		assertTrue(topRatedBooks.size() == 1 && topRatedBooks.get(0).getISBN() == TEST_ISBN);
+	}
+
 	/**
 	 * Tear down after class.
 	 *
@@ -0,0 +1,42 @@
+package com.acertainbookstore.client.tests;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.List;
+
+import com.acertainbookstore.business.StockBook;
+
+/**
+ * {@link BookStoreTestUtility} holds the assertions shared by the tests.
+ */
+public final class BookStoreTestUtility {
+
+	/**
+	 * Prevents the instantiation of a new {@link BookStoreTestUtility}.
+	 */
+	private BookStoreTestUtility() {
+		// Prevent instances from being created.
+	}
+
+	/**
+	 * Asserts that two lists hold the same books in the same state.
+	 *
+	 * @param expectedBooks
+	 *            the expected books
+	 * @param actualBooks
+	 *            the actual books
+	 */
+	public static void assertSameStock(List<StockBook> expectedBooks, List<StockBook> actualBooks) {
+		assertEquals(expectedBooks.size(), actualBooks.size());
+
+		for (StockBook expectedBook : expectedBooks) {
+			StockBook actualBook = actualBooks.get(actualBooks.indexOf(expectedBook));
+
+			assertEquals(expectedBook.getNumCopies(), actualBook.getNumCopies());
+			assertEquals(expectedBook.getNumSaleMisses(), actualBook.getNumSaleMisses());
+			assertEquals(expectedBook.getNumTimesRated(), actualBook.getNumTimesRated());
+			assertEquals(expectedBook.getTotalRating(), actualBook.getTotalRating());
+			assertEquals(expectedBook.isEditorPick(), actualBook.isEditorPick());
+		}
+	}
+}
@@ -0,0 +1,230 @@
+package com.acertainbookstore.client.tests;
+
+import static org.junit.Assert.*;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.acertainbookstore.business.IntIntHashMap;
+import com.acertainbookstore.business.IntObjectHashMap;
+
+/**
+ * {@link IntHashMapTest} tests the {@link IntObjectHashMap} and the
+ * {@link IntIntHashMap} on their own, including the probe runs their hash
+ * makes keys collide in.
+ */
+public class IntHashMapTest {
+
+	/**
+	 * Gets the home slot of a key in a table of the given capacity, hashing it
+	 * the way {@link IntObjectHashMap} and {@link IntIntHashMap} do, so that
+	 * the tests can pick keys that collide.
+	 *
+	 * @param key
+	 *            the key
+	 * @param capacity
+	 *            the capacity, a power of two
+	 * @return the home slot
+	 */
+	private static int homeSlot(int key, int capacity) {
+		int hash = key * 0x9E3779B9;
+		return (hash ^ (hash >>> 16)) & (capacity - 1);
+	}
+
+	/**
+	 * Finds keys sharing a home slot in a table of the given capacity.
+	 *
+	 * @param slot
+	 *            the home slot
+	 * @param capacity
+	 *            the capacity, a power of two
+	 * @param count
+	 *            the number of keys
+	 * @return the keys
+	 */
+	private static int[] collidingKeys(int slot, int capacity, int count) {
+		int[] keys = new int[count];
+		int found = 0;
+
+		for (int key = 1; found < count; key++) {
+			if (homeSlot(key, capacity) == slot) {
+				keys[found++] = key;
+			}
+		}
+
+		return keys;
+	}
+
+	/**
+	 * Tests that keys sharing a home slot are all found, including once the
+	 * first of their probe run, which wraps around the end of the table, is
+	 * removed and the others are shifted back.
+	 */
+	@Test
+	public void testIntObjectHashMapCollidingKeys() {
+		// Sized for 2 mappings, the table has 4 slots and holds 3 without
+		// growing, so the keys form one probe run starting at its last slot.
+		IntObjectHashMap<String> map = new IntObjectHashMap<>(2);
+		int[] keys = collidingKeys(3, 4, 3);
+
+		for (int key : keys) {
+			assertNull(map.put(key, "Book " + key));
+		}
+
+		for (int key : keys) {
+			assertEquals("Book " + key, map.get(key));
+		}
+
+		assertEquals("Book " + keys[0], map.remove(keys[0]));
+		assertNull(map.get(keys[0]));
+		assertFalse(map.containsKey(keys[0]));
+		assertEquals("Book " + keys[1], map.get(keys[1]));
+		assertEquals("Book " + keys[2], map.get(keys[2]));
+
+		assertEquals("Book " + keys[2], map.remove(keys[2]));
+		assertEquals("Book " + keys[1], map.get(keys[1]));
+		assertEquals(1, map.size());
+		assertNull(map.remove(keys[2]));
+	}
+
+	/**
+	 * Tests that removed keys can be mapped again, and that the keys around
+	 * them are still found.
+	 */
+	@Test
+	public void testIntObjectHashMapRemoveAndReinsert() {
+		IntObjectHashMap<Integer> map = new IntObjectHashMap<>();
+
+		for (int key = 1; key <= 1000; key++) {
+			map.put(key, key);
+		}
+
+		for (int key = 2; key <= 1000; key += 2) {
+			assertEquals(Integer.valueOf(key), map.remove(key));
+		}
+
+		assertEquals(500, map.size());
+
+		for (int key = 1; key <= 1000; key++) {
+			assertEquals(key % 2 == 1, map.containsKey(key));
+		}
+
+		for (int key = 2; key <= 1000; key += 2) {
+			assertNull(map.put(key, -key));
+		}
+
+		assertEquals(1000, map.size());
+
+		for (int key = 1; key <= 1000; key++) {
+			assertEquals(Integer.valueOf(key % 2 == 1 ? key : -key), map.get(key));
+		}
+	}
+
+	/**
+	 * Tests that a map growing from its default size many times over keeps
+	 * every mapping, for consecutive and for spread keys alike.
+	 */
+	@Test
+	public void testIntObjectHashMapResize() {
+		IntObjectHashMap<Integer> map = new IntObjectHashMap<>();
+		int count = 20000;
+
+		for (int i = 1; i <= count; i++) {
+			map.put(i, i);
+			map.put(i * 7919 + count, -i);
+		}
+
+		assertEquals(2 * count, map.size());
+		assertEquals(2 * count, map.values().size());
+
+		long sum = 0;
+
+		for (Integer value : map.values()) {
+			sum += value;
+		}
+
+		assertEquals(0, sum);
+
+		for (int i = 1; i <= count; i++) {
+			assertEquals(Integer.valueOf(i), map.get(i));
+			assertEquals(Integer.valueOf(-i), map.get(i * 7919 + count));
+		}
+
+		assertNull(map.get(count + 1));
+	}
+
+	/**
+	 * Tests key 0, which marks the free slots and is kept apart, and negative
+	 * keys.
+	 */
+	@Test
+	public void testIntObjectHashMapZeroAndNegativeKeys() {
+		IntObjectHashMap<String> map = new IntObjectHashMap<>();
+		int[] keys = { 0, -1, -30345650, Integer.MIN_VALUE, Integer.MAX_VALUE };
+
+		assertFalse(map.containsKey(0));
+		assertNull(map.get(0));
+
+		for (int key : keys) {
+			assertNull(map.put(key, "Book " + key));
+		}
+
+		assertEquals(keys.length, map.size());
+		assertTrue(map.values().contains("Book 0"));
+
+		for (int key : keys) {
+			assertTrue(map.containsKey(key));
+			assertEquals("Book " + key, map.get(key));
+		}
+
+		assertEquals("Book 0", map.put(0, "Other book"));
+		assertEquals("Other book", map.remove(0));
+		assertFalse(map.containsKey(0));
+		assertFalse(map.values().contains("Book 0"));
+		assertEquals(keys.length - 1, map.size());
+		assertEquals("Book " + Integer.MIN_VALUE, map.get(Integer.MIN_VALUE));
+
+		map.clear();
+		assertTrue(map.isEmpty());
+		assertFalse(map.containsKey(-1));
+	}
+
+	/**
+	 * Tests {@link IntObjectHashMap} and {@link IntIntHashMap} against a
+	 * {@link HashMap} over a long run of random puts and removes of a few
+	 * keys, so that probe runs keep forming, wrapping and breaking up.
+	 */
+	@Test
+	public void testIntHashMapsMatchHashMap() {
+		Random random = new Random(42);
+		Map<Integer, Integer> expected = new HashMap<>();
+		IntObjectHashMap<Integer> objectMap = new IntObjectHashMap<>(2);
+		IntIntHashMap intMap = new IntIntHashMap(2, -1);
+
+		for (int i = 0; i < 200000; i++) {
+			int key = random.nextInt(129) - 64;
+
+			if (random.nextInt(3) == 0) {
+				Integer previous = expected.remove(key);
+				assertEquals(previous, objectMap.remove(key));
+				assertEquals((previous == null) ? -1 : previous, intMap.remove(key));
+			} else {
+				int value = random.nextInt(1000);
+				Integer previous = expected.put(key, value);
+				assertEquals(previous, objectMap.put(key, value));
+				assertEquals((previous == null) ? -1 : previous, intMap.put(key, value));
+			}
+
+			int probedKey = random.nextInt(129) - 64;
+			Integer value = expected.get(probedKey);
+			assertEquals(value, objectMap.get(probedKey));
+			assertEquals((value == null) ? -1 : value, intMap.get(probedKey));
+			assertEquals(value != null, intMap.containsKey(probedKey));
+			assertEquals(expected.size(), objectMap.size());
+			assertEquals(expected.size(), intMap.size());
+		}
+	}
+}
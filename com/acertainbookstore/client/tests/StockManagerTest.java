@@ -1,9 +1,12 @@
 package com.acertainbookstore.client.tests;
 
 import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
 
@@ -17,6 +20,8 @@ import com.acertainbookstore.business.Book;
 import com.acertainbookstore.business.BookCopy;
 import com.acertainbookstore.business.BookEditorPick;
 import com.acertainbookstore.business.CertainBookStore;
+import com.acertainbookstore.business.ColumnarCertainBookStore;
+import com.acertainbookstore.business.OffHeapCertainBookStore;
 import com.acertainbookstore.business.ImmutableStockBook;
 import com.acertainbookstore.business.StockBook;
 import com.acertainbookstore.client.BookStoreHTTPProxy;
@@ -42,6 +47,12 @@ public class StockManagerTest {
 	/** The local test. */
 	private static boolean localTest = false;
 
+	/** Whether the local test runs against the columnar store. */
+	private static boolean columnar = false;
+
+	/** Whether the local test runs against the off-heap store. */
+	private static boolean offHeap = false;
+
 	/** The store manager. */
 	private static StockManager storeManager;
 
@@ -56,11 +67,27 @@ public class StockManagerTest {
 		try {
 			String localTestProperty = System.getProperty(BookStoreConstants.PROPERTY_KEY_LOCAL_TEST);
 			localTest = (localTestProperty != null) ? Boolean.parseBoolean(localTestProperty) : localTest;
+
+			String columnarProperty = System.getProperty(BookStoreConstants.PROPERTY_KEY_COLUMNAR);
+			columnar = (columnarProperty != null) ? Boolean.parseBoolean(columnarProperty) : columnar;
+
+			String offHeapProperty = System.getProperty(BookStoreConstants.PROPERTY_KEY_OFF_HEAP);
+			offHeap = (offHeapProperty != null) ? Boolean.parseBoolean(offHeapProperty) : offHeap;
 			
 			if (localTest) {
-				CertainBookStore store = new CertainBookStore();
-				storeManager = store;
-				client = store;
+				if (offHeap) {
+					OffHeapCertainBookStore store = new OffHeapCertainBookStore();
+					storeManager = store;
+					client = store;
+				} else if (columnar) {
+					ColumnarCertainBookStore store = new ColumnarCertainBookStore();
+					storeManager = store;
+					client = store;
+				} else {
+					CertainBookStore store = new CertainBookStore();
+					storeManager = store;
+					client = store;
+				}
 			} else {
 				storeManager = new StockManagerHTTPProxy("http://localhost:8081/stock");
 				client = new BookStoreHTTPProxy("http://localhost:8081");
@@ -158,6 +185,68 @@ public class StockManagerTest {
 				&& booksInStorePreTest.size() == booksInStorePostTest.size());
 	}
 
+	/**
+	 * Checks that books sharing an ISBN in one insertion, which a set holds
+	 * when they differ in title, author or price, are kept as one book that
+	 * can be removed.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test
+	public void testAddBooksSharingISBN() throws BookStoreException {
+		Set<StockBook> booksToAdd = new HashSet<StockBook>();
+		booksToAdd.add(new ImmutableStockBook(TEST_ISBN + 1, "Harry Potter and Vivek", "JUnit Rowling", (float) 100,
+				5, 0, 0, 0, false));
+		booksToAdd.add(new ImmutableStockBook(TEST_ISBN + 1, "Harry Potter and Marcos", "JUnit Rowling", (float) 100,
+				5, 0, 0, 0, false));
+		assertEquals(2, booksToAdd.size());
+
+		storeManager.addBooks(booksToAdd);
+
+		List<StockBook> booksInStore = storeManager.getBooks();
+		assertEquals(2, booksInStore.size());
+		assertEquals(1, booksInStore.stream().filter(book -> book.getISBN() == TEST_ISBN + 1).count());
+
+		storeManager.removeBooks(Collections.singleton(TEST_ISBN + 1));
+
+		booksInStore = storeManager.getBooks();
+		assertEquals(1, booksInStore.size());
+		assertEquals(TEST_ISBN.intValue(), booksInStore.get(0).getISBN());
+	}
+
+	/**
+	 * Checks that each implementation of the store keeps books sharing an ISBN
+	 * in one insertion as one book, whichever store the tests run against.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test
+	public void testStoresKeepOneBookPerISBN() throws BookStoreException {
+		Set<StockBook> booksToAdd = new HashSet<StockBook>();
+		booksToAdd.add(new ImmutableStockBook(TEST_ISBN, "Harry Potter and Vivek", "JUnit Rowling", (float) 100, 5, 0,
+				0, 0, false));
+		booksToAdd.add(new ImmutableStockBook(TEST_ISBN, "Harry Potter and Marcos", "JUnit Rowling", (float) 100, 5, 0,
+				0, 0, false));
+		booksToAdd.add(getDefaultBook());
+
+		for (StockManager store : new StockManager[] { new CertainBookStore(), new ColumnarCertainBookStore(),
+				new OffHeapCertainBookStore() }) {
+			store.addBooks(booksToAdd);
+			List<StockBook> booksInStore = store.getBooks();
+			assertEquals(1, booksInStore.size());
+
+			// The indexes hold the book that was kept, not the one dropped.
+			assertEquals(booksInStore.get(0).getTitle(),
+					((BookStore) store).getTopRatedBooks(1).get(0).getTitle());
+
+			store.removeBooks(Collections.singleton(TEST_ISBN));
+			assertTrue(store.getBooks().isEmpty());
+			assertTrue(store.getBooksInDemand().isEmpty());
+		}
+	}
+
 	/**
 	 * Checks whether the insertion of a book with a negative number of copies
 	 * is rejected.
@@ -384,6 +473,42 @@ public class StockManagerTest {
 		assertTrue(editorPick.equals(defaultBookAdded));
 	}
 
+	/**
+	 * Tests that editor picks drawn at random are distinct, and that books no
+	 * longer picked or removed are not drawn.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test
+	public void testSampleEditorPicks() throws BookStoreException {
+		Set<StockBook> booksToAdd = new HashSet<StockBook>();
+
+		for (int i = 1; i <= 10; i++) {
+			booksToAdd.add(new ImmutableStockBook(TEST_ISBN + i, "Book " + i, "Author " + i, (float) 10, NUM_COPIES,
+					0, 0, 0, true));
+		}
+
+		storeManager.addBooks(booksToAdd);
+		addEditorPick(TEST_ISBN + 3, false);
+
+		Set<Integer> isbnSet = new HashSet<Integer>();
+		isbnSet.add(TEST_ISBN + 5);
+		storeManager.removeBooks(isbnSet);
+
+		for (int k = 1; k <= 9; k++) {
+			Set<Integer> pickedIsbns = new HashSet<Integer>();
+
+			for (Book book : client.getEditorPicks(k)) {
+				pickedIsbns.add(book.getISBN());
+			}
+
+			assertEquals(Math.min(k, 8), pickedIsbns.size());
+			assertFalse(pickedIsbns.contains(TEST_ISBN) || pickedIsbns.contains(TEST_ISBN + 3)
+					|| pickedIsbns.contains(TEST_ISBN + 5));
+		}
+	}
+
 	/**
 	 * Checks that a book can be removed.
 	 *
@@ -475,6 +600,91 @@ public class StockManagerTest {
 		assertTrue(booksInStoreList.size() == 0);
 	}
 
+	/**
+	 * Tests that getBookChunks hands out every book exactly once, in non-empty
+	 * chunks no larger than asked for, and rejects chunks of no books.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test
+	public void testGetBookChunks() throws BookStoreException {
+		final int chunkSize = 3;
+		Set<StockBook> booksToAdd = new HashSet<StockBook>();
+
+		for (int i = 1; i <= 2 * chunkSize; i++) {
+			booksToAdd.add(new ImmutableStockBook(TEST_ISBN + i, "Harry Potter and JUnit", "JK Unit", (float) 10,
+					NUM_COPIES, 0, 0, 0, false));
+		}
+
+		storeManager.addBooks(booksToAdd);
+
+		Set<Integer> isbns = new HashSet<Integer>();
+		int numBooks = 0;
+
+		for (Iterator<List<StockBook>> chunks = storeManager.getBookChunks(chunkSize); chunks.hasNext();) {
+			List<StockBook> chunk = chunks.next();
+			assertTrue(!chunk.isEmpty() && chunk.size() <= chunkSize);
+
+			for (StockBook book : chunk) {
+				isbns.add(book.getISBN());
+				numBooks++;
+			}
+		}
+
+		assertEquals(2 * chunkSize + 1, numBooks);
+		assertEquals(numBooks, isbns.size());
+
+		try {
+			storeManager.getBookChunks(0);
+			fail();
+		} catch (BookStoreException ex) {
+			;
+		}
+	}
+
+	/**
+	 * Tests that a store copies each chunk only when it is asked for, so that
+	 * a book removed during the iteration is left out of the later chunks.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test
+	public void testGetBookChunksSkipsRemovedBooks() throws BookStoreException {
+		// The proxy fetches all the books before handing out the first chunk.
+		assumeTrue(localTest);
+
+		Set<StockBook> booksToAdd = new HashSet<StockBook>();
+		booksToAdd.add(new ImmutableStockBook(TEST_ISBN + 1, "The Art of Computer Programming", "Donald Knuth",
+				(float) 300, NUM_COPIES, 0, 0, 0, false));
+		booksToAdd.add(new ImmutableStockBook(TEST_ISBN + 2, "The C Programming Language",
+				"Dennis Ritchie and Brian Kerninghan", (float) 50, NUM_COPIES, 0, 0, 0, false));
+		storeManager.addBooks(booksToAdd);
+
+		Iterator<List<StockBook>> chunks = storeManager.getBookChunks(1);
+		int firstIsbn = chunks.next().get(0).getISBN();
+		Set<Integer> isbnsLeft = new HashSet<Integer>();
+
+		for (StockBook book : storeManager.getBooks()) {
+			if (book.getISBN() != firstIsbn) {
+				isbnsLeft.add(book.getISBN());
+			}
+		}
+
+		int removedIsbn = isbnsLeft.iterator().next();
+		storeManager.removeBooks(Collections.singleton(removedIsbn));
+		isbnsLeft.remove(removedIsbn);
+
+		Set<Integer> isbns = new HashSet<Integer>();
+
+		while (chunks.hasNext()) {
+			isbns.add(chunks.next().get(0).getISBN());
+		}
+
+		assertEquals(isbnsLeft, isbns);
+	}
+
 	//testGetBooksInDemand
 	//testGetBooksInDemand:
 	// - add the book
@@ -0,0 +1,366 @@
+package com.acertainbookstore.client.tests;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import org.junit.Test;
+
+import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.business.BookEditorPick;
+import com.acertainbookstore.business.BookRating;
+import com.acertainbookstore.business.CertainBookStore;
+import com.acertainbookstore.business.ImmutableStockBook;
+import com.acertainbookstore.business.StockBook;
+import com.acertainbookstore.business.WriteAheadLog;
+import com.acertainbookstore.utils.BookStoreException;
+
+/**
+ * {@link WriteAheadLogTest} tests the durable {@link CertainBookStore}: its
+ * recovery from the {@link WriteAheadLog} and from checkpoints, and how it
+ * fails when the log does.
+ *
+ * @see WriteAheadLog
+ */
+public class WriteAheadLogTest {
+
+	/** The Constant TEST_ISBN. */
+	private static final Integer TEST_ISBN = 30345650;
+
+	/** The Constant NUM_COPIES. */
+	private static final Integer NUM_COPIES = 5;
+
+	/**
+	 * Helper method to get the default book used by initializeBooks.
+	 *
+	 * @return the default book
+	 */
+	public StockBook getDefaultBook() {
+		return new ImmutableStockBook(TEST_ISBN, "Harry Potter and JUnit", "JK Unit", (float) 10, NUM_COPIES, 0, 0, 0,
+				false);
+	}
+
+	/**
+	 * Tests that a durable store rebuilds its state, sale misses and ratings
+	 * included, from its write-ahead log.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	@Test
+	public void testRecoverFromWriteAheadLog() throws BookStoreException, IOException {
+		File logFile = File.createTempFile("bookstore", ".wal");
+		logFile.deleteOnExit();
+		CertainBookStore store = new CertainBookStore(logFile, 0);
+
+		Set<StockBook> booksToAdd = new HashSet<StockBook>();
+		booksToAdd.add(getDefaultBook());
+		booksToAdd.add(new ImmutableStockBook(TEST_ISBN + 1, "The Art of Computer Programming", "Donald Knuth",
+				(float) 300, NUM_COPIES, 0, 0, 0, false));
+		booksToAdd.add(new ImmutableStockBook(TEST_ISBN + 2, "The C Programming Language",
+				"Dennis Ritchie and Brian Kerninghan", (float) 50, NUM_COPIES, 0, 0, 0, false));
+		store.addBooks(booksToAdd);
+
+		Set<BookCopy> booksToBuy = new HashSet<BookCopy>();
+		booksToBuy.add(new BookCopy(TEST_ISBN, 2));
+		store.buyBooks(booksToBuy);
+
+		booksToBuy.clear();
+		booksToBuy.add(new BookCopy(TEST_ISBN + 1, NUM_COPIES + 1));
+
+		try {
+			store.buyBooks(booksToBuy);
+			fail();
+		} catch (BookStoreException ex) {
+			;
+		}
+
+		Set<BookRating> ratings = new HashSet<BookRating>();
+		ratings.add(new BookRating(TEST_ISBN, 4));
+		store.rateBooks(ratings);
+
+		Set<BookEditorPick> editorPicks = new HashSet<BookEditorPick>();
+		editorPicks.add(new BookEditorPick(TEST_ISBN + 1, true));
+		store.updateEditorPicks(editorPicks);
+
+		Set<BookCopy> copiesToAdd = new HashSet<BookCopy>();
+		copiesToAdd.add(new BookCopy(TEST_ISBN, 1));
+		store.addCopies(copiesToAdd);
+
+		Set<Integer> isbnSet = new HashSet<Integer>();
+		isbnSet.add(TEST_ISBN + 2);
+		store.removeBooks(isbnSet);
+
+		List<StockBook> booksBeforeCrash = store.getBooks();
+		store.close();
+
+		CertainBookStore recoveredStore = new CertainBookStore(logFile, 0);
+
+		try {
+			BookStoreTestUtility.assertSameStock(booksBeforeCrash, recoveredStore.getBooks());
+			assertEquals(1, recoveredStore.getBooksInDemand().size());
+			assertEquals(TEST_ISBN + 1, recoveredStore.getEditorPicks(1).get(0).getISBN());
+		} finally {
+			recoveredStore.close();
+		}
+	}
+
+	/**
+	 * Tests that a durable store recovers from its last checkpoint and the
+	 * mutations logged after it.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	@Test
+	public void testRecoverFromCheckpoint() throws BookStoreException, IOException {
+		File logFile = File.createTempFile("bookstore", ".wal");
+		File checkpointFile = File.createTempFile("bookstore", ".checkpoint");
+		logFile.deleteOnExit();
+		checkpointFile.deleteOnExit();
+		checkpointFile.delete();
+		CertainBookStore store = new CertainBookStore(logFile, 0, checkpointFile, 0);
+
+		Set<StockBook> booksToAdd = new HashSet<StockBook>();
+		booksToAdd.add(getDefaultBook());
+		booksToAdd.add(new ImmutableStockBook(TEST_ISBN + 1, "The Art of Computer Programming", "Donald Knuth",
+				(float) 300, NUM_COPIES, 0, 0, 0, true));
+		store.addBooks(booksToAdd);
+
+		Set<BookRating> ratings = new HashSet<BookRating>();
+		ratings.add(new BookRating(TEST_ISBN, 4));
+		store.rateBooks(ratings);
+		store.checkpoint();
+
+		// These mutations are only in the log tail.
+		Set<BookCopy> booksToBuy = new HashSet<BookCopy>();
+		booksToBuy.add(new BookCopy(TEST_ISBN + 1, NUM_COPIES + 1));
+
+		try {
+			store.buyBooks(booksToBuy);
+			fail();
+		} catch (BookStoreException ex) {
+			;
+		}
+
+		store.rateBooks(ratings);
+
+		List<StockBook> booksBeforeCrash = store.getBooks();
+		store.close();
+
+		CertainBookStore recoveredStore = new CertainBookStore(logFile, 0, checkpointFile, 0);
+
+		try {
+			BookStoreTestUtility.assertSameStock(booksBeforeCrash, recoveredStore.getBooks());
+			assertEquals(1, recoveredStore.getBooksInDemand().size());
+			assertEquals(TEST_ISBN + 1, recoveredStore.getEditorPicks(1).get(0).getISBN());
+			assertTrue(recoveredStore.getTopRatedBooks(1).get(0).getISBN() == TEST_ISBN);
+		} finally {
+			recoveredStore.close();
+		}
+	}
+
+	/**
+	 * Tests that a checkpoint drops the records it covers from the log, and
+	 * that the store recovers the same state from the checkpoint and the
+	 * records logged after it, across several checkpoints.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	@Test
+	public void testCheckpointTruncatesLog() throws BookStoreException, IOException {
+		File logFile = File.createTempFile("bookstore", ".wal");
+		File checkpointFile = File.createTempFile("bookstore", ".checkpoint");
+		logFile.deleteOnExit();
+		checkpointFile.deleteOnExit();
+		checkpointFile.delete();
+		CertainBookStore store = new CertainBookStore(logFile, 0, checkpointFile, 0);
+		List<StockBook> booksBeforeCrash;
+
+		try {
+			store.addBooks(Collections.singleton(getDefaultBook()));
+			Set<BookCopy> booksToBuy = Collections.singleton(new BookCopy(TEST_ISBN, 1));
+
+			for (int i = 0; i < 3; i++) {
+				store.buyBooks(booksToBuy);
+			}
+
+			long logLength = logFile.length();
+			store.checkpoint();
+			assertTrue(logFile.length() < logLength);
+
+			// These mutations are only in the log tail.
+			store.buyBooks(booksToBuy);
+			store.rateBooks(Collections.singleton(new BookRating(TEST_ISBN, 3)));
+			logLength = logFile.length();
+
+			// The next checkpoint keeps the tail appended after it.
+			store.checkpoint();
+			assertTrue(logFile.length() < logLength);
+			store.addCopies(Collections.singleton(new BookCopy(TEST_ISBN, 2)));
+			booksBeforeCrash = store.getBooks();
+		} finally {
+			store.close();
+		}
+
+		CertainBookStore recoveredStore = new CertainBookStore(logFile, 0, checkpointFile, 0);
+
+		try {
+			BookStoreTestUtility.assertSameStock(booksBeforeCrash, recoveredStore.getBooks());
+			recoveredStore.buyBooks(Collections.singleton(new BookCopy(TEST_ISBN, 1)));
+			booksBeforeCrash = recoveredStore.getBooks();
+		} finally {
+			recoveredStore.close();
+		}
+
+		// The recovered store keeps appending to the truncated log.
+		recoveredStore = new CertainBookStore(logFile, 0, checkpointFile, 0);
+
+		try {
+			BookStoreTestUtility.assertSameStock(booksBeforeCrash, recoveredStore.getBooks());
+		} finally {
+			recoveredStore.close();
+		}
+	}
+
+	/**
+	 * Tests that a durable store whose log can no longer be written rejects
+	 * mutations without applying them.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	@Test
+	public void testMutationRejectedWhenLogUnusable() throws BookStoreException, IOException {
+		File logFile = File.createTempFile("bookstore", ".wal");
+		logFile.deleteOnExit();
+		CertainBookStore store = new CertainBookStore(logFile, 0);
+
+		Set<StockBook> booksToAdd = new HashSet<StockBook>();
+		booksToAdd.add(getDefaultBook());
+		store.addBooks(booksToAdd);
+		List<StockBook> booksBeforeClose = store.getBooks();
+		store.close();
+
+		Set<BookCopy> booksToBuy = new HashSet<BookCopy>();
+		booksToBuy.add(new BookCopy(TEST_ISBN, 1));
+
+		try {
+			store.buyBooks(booksToBuy);
+			fail();
+		} catch (BookStoreException ex) {
+			;
+		}
+
+		try {
+			store.removeAllBooks();
+			fail();
+		} catch (BookStoreException ex) {
+			;
+		}
+
+		BookStoreTestUtility.assertSameStock(booksBeforeClose, store.getBooks());
+	}
+
+	/**
+	 * Tests that a durable store rejects invalid books as the in-memory store
+	 * does, with a {@link BookStoreException}, and logs nothing for them.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	@Test
+	public void testDurableStoreRejectsInvalidBooks() throws BookStoreException, IOException {
+		File logFile = File.createTempFile("bookstore", ".wal");
+		logFile.deleteOnExit();
+		CertainBookStore store = new CertainBookStore(logFile, 0);
+
+		try {
+			store.addBooks(Collections.singleton(getDefaultBook()));
+			long logLength = logFile.length();
+
+			for (StockBook invalidBook : new StockBook[] {
+					new ImmutableStockBook(TEST_ISBN + 1, null, "JK Unit", (float) 10, NUM_COPIES, 0, 0, 0, false),
+					new ImmutableStockBook(TEST_ISBN + 1, "Harry Potter and JUnit", null, (float) 10, NUM_COPIES, 0,
+							0, 0, false) }) {
+				try {
+					store.addBooks(Collections.singleton(invalidBook));
+					fail();
+				} catch (BookStoreException ex) {
+					;
+				}
+			}
+
+			assertEquals(logLength, logFile.length());
+			assertEquals(1, store.getBooks().size());
+		} finally {
+			store.close();
+		}
+	}
+
+	/**
+	 * Tests that a caller waiting for the write-ahead log is woken up with a
+	 * failure when the flusher stops, whatever stopped it.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test(timeout = 10000)
+	public void testAwaitDurableFailsWhenFlusherStops() throws Exception {
+		File logFile = File.createTempFile("bookstore", ".wal");
+		logFile.deleteOnExit();
+
+		Set<Thread> flushersBefore = walFlushers();
+		WriteAheadLog log = WriteAheadLog.open(logFile, TimeUnit.SECONDS.toMicros(60), 0, record -> {
+		});
+		Set<Thread> flushers = walFlushers();
+		flushers.removeAll(flushersBefore);
+		assertEquals(1, flushers.size());
+
+		try {
+			long lsn = log.append(new byte[] { 1 });
+
+			// The flusher is now sleeping through its batch window.
+			flushers.iterator().next().interrupt();
+
+			try {
+				log.awaitDurable(lsn);
+				fail();
+			} catch (BookStoreException ex) {
+				;
+			}
+
+			try {
+				log.append(new byte[] { 2 });
+				fail();
+			} catch (BookStoreException ex) {
+				;
+			}
+		} finally {
+			log.close();
+		}
+	}
+
+	private static Set<Thread> walFlushers() {
+		return Thread.getAllStackTraces().keySet().stream().filter(thread -> thread.getName().startsWith("wal-flusher-"))
+				.collect(Collectors.toSet());
+	}
+}
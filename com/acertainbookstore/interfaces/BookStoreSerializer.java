@@ -1,13 +1,27 @@
 package com.acertainbookstore.interfaces;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
 
 /**
  * {@link BookStoreSerializer} specifies the serialization and de-serialization
  * contracts.
+ *
+ * A serializer is used by one thread at a time and may reuse its buffers from
+ * one call to the next, so that the stream and buffer variants encode and
+ * decode without allocating intermediate arrays.
  */
 public interface BookStoreSerializer {
 
+	/**
+	 * Gets the media type of the serialized messages.
+	 *
+	 * @return the content type
+	 */
+	String getContentType();
+
 	/**
 	 * Serializes an object into a sequence of bytes.
 	 *
@@ -19,6 +33,31 @@ public interface BookStoreSerializer {
 	 */
 	byte[] serialize(Object object) throws IOException;
 
+	/**
+	 * Serializes an object into a buffer owned by the serializer. The buffer
+	 * is only valid until the next call to the serializer.
+	 *
+	 * @param object
+	 *            the object
+	 * @return the buffer, positioned at the first byte and limited to the last
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	ByteBuffer serializeToBuffer(Object object) throws IOException;
+
+	/**
+	 * Serializes an object into an output stream. Everything is written to the
+	 * stream before returning, but the stream is not closed.
+	 *
+	 * @param object
+	 *            the object
+	 * @param out
+	 *            the output stream
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	void serialize(Object object, OutputStream out) throws IOException;
+
 	/**
 	 * De-serializes a sequence of bytes into an object.
 	 *
@@ -29,4 +68,16 @@ public interface BookStoreSerializer {
 	 *             Signals that an I/O exception has occurred.
 	 */
 	Object deserialize(byte[] bytes) throws IOException;
+
+	/**
+	 * De-serializes an object read from an input stream. The stream is not
+	 * closed.
+	 *
+	 * @param in
+	 *            the input stream
+	 * @return the object
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	Object deserialize(InputStream in) throws IOException;
 }
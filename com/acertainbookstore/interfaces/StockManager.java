@@ -1,5 +1,6 @@
 package com.acertainbookstore.interfaces;
 
+import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
 
@@ -43,6 +44,19 @@ public interface StockManager {
 	 */
 	public List<StockBook> getBooks() throws BookStoreException;
 
+	/**
+	 * Gets the books in the bookstore chunk by chunk, so that they are never
+	 * all copied at once. A book in the store during the whole iteration is in
+	 * exactly one chunk; a book added or removed meanwhile may be in none.
+	 *
+	 * @param chunkSize
+	 *            the most books in a chunk
+	 * @return the chunks, none of them empty
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	public Iterator<List<StockBook>> getBookChunks(int chunkSize) throws BookStoreException;
+
 	/**
 	 * Gets the books matching the set of ISBNs given, is different to getBooks
 	 * in the BookStore interface because of the return type of the books.
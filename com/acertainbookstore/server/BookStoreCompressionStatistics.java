@@ -0,0 +1,117 @@
+package com.acertainbookstore.server;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.acertainbookstore.utils.BookStoreMessageTag;
+
+/**
+ * {@link BookStoreCompressionStatistics} counts, for each message tag, the
+ * compressed request and response bodies, the bytes compression saved and
+ * the CPU time it took.
+ */
+public final class BookStoreCompressionStatistics {
+
+	/** The counters of each message tag. */
+	private final Map<BookStoreMessageTag, Counters> counters = new EnumMap<>(BookStoreMessageTag.class);
+
+	/**
+	 * Instantiates a new {@link BookStoreCompressionStatistics}.
+	 */
+	public BookStoreCompressionStatistics() {
+		for (BookStoreMessageTag messageTag : BookStoreMessageTag.values()) {
+			counters.put(messageTag, new Counters());
+		}
+	}
+
+	/**
+	 * Records a compressed or decompressed body.
+	 *
+	 * @param messageTag
+	 *            the message tag
+	 * @param uncompressedBytes
+	 *            the size of the body before compression
+	 * @param compressedBytes
+	 *            the size of the body after compression
+	 * @param cpuNanos
+	 *            the CPU time spent compressing or decompressing it
+	 */
+	void record(BookStoreMessageTag messageTag, long uncompressedBytes, long compressedBytes, long cpuNanos) {
+		Counters tagCounters = counters.get(messageTag);
+		tagCounters.bodies.increment();
+		tagCounters.uncompressedBytes.add(uncompressedBytes);
+		tagCounters.compressedBytes.add(compressedBytes);
+		tagCounters.cpuNanos.add(cpuNanos);
+	}
+
+	/**
+	 * Gets the number of compressed bodies of a message tag.
+	 *
+	 * @param messageTag
+	 *            the message tag
+	 * @return the number of bodies
+	 */
+	public long getCompressedBodies(BookStoreMessageTag messageTag) {
+		return counters.get(messageTag).bodies.sum();
+	}
+
+	/**
+	 * Gets the bytes compression saved on the bodies of a message tag.
+	 *
+	 * @param messageTag
+	 *            the message tag
+	 * @return the bytes saved
+	 */
+	public long getBytesSaved(BookStoreMessageTag messageTag) {
+		Counters tagCounters = counters.get(messageTag);
+		return tagCounters.uncompressedBytes.sum() - tagCounters.compressedBytes.sum();
+	}
+
+	/**
+	 * Gets the CPU time spent compressing the bodies of a message tag.
+	 *
+	 * @param messageTag
+	 *            the message tag
+	 * @return the CPU time, in nanoseconds
+	 */
+	public long getCpuNanos(BookStoreMessageTag messageTag) {
+		return counters.get(messageTag).cpuNanos.sum();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder(
+				String.format("%-20s %10s %14s %14s %10s%n", "Message", "Bodies", "Bytes in", "Bytes saved", "CPU ms"));
+
+		for (Map.Entry<BookStoreMessageTag, Counters> entry : counters.entrySet()) {
+			Counters tagCounters = entry.getValue();
+			long bodies = tagCounters.bodies.sum();
+
+			if (bodies > 0) {
+				long uncompressedBytes = tagCounters.uncompressedBytes.sum();
+				builder.append(String.format("%-20s %10d %14d %14d %10d%n", entry.getKey(), bodies, uncompressedBytes,
+						uncompressedBytes - tagCounters.compressedBytes.sum(),
+						TimeUnit.NANOSECONDS.toMillis(tagCounters.cpuNanos.sum())));
+			}
+		}
+
+		return builder.toString();
+	}
+
+	/**
+	 * {@link Counters} holds the counters of one message tag.
+	 */
+	private static final class Counters {
+		final LongAdder bodies = new LongAdder();
+		final LongAdder uncompressedBytes = new LongAdder();
+		final LongAdder compressedBytes = new LongAdder();
+		final LongAdder cpuNanos = new LongAdder();
+	}
+}
@@ -0,0 +1,322 @@
+package com.acertainbookstore.server;
+
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.acertainbookstore.utils.BookStoreConstants;
+import com.acertainbookstore.utils.BookStoreMessageTag;
+import com.acertainbookstore.utils.BookStoreThreads;
+
+/**
+ * {@link BookStoreHTTPAdmissionControl} runs the messages of each
+ * {@link BookStoreHTTPNamespace} on a pool of its own, so that a burst of
+ * stock manager traffic cannot take the threads the customers need, and the
+ * other way round.
+ *
+ * Each pool has a fixed number of threads and a bounded queue. A message tag
+ * may further be limited to a number of messages running or waiting at once,
+ * which keeps the messages scanning the whole store from filling the pool of
+ * their namespace. A message that finds its queue or its tag full is turned
+ * away at once instead of waiting. The messages of a batch count against the
+ * limits of their own tags, so that batching them does not lift the limits.
+ *
+ * With virtual threads, each message runs on a thread of its own instead, and
+ * a namespace admits as many messages at once as its pool would have run and
+ * queued.
+ */
+public final class BookStoreHTTPAdmissionControl {
+
+	/**
+	 * The default limits of the message tags scanning the whole store; the
+	 * other tags are only limited by the queue of their namespace.
+	 */
+	private static final Map<BookStoreMessageTag, Integer> DEFAULT_CONCURRENCY_LIMITS = new EnumMap<>(
+			BookStoreMessageTag.class);
+
+	static {
+		DEFAULT_CONCURRENCY_LIMITS.put(BookStoreMessageTag.LISTBOOKS, 4);
+		DEFAULT_CONCURRENCY_LIMITS.put(BookStoreMessageTag.STREAMBOOKS, 4);
+		DEFAULT_CONCURRENCY_LIMITS.put(BookStoreMessageTag.GETBOOKSINDEMAND, 4);
+	}
+
+	/** The pool of each namespace. */
+	private final Map<BookStoreHTTPNamespace, ExecutorService> executors = new EnumMap<>(
+			BookStoreHTTPNamespace.class);
+
+	/** The permits of the namespaces, when their messages run on virtual threads. */
+	private final Map<BookStoreHTTPNamespace, Semaphore> namespacePermits = new EnumMap<>(
+			BookStoreHTTPNamespace.class);
+
+	/** The permits of the limited message tags. */
+	private final Map<BookStoreMessageTag, Semaphore> permits = new EnumMap<>(BookStoreMessageTag.class);
+
+	/** The number of messages turned away, by message tag. */
+	private final Map<BookStoreMessageTag, LongAdder> rejected = new EnumMap<>(BookStoreMessageTag.class);
+
+	/**
+	 * Instantiates a new {@link BookStoreHTTPAdmissionControl} running the
+	 * messages on platform thread pools.
+	 *
+	 * @param threads
+	 *            the number of threads of each namespace
+	 * @param queueCapacities
+	 *            the number of messages of each namespace that may wait for a
+	 *            thread
+	 * @param concurrencyLimits
+	 *            the number of messages of each limited tag that may run or
+	 *            wait at once
+	 */
+	public BookStoreHTTPAdmissionControl(Map<BookStoreHTTPNamespace, Integer> threads,
+			Map<BookStoreHTTPNamespace, Integer> queueCapacities,
+			Map<BookStoreMessageTag, Integer> concurrencyLimits) {
+		this(threads, queueCapacities, concurrencyLimits, false);
+	}
+
+	/**
+	 * Instantiates a new {@link BookStoreHTTPAdmissionControl}.
+	 *
+	 * @param threads
+	 *            the number of threads of each namespace
+	 * @param queueCapacities
+	 *            the number of messages of each namespace that may wait for a
+	 *            thread
+	 * @param concurrencyLimits
+	 *            the number of messages of each limited tag that may run or
+	 *            wait at once
+	 * @param virtualThreads
+	 *            whether each message runs on a virtual thread of its own
+	 * @throws UnsupportedOperationException
+	 *             if virtual threads are asked for and the JVM has none
+	 */
+	public BookStoreHTTPAdmissionControl(Map<BookStoreHTTPNamespace, Integer> threads,
+			Map<BookStoreHTTPNamespace, Integer> queueCapacities, Map<BookStoreMessageTag, Integer> concurrencyLimits,
+			boolean virtualThreads) {
+		for (BookStoreHTTPNamespace namespace : BookStoreHTTPNamespace.values()) {
+			int namespaceThreads = threads.getOrDefault(namespace, namespace.getDefaultThreads());
+			int queueCapacity = queueCapacities.getOrDefault(namespace, namespace.getDefaultQueueCapacity());
+
+			if (namespaceThreads < 1 || queueCapacity < 0) {
+				throw new IllegalArgumentException("Unsupported pool of " + namespaceThreads + " threads and "
+						+ queueCapacity + " queued messages for the " + namespace + " API");
+			}
+
+			String threadName = "bookstore-" + namespace.name().toLowerCase(Locale.ROOT) + "-";
+
+			if (virtualThreads) {
+				namespacePermits.put(namespace, new Semaphore(namespaceThreads + queueCapacity));
+				executors.put(namespace, BookStoreThreads.newVirtualThreadPerTaskExecutor(threadName));
+				continue;
+			}
+
+			BlockingQueue<Runnable> queue = (queueCapacity > 0) ? new ArrayBlockingQueue<>(queueCapacity)
+					: new SynchronousQueue<>();
+			AtomicInteger threadNumber = new AtomicInteger();
+
+			executors.put(namespace, new ThreadPoolExecutor(namespaceThreads, namespaceThreads, 0,
+					TimeUnit.MILLISECONDS, queue, runnable -> {
+						Thread thread = new Thread(runnable, threadName + threadNumber.incrementAndGet());
+						thread.setDaemon(true);
+						return thread;
+					}, new ThreadPoolExecutor.AbortPolicy()));
+		}
+
+		for (Map.Entry<BookStoreMessageTag, Integer> limit : concurrencyLimits.entrySet()) {
+			if (limit.getValue() > 0) {
+				permits.put(limit.getKey(), new Semaphore(limit.getValue()));
+			}
+		}
+
+		for (BookStoreMessageTag messageTag : BookStoreMessageTag.values()) {
+			rejected.put(messageTag, new LongAdder());
+		}
+	}
+
+	/**
+	 * Creates a {@link BookStoreHTTPAdmissionControl} configured by the
+	 * {@link BookStoreConstants#PROPERTY_KEY_THREADS},
+	 * {@link BookStoreConstants#PROPERTY_KEY_QUEUE} and
+	 * {@link BookStoreConstants#PROPERTY_KEY_CONCURRENCY} system properties,
+	 * e.g. threads.stock=8, queue.customer=1024 and concurrency.LISTBOOKS=4. A
+	 * concurrency limit of 0 lifts the limit of the tag. The messages run on
+	 * virtual threads if {@link BookStoreThreads#fromSystemProperty()} says so.
+	 *
+	 * @return the admission control
+	 */
+	public static BookStoreHTTPAdmissionControl fromSystemProperties() {
+		Map<BookStoreHTTPNamespace, Integer> threads = new EnumMap<>(BookStoreHTTPNamespace.class);
+		Map<BookStoreHTTPNamespace, Integer> queueCapacities = new EnumMap<>(BookStoreHTTPNamespace.class);
+		Map<BookStoreMessageTag, Integer> concurrencyLimits = new EnumMap<>(DEFAULT_CONCURRENCY_LIMITS);
+
+		for (BookStoreHTTPNamespace namespace : BookStoreHTTPNamespace.values()) {
+			String suffix = "." + namespace.name().toLowerCase(Locale.ROOT);
+			threads.put(namespace,
+					getIntProperty(BookStoreConstants.PROPERTY_KEY_THREADS + suffix, namespace.getDefaultThreads()));
+			queueCapacities.put(namespace, getIntProperty(BookStoreConstants.PROPERTY_KEY_QUEUE + suffix,
+					namespace.getDefaultQueueCapacity()));
+		}
+
+		for (BookStoreMessageTag messageTag : BookStoreMessageTag.values()) {
+			String key = BookStoreConstants.PROPERTY_KEY_CONCURRENCY + "." + messageTag;
+			concurrencyLimits.put(messageTag, getIntProperty(key, concurrencyLimits.getOrDefault(messageTag, 0)));
+		}
+
+		return new BookStoreHTTPAdmissionControl(threads, queueCapacities, concurrencyLimits,
+				BookStoreThreads.fromSystemProperty());
+	}
+
+	/**
+	 * Reads an integer system property.
+	 */
+	private static int getIntProperty(String key, int defaultValue) {
+		String valueString = System.getProperty(key);
+
+		if (valueString != null) {
+			try {
+				return Integer.parseInt(valueString);
+			} catch (NumberFormatException ex) {
+				System.err.println("Unsupported value " + valueString + " of " + key);
+			}
+		}
+
+		return defaultValue;
+	}
+
+	/**
+	 * Runs a message on the pool of its namespace, unless the pool or the tag
+	 * of the message is full.
+	 *
+	 * @param namespace
+	 *            the namespace of the message
+	 * @param messageTag
+	 *            the tag of the message
+	 * @param task
+	 *            the task handling the message
+	 * @return true if the message was admitted, false if it was turned away
+	 */
+	public boolean submit(BookStoreHTTPNamespace namespace, BookStoreMessageTag messageTag, Runnable task) {
+		Semaphore tagPermits = permits.get(messageTag);
+		Semaphore poolPermits = namespacePermits.get(namespace);
+
+		if (tagPermits != null && !tagPermits.tryAcquire()) {
+			rejected.get(messageTag).increment();
+			return false;
+		}
+
+		if (poolPermits != null && !poolPermits.tryAcquire()) {
+			release(tagPermits);
+			rejected.get(messageTag).increment();
+			return false;
+		}
+
+		Runnable admittedTask = (tagPermits == null && poolPermits == null) ? task : () -> {
+			try {
+				task.run();
+			} finally {
+				release(tagPermits);
+				release(poolPermits);
+			}
+		};
+
+		try {
+			executors.get(namespace).execute(admittedTask);
+			return true;
+		} catch (RejectedExecutionException ex) {
+			release(tagPermits);
+			release(poolPermits);
+			rejected.get(messageTag).increment();
+			return false;
+		}
+	}
+
+	/**
+	 * Admits a message of a batch, unless its tag is full. The message runs on
+	 * the thread of its batch, which was admitted to the namespace already, so
+	 * only the limit of its tag applies. A message admitted must be let go with
+	 * {@link #leaveBatch(BookStoreMessageTag)} once it has run.
+	 *
+	 * @param messageTag
+	 *            the tag of the message
+	 * @return true if the message was admitted, false if it was turned away
+	 */
+	public boolean enterBatch(BookStoreMessageTag messageTag) {
+		Semaphore tagPermits = permits.get(messageTag);
+
+		if (tagPermits != null && !tagPermits.tryAcquire()) {
+			rejected.get(messageTag).increment();
+			return false;
+		}
+
+		return true;
+	}
+
+	/**
+	 * Lets go of a message of a batch admitted by
+	 * {@link #enterBatch(BookStoreMessageTag)}.
+	 *
+	 * @param messageTag
+	 *            the tag of the message
+	 */
+	public void leaveBatch(BookStoreMessageTag messageTag) {
+		release(permits.get(messageTag));
+	}
+
+	/**
+	 * Gives back a permit, if it was taken.
+	 */
+	private static void release(Semaphore semaphore) {
+		if (semaphore != null) {
+			semaphore.release();
+		}
+	}
+
+	/**
+	 * Gets the number of messages of a tag turned away.
+	 *
+	 * @param messageTag
+	 *            the message tag
+	 * @return the number of messages
+	 */
+	public long getRejected(BookStoreMessageTag messageTag) {
+		return rejected.get(messageTag).sum();
+	}
+
+	/**
+	 * Stops the pools, letting the messages already admitted finish.
+	 */
+	public void shutdown() {
+		for (ExecutorService executor : executors.values()) {
+			executor.shutdown();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder();
+
+		for (BookStoreMessageTag messageTag : BookStoreMessageTag.values()) {
+			long tagRejected = getRejected(messageTag);
+
+			if (tagRejected > 0) {
+				builder.append(String.format("%-20s %10d rejected%n", messageTag, tagRejected));
+			}
+		}
+
+		return builder.toString();
+	}
+}
@@ -0,0 +1,488 @@
+package com.acertainbookstore.server;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import javax.servlet.ReadListener;
+import javax.servlet.ServletInputStream;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+import org.eclipse.jetty.http.HttpHeader;
+
+import com.acertainbookstore.utils.BookStoreConstants;
+
+/**
+ * {@link BookStoreHTTPCompression} compresses the bodies of the responses of
+ * the {@link BookStoreHTTPMessageHandler} with gzip, and decompresses the
+ * bodies of the requests compressed by the clients.
+ *
+ * A response is compressed only if the request accepts gzip and the body
+ * reaches {@link BookStoreConstants#COMPRESSION_THRESHOLD}: the body is held
+ * back until then, and the headers are sent with the first compressed bytes.
+ * The fastest deflate level is used, since the bodies are mostly repeated
+ * tags and field names.
+ */
+final class BookStoreHTTPCompression {
+
+	/** The name of the content coding. */
+	static final String GZIP = "gzip";
+
+	/** The size of the deflate and inflate buffers. */
+	private static final int BUFFER_SIZE = 8 * 1024;
+
+	/** The bean measuring the CPU time of the threads. */
+	private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+	/**
+	 * Prevents the instantiation of {@link BookStoreHTTPCompression}.
+	 */
+	private BookStoreHTTPCompression() {
+		// Prevent instantiation.
+	}
+
+	/**
+	 * Checks whether a request accepts gzip-compressed responses.
+	 *
+	 * @param request
+	 *            the request
+	 * @return true if its Accept-Encoding header lists gzip, or any coding,
+	 *         with a non-zero quality
+	 */
+	static boolean acceptsGzip(HttpServletRequest request) {
+		String acceptEncoding = request.getHeader(HttpHeader.ACCEPT_ENCODING.asString());
+
+		if (acceptEncoding == null) {
+			return false;
+		}
+
+		for (String coding : acceptEncoding.split(",")) {
+			String[] parameters = coding.split(";");
+			String name = parameters[0].trim();
+
+			if (!name.equalsIgnoreCase(GZIP) && !name.equals("*")) {
+				continue;
+			}
+
+			boolean refused = false;
+
+			for (int i = 1; i < parameters.length; i++) {
+				String parameter = parameters[i].trim();
+
+				if (parameter.startsWith("q=")) {
+					try {
+						refused = Double.parseDouble(parameter.substring(2)) == 0;
+					} catch (NumberFormatException ex) {
+						refused = true;
+					}
+				}
+			}
+
+			if (!refused) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * Gets the CPU time of the current thread, or the wall clock time if it
+	 * cannot be measured.
+	 */
+	private static long cpuTime() {
+		return THREADS.isCurrentThreadCpuTimeSupported() ? THREADS.getCurrentThreadCpuTime() : System.nanoTime();
+	}
+
+	/**
+	 * {@link DecompressingRequest} is a request whose body is decompressed as
+	 * it is read.
+	 */
+	static final class DecompressingRequest extends HttpServletRequestWrapper {
+
+		/** The decompressed body, created when first read. */
+		private DecompressingInputStream in = null;
+
+		/**
+		 * Instantiates a new {@link DecompressingRequest}.
+		 *
+		 * @param request
+		 *            the request, whose body is compressed with gzip
+		 */
+		DecompressingRequest(HttpServletRequest request) {
+			super(request);
+		}
+
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see javax.servlet.ServletRequestWrapper#getInputStream()
+		 */
+		@Override
+		public ServletInputStream getInputStream() throws IOException {
+			if (in == null) {
+				in = new DecompressingInputStream(super.getInputStream());
+			}
+
+			return in;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see javax.servlet.ServletRequestWrapper#getContentLength()
+		 */
+		@Override
+		public int getContentLength() {
+			return -1;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see javax.servlet.ServletRequestWrapper#getContentLengthLong()
+		 */
+		@Override
+		public long getContentLengthLong() {
+			return -1;
+		}
+
+		/**
+		 * Releases the inflater.
+		 */
+		void finish() {
+			if (in != null) {
+				in.gzip.end();
+			}
+		}
+
+		long getUncompressedBytes() {
+			return (in != null) ? in.uncompressedBytes : 0;
+		}
+
+		long getCompressedBytes() {
+			return (in != null) ? in.compressedIn.count : 0;
+		}
+
+		long getCpuNanos() {
+			return (in != null) ? in.cpuNanos : 0;
+		}
+	}
+
+	/**
+	 * {@link CompressingResponse} is a response whose body is compressed once
+	 * it reaches the threshold.
+	 */
+	static final class CompressingResponse extends HttpServletResponseWrapper {
+
+		/** The body, created when first written. */
+		private CompressingOutputStream out = null;
+
+		/**
+		 * Instantiates a new {@link CompressingResponse}.
+		 *
+		 * @param response
+		 *            the response
+		 */
+		CompressingResponse(HttpServletResponse response) {
+			super(response);
+		}
+
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see javax.servlet.ServletResponseWrapper#getOutputStream()
+		 */
+		@Override
+		public ServletOutputStream getOutputStream() throws IOException {
+			if (out == null) {
+				out = new CompressingOutputStream((HttpServletResponse) getResponse());
+			}
+
+			return out;
+		}
+
+		/**
+		 * Writes the end of the body: the rest of the compressed body, or the
+		 * body held back if it stayed below the threshold.
+		 *
+		 * @throws IOException
+		 *             Signals that an I/O exception has occurred.
+		 */
+		void finish() throws IOException {
+			if (out != null) {
+				out.finish();
+			}
+		}
+
+		boolean isCompressed() {
+			return out != null && out.gzip != null;
+		}
+
+		long getUncompressedBytes() {
+			return (out != null) ? out.uncompressedBytes : 0;
+		}
+
+		long getCompressedBytes() {
+			return (out != null && out.compressedOut != null) ? out.compressedOut.count : 0;
+		}
+
+		long getCpuNanos() {
+			return (out != null) ? out.cpuNanos : 0;
+		}
+	}
+
+	/**
+	 * {@link DecompressingInputStream} inflates a gzip-compressed body.
+	 */
+	private static final class DecompressingInputStream extends ServletInputStream {
+
+		final CountingInputStream compressedIn;
+		final ReleasableGZIPInputStream gzip;
+		long uncompressedBytes = 0;
+		long cpuNanos = 0;
+		boolean finished = false;
+
+		DecompressingInputStream(InputStream in) throws IOException {
+			compressedIn = new CountingInputStream(in);
+			long start = cpuTime();
+			gzip = new ReleasableGZIPInputStream(compressedIn);
+			cpuNanos += cpuTime() - start;
+		}
+
+		@Override
+		public int read() throws IOException {
+			byte[] single = new byte[1];
+			return (read(single, 0, 1) < 0) ? -1 : (single[0] & 0xff);
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			long start = cpuTime();
+			int read = gzip.read(b, off, len);
+			cpuNanos += cpuTime() - start;
+
+			if (read < 0) {
+				finished = true;
+			} else {
+				uncompressedBytes += read;
+			}
+
+			return read;
+		}
+
+		@Override
+		public boolean isFinished() {
+			return finished;
+		}
+
+		@Override
+		public boolean isReady() {
+			return true;
+		}
+
+		@Override
+		public void setReadListener(ReadListener readListener) {
+			throw new UnsupportedOperationException("Compressed requests are read blocking");
+		}
+	}
+
+	/**
+	 * {@link CompressingOutputStream} holds the body back until it reaches the
+	 * threshold, and from then on deflates it.
+	 */
+	private static final class CompressingOutputStream extends ServletOutputStream {
+
+		final HttpServletResponse response;
+		final byte[] pending = new byte[BookStoreConstants.COMPRESSION_THRESHOLD];
+		int pendingCount = 0;
+		CountingOutputStream compressedOut = null;
+		ReleasableGZIPOutputStream gzip = null;
+		long uncompressedBytes = 0;
+		long cpuNanos = 0;
+		boolean finished = false;
+
+		CompressingOutputStream(HttpServletResponse response) {
+			this.response = response;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[] { (byte) b }, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			uncompressedBytes += len;
+
+			if (gzip == null) {
+				if (pendingCount + len < pending.length) {
+					System.arraycopy(b, off, pending, pendingCount, len);
+					pendingCount += len;
+					return;
+				}
+
+				// The headers are not sent yet, so the coding can still be set.
+				response.setHeader(HttpHeader.CONTENT_ENCODING.asString(), GZIP);
+				response.addHeader(HttpHeader.VARY.asString(), HttpHeader.ACCEPT_ENCODING.asString());
+				compressedOut = new CountingOutputStream(response.getOutputStream());
+				gzip = new ReleasableGZIPOutputStream(compressedOut);
+				deflate(pending, 0, pendingCount);
+				pendingCount = 0;
+			}
+
+			deflate(b, off, len);
+		}
+
+		private void deflate(byte[] b, int off, int len) throws IOException {
+			long start = cpuTime();
+			gzip.write(b, off, len);
+			cpuNanos += cpuTime() - start;
+		}
+
+		@Override
+		public void flush() throws IOException {
+			// A body held back stays so until it is finished.
+			if (gzip != null) {
+				gzip.flush();
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			finish();
+		}
+
+		void finish() throws IOException {
+			if (finished) {
+				return;
+			}
+
+			finished = true;
+
+			if (gzip != null) {
+				long start = cpuTime();
+
+				try {
+					gzip.finish();
+				} finally {
+					gzip.end();
+					cpuNanos += cpuTime() - start;
+				}
+			} else if (pendingCount > 0) {
+				response.getOutputStream().write(pending, 0, pendingCount);
+			}
+		}
+
+		@Override
+		public boolean isReady() {
+			return true;
+		}
+
+		@Override
+		public void setWriteListener(WriteListener writeListener) {
+			throw new UnsupportedOperationException("Compressed responses are written blocking");
+		}
+	}
+
+	/**
+	 * {@link ReleasableGZIPOutputStream} deflates at the fastest level, and can
+	 * release its deflater without closing the stream.
+	 */
+	private static final class ReleasableGZIPOutputStream extends GZIPOutputStream {
+
+		ReleasableGZIPOutputStream(OutputStream out) throws IOException {
+			super(out, BUFFER_SIZE);
+			def.setLevel(Deflater.BEST_SPEED);
+		}
+
+		void end() {
+			def.end();
+		}
+	}
+
+	/**
+	 * {@link ReleasableGZIPInputStream} can release its inflater without
+	 * closing the stream.
+	 */
+	private static final class ReleasableGZIPInputStream extends GZIPInputStream {
+
+		ReleasableGZIPInputStream(InputStream in) throws IOException {
+			super(in, BUFFER_SIZE);
+		}
+
+		void end() {
+			inf.end();
+		}
+	}
+
+	/**
+	 * {@link CountingOutputStream} counts the bytes written through it.
+	 */
+	private static final class CountingOutputStream extends FilterOutputStream {
+
+		long count = 0;
+
+		CountingOutputStream(OutputStream out) {
+			super(out);
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			out.write(b);
+			count++;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len);
+			count += len;
+		}
+	}
+
+	/**
+	 * {@link CountingInputStream} counts the bytes read through it.
+	 */
+	private static final class CountingInputStream extends FilterInputStream {
+
+		long count = 0;
+
+		CountingInputStream(InputStream in) {
+			super(in);
+		}
+
+		@Override
+		public int read() throws IOException {
+			int b = in.read();
+
+			if (b >= 0) {
+				count++;
+			}
+
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int read = in.read(b, off, len);
+
+			if (read > 0) {
+				count += read;
+			}
+
+			return read;
+		}
+	}
+}
@@ -1,27 +1,48 @@
 package com.acertainbookstore.server;
 
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.net.URLDecoder;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
+import javax.servlet.AsyncContext;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import com.acertainbookstore.business.*;
+import org.eclipse.jetty.http.HttpHeader;
 import org.eclipse.jetty.server.Request;
 import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.eclipse.jetty.server.handler.ContextHandler;
+import org.eclipse.jetty.server.handler.ContextHandlerCollection;
+import org.eclipse.jetty.util.log.Log;
+import org.eclipse.jetty.util.log.Logger;
 
-import com.acertainbookstore.utils.BookStoreKryoSerializer;
+import com.acertainbookstore.interfaces.BookStore;
 import com.acertainbookstore.interfaces.BookStoreSerializer;
-import com.acertainbookstore.utils.BookStoreXStreamSerializer;
+import com.acertainbookstore.interfaces.StockManager;
+import com.acertainbookstore.server.BookStoreHTTPCompression.CompressingResponse;
+import com.acertainbookstore.server.BookStoreHTTPCompression.DecompressingRequest;
+import com.acertainbookstore.utils.BookStoreBatchOperation;
 import com.acertainbookstore.utils.BookStoreConstants;
 import com.acertainbookstore.utils.BookStoreException;
 import com.acertainbookstore.utils.BookStoreMessageTag;
 import com.acertainbookstore.utils.BookStoreResponse;
+import com.acertainbookstore.utils.BookStoreSerializationFormat;
 import com.acertainbookstore.utils.BookStoreUtility;
-import com.esotericsoftware.kryo.io.Input;
 
 /**
  * {@link BookStoreHTTPMessageHandler} implements the message handler class
@@ -35,295 +56,391 @@ import com.esotericsoftware.kryo.io.Input;
  */
 public class BookStoreHTTPMessageHandler extends AbstractHandler {
 
+	/** The logger of the messages failing on the pools of the namespaces. */
+	private static final Logger LOG = Log.getLogger(BookStoreHTTPMessageHandler.class);
+
+	/**
+	 * The request attribute holding the admission control of a request, which
+	 * the messages of a batch are admitted by too.
+	 */
+	private static final String ADMISSION_CONTROL_ATTRIBUTE = BookStoreHTTPAdmissionControl.class.getName();
+
 	/** The book store. */
-	private CertainBookStore myBookStore = null;
+	private BookStore bookStore = null;
+
+	/** The stock manager. */
+	private StockManager stockManager = null;
 
-	/** The serializer. */
-	private static ThreadLocal<BookStoreSerializer> serializer;
+	/** The format of requests naming none. */
+	private final BookStoreSerializationFormat defaultFormat;
+
+	/**
+	 * The idle serializers of each format. They are pooled rather than kept
+	 * one per thread, since a virtual thread handles a single request.
+	 */
+	private final Map<BookStoreSerializationFormat, Queue<BookStoreSerializer>> serializers = new EnumMap<>(
+			BookStoreSerializationFormat.class);
+
+	/** Whether response bodies are compressed for clients accepting it. */
+	private final boolean compression;
+
+	/** The statistics of the compressed bodies. */
+	private final BookStoreCompressionStatistics compressionStatistics = new BookStoreCompressionStatistics();
+
+	/** The routes of the messages, by exact path. */
+	private final Map<String, Route> routes = new HashMap<>();
+
+	/**
+	 * The same routes, matched ignoring case, for the clients that do not
+	 * write the message tags in upper case.
+	 */
+	private final Map<String, Route> caseInsensitiveRoutes = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+
+	/** The serializer decoding the request being handled by the thread. */
+	private final ThreadLocal<BookStoreSerializer> requestSerializer = new ThreadLocal<>();
+
+	/** The serializer encoding the response being written by the thread. */
+	private final ThreadLocal<BookStoreSerializer> responseSerializer = new ThreadLocal<>();
+
+	/**
+	 * Instantiates a new {@link BookStoreHTTPMessageHandler} answering
+	 * requests naming no format in the one chosen by
+	 * {@link BookStoreSerializationFormat#fromSystemProperty()}.
+	 *
+	 * @param bookStore
+	 *            the book store
+	 * @param stockManager
+	 *            the stock manager
+	 */
+	public BookStoreHTTPMessageHandler(BookStore bookStore, StockManager stockManager) {
+		this(bookStore, stockManager, BookStoreSerializationFormat.fromSystemProperty());
+	}
 
 	/**
 	 * Instantiates a new {@link BookStoreHTTPMessageHandler}.
 	 *
 	 * @param bookStore
 	 *            the book store
+	 * @param stockManager
+	 *            the stock manager
+	 * @param defaultFormat
+	 *            the format of requests naming none
 	 */
-	public BookStoreHTTPMessageHandler(CertainBookStore bookStore) {
-		myBookStore = bookStore;
-
-		// Setup the type of serializer.
-		if (BookStoreConstants.BINARY_SERIALIZATION) {
-			serializer = ThreadLocal.withInitial(BookStoreKryoSerializer::new);
-		} else {
-			serializer = ThreadLocal.withInitial(BookStoreXStreamSerializer::new);
+	public BookStoreHTTPMessageHandler(BookStore bookStore, StockManager stockManager,
+			BookStoreSerializationFormat defaultFormat) {
+		this.bookStore = bookStore;
+		this.stockManager = stockManager;
+		this.defaultFormat = defaultFormat;
+
+		String compressionString = System.getProperty(BookStoreConstants.PROPERTY_KEY_COMPRESSION);
+		compression = (compressionString == null) || Boolean.parseBoolean(compressionString);
+
+		// Setup the routes once, rather than parsing every request URI.
+		for (BookStoreHTTPNamespace namespace : BookStoreHTTPNamespace.values()) {
+			for (BookStoreMessageTag messageTag : namespace.getMessageTags()) {
+				Route route = newRoute(namespace, messageTag);
+				routes.put(namespace.getPath(messageTag), route);
+				caseInsensitiveRoutes.put(namespace.getPath(messageTag), route);
+			}
+		}
+
+		// Setup the serializers of every format, so that clients can pick one.
+		for (BookStoreSerializationFormat format : BookStoreSerializationFormat.values()) {
+			serializers.put(format, new ConcurrentLinkedQueue<>());
 		}
 	}
 
-	/*
-	 * (non-Javadoc)
-	 * 
-	 * @see org.eclipse.jetty.server.Handler#handle(java.lang.String,
-	 * org.eclipse.jetty.server.Request, javax.servlet.http.HttpServletRequest,
-	 * javax.servlet.http.HttpServletResponse)
+	/**
+	 * Creates the route of a message of a namespace. The operation of the
+	 * route runs the message against the store both when it is sent alone and
+	 * when it is part of a batch.
+	 *
+	 * @param namespace
+	 *            the namespace
+	 * @param messageTag
+	 *            the message tag
+	 * @return the route
 	 */
-	public void handle(String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response)
-			throws IOException, ServletException {
-		BookStoreMessageTag messageTag;
-		String requestURI;
+	@SuppressWarnings("unchecked")
+	private Route newRoute(BookStoreHTTPNamespace namespace, BookStoreMessageTag messageTag) {
+		switch (messageTag) {
+		case REMOVEBOOKS:
+			return newRoute(namespace, messageTag, this::readBody,
+					(inputValue, bookStoreResponse) -> stockManager.removeBooks((Set<Integer>) inputValue));
 
-		response.setStatus(HttpServletResponse.SC_OK);
-		requestURI = request.getRequestURI();
-		// Need to do request multiplexing
-		if (!BookStoreUtility.isEmpty(requestURI) && requestURI.toLowerCase().startsWith("/stock")) {
-			// The request is from the store manager; more sophisticated.
-			// security features could be added here.
-			messageTag = BookStoreUtility.convertURItoMessageTag(requestURI.substring(6));
-		} else {
-			messageTag = BookStoreUtility.convertURItoMessageTag(requestURI);
-		}
+		case REMOVEALLBOOKS:
+			return newRoute(namespace, messageTag, InputReader.NONE,
+					(inputValue, bookStoreResponse) -> stockManager.removeAllBooks());
 
-		// The RequestURI before the switch.
-		if (messageTag == null) {
-			System.err.println("No message tag.");
-		} else {
-			switch (messageTag) {
-			case REMOVEBOOKS:
-				removeBooks(request, response);
-				break;
-
-			case REMOVEALLBOOKS:
-				removeAllBooks(response);
-				break;
-
-			case ADDBOOKS:
-				addBooks(request, response);
-				break;
-
-			case ADDCOPIES:
-				addCopies(request, response);
-				break;
-
-			case LISTBOOKS:
-				listBooks(response);
-				break;
-
-			case UPDATEEDITORPICKS:
-				updateEditorPicks(request, response);
-				break;
-
-			case BUYBOOKS:
-				buyBooks(request, response);
-				break;
-
-			case GETBOOKS:
-				getBooks(request, response);
-				break;
-
-			case GETEDITORPICKS:
-				getEditorPicks(request, response);
-				break;
-
-			case GETSTOCKBOOKSBYISBN:
-				getStockBooksByISBN(request, response);
-				break;
-
-			case GETTOPRATEBOOKS:
-				getTopRateBooks(request, response);
-				break;
-
-			case RATEBOOKS:
-				rateBooks(request, response);
-				break;
-
-			case GETBOOKSINDEMAND:
-				getBooksInDemand(response);
-				break;
-
-			default:
-				System.err.println("Unsupported message tag.");
-				break;
-			}
-		}
+		case ADDBOOKS:
+			return newRoute(namespace, messageTag, this::readBody,
+					(inputValue, bookStoreResponse) -> stockManager.addBooks((Set<StockBook>) inputValue));
 
-		// Mark the request as handled so that the HTTP response can be sent
-		baseRequest.setHandled(true);
+		case ADDCOPIES:
+			return newRoute(namespace, messageTag, this::readBody,
+					(inputValue, bookStoreResponse) -> stockManager.addCopies((Set<BookCopy>) inputValue));
+
+		case LISTBOOKS:
+			return newRoute(namespace, messageTag, InputReader.NONE,
+					(inputValue, bookStoreResponse) -> bookStoreResponse.setList(stockManager.getBooks()));
+
+		case UPDATEEDITORPICKS:
+			return newRoute(namespace, messageTag, this::readBody, (inputValue,
+					bookStoreResponse) -> stockManager.updateEditorPicks((Set<BookEditorPick>) inputValue));
+
+		case BUYBOOKS:
+			return newRoute(namespace, messageTag, this::readBody,
+					(inputValue, bookStoreResponse) -> bookStore.buyBooks((Set<BookCopy>) inputValue));
+
+		case GETBOOKS:
+			return newRoute(namespace, messageTag, this::readBody, (inputValue,
+					bookStoreResponse) -> bookStoreResponse.setList(bookStore.getBooks((Set<Integer>) inputValue)));
+
+		case GETEDITORPICKS:
+			return newRoute(namespace, messageTag, this::readNumBooks, (inputValue,
+					bookStoreResponse) -> bookStoreResponse.setList(bookStore.getEditorPicks((Integer) inputValue)));
+
+		case GETSTOCKBOOKSBYISBN:
+			return newRoute(namespace, messageTag, this::readBody, (inputValue, bookStoreResponse) -> bookStoreResponse
+					.setList(stockManager.getBooksByISBN((Set<Integer>) inputValue)));
+
+		case GETTOPRATEBOOKS:
+			return newRoute(namespace, messageTag, this::readNumBooks, (inputValue,
+					bookStoreResponse) -> bookStoreResponse.setList(bookStore.getTopRatedBooks((Integer) inputValue)));
+
+		case RATEBOOKS:
+			return newRoute(namespace, messageTag, this::readBody,
+					(inputValue, bookStoreResponse) -> bookStore.rateBooks((Set<BookRating>) inputValue));
+
+		case GETBOOKSINDEMAND:
+			return newRoute(namespace, messageTag, InputReader.NONE,
+					(inputValue, bookStoreResponse) -> bookStoreResponse.setList(stockManager.getBooksInDemand()));
+
+		case BATCH:
+			return new Route(namespace, messageTag, (request, response) -> batch(namespace, request, response), null);
+
+		case STREAMBOOKS:
+			return new Route(namespace, messageTag, (request, response) -> streamBooks(response), null);
+
+		default:
+			throw new IllegalArgumentException("Unsupported message tag " + messageTag);
+		}
 	}
 
 	/**
-	 * get books in demand.
+	 * Creates the route of a message that can be batched, whose action reads
+	 * its input value, runs its operation and writes the response.
 	 *
-	 * @param response
-	 *            the response
-	 * @throws IOException
-	 *             Signals that an I/O exception has occurred.
+	 * @param namespace
+	 *            the namespace
+	 * @param messageTag
+	 *            the message tag
+	 * @param inputReader
+	 *            the reader of the input value of a request
+	 * @param operation
+	 *            the operation
+	 * @return the route
 	 */
-	private void getBooksInDemand(HttpServletResponse response) throws IOException {
-		BookStoreResponse bookStoreResponse = new BookStoreResponse();
-		bookStoreResponse.setList(myBookStore.getBooksInDemand());
+	private Route newRoute(BookStoreHTTPNamespace namespace, BookStoreMessageTag messageTag, InputReader inputReader,
+			Operation operation) {
+		Operation checkedOperation = Operation.checked(messageTag, operation);
 
-		byte[] serializedResponseContent = serializer.get().serialize(bookStoreResponse);
-		response.getOutputStream().write(serializedResponseContent);
+		return new Route(namespace, messageTag, (request, response) -> {
+			BookStoreResponse bookStoreResponse = new BookStoreResponse();
+
+			try {
+				checkedOperation.run(inputReader.read(request), bookStoreResponse);
+			} catch (BookStoreException ex) {
+				bookStoreResponse.setException(ex);
+			}
+
+			responseSerializer.get().serialize(bookStoreResponse, response.getOutputStream());
+		}, checkedOperation);
 	}
 
 	/**
-	 * rate books.
+	 * Reads the input value of a request from its body.
 	 *
 	 * @param request
 	 *            the request
-	 * @param response
-	 *            the response
+	 * @return the input value
 	 * @throws IOException
 	 *             Signals that an I/O exception has occurred.
 	 */
-	private void rateBooks(HttpServletRequest request, HttpServletResponse response) throws IOException {
-		byte[] serializedRequestContent = getSerializedRequestContent(request);
-
-		Set<BookRating> bookCopiesToBuy = (Set<BookRating>) serializer.get().deserialize(serializedRequestContent);
-		BookStoreResponse bookStoreResponse = new BookStoreResponse();
-
-		try {
-			myBookStore.rateBooks(bookCopiesToBuy);
-		} catch (BookStoreException ex) {
-			bookStoreResponse.setException(ex);
-		}
-
-		byte[] serializedResponseContent = serializer.get().serialize(bookStoreResponse);
-		response.getOutputStream().write(serializedResponseContent);
+	private Object readBody(HttpServletRequest request) throws IOException {
+		return requestSerializer.get().deserialize(request.getInputStream());
 	}
 
 	/**
-	 * Gets the top rated picks.
+	 * Reads the number of books asked for from the parameters of a request.
 	 *
 	 * @param request
 	 *            the request
-	 * @param response
-	 *            the response
-	 * @throws IOException
-	 *             Signals that an I/O exception has occurred.
+	 * @return the number of books
+	 * @throws BookStoreException
+	 *             if the number is missing or not an integer
 	 */
-	private void getTopRateBooks(HttpServletRequest request, HttpServletResponse response) throws IOException {
-		String numBooksString = URLDecoder.decode(request.getParameter(BookStoreConstants.BOOK_NUM_PARAM), StandardCharsets.UTF_8);
-		BookStoreResponse bookStoreResponse = new BookStoreResponse();
+	private Object readNumBooks(HttpServletRequest request) throws BookStoreException {
+		String numBooksParameter = request.getParameter(BookStoreConstants.BOOK_NUM_PARAM);
 
-		try {
-			int numBooks = BookStoreUtility.convertStringToInt(numBooksString);
-			bookStoreResponse.setList(myBookStore.getTopRatedBooks(numBooks));
-		} catch (BookStoreException ex) {
-			bookStoreResponse.setException(ex);
+		if (numBooksParameter == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
 		}
 
-		byte[] serializedResponseContent = serializer.get().serialize(bookStoreResponse);
-		response.getOutputStream().write(serializedResponseContent);
+		String numBooksString = URLDecoder.decode(numBooksParameter, StandardCharsets.UTF_8);
+		return BookStoreUtility.convertStringToInt(numBooksString);
 	}
 
 	/**
-	 * Gets the stock books by ISBN.
+	 * Creates the context handlers of the namespaces, each routing only the
+	 * messages of its namespace, so that they can be configured separately.
 	 *
-	 * @param request
-	 *            the request
-	 * @param response
-	 *            the response
-	 * @throws IOException
-	 *             Signals that an I/O exception has occurred.
+	 * @return the context handlers
 	 */
-	@SuppressWarnings("unchecked")
-	private void getStockBooksByISBN(HttpServletRequest request, HttpServletResponse response) throws IOException {
-		byte[] serializedRequestContent = getSerializedRequestContent(request);
+	public ContextHandlerCollection createContextHandlers() {
+		return createContextHandlers(null);
+	}
 
-		Set<Integer> isbnSet = (Set<Integer>) serializer.get().deserialize(serializedRequestContent);
-		BookStoreResponse bookStoreResponse = new BookStoreResponse();
+	/**
+	 * Creates the context handlers of the namespaces, each routing only the
+	 * messages of its namespace, and handing them over to the pool of the
+	 * namespace so that the messages of one namespace cannot hold up those of
+	 * the other.
+	 *
+	 * @param admissionControl
+	 *            the pools of the namespaces, or null to handle the messages
+	 *            on the threads of the server
+	 * @return the context handlers
+	 */
+	public ContextHandlerCollection createContextHandlers(BookStoreHTTPAdmissionControl admissionControl) {
+		ContextHandlerCollection contexts = new ContextHandlerCollection();
 
-		try {
-			bookStoreResponse.setList(myBookStore.getBooksByISBN(isbnSet));
-		} catch (BookStoreException ex) {
-			bookStoreResponse.setException(ex);
+		for (BookStoreHTTPNamespace namespace : BookStoreHTTPNamespace.values()) {
+			ContextHandler context = new ContextHandler(namespace.getContextPath());
+			context.setHandler(new NamespaceHandler(namespace, admissionControl));
+			contexts.addHandler(context);
 		}
 
-		byte[] serializedResponseContent = serializer.get().serialize(bookStoreResponse);
-		response.getOutputStream().write(serializedResponseContent);
+		return contexts;
 	}
 
 	/**
-	 * Gets the editor picks.
+	 * Gets the route of a request.
 	 *
-	 * @param request
-	 *            the request
-	 * @param response
-	 *            the response
-	 * @throws IOException
-	 *             Signals that an I/O exception has occurred.
+	 * @param requestURI
+	 *            the request URI
+	 * @return the route, or null if no message is sent to the URI
 	 */
-	private void getEditorPicks(HttpServletRequest request, HttpServletResponse response) throws IOException {
-		String numBooksString = URLDecoder.decode(request.getParameter(BookStoreConstants.BOOK_NUM_PARAM), StandardCharsets.UTF_8);
-		BookStoreResponse bookStoreResponse = new BookStoreResponse();
-
-		try {
-			int numBooks = BookStoreUtility.convertStringToInt(numBooksString);
-			bookStoreResponse.setList(myBookStore.getEditorPicks(numBooks));
-		} catch (BookStoreException ex) {
-			bookStoreResponse.setException(ex);
+	private Route findRoute(String requestURI) {
+		if (requestURI == null) {
+			return null;
 		}
 
-		byte[] serializedResponseContent = serializer.get().serialize(bookStoreResponse);
-		response.getOutputStream().write(serializedResponseContent);
+		Route route = routes.get(requestURI);
+		return (route != null) ? route : caseInsensitiveRoutes.get(requestURI);
+	}
+
+	/**
+	 * Gets the statistics of the bodies compressed and decompressed.
+	 *
+	 * @return the compression statistics
+	 */
+	public BookStoreCompressionStatistics getCompressionStatistics() {
+		return compressionStatistics;
 	}
 
 	/**
-	 * Gets the books.
+	 * Chooses the format the content of a request is decoded with: the one
+	 * named by its Content-Type, or else the one it accepts as a response, or
+	 * else the default one.
 	 *
 	 * @param request
 	 *            the request
-	 * @param response
-	 *            the response
-	 * @throws IOException
-	 *             Signals that an I/O exception has occurred.
+	 * @return the format
 	 */
-	@SuppressWarnings("unchecked")
-	private void getBooks(HttpServletRequest request, HttpServletResponse response) throws IOException {
-		byte[] serializedRequestContent = getSerializedRequestContent(request);
-
-		Set<Integer> isbnSet = (Set<Integer>) serializer.get().deserialize(serializedRequestContent);
-		BookStoreResponse bookStoreResponse = new BookStoreResponse();
+	private BookStoreSerializationFormat negotiateRequestFormat(HttpServletRequest request) {
+		BookStoreSerializationFormat format = BookStoreSerializationFormat.fromContentType(request.getContentType());
 
-		try {
-			bookStoreResponse.setList(myBookStore.getBooks(isbnSet));
-		} catch (BookStoreException ex) {
-			bookStoreResponse.setException(ex);
+		if (format == null) {
+			format = acceptedFormat(request);
 		}
 
-		byte[] serializedResponseContent = serializer.get().serialize(bookStoreResponse);
-		response.getOutputStream().write(serializedResponseContent);
+		return (format == null) ? defaultFormat : format;
 	}
 
 	/**
-	 * Buys books.
+	 * Chooses the format the response to a request is encoded with: the first
+	 * of ours named by its Accept header, or else the one of its content, or
+	 * else the default one.
 	 *
 	 * @param request
 	 *            the request
-	 * @param response
-	 *            the response
-	 * @throws IOException
-	 *             Signals that an I/O exception has occurred.
+	 * @return the format
 	 */
-	@SuppressWarnings("unchecked")
-	private void buyBooks(HttpServletRequest request, HttpServletResponse response) throws IOException {
-		byte[] serializedRequestContent = getSerializedRequestContent(request);
+	private BookStoreSerializationFormat negotiateResponseFormat(HttpServletRequest request) {
+		BookStoreSerializationFormat format = acceptedFormat(request);
 
-		Set<BookCopy> bookCopiesToBuy = (Set<BookCopy>) serializer.get().deserialize(serializedRequestContent);
-		BookStoreResponse bookStoreResponse = new BookStoreResponse();
+		if (format == null) {
+			format = BookStoreSerializationFormat.fromContentType(request.getContentType());
+		}
 
-		try {
-			myBookStore.buyBooks(bookCopiesToBuy);
-		} catch (BookStoreException ex) {
-			bookStoreResponse.setException(ex);
+		return (format == null) ? defaultFormat : format;
+	}
+
+	private static BookStoreSerializationFormat acceptedFormat(HttpServletRequest request) {
+		String accept = request.getHeader(HttpHeader.ACCEPT.asString());
+
+		if (accept == null) {
+			return null;
 		}
 
-		byte[] serializedResponseContent = serializer.get().serialize(bookStoreResponse);
-		response.getOutputStream().write(serializedResponseContent);
+		for (String mediaRange : accept.split(",")) {
+			BookStoreSerializationFormat format = BookStoreSerializationFormat.fromContentType(mediaRange);
+
+			if (format != null) {
+				return format;
+			}
+		}
+
+		return null;
 	}
 
 	/**
-	 * Updates editor picks.
+	 * Takes an idle serializer of a format, or makes one if there is none.
 	 *
+	 * @param format
+	 *            the format
+	 * @return the serializer, to be given back with
+	 *         {@link #releaseSerializer(BookStoreSerializationFormat, BookStoreSerializer)}
+	 */
+	private BookStoreSerializer borrowSerializer(BookStoreSerializationFormat format) {
+		BookStoreSerializer idleSerializer = serializers.get(format).poll();
+		return (idleSerializer != null) ? idleSerializer : format.newSerializer();
+	}
+
+	private void releaseSerializer(BookStoreSerializationFormat format, BookStoreSerializer idleSerializer) {
+		serializers.get(format).offer(idleSerializer);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.eclipse.jetty.server.Handler#handle(java.lang.String,
+	 * org.eclipse.jetty.server.Request, javax.servlet.http.HttpServletRequest,
+	 * javax.servlet.http.HttpServletResponse)
+	 */
+	public void handle(String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response)
+			throws IOException, ServletException {
+		handle(findRoute(request.getRequestURI()), baseRequest, request, response);
+	}
+
+	/**
+	 * Handles a request along its route.
+	 *
+	 * @param route
+	 *            the route, or null if the request has none
+	 * @param baseRequest
+	 *            the Jetty request
 	 * @param request
 	 *            the request
 	 * @param response
@@ -331,43 +448,114 @@ public class BookStoreHTTPMessageHandler extends AbstractHandler {
 	 * @throws IOException
 	 *             Signals that an I/O exception has occurred.
 	 */
-	@SuppressWarnings("unchecked")
-	private void updateEditorPicks(HttpServletRequest request, HttpServletResponse response) throws IOException {
-		byte[] serializedRequestContent = getSerializedRequestContent(request);
+	private void handle(Route route, Request baseRequest, HttpServletRequest request, HttpServletResponse response)
+			throws IOException {
+		// Mark the request as handled so that the HTTP response can be sent
+		baseRequest.setHandled(true);
 
-		Set<BookEditorPick> mapEditorPicksValues = (Set<BookEditorPick>) serializer.get()
-				.deserialize(serializedRequestContent);
-		BookStoreResponse bookStoreResponse = new BookStoreResponse();
+		if (route == null) {
+			response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+			return;
+		}
+
+		BookStoreSerializationFormat requestFormat = negotiateRequestFormat(request);
+		BookStoreSerializationFormat responseFormat = negotiateResponseFormat(request);
+
+		// A request in a single format, the usual case, takes one serializer.
+		requestSerializer.set(borrowSerializer(requestFormat));
+		responseSerializer.set(
+				(responseFormat == requestFormat) ? requestSerializer.get() : borrowSerializer(responseFormat));
 
 		try {
-			myBookStore.updateEditorPicks(mapEditorPicksValues);
-		} catch (BookStoreException ex) {
-			bookStoreResponse.setException(ex);
-		}
+			handle(route, responseFormat, request, response);
+		} finally {
+			releaseSerializer(requestFormat, requestSerializer.get());
+
+			if (responseFormat != requestFormat) {
+				releaseSerializer(responseFormat, responseSerializer.get());
+			}
 
-		byte[] serializedResponseContent = serializer.get().serialize(bookStoreResponse);
-		response.getOutputStream().write(serializedResponseContent);
+			requestSerializer.remove();
+			responseSerializer.remove();
+		}
 	}
 
 	/**
-	 * Lists the books.
+	 * Handles a request along its route, with the serializers of its formats.
 	 *
+	 * @param route
+	 *            the route
+	 * @param format
+	 *            the format of the response
+	 * @param request
+	 *            the request
 	 * @param response
 	 *            the response
 	 * @throws IOException
 	 *             Signals that an I/O exception has occurred.
 	 */
-	private void listBooks(HttpServletResponse response) throws IOException {
-		BookStoreResponse bookStoreResponse = new BookStoreResponse();
-		bookStoreResponse.setList(myBookStore.getBooks());
+	private void handle(Route route, BookStoreSerializationFormat format, HttpServletRequest request,
+			HttpServletResponse response) throws IOException {
+		BookStoreMessageTag messageTag = route.messageTag;
+
+		response.setStatus(HttpServletResponse.SC_OK);
+		response.setContentType(format.getContentType());
+
+		String contentEncoding = request.getHeader(HttpHeader.CONTENT_ENCODING.asString());
+		DecompressingRequest decompressingRequest = null;
+		CompressingResponse compressingResponse = null;
+
+		if (contentEncoding != null && !contentEncoding.equalsIgnoreCase("identity")) {
+			if (!contentEncoding.equalsIgnoreCase(BookStoreHTTPCompression.GZIP)) {
+				response.setStatus(HttpServletResponse.SC_UNSUPPORTED_MEDIA_TYPE);
+				return;
+			}
+
+			decompressingRequest = new DecompressingRequest(request);
+			request = decompressingRequest;
+		}
+
+		if (compression) {
+			// Tells the clients they may compress their requests too.
+			response.setHeader(HttpHeader.ACCEPT_ENCODING.asString(), BookStoreHTTPCompression.GZIP);
+
+			if (BookStoreHTTPCompression.acceptsGzip(request)) {
+				compressingResponse = new CompressingResponse(response);
+				response = compressingResponse;
+			}
+		}
+
+		try {
+			route.action.handle(request, response);
+		} finally {
+			// The inflater and the deflater hold native memory, which must be
+			// released even when the message failed.
+			if (decompressingRequest != null) {
+				decompressingRequest.finish();
+
+				compressionStatistics.record(messageTag, decompressingRequest.getUncompressedBytes(),
+						decompressingRequest.getCompressedBytes(), decompressingRequest.getCpuNanos());
+			}
 
-		byte[] serializedResponseContent = serializer.get().serialize(bookStoreResponse);
-		response.getOutputStream().write(serializedResponseContent);
+			if (compressingResponse != null) {
+				compressingResponse.finish();
+
+				if (compressingResponse.isCompressed()) {
+					compressionStatistics.record(messageTag, compressingResponse.getUncompressedBytes(),
+							compressingResponse.getCompressedBytes(), compressingResponse.getCpuNanos());
+				}
+			}
+		}
 	}
 
 	/**
-	 * Adds the copies.
+	 * Handles a batch of messages in order, each with its own response, and
+	 * replies with the list of responses. A failed message does not stop the
+	 * following ones. A body that is not a list of messages fails the whole
+	 * batch with a single exception.
 	 *
+	 * @param namespace
+	 *            the namespace of the batch, which its messages must belong to
 	 * @param request
 	 *            the request
 	 * @param response
@@ -376,108 +564,317 @@ public class BookStoreHTTPMessageHandler extends AbstractHandler {
 	 *             Signals that an I/O exception has occurred.
 	 */
 	@SuppressWarnings("unchecked")
-	private void addCopies(HttpServletRequest request, HttpServletResponse response) throws IOException {
-		byte[] serializedRequestContent = getSerializedRequestContent(request);
+	private void batch(BookStoreHTTPNamespace namespace, HttpServletRequest request, HttpServletResponse response)
+			throws IOException {
+		Object inputValue = requestSerializer.get().deserialize(request.getInputStream());
+
+		if (!(inputValue instanceof List)
+				|| !((List<?>) inputValue).stream().allMatch(BookStoreBatchOperation.class::isInstance)) {
+			BookStoreResponse bookStoreResponse = new BookStoreResponse();
+			bookStoreResponse.setException(new BookStoreException("The batch" + BookStoreConstants.INVALID));
+			responseSerializer.get().serialize(bookStoreResponse, response.getOutputStream());
+			return;
+		}
 
-		Set<BookCopy> listBookCopies = (Set<BookCopy>) serializer.get().deserialize(serializedRequestContent);
-		BookStoreResponse bookStoreResponse = new BookStoreResponse();
+		List<BookStoreBatchOperation> operations = (List<BookStoreBatchOperation>) inputValue;
+		List<BookStoreResponse> responses = new ArrayList<>(operations.size());
+		BookStoreHTTPAdmissionControl admissionControl = (BookStoreHTTPAdmissionControl) request
+				.getAttribute(ADMISSION_CONTROL_ATTRIBUTE);
 
-		try {
-			myBookStore.addCopies(listBookCopies);
-		} catch (BookStoreException ex) {
-			bookStoreResponse.setException(ex);
+		for (BookStoreBatchOperation operation : operations) {
+			responses.add(execute(namespace, operation, admissionControl));
 		}
 
-		byte[] serializedResponseContent = serializer.get().serialize(bookStoreResponse);
-		response.getOutputStream().write(serializedResponseContent);
+		BookStoreResponse bookStoreResponse = new BookStoreResponse();
+		bookStoreResponse.setList(responses);
+
+		responseSerializer.get().serialize(bookStoreResponse, response.getOutputStream());
 	}
 
 	/**
-	 * Adds the books.
+	 * Executes one message of a batch.
 	 *
-	 * @param request
-	 *            the request
-	 * @param response
-	 *            the response
-	 * @throws IOException
-	 *             Signals that an I/O exception has occurred.
+	 * @param namespace
+	 *            the namespace of the batch
+	 * @param operation
+	 *            the message
+	 * @param admissionControl
+	 *            the admission control the message must pass, or null
+	 * @return the response to the message
 	 */
-	@SuppressWarnings("unchecked")
-	private void addBooks(HttpServletRequest request, HttpServletResponse response) throws IOException {
-		byte[] serializedRequestContent = getSerializedRequestContent(request);
-
-		Set<StockBook> newBooks = (Set<StockBook>) serializer.get().deserialize(serializedRequestContent);
+	private BookStoreResponse execute(BookStoreHTTPNamespace namespace, BookStoreBatchOperation operation,
+			BookStoreHTTPAdmissionControl admissionControl) {
 		BookStoreResponse bookStoreResponse = new BookStoreResponse();
 
 		try {
-			myBookStore.addBooks(newBooks);
+			if (operation.getMessageTag() == null) {
+				throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+			}
+
+			if (!namespace.getMessageTags().contains(operation.getMessageTag())) {
+				throw new BookStoreException(
+						"The message tag " + operation.getMessageTag() + " is not part of the " + namespace + " API");
+			}
+
+			if (admissionControl != null && !admissionControl.enterBatch(operation.getMessageTag())) {
+				throw new BookStoreException(
+						"The message tag " + operation.getMessageTag() + BookStoreConstants.OVERLOADED);
+			}
+
+			try {
+				Route route = routes.get(namespace.getPath(operation.getMessageTag()));
+
+				if (route.operation == null) {
+					throw new BookStoreException(
+							"The message tag " + operation.getMessageTag() + " cannot be batched");
+				}
+
+				route.operation.run(operation.getInputValue(), bookStoreResponse);
+			} finally {
+				if (admissionControl != null) {
+					admissionControl.leaveBatch(operation.getMessageTag());
+				}
+			}
 		} catch (BookStoreException ex) {
 			bookStoreResponse.setException(ex);
 		}
 
-		byte[] serializedResponseContent = serializer.get().serialize(bookStoreResponse);
-		response.getOutputStream().write(serializedResponseContent);
+		return bookStoreResponse;
 	}
 
 	/**
-	 * Removes all books.
+	 * Lists the books as a stream of chunks. Each chunk is copied from the
+	 * store by {@link StockManager#getBookChunks(int)} and written to the
+	 * output stream as soon as it is serialized, so that neither the books
+	 * nor their serialized list are ever all held in memory.
+	 *
+	 * Each chunk is a frame holding its length and a serialized
+	 * {@link BookStoreResponse} of at most
+	 * {@link BookStoreConstants#STREAM_CHUNK_SIZE} books; a frame of length 0
+	 * ends the stream. If the books cannot be listed, the only chunk holds the
+	 * exception.
 	 *
 	 * @param response
 	 *            the response
 	 * @throws IOException
 	 *             Signals that an I/O exception has occurred.
 	 */
-	private void removeAllBooks(HttpServletResponse response) throws IOException {
-		BookStoreResponse bookStoreResponse = new BookStoreResponse();
+	private void streamBooks(HttpServletResponse response) throws IOException {
+		DataOutputStream out = new DataOutputStream(response.getOutputStream());
+		Iterator<List<StockBook>> chunks;
 
 		try {
-			myBookStore.removeAllBooks();
+			chunks = stockManager.getBookChunks(BookStoreConstants.STREAM_CHUNK_SIZE);
 		} catch (BookStoreException ex) {
+			BookStoreResponse bookStoreResponse = new BookStoreResponse();
 			bookStoreResponse.setException(ex);
+			writeFrame(out, bookStoreResponse);
+			chunks = Collections.emptyIterator();
+		}
+
+		while (chunks.hasNext()) {
+			BookStoreResponse bookStoreResponse = new BookStoreResponse();
+			bookStoreResponse.setList(chunks.next());
+			writeFrame(out, bookStoreResponse);
 		}
 
-		byte[] serializedResponseContent = serializer.get().serialize(bookStoreResponse);
-		response.getOutputStream().write(serializedResponseContent);
+		out.writeInt(0);
+		out.flush();
 	}
 
 	/**
-	 * Removes the books.
+	 * Writes a response as a frame of a stream.
 	 *
-	 * @param request
-	 *            the request
-	 * @param response
+	 * @param out
+	 *            the output stream
+	 * @param bookStoreResponse
 	 *            the response
 	 * @throws IOException
 	 *             Signals that an I/O exception has occurred.
 	 */
-	@SuppressWarnings("unchecked")
-	private void removeBooks(HttpServletRequest request, HttpServletResponse response) throws IOException {
-		byte[] serializedRequestContent = getSerializedRequestContent(request);
+	private void writeFrame(DataOutputStream out, BookStoreResponse bookStoreResponse) throws IOException {
+		ByteBuffer serializedResponseContent = responseSerializer.get().serializeToBuffer(bookStoreResponse);
+		out.writeInt(serializedResponseContent.remaining());
+		out.write(serializedResponseContent.array(), serializedResponseContent.arrayOffset(),
+				serializedResponseContent.remaining());
+	}
 
-		Set<Integer> bookSet = (Set<Integer>) serializer.get().deserialize(serializedRequestContent);
-		BookStoreResponse bookStoreResponse = new BookStoreResponse();
+	/**
+	 * {@link Action} handles the messages of one tag.
+	 */
+	@FunctionalInterface
+	private interface Action {
+
+		/**
+		 * Handles a message.
+		 *
+		 * @param request
+		 *            the request
+		 * @param response
+		 *            the response
+		 * @throws IOException
+		 *             Signals that an I/O exception has occurred.
+		 */
+		void handle(HttpServletRequest request, HttpServletResponse response) throws IOException;
+	}
 
-		try {
-			myBookStore.removeBooks(bookSet);
-		} catch (BookStoreException ex) {
-			bookStoreResponse.setException(ex);
+	/**
+	 * {@link InputReader} reads the input value of a request.
+	 */
+	@FunctionalInterface
+	private interface InputReader {
+
+		/** The reader of the messages taking no input value. */
+		InputReader NONE = request -> null;
+
+		/**
+		 * Reads the input value of a request.
+		 *
+		 * @param request
+		 *            the request
+		 * @return the input value, or null if the message takes none
+		 * @throws IOException
+		 *             Signals that an I/O exception has occurred.
+		 * @throws BookStoreException
+		 *             if the input value is malformed
+		 */
+		Object read(HttpServletRequest request) throws IOException, BookStoreException;
+	}
+
+	/**
+	 * {@link Operation} runs the messages of one tag against the store.
+	 */
+	@FunctionalInterface
+	private interface Operation {
+
+		/**
+		 * Runs a message.
+		 *
+		 * @param inputValue
+		 *            the input value, or null if the message takes none
+		 * @param bookStoreResponse
+		 *            the response to fill in
+		 * @throws BookStoreException
+		 *             the book store exception
+		 */
+		void run(Object inputValue, BookStoreResponse bookStoreResponse) throws BookStoreException;
+
+		/**
+		 * Wraps an operation so that a missing or mistyped input value fails
+		 * the message with a {@link BookStoreException}, the same whether it
+		 * is sent alone or in a batch.
+		 *
+		 * @param messageTag
+		 *            the message tag
+		 * @param operation
+		 *            the operation
+		 * @return the wrapped operation
+		 */
+		static Operation checked(BookStoreMessageTag messageTag, Operation operation) {
+			return (inputValue, bookStoreResponse) -> {
+				try {
+					operation.run(inputValue, bookStoreResponse);
+				} catch (RuntimeException ex) {
+					throw new BookStoreException((inputValue == null) ? BookStoreConstants.NULL_INPUT
+							: "The input value of " + messageTag + BookStoreConstants.INVALID, ex);
+				}
+			};
 		}
+	}
+
+	/**
+	 * {@link Route} is where the messages sent to a path go.
+	 */
+	private static final class Route {
+
+		/** The namespace of the messages. */
+		final BookStoreHTTPNamespace namespace;
 
-		byte[] serializedResponseContent = serializer.get().serialize(bookStoreResponse);
-		response.getOutputStream().write(serializedResponseContent);
+		/** The tag of the messages. */
+		final BookStoreMessageTag messageTag;
+
+		/** The action handling the messages. */
+		final Action action;
+
+		/** The operation running the messages, or null if they cannot be batched. */
+		final Operation operation;
+
+		Route(BookStoreHTTPNamespace namespace, BookStoreMessageTag messageTag, Action action, Operation operation) {
+			this.namespace = namespace;
+			this.messageTag = messageTag;
+			this.action = action;
+			this.operation = operation;
+		}
 	}
 
 	/**
-	 * Gets the serialized request content.
-	 *
-	 * @param request the request
-	 * @return the serialized request content
-	 * @throws IOException Signals that an I/O exception has occurred.
+	 * {@link NamespaceHandler} handles the requests of the context of a
+	 * namespace, which are only routed to the messages of the namespace.
 	 */
-	private byte[] getSerializedRequestContent(HttpServletRequest request) throws IOException {
-		Input in = new Input(request.getInputStream());
-		byte[] serializedRequestContent = in.readBytes(request.getContentLength());
-		in.close();
-		return serializedRequestContent;
+	private final class NamespaceHandler extends AbstractHandler {
+
+		/** The namespace. */
+		private final BookStoreHTTPNamespace namespace;
+
+		/** The pools handling the messages, or null. */
+		private final BookStoreHTTPAdmissionControl admissionControl;
+
+		NamespaceHandler(BookStoreHTTPNamespace namespace, BookStoreHTTPAdmissionControl admissionControl) {
+			this.namespace = namespace;
+			this.admissionControl = admissionControl;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see org.eclipse.jetty.server.Handler#handle(java.lang.String,
+		 * org.eclipse.jetty.server.Request,
+		 * javax.servlet.http.HttpServletRequest,
+		 * javax.servlet.http.HttpServletResponse)
+		 */
+		@Override
+		public void handle(String target, Request baseRequest, HttpServletRequest request,
+				HttpServletResponse response) throws IOException {
+			Route route = findRoute(request.getRequestURI());
+
+			if (route == null || route.namespace != namespace) {
+				BookStoreHTTPMessageHandler.this.handle((Route) null, baseRequest, request, response);
+				return;
+			}
+
+			if (admissionControl == null) {
+				BookStoreHTTPMessageHandler.this.handle(route, baseRequest, request, response);
+				return;
+			}
+
+			baseRequest.setHandled(true);
+			AsyncContext async = request.startAsync();
+			async.setTimeout(0);
+
+			request.setAttribute(ADMISSION_CONTROL_ATTRIBUTE, admissionControl);
+
+			boolean admitted = admissionControl.submit(namespace, route.messageTag, () -> {
+				try {
+					BookStoreHTTPMessageHandler.this.handle(route, baseRequest, request, response);
+				} catch (IOException | RuntimeException ex) {
+					// Jetty no longer sees the exception, so it is logged here.
+					LOG.warn("Failed to handle " + request.getRequestURI(), ex);
+
+					if (!response.isCommitted()) {
+						response.reset();
+						response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+					}
+				} finally {
+					async.complete();
+				}
+			});
+
+			if (!admitted) {
+				// Fail fast, so that the client backs off instead of piling up.
+				response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+				response.setHeader(HttpHeader.RETRY_AFTER.asString(), "1");
+				async.complete();
+			}
+		}
 	}
 }
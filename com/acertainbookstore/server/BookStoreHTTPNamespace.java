@@ -0,0 +1,96 @@
+package com.acertainbookstore.server;
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Set;
+
+import com.acertainbookstore.interfaces.BookStore;
+import com.acertainbookstore.interfaces.StockManager;
+import com.acertainbookstore.utils.BookStoreMessageTag;
+
+/**
+ * {@link BookStoreHTTPNamespace} lists the APIs the bookstore server exposes,
+ * each under its own context path and with its own messages.
+ */
+public enum BookStoreHTTPNamespace {
+
+	/** The customer API, of the {@link BookStore}. */
+	CUSTOMER("/", EnumSet.of(BookStoreMessageTag.BUYBOOKS, BookStoreMessageTag.GETBOOKS,
+			BookStoreMessageTag.GETEDITORPICKS, BookStoreMessageTag.RATEBOOKS, BookStoreMessageTag.GETTOPRATEBOOKS,
+			BookStoreMessageTag.BATCH), 64, 1024),
+
+	/** The manager API, of the {@link StockManager}. */
+	STOCK("/stock", EnumSet.of(BookStoreMessageTag.ADDBOOKS, BookStoreMessageTag.ADDCOPIES,
+			BookStoreMessageTag.LISTBOOKS, BookStoreMessageTag.UPDATEEDITORPICKS, BookStoreMessageTag.GETBOOKSINDEMAND,
+			BookStoreMessageTag.REMOVEALLBOOKS, BookStoreMessageTag.REMOVEBOOKS,
+			BookStoreMessageTag.GETSTOCKBOOKSBYISBN, BookStoreMessageTag.STREAMBOOKS, BookStoreMessageTag.BATCH), 8,
+			64);
+
+	/** The context path. */
+	private final String contextPath;
+
+	/** The messages of the API. */
+	private final Set<BookStoreMessageTag> messageTags;
+
+	/** The default number of threads handling the requests. */
+	private final int defaultThreads;
+
+	/** The default number of requests waiting for a thread. */
+	private final int defaultQueueCapacity;
+
+	private BookStoreHTTPNamespace(String contextPath, Set<BookStoreMessageTag> messageTags, int defaultThreads,
+			int defaultQueueCapacity) {
+		this.contextPath = contextPath;
+		this.messageTags = Collections.unmodifiableSet(messageTags);
+		this.defaultThreads = defaultThreads;
+		this.defaultQueueCapacity = defaultQueueCapacity;
+	}
+
+	/**
+	 * Gets the context path of the API.
+	 *
+	 * @return the context path
+	 */
+	public String getContextPath() {
+		return contextPath;
+	}
+
+	/**
+	 * Gets the messages of the API.
+	 *
+	 * @return the message tags
+	 */
+	public Set<BookStoreMessageTag> getMessageTags() {
+		return messageTags;
+	}
+
+	/**
+	 * Gets the default number of threads handling the requests of the API.
+	 *
+	 * @return the number of threads
+	 */
+	public int getDefaultThreads() {
+		return defaultThreads;
+	}
+
+	/**
+	 * Gets the default number of requests of the API waiting for a thread,
+	 * beyond which they are turned away.
+	 *
+	 * @return the queue capacity
+	 */
+	public int getDefaultQueueCapacity() {
+		return defaultQueueCapacity;
+	}
+
+	/**
+	 * Gets the path a message of the API is sent to.
+	 *
+	 * @param messageTag
+	 *            the message tag
+	 * @return the path
+	 */
+	public String getPath(BookStoreMessageTag messageTag) {
+		return (contextPath.endsWith("/") ? contextPath : contextPath + "/") + messageTag;
+	}
+}
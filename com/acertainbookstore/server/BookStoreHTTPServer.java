@@ -1,9 +1,14 @@
 package com.acertainbookstore.server;
 
-import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
 
 import com.acertainbookstore.business.CertainBookStore;
+import com.acertainbookstore.business.ColumnarCertainBookStore;
+import com.acertainbookstore.business.OffHeapCertainBookStore;
 import com.acertainbookstore.utils.BookStoreConstants;
+import com.acertainbookstore.utils.BookStoreSerializationFormat;
 
 /**
  * Starts the {@link BookStoreHTTPServer} that the clients will communicate
@@ -11,10 +16,21 @@ import com.acertainbookstore.utils.BookStoreConstants;
  */
 public class BookStoreHTTPServer {
 
-	/** The Constant defaultListenOnPort. */
-	private static final int DEFAULT_PORT = 8081;
-	private static final int MIN_THREADPOOL_SIZE = 10;
-	private static final int MAX_THREADPOOL_SIZE = 100;
+	/** Whether the columnar store serves the requests; overridden by the
+	 *  columnar property. */
+	private static final boolean COLUMNAR = false;
+
+	/** Whether the off-heap store serves the requests; overridden by the
+	 *  offheap property. */
+	private static final boolean OFF_HEAP = false;
+
+	/** How long the write-ahead log waits for more mutations before each
+	 *  fsync, in microseconds; overridden by the walbatchwindow property. */
+	private static final long WAL_BATCH_WINDOW_MICROS = 0;
+
+	/** The time between two background checkpoints, in seconds; overridden
+	 *  by the checkpointinterval property. */
+	private static final long CHECKPOINT_INTERVAL_SECONDS = 300;
 
 	/**
 	 * Prevents the instantiation of a new {@link BookStoreHTTPServer}.
@@ -30,21 +46,93 @@ public class BookStoreHTTPServer {
 	 *            the arguments
 	 */
 	public static void main(String[] args) {
-		CertainBookStore bookStore = new CertainBookStore();
-		int listenOnPort = DEFAULT_PORT;
+		long startTime = System.nanoTime();
+
+		String columnarString = System.getProperty(BookStoreConstants.PROPERTY_KEY_COLUMNAR);
+		boolean columnar = (columnarString != null) ? Boolean.parseBoolean(columnarString) : COLUMNAR;
+
+		String offHeapString = System.getProperty(BookStoreConstants.PROPERTY_KEY_OFF_HEAP);
+		boolean offHeap = (offHeapString != null) ? Boolean.parseBoolean(offHeapString) : OFF_HEAP;
+
+		BookStoreSerializationFormat serializationFormat = BookStoreSerializationFormat.fromSystemProperty();
+		BookStoreHTTPMessageHandler handler;
+
+		if (offHeap) {
+			OffHeapCertainBookStore bookStore = new OffHeapCertainBookStore();
+			handler = new BookStoreHTTPMessageHandler(bookStore, bookStore, serializationFormat);
+		} else if (columnar) {
+			ColumnarCertainBookStore bookStore = new ColumnarCertainBookStore();
+			handler = new BookStoreHTTPMessageHandler(bookStore, bookStore, serializationFormat);
+		} else {
+			CertainBookStore bookStore = createCertainBookStore();
+
+			if (bookStore == null) {
+				return;
+			}
+
+			handler = new BookStoreHTTPMessageHandler(bookStore, bookStore, serializationFormat);
+		}
+
+		System.out.println("Bookstore ready in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime) + " ms");
+
+		BookStoreHTTPAdmissionControl admissionControl = BookStoreHTTPAdmissionControl.fromSystemProperties();
+		BookStoreCompressionStatistics compressionStatistics = handler.getCompressionStatistics();
+		Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+			System.out.print("Compressed bodies:" + System.lineSeparator() + compressionStatistics);
+			System.out.print("Rejected messages:" + System.lineSeparator() + admissionControl);
+		}));
+
+		// The threads of the server only read and write the messages, which the
+		// pools of the namespaces handle.
+		BookStoreHTTPServerConfiguration configuration = BookStoreHTTPServerConfiguration.fromSystemProperties();
+		System.out.println("Server configuration: " + configuration);
+		BookStoreHTTPServerUtility.createServer(configuration, handler.createContextHandlers(admissionControl));
+	}
+
+	/**
+	 * Creates the {@link CertainBookStore}, durable if the wal property names
+	 * a write-ahead log, and recovered from a checkpoint if the checkpoint
+	 * property names one.
+	 *
+	 * @return the bookstore, or null if the log could not be opened
+	 */
+	private static CertainBookStore createCertainBookStore() {
+		String walString = System.getProperty(BookStoreConstants.PROPERTY_KEY_WAL);
+
+		if (walString == null) {
+			return new CertainBookStore();
+		}
 
-		BookStoreHTTPMessageHandler handler = new BookStoreHTTPMessageHandler(bookStore);
-		String serverPortString = System.getProperty(BookStoreConstants.PROPERTY_KEY_SERVER_PORT);
+		long batchWindowMicros = WAL_BATCH_WINDOW_MICROS;
+		String batchWindowString = System.getProperty(BookStoreConstants.PROPERTY_KEY_WAL_BATCH_WINDOW);
 
-		if (serverPortString != null) {
+		if (batchWindowString != null) {
 			try {
-				listenOnPort = Integer.parseInt(serverPortString);
+				batchWindowMicros = Long.parseLong(batchWindowString);
 			} catch (NumberFormatException ex) {
-				System.err.println("Unsupported message tag");
+				System.err.println("Unsupported write-ahead log batch window");
 			}
 		}
 
-		QueuedThreadPool threadpool = new QueuedThreadPool(MAX_THREADPOOL_SIZE, MIN_THREADPOOL_SIZE);
-		BookStoreHTTPServerUtility.createServer(listenOnPort, handler, threadpool);
+		String checkpointString = System.getProperty(BookStoreConstants.PROPERTY_KEY_CHECKPOINT);
+		File checkpointFile = (checkpointString != null) ? new File(checkpointString) : null;
+		long checkpointIntervalSeconds = CHECKPOINT_INTERVAL_SECONDS;
+		String checkpointIntervalString = System.getProperty(BookStoreConstants.PROPERTY_KEY_CHECKPOINT_INTERVAL);
+
+		if (checkpointIntervalString != null) {
+			try {
+				checkpointIntervalSeconds = Long.parseLong(checkpointIntervalString);
+			} catch (NumberFormatException ex) {
+				System.err.println("Unsupported checkpoint interval");
+			}
+		}
+
+		try {
+			return new CertainBookStore(new File(walString), batchWindowMicros, checkpointFile,
+					checkpointIntervalSeconds);
+		} catch (IOException ex) {
+			System.err.println("Could not open the write-ahead log " + walString + ": " + ex.getMessage());
+			return null;
+		}
 	}
 }
@@ -0,0 +1,393 @@
+package com.acertainbookstore.server;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+
+import com.acertainbookstore.utils.BookStoreConstants;
+
+/**
+ * {@link BookStoreHTTPServerConfiguration} holds the settings of the Jetty
+ * server: its port, its thread pool, and the tuning of its connector, which
+ * speaks HTTP/1.1 and, unless turned off, HTTP/2 cleartext.
+ *
+ * The settings are read from a properties file named by
+ * {@link BookStoreConstants#PROPERTY_KEY_SERVER_CONFIG}, if any, and from the
+ * system properties of the same keys, which take precedence. A setting that
+ * is neither keeps its default, which is also what Jetty picks where it has
+ * a default of its own.
+ */
+public final class BookStoreHTTPServerConfiguration {
+
+	/** The default port. */
+	public static final int DEFAULT_PORT = 8081;
+
+	/** The default least threads of the server. */
+	public static final int DEFAULT_MIN_THREADS = 10;
+
+	/** The default most threads of the server. */
+	public static final int DEFAULT_MAX_THREADS = 100;
+
+	/** Lets Jetty choose a number of threads. */
+	public static final int JETTY_DEFAULT = -1;
+
+	/** The default idle timeout, in milliseconds. */
+	public static final long DEFAULT_IDLE_TIMEOUT_MILLIS = 30000;
+
+	/** The default output buffer size, in bytes. */
+	public static final int DEFAULT_OUTPUT_BUFFER_SIZE = 32 * 1024;
+
+	/**
+	 * The default most HTTP/2 requests in flight on one connection, above the
+	 * ones a proxy puts on it.
+	 */
+	public static final int DEFAULT_MAX_CONCURRENT_STREAMS = 1024;
+
+	private int port = DEFAULT_PORT;
+	private int minThreads = DEFAULT_MIN_THREADS;
+	private int maxThreads = DEFAULT_MAX_THREADS;
+	private int reservedThreads = JETTY_DEFAULT;
+	private int acceptors = JETTY_DEFAULT;
+	private int selectors = JETTY_DEFAULT;
+	private int acceptQueueSize = 0;
+	private long idleTimeoutMillis = DEFAULT_IDLE_TIMEOUT_MILLIS;
+	private int outputBufferSize = DEFAULT_OUTPUT_BUFFER_SIZE;
+	private boolean persistentConnections = true;
+	private int maxConcurrentStreams = DEFAULT_MAX_CONCURRENT_STREAMS;
+
+	/**
+	 * Instantiates a new {@link BookStoreHTTPServerConfiguration} with the
+	 * default settings.
+	 */
+	public BookStoreHTTPServerConfiguration() {
+		// The fields hold the defaults.
+	}
+
+	/**
+	 * Instantiates a new {@link BookStoreHTTPServerConfiguration} with the
+	 * settings of another, to be changed from there.
+	 *
+	 * @param configuration
+	 *            the configuration copied
+	 */
+	public BookStoreHTTPServerConfiguration(BookStoreHTTPServerConfiguration configuration) {
+		port = configuration.port;
+		minThreads = configuration.minThreads;
+		maxThreads = configuration.maxThreads;
+		reservedThreads = configuration.reservedThreads;
+		acceptors = configuration.acceptors;
+		selectors = configuration.selectors;
+		acceptQueueSize = configuration.acceptQueueSize;
+		idleTimeoutMillis = configuration.idleTimeoutMillis;
+		outputBufferSize = configuration.outputBufferSize;
+		persistentConnections = configuration.persistentConnections;
+		maxConcurrentStreams = configuration.maxConcurrentStreams;
+	}
+
+	/**
+	 * Creates a {@link BookStoreHTTPServerConfiguration} from the properties
+	 * file named by {@link BookStoreConstants#PROPERTY_KEY_SERVER_CONFIG}, if
+	 * any, overridden by the system properties.
+	 *
+	 * @return the configuration
+	 */
+	public static BookStoreHTTPServerConfiguration fromSystemProperties() {
+		Properties properties = new Properties();
+		String serverConfigString = System.getProperty(BookStoreConstants.PROPERTY_KEY_SERVER_CONFIG);
+
+		if (serverConfigString != null) {
+			try (InputStream in = new FileInputStream(serverConfigString)) {
+				properties.load(in);
+			} catch (IOException ex) {
+				System.err.println("Could not read the server configuration " + serverConfigString + ": "
+						+ ex.getMessage());
+			}
+		}
+
+		properties.putAll(System.getProperties());
+		return fromProperties(properties);
+	}
+
+	/**
+	 * Creates a {@link BookStoreHTTPServerConfiguration} from properties.
+	 *
+	 * @param properties
+	 *            the properties, under the keys of {@link BookStoreConstants}
+	 * @return the configuration
+	 */
+	public static BookStoreHTTPServerConfiguration fromProperties(Properties properties) {
+		BookStoreHTTPServerConfiguration configuration = new BookStoreHTTPServerConfiguration();
+
+		configuration.setPort(getInt(properties, BookStoreConstants.PROPERTY_KEY_SERVER_PORT, configuration.port));
+		configuration.setMinThreads(
+				getInt(properties, BookStoreConstants.PROPERTY_KEY_MIN_THREADS, configuration.minThreads));
+		configuration.setMaxThreads(
+				getInt(properties, BookStoreConstants.PROPERTY_KEY_MAX_THREADS, configuration.maxThreads));
+		configuration.setReservedThreads(
+				getInt(properties, BookStoreConstants.PROPERTY_KEY_RESERVED_THREADS, configuration.reservedThreads));
+		configuration.setAcceptors(
+				getInt(properties, BookStoreConstants.PROPERTY_KEY_ACCEPTORS, configuration.acceptors));
+		configuration.setSelectors(
+				getInt(properties, BookStoreConstants.PROPERTY_KEY_SELECTORS, configuration.selectors));
+		configuration.setAcceptQueueSize(
+				getInt(properties, BookStoreConstants.PROPERTY_KEY_ACCEPT_QUEUE_SIZE, configuration.acceptQueueSize));
+		configuration.setIdleTimeoutMillis(
+				getLong(properties, BookStoreConstants.PROPERTY_KEY_IDLE_TIMEOUT, configuration.idleTimeoutMillis));
+		configuration.setOutputBufferSize(getInt(properties, BookStoreConstants.PROPERTY_KEY_OUTPUT_BUFFER_SIZE,
+				configuration.outputBufferSize));
+		configuration.setMaxConcurrentStreams(getInt(properties,
+				BookStoreConstants.PROPERTY_KEY_MAX_CONCURRENT_STREAMS, configuration.maxConcurrentStreams));
+
+		String persistentConnectionsString = properties
+				.getProperty(BookStoreConstants.PROPERTY_KEY_PERSISTENT_CONNECTIONS);
+
+		if (persistentConnectionsString != null) {
+			configuration.setPersistentConnections(Boolean.parseBoolean(persistentConnectionsString));
+		}
+
+		return configuration;
+	}
+
+	private static int getInt(Properties properties, String key, int defaultValue) {
+		return (int) getLong(properties, key, defaultValue);
+	}
+
+	private static long getLong(Properties properties, String key, long defaultValue) {
+		String valueString = properties.getProperty(key);
+
+		if (valueString != null) {
+			try {
+				return Long.parseLong(valueString.trim());
+			} catch (NumberFormatException ex) {
+				System.err.println("Unsupported value " + valueString + " of " + key);
+			}
+		}
+
+		return defaultValue;
+	}
+
+	/**
+	 * Gets the port.
+	 *
+	 * @return the port
+	 */
+	public int getPort() {
+		return port;
+	}
+
+	/**
+	 * Sets the port.
+	 *
+	 * @param port
+	 *            the port
+	 */
+	public void setPort(int port) {
+		this.port = port;
+	}
+
+	/**
+	 * Gets the least threads of the server.
+	 *
+	 * @return the least threads
+	 */
+	public int getMinThreads() {
+		return minThreads;
+	}
+
+	/**
+	 * Sets the least threads of the server.
+	 *
+	 * @param minThreads
+	 *            the least threads
+	 */
+	public void setMinThreads(int minThreads) {
+		this.minThreads = minThreads;
+	}
+
+	/**
+	 * Gets the most threads of the server.
+	 *
+	 * @return the most threads
+	 */
+	public int getMaxThreads() {
+		return maxThreads;
+	}
+
+	/**
+	 * Sets the most threads of the server.
+	 *
+	 * @param maxThreads
+	 *            the most threads
+	 */
+	public void setMaxThreads(int maxThreads) {
+		this.maxThreads = maxThreads;
+	}
+
+	/**
+	 * Gets the threads kept ready to take over a connection.
+	 *
+	 * @return the reserved threads, or {@link #JETTY_DEFAULT}
+	 */
+	public int getReservedThreads() {
+		return reservedThreads;
+	}
+
+	/**
+	 * Sets the threads kept ready to take over a connection.
+	 *
+	 * @param reservedThreads
+	 *            the reserved threads, or {@link #JETTY_DEFAULT}
+	 */
+	public void setReservedThreads(int reservedThreads) {
+		this.reservedThreads = reservedThreads;
+	}
+
+	/**
+	 * Gets the threads accepting connections.
+	 *
+	 * @return the acceptors, or {@link #JETTY_DEFAULT}
+	 */
+	public int getAcceptors() {
+		return acceptors;
+	}
+
+	/**
+	 * Sets the threads accepting connections.
+	 *
+	 * @param acceptors
+	 *            the acceptors, or {@link #JETTY_DEFAULT}
+	 */
+	public void setAcceptors(int acceptors) {
+		this.acceptors = acceptors;
+	}
+
+	/**
+	 * Gets the threads selecting the ready connections.
+	 *
+	 * @return the selectors, or {@link #JETTY_DEFAULT}
+	 */
+	public int getSelectors() {
+		return selectors;
+	}
+
+	/**
+	 * Sets the threads selecting the ready connections.
+	 *
+	 * @param selectors
+	 *            the selectors, or {@link #JETTY_DEFAULT}
+	 */
+	public void setSelectors(int selectors) {
+		this.selectors = selectors;
+	}
+
+	/**
+	 * Gets the backlog of connections waiting to be accepted.
+	 *
+	 * @return the accept queue size, 0 for the one of the operating system
+	 */
+	public int getAcceptQueueSize() {
+		return acceptQueueSize;
+	}
+
+	/**
+	 * Sets the backlog of connections waiting to be accepted.
+	 *
+	 * @param acceptQueueSize
+	 *            the accept queue size, 0 for the one of the operating system
+	 */
+	public void setAcceptQueueSize(int acceptQueueSize) {
+		this.acceptQueueSize = acceptQueueSize;
+	}
+
+	/**
+	 * Gets how long an idle connection is kept open.
+	 *
+	 * @return the idle timeout, in milliseconds
+	 */
+	public long getIdleTimeoutMillis() {
+		return idleTimeoutMillis;
+	}
+
+	/**
+	 * Sets how long an idle connection is kept open.
+	 *
+	 * @param idleTimeoutMillis
+	 *            the idle timeout, in milliseconds
+	 */
+	public void setIdleTimeoutMillis(long idleTimeoutMillis) {
+		this.idleTimeoutMillis = idleTimeoutMillis;
+	}
+
+	/**
+	 * Gets the bytes of a response buffered before they are sent.
+	 *
+	 * @return the output buffer size, in bytes
+	 */
+	public int getOutputBufferSize() {
+		return outputBufferSize;
+	}
+
+	/**
+	 * Sets the bytes of a response buffered before they are sent.
+	 *
+	 * @param outputBufferSize
+	 *            the output buffer size, in bytes
+	 */
+	public void setOutputBufferSize(int outputBufferSize) {
+		this.outputBufferSize = outputBufferSize;
+	}
+
+	/**
+	 * Checks whether connections are kept open between HTTP/1.1 requests.
+	 *
+	 * @return true if they are
+	 */
+	public boolean isPersistentConnections() {
+		return persistentConnections;
+	}
+
+	/**
+	 * Sets whether connections are kept open between HTTP/1.1 requests.
+	 *
+	 * @param persistentConnections
+	 *            true to keep them open
+	 */
+	public void setPersistentConnections(boolean persistentConnections) {
+		this.persistentConnections = persistentConnections;
+	}
+
+	/**
+	 * Gets the most HTTP/2 requests in flight on one connection.
+	 *
+	 * @return the most concurrent streams, 0 if HTTP/2 is off
+	 */
+	public int getMaxConcurrentStreams() {
+		return maxConcurrentStreams;
+	}
+
+	/**
+	 * Sets the most HTTP/2 requests in flight on one connection.
+	 *
+	 * @param maxConcurrentStreams
+	 *            the most concurrent streams, 0 to turn HTTP/2 off
+	 */
+	public void setMaxConcurrentStreams(int maxConcurrentStreams) {
+		this.maxConcurrentStreams = maxConcurrentStreams;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		// Spaces rather than commas, so that it fits in a column of a CSV file.
+		return "port=" + port + " threads=" + minThreads + ".." + maxThreads + " reservedThreads=" + reservedThreads
+				+ " acceptors=" + acceptors + " selectors=" + selectors + " acceptQueueSize=" + acceptQueueSize
+				+ " idleTimeout=" + idleTimeoutMillis + "ms outputBufferSize=" + outputBufferSize
+				+ " persistentConnections=" + persistentConnections + " maxConcurrentStreams="
+				+ maxConcurrentStreams;
+	}
+}
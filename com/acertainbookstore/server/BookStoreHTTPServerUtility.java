@@ -4,6 +4,10 @@ import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.UnknownHostException;
 
+import org.eclipse.jetty.http2.server.HTTP2CServerConnectionFactory;
+import org.eclipse.jetty.server.Handler;
+import org.eclipse.jetty.server.HttpConfiguration;
+import org.eclipse.jetty.server.HttpConnectionFactory;
 import org.eclipse.jetty.server.Server;
 import org.eclipse.jetty.server.ServerConnector;
 import org.eclipse.jetty.server.handler.AbstractHandler;
@@ -21,6 +25,77 @@ public class BookStoreHTTPServerUtility {
 		// Prevent instances from being created.
 	}
 
+	/**
+	 * Creates a server configured by a {@link BookStoreHTTPServerConfiguration}
+	 * and blocks the calling thread.
+	 *
+	 * @param configuration
+	 *            the configuration
+	 * @param handler
+	 *            the handler
+	 */
+	public static void createServer(BookStoreHTTPServerConfiguration configuration, Handler handler) {
+		try {
+			startServer(configuration, handler).join();
+		} catch (Exception ex) {
+			ex.printStackTrace();
+		}
+	}
+
+	/**
+	 * Starts a server configured by a {@link BookStoreHTTPServerConfiguration}
+	 * without blocking the calling thread.
+	 *
+	 * @param configuration
+	 *            the configuration
+	 * @param handler
+	 *            the handler
+	 * @return the started server, which the caller stops
+	 * @throws Exception
+	 *             if the server could not be started
+	 */
+	public static Server startServer(BookStoreHTTPServerConfiguration configuration, Handler handler)
+			throws Exception {
+		QueuedThreadPool threadpool = new QueuedThreadPool(configuration.getMaxThreads(),
+				configuration.getMinThreads());
+		threadpool.setReservedThreads(configuration.getReservedThreads());
+		Server server = new Server(threadpool);
+
+		HttpConfiguration httpConfiguration = new HttpConfiguration();
+		httpConfiguration.setOutputBufferSize(configuration.getOutputBufferSize());
+		httpConfiguration.setPersistentConnectionsEnabled(configuration.isPersistentConnections());
+
+		HttpConnectionFactory http1 = new HttpConnectionFactory(httpConfiguration);
+		ServerConnector connector;
+
+		if (configuration.getMaxConcurrentStreams() > 0) {
+			// The clients knowing the server speaks h2c start with its preface,
+			// which HTTP/1.1 hands over to HTTP/2 on the same port.
+			HTTP2CServerConnectionFactory http2c = new HTTP2CServerConnectionFactory(httpConfiguration);
+			http2c.setMaxConcurrentStreams(configuration.getMaxConcurrentStreams());
+			connector = new ServerConnector(server, configuration.getAcceptors(), configuration.getSelectors(),
+					http1, http2c);
+		} else {
+			connector = new ServerConnector(server, configuration.getAcceptors(), configuration.getSelectors(),
+					http1);
+		}
+
+		connector.setPort(configuration.getPort());
+		connector.setAcceptQueueSize(configuration.getAcceptQueueSize());
+		connector.setIdleTimeout(configuration.getIdleTimeoutMillis());
+		server.addConnector(connector);
+		server.setHandler(handler);
+
+		try {
+			server.start();
+		} catch (Exception ex) {
+			server.stop();
+			throw ex;
+		}
+
+		return server;
+	}
+
 	/**
 	 * Creates a server on the port and blocks the calling thread.
 	 *
@@ -49,7 +124,7 @@ public class BookStoreHTTPServerUtility {
 			server.start();
 			server.join();
 		} catch (Exception ex) {
-			System.err.println(ex.getStackTrace());
+			ex.printStackTrace();
 		}
 
 	}
@@ -78,7 +153,7 @@ public class BookStoreHTTPServerUtility {
 			inetIpAddress = InetAddress.getByName(ipAddress);
 			address = new InetSocketAddress(inetIpAddress, port);
 		} catch (UnknownHostException ex) {
-			System.err.println(ex.getStackTrace());
+			ex.printStackTrace();
 			return false;
 		}
 
@@ -92,7 +167,7 @@ public class BookStoreHTTPServerUtility {
 			server.start();
 			server.join();
 		} catch (Exception ex) {
-			System.err.println(ex.getStackTrace());
+			ex.printStackTrace();
 		}
 
 		return true;
@@ -0,0 +1,56 @@
+package com.acertainbookstore.utils;
+
+/**
+ * {@link BookStoreBatchOperation} is one message of a
+ * {@link BookStoreMessageTag#BATCH} request: its tag and the value that would
+ * have been its request content. The messages that take the number of books
+ * as a URL parameter take it as an {@link Integer} value instead.
+ */
+public final class BookStoreBatchOperation {
+
+	/** The message tag. */
+	private final BookStoreMessageTag messageTag;
+
+	/** The input value. */
+	private final Object inputValue;
+
+	/**
+	 * Instantiates a new {@link BookStoreBatchOperation}. This constructor is
+	 * necessary for serialization and has no other purpose.
+	 */
+	public BookStoreBatchOperation() {
+		this.messageTag = null;
+		this.inputValue = null;
+	}
+
+	/**
+	 * Instantiates a new {@link BookStoreBatchOperation}.
+	 *
+	 * @param messageTag
+	 *            the message tag
+	 * @param inputValue
+	 *            the input value, or null if the message takes none
+	 */
+	public BookStoreBatchOperation(BookStoreMessageTag messageTag, Object inputValue) {
+		this.messageTag = messageTag;
+		this.inputValue = inputValue;
+	}
+
+	/**
+	 * Gets the message tag.
+	 *
+	 * @return the message tag
+	 */
+	public BookStoreMessageTag getMessageTag() {
+		return messageTag;
+	}
+
+	/**
+	 * Gets the input value.
+	 *
+	 * @return the input value
+	 */
+	public Object getInputValue() {
+		return inputValue;
+	}
+}
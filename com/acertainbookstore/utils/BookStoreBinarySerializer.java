@@ -0,0 +1,682 @@
+package com.acertainbookstore.utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import com.acertainbookstore.business.Book;
+import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.business.BookEditorPick;
+import com.acertainbookstore.business.BookRating;
+import com.acertainbookstore.business.ImmutableBook;
+import com.acertainbookstore.business.ImmutableStockBook;
+import com.acertainbookstore.business.StockBook;
+import com.acertainbookstore.interfaces.BookStoreSerializer;
+
+/**
+ * {@link BookStoreBinarySerializer} serializes the bookstore messages with a
+ * hand-written binary codec, without reflection.
+ *
+ * Every message payload is one of a closed set of shapes: the input of a
+ * request (a set of ISBNs, book copies, ratings, editor picks or books, a
+ * number of books, or a batch of operations) or a {@link BookStoreResponse}.
+ * A payload starts with a byte naming its shape, followed by the fixed layout
+ * of that shape:
+ * <ul>
+ * <li>numbers are varints, zigzag-encoded when they are signed;</li>
+ * <li>strings are their UTF-8 length plus one as a varint, 0 meaning null,
+ * followed by their bytes;</li>
+ * <li>sets of ISBNs are sorted and written as the first ISBN followed by the
+ * differences between successive ISBNs;</li>
+ * <li>a response holds a flag byte, the message of its exception if it has
+ * one, and its list, whose elements all have the shape named by a byte.</li>
+ * </ul>
+ * Sets are decoded as {@link HashSet}s and lists as {@link ArrayList}s. An
+ * exception only carries its message.
+ *
+ * @see BookStoreSerializer
+ */
+public final class BookStoreBinarySerializer implements BookStoreSerializer {
+
+	/** The shapes of a payload. */
+	private static final byte NULL = 0;
+	private static final byte RESPONSE = 1;
+	private static final byte ISBN_SET = 2;
+	private static final byte BOOK_COPY_SET = 3;
+	private static final byte BOOK_RATING_SET = 4;
+	private static final byte EDITOR_PICK_SET = 5;
+	private static final byte STOCK_BOOK_SET = 6;
+	private static final byte EMPTY_SET = 7;
+	private static final byte BATCH = 8;
+	private static final byte INTEGER = 9;
+	private static final byte STRING = 10;
+
+	/** The shapes of the list of a response, after {@link #NULL}. */
+	private static final byte BOOK_LIST = 1;
+	private static final byte STOCK_BOOK_LIST = 2;
+	private static final byte RESPONSE_LIST = 3;
+	private static final byte EMPTY_LIST = 4;
+
+	/** The flag of a response holding an exception. */
+	private static final int HAS_EXCEPTION = 1;
+
+	/** The message tags, by ordinal. */
+	private static final BookStoreMessageTag[] MESSAGE_TAGS = BookStoreMessageTag.values();
+
+	/** The initial size of the buffers. */
+	private static final int INITIAL_BUFFER_SIZE = 4 * 1024;
+
+	/** The largest buffer kept for the next call. */
+	private static final int MAX_RETAINED_BUFFER_SIZE = 1 << 20;
+
+	/** The output buffer. */
+	private byte[] output = new byte[INITIAL_BUFFER_SIZE];
+
+	/** The number of bytes in the output buffer. */
+	private int outputCount;
+
+	/** The buffer streams are read into. */
+	private byte[] streamInput = new byte[INITIAL_BUFFER_SIZE];
+
+	/** The bytes being decoded. */
+	private byte[] input;
+
+	/** The position of the next byte to decode. */
+	private int inputPosition;
+
+	/** The end of the bytes to decode. */
+	private int inputLimit;
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.BookStoreSerializer#getContentType()
+	 */
+	@Override
+	public String getContentType() {
+		return BookStoreSerializationFormat.BINARY.getContentType();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.BookStoreSerializer#serialize(java.lang.
+	 * Object)
+	 */
+	@Override
+	public byte[] serialize(Object object) throws IOException {
+		encode(object);
+		return Arrays.copyOf(output, outputCount);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.BookStoreSerializer#serializeToBuffer(
+	 * java.lang.Object)
+	 */
+	@Override
+	public ByteBuffer serializeToBuffer(Object object) throws IOException {
+		encode(object);
+		return ByteBuffer.wrap(output, 0, outputCount);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.BookStoreSerializer#serialize(java.lang.
+	 * Object, java.io.OutputStream)
+	 */
+	@Override
+	public void serialize(Object object, OutputStream out) throws IOException {
+		encode(object);
+		out.write(output, 0, outputCount);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.BookStoreSerializer#deserialize(byte[])
+	 */
+	@Override
+	public Object deserialize(byte[] bytes) throws IOException {
+		return decode(bytes, bytes.length);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.BookStoreSerializer#deserialize(java.io.
+	 * InputStream)
+	 */
+	@Override
+	public Object deserialize(InputStream in) throws IOException {
+		if (streamInput.length > MAX_RETAINED_BUFFER_SIZE) {
+			streamInput = new byte[INITIAL_BUFFER_SIZE];
+		}
+
+		int count = 0;
+		int read;
+
+		while ((read = in.read(streamInput, count, streamInput.length - count)) >= 0) {
+			count += read;
+
+			if (count == streamInput.length) {
+				streamInput = Arrays.copyOf(streamInput, streamInput.length * 2);
+			}
+		}
+
+		return decode(streamInput, count);
+	}
+
+	private void encode(Object object) throws IOException {
+		if (output.length > MAX_RETAINED_BUFFER_SIZE) {
+			output = new byte[INITIAL_BUFFER_SIZE];
+		}
+
+		outputCount = 0;
+
+		try {
+			writeValue(object);
+		} catch (ClassCastException | NullPointerException ex) {
+			// A collection mixing shapes or holding nulls.
+			throw new IOException("Cannot encode " + object, ex);
+		}
+	}
+
+	private Object decode(byte[] bytes, int length) throws IOException {
+		input = bytes;
+		inputPosition = 0;
+		inputLimit = length;
+
+		try {
+			Object value = readValue();
+
+			if (inputPosition != inputLimit) {
+				throw new IOException("Trailing bytes after the message");
+			}
+
+			return value;
+		} finally {
+			input = null;
+		}
+	}
+
+	// Payloads.
+
+	private void writeValue(Object value) throws IOException {
+		if (value == null) {
+			writeByte(NULL);
+		} else if (value instanceof BookStoreResponse) {
+			writeByte(RESPONSE);
+			writeResponse((BookStoreResponse) value);
+		} else if (value instanceof Set) {
+			writeSet((Set<?>) value);
+		} else if (value instanceof List) {
+			writeByte(BATCH);
+			writeBatch((List<?>) value);
+		} else if (value instanceof Integer) {
+			writeByte(INTEGER);
+			writeSignedVarInt((Integer) value);
+		} else if (value instanceof String) {
+			writeByte(STRING);
+			writeString((String) value);
+		} else {
+			throw new IOException("Cannot encode a " + value.getClass().getName());
+		}
+	}
+
+	private Object readValue() throws IOException {
+		byte shape = readByte();
+
+		switch (shape) {
+		case NULL:
+			return null;
+
+		case RESPONSE:
+			return readResponse();
+
+		case ISBN_SET:
+		case BOOK_COPY_SET:
+		case BOOK_RATING_SET:
+		case EDITOR_PICK_SET:
+		case STOCK_BOOK_SET:
+		case EMPTY_SET:
+			return readSet(shape);
+
+		case BATCH:
+			return readBatch();
+
+		case INTEGER:
+			return readSignedVarInt();
+
+		case STRING:
+			return readString();
+
+		default:
+			throw new IOException("Unknown payload shape " + shape);
+		}
+	}
+
+	private void writeSet(Set<?> set) throws IOException {
+		if (set.isEmpty()) {
+			writeByte(EMPTY_SET);
+			return;
+		}
+
+		Object first = set.iterator().next();
+
+		if (first instanceof Integer) {
+			writeByte(ISBN_SET);
+			writeIsbns(set);
+		} else if (first instanceof BookCopy) {
+			writeByte(BOOK_COPY_SET);
+			writeVarInt(set.size());
+
+			for (Object element : set) {
+				BookCopy bookCopy = (BookCopy) element;
+				writeSignedVarInt(bookCopy.getISBN());
+				writeSignedVarInt(bookCopy.getNumCopies());
+			}
+		} else if (first instanceof BookRating) {
+			writeByte(BOOK_RATING_SET);
+			writeVarInt(set.size());
+
+			for (Object element : set) {
+				BookRating bookRating = (BookRating) element;
+				writeSignedVarInt(bookRating.getISBN());
+				writeSignedVarInt(bookRating.getRating());
+			}
+		} else if (first instanceof BookEditorPick) {
+			writeByte(EDITOR_PICK_SET);
+			writeVarInt(set.size());
+
+			for (Object element : set) {
+				BookEditorPick editorPick = (BookEditorPick) element;
+				writeSignedVarInt(editorPick.getISBN());
+				writeBoolean(editorPick.isEditorPick());
+			}
+		} else if (first instanceof StockBook) {
+			writeByte(STOCK_BOOK_SET);
+			writeVarInt(set.size());
+
+			for (Object element : set) {
+				writeStockBook((StockBook) element);
+			}
+		} else {
+			throw new IOException("Cannot encode a set of " + first.getClass().getName());
+		}
+	}
+
+	private Set<?> readSet(byte shape) throws IOException {
+		if (shape == EMPTY_SET) {
+			return new HashSet<>();
+		}
+
+		if (shape == ISBN_SET) {
+			return readIsbns();
+		}
+
+		int size = readLength();
+		Set<Object> set = new HashSet<>(size * 2);
+
+		for (int i = 0; i < size; i++) {
+			switch (shape) {
+			case BOOK_COPY_SET:
+				set.add(new BookCopy(readSignedVarInt(), readSignedVarInt()));
+				break;
+
+			case BOOK_RATING_SET:
+				set.add(new BookRating(readSignedVarInt(), readSignedVarInt()));
+				break;
+
+			case EDITOR_PICK_SET:
+				set.add(new BookEditorPick(readSignedVarInt(), readBoolean()));
+				break;
+
+			default:
+				set.add(readStockBook());
+				break;
+			}
+		}
+
+		return set;
+	}
+
+	/**
+	 * Writes a set of ISBNs sorted, as the first one followed by the gaps
+	 * between successive ones.
+	 */
+	private void writeIsbns(Set<?> set) {
+		int[] isbns = new int[set.size()];
+		int i = 0;
+
+		for (Object isbn : set) {
+			isbns[i++] = (Integer) isbn;
+		}
+
+		Arrays.sort(isbns);
+		writeVarInt(isbns.length);
+		writeSignedVarInt(isbns[0]);
+
+		for (i = 1; i < isbns.length; i++) {
+			// The gap is positive, but may not fit an int.
+			writeVarLong((long) isbns[i] - isbns[i - 1]);
+		}
+	}
+
+	private Set<Integer> readIsbns() throws IOException {
+		int size = readLength();
+		Set<Integer> isbns = new HashSet<>(size * 2);
+		long isbn = readSignedVarInt();
+		isbns.add((int) isbn);
+
+		for (int i = 1; i < size; i++) {
+			isbn += readVarLong();
+			isbns.add((int) isbn);
+		}
+
+		return isbns;
+	}
+
+	private void writeResponse(BookStoreResponse response) throws IOException {
+		BookStoreException exception = response.getException();
+		writeByte((byte) (exception != null ? HAS_EXCEPTION : 0));
+
+		if (exception != null) {
+			writeString(exception.getMessage());
+		}
+
+		List<?> list = response.getList();
+
+		if (list == null) {
+			writeByte(NULL);
+			return;
+		}
+
+		if (list.isEmpty()) {
+			writeByte(EMPTY_LIST);
+			return;
+		}
+
+		Object first = list.get(0);
+
+		if (first instanceof StockBook) {
+			writeByte(STOCK_BOOK_LIST);
+			writeVarInt(list.size());
+
+			for (Object element : list) {
+				writeStockBook((StockBook) element);
+			}
+		} else if (first instanceof Book) {
+			writeByte(BOOK_LIST);
+			writeVarInt(list.size());
+
+			for (Object element : list) {
+				writeBook((Book) element);
+			}
+		} else if (first instanceof BookStoreResponse) {
+			writeByte(RESPONSE_LIST);
+			writeVarInt(list.size());
+
+			for (Object element : list) {
+				writeResponse((BookStoreResponse) element);
+			}
+		} else {
+			throw new IOException("Cannot encode a list of " + first.getClass().getName());
+		}
+	}
+
+	private BookStoreResponse readResponse() throws IOException {
+		BookStoreResponse response = new BookStoreResponse();
+
+		if ((readByte() & HAS_EXCEPTION) != 0) {
+			String message = readString();
+			response.setException(message != null ? new BookStoreException(message) : new BookStoreException());
+		}
+
+		byte shape = readByte();
+
+		if (shape == NULL) {
+			return response;
+		}
+
+		if (shape == EMPTY_LIST) {
+			response.setList(new ArrayList<>());
+			return response;
+		}
+
+		int size = readLength();
+		List<Object> list = new ArrayList<>(size);
+
+		for (int i = 0; i < size; i++) {
+			switch (shape) {
+			case STOCK_BOOK_LIST:
+				list.add(readStockBook());
+				break;
+
+			case BOOK_LIST:
+				list.add(new ImmutableBook(readSignedVarInt(), readString(), readString(), readFloat()));
+				break;
+
+			case RESPONSE_LIST:
+				list.add(readResponse());
+				break;
+
+			default:
+				throw new IOException("Unknown list shape " + shape);
+			}
+		}
+
+		response.setList(list);
+		return response;
+	}
+
+	private void writeBatch(List<?> operations) throws IOException {
+		writeVarInt(operations.size());
+
+		for (Object element : operations) {
+			BookStoreBatchOperation operation = (BookStoreBatchOperation) element;
+			BookStoreMessageTag messageTag = operation.getMessageTag();
+			writeVarInt(messageTag != null ? messageTag.ordinal() + 1 : 0);
+			writeValue(operation.getInputValue());
+		}
+	}
+
+	private List<BookStoreBatchOperation> readBatch() throws IOException {
+		int size = readLength();
+		List<BookStoreBatchOperation> operations = new ArrayList<>(size);
+
+		for (int i = 0; i < size; i++) {
+			int tag = readVarInt();
+
+			if (tag > MESSAGE_TAGS.length) {
+				throw new IOException("Unknown message tag " + tag);
+			}
+
+			BookStoreMessageTag messageTag = (tag == 0) ? null : MESSAGE_TAGS[tag - 1];
+			operations.add(new BookStoreBatchOperation(messageTag, readValue()));
+		}
+
+		return operations;
+	}
+
+	private void writeBook(Book book) {
+		writeSignedVarInt(book.getISBN());
+		writeString(book.getTitle());
+		writeString(book.getAuthor());
+		writeFloat(book.getPrice());
+	}
+
+	private void writeStockBook(StockBook book) {
+		writeBook(book);
+		writeSignedVarInt(book.getNumCopies());
+		writeSignedVarLong(book.getNumSaleMisses());
+		writeSignedVarLong(book.getNumTimesRated());
+		writeSignedVarLong(book.getTotalRating());
+		writeBoolean(book.isEditorPick());
+	}
+
+	private ImmutableStockBook readStockBook() throws IOException {
+		return new ImmutableStockBook(readSignedVarInt(), readString(), readString(), readFloat(),
+				readSignedVarInt(), readSignedVarLong(), readSignedVarLong(), readSignedVarLong(), readBoolean());
+	}
+
+	// Primitives.
+
+	private void ensureCapacity(int length) {
+		if (outputCount + length > output.length) {
+			output = Arrays.copyOf(output, Math.max(output.length * 2, outputCount + length));
+		}
+	}
+
+	private void writeByte(byte value) {
+		ensureCapacity(1);
+		output[outputCount++] = value;
+	}
+
+	private void writeBoolean(boolean value) {
+		writeByte((byte) (value ? 1 : 0));
+	}
+
+	private void writeVarInt(int value) {
+		writeVarLong(value & 0xFFFFFFFFL);
+	}
+
+	private void writeSignedVarInt(int value) {
+		writeVarInt((value << 1) ^ (value >> 31));
+	}
+
+	private void writeVarLong(long value) {
+		ensureCapacity(10);
+
+		while ((value & ~0x7FL) != 0) {
+			output[outputCount++] = (byte) ((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+
+		output[outputCount++] = (byte) value;
+	}
+
+	private void writeSignedVarLong(long value) {
+		writeVarLong((value << 1) ^ (value >> 63));
+	}
+
+	private void writeFloat(float value) {
+		int bits = Float.floatToRawIntBits(value);
+		ensureCapacity(4);
+		output[outputCount++] = (byte) (bits >>> 24);
+		output[outputCount++] = (byte) (bits >>> 16);
+		output[outputCount++] = (byte) (bits >>> 8);
+		output[outputCount++] = (byte) bits;
+	}
+
+	private void writeString(String value) {
+		if (value == null) {
+			writeVarInt(0);
+			return;
+		}
+
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		writeVarInt(bytes.length + 1);
+		ensureCapacity(bytes.length);
+		System.arraycopy(bytes, 0, output, outputCount, bytes.length);
+		outputCount += bytes.length;
+	}
+
+	private byte readByte() throws IOException {
+		if (inputPosition == inputLimit) {
+			throw new IOException("The message is truncated");
+		}
+
+		return input[inputPosition++];
+	}
+
+	private boolean readBoolean() throws IOException {
+		return readByte() != 0;
+	}
+
+	private int readVarInt() throws IOException {
+		long value = readVarLong();
+
+		if (value > 0xFFFFFFFFL) {
+			throw new IOException("Malformed varint");
+		}
+
+		return (int) value;
+	}
+
+	/**
+	 * Reads the length of a collection, checked against the bytes left so
+	 * that a corrupt length cannot make us allocate a huge collection.
+	 */
+	private int readLength() throws IOException {
+		int length = readVarInt();
+
+		if (length < 0 || length > inputLimit - inputPosition) {
+			throw new IOException("Malformed length " + length);
+		}
+
+		return length;
+	}
+
+	private int readSignedVarInt() throws IOException {
+		int value = readVarInt();
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	private long readVarLong() throws IOException {
+		long value = 0;
+
+		for (int shift = 0; shift < 64; shift += 7) {
+			byte b = readByte();
+			value |= (long) (b & 0x7F) << shift;
+
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+
+		throw new IOException("Malformed varint");
+	}
+
+	private long readSignedVarLong() throws IOException {
+		long value = readVarLong();
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	private float readFloat() throws IOException {
+		int bits = (readByte() & 0xFF) << 24 | (readByte() & 0xFF) << 16 | (readByte() & 0xFF) << 8
+				| (readByte() & 0xFF);
+		return Float.intBitsToFloat(bits);
+	}
+
+	private String readString() throws IOException {
+		int length = readVarInt() - 1;
+
+		if (length == -1) {
+			return null;
+		}
+
+		if (length < 0 || length > inputLimit - inputPosition) {
+			throw new IOException("The message is truncated");
+		}
+
+		String value = new String(input, inputPosition, length, StandardCharsets.UTF_8);
+		inputPosition += length;
+		return value;
+	}
+}
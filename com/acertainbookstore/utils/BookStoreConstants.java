@@ -7,7 +7,7 @@ package com.acertainbookstore.utils;
 public final class BookStoreConstants {
 
 	/**
-	 * The Constant BINARY_SERIALIZATION decides whether we use Kryo or XStream.
+	 * The Constant BINARY_SERIALIZATION decides whether we use Kryo or XML.
 	 */
 	public static final boolean BINARY_SERIALIZATION = false;
 
@@ -54,12 +54,147 @@ public final class BookStoreConstants {
 	/** The Constant NULL_INPUT. */
 	public static final String NULL_INPUT = "null input parameters";
 
+	/** The Constant STORE_FULL. */
+	public static final String STORE_FULL = "The store cannot hold any more books";
+
+	/** The Constant OVERLOADED, for a message the server turned away. */
+	public static final String OVERLOADED = " was turned away, the server is overloaded";
+
 	/** The Constant PROPERTY_KEY_LOCAL_TEST. */
 	public static final String PROPERTY_KEY_LOCAL_TEST = "localtest";
 
 	/** The Constant PROPERTY_KEY_SERVER_PORT. */
 	public static final String PROPERTY_KEY_SERVER_PORT = "port";
 
+	/** The Constant PROPERTY_KEY_COLUMNAR. */
+	public static final String PROPERTY_KEY_COLUMNAR = "columnar";
+
+	/** The Constant PROPERTY_KEY_OFF_HEAP. */
+	public static final String PROPERTY_KEY_OFF_HEAP = "offheap";
+
+	/** The Constant PROPERTY_KEY_WAL, the path of the write-ahead log. */
+	public static final String PROPERTY_KEY_WAL = "wal";
+
+	/** The Constant PROPERTY_KEY_WAL_BATCH_WINDOW, in microseconds. */
+	public static final String PROPERTY_KEY_WAL_BATCH_WINDOW = "walbatchwindow";
+
+	/** The Constant PROPERTY_KEY_CHECKPOINT, the path of the checkpoint file. */
+	public static final String PROPERTY_KEY_CHECKPOINT = "checkpoint";
+
+	/** The Constant PROPERTY_KEY_CHECKPOINT_INTERVAL, in seconds. */
+	public static final String PROPERTY_KEY_CHECKPOINT_INTERVAL = "checkpointinterval";
+
+	/**
+	 * The Constant PROPERTY_KEY_SERIALIZER, the format of the messages:
+	 * xml, kryo or binary.
+	 */
+	public static final String PROPERTY_KEY_SERIALIZER = "serializer";
+
+	/**
+	 * The Constant PROPERTY_KEY_COMPRESSION, whether message bodies may be
+	 * compressed.
+	 */
+	public static final String PROPERTY_KEY_COMPRESSION = "compression";
+
+	/**
+	 * The Constant PROPERTY_KEY_VIRTUAL_THREADS, whether the messages are
+	 * handled and sent on virtual threads, where the JVM has them.
+	 */
+	public static final String PROPERTY_KEY_VIRTUAL_THREADS = "virtualthreads";
+
+	/**
+	 * The Constant PROPERTY_KEY_H2C, whether the proxies send their messages
+	 * over HTTP/2 cleartext rather than HTTP/1.1.
+	 */
+	public static final String PROPERTY_KEY_H2C = "h2c";
+
+	/**
+	 * The Constant COMPRESSION_THRESHOLD, the smallest body compressed, in
+	 * bytes. Smaller bodies fit in one TCP segment anyway.
+	 */
+	public static final int COMPRESSION_THRESHOLD = 1400;
+
+	/**
+	 * The Constant PROPERTY_KEY_SERVER_CONFIG, the path of a properties file
+	 * holding the server settings below; system properties override it.
+	 */
+	public static final String PROPERTY_KEY_SERVER_CONFIG = "serverconfig";
+
+	/** The Constant PROPERTY_KEY_MIN_THREADS, the least threads of the server. */
+	public static final String PROPERTY_KEY_MIN_THREADS = "minthreads";
+
+	/** The Constant PROPERTY_KEY_MAX_THREADS, the most threads of the server. */
+	public static final String PROPERTY_KEY_MAX_THREADS = "maxthreads";
+
+	/**
+	 * The Constant PROPERTY_KEY_RESERVED_THREADS, the threads of the server
+	 * kept ready to take over a connection; -1 lets Jetty choose.
+	 */
+	public static final String PROPERTY_KEY_RESERVED_THREADS = "reservedthreads";
+
+	/**
+	 * The Constant PROPERTY_KEY_ACCEPTORS, the threads accepting connections;
+	 * -1 lets Jetty choose.
+	 */
+	public static final String PROPERTY_KEY_ACCEPTORS = "acceptors";
+
+	/**
+	 * The Constant PROPERTY_KEY_SELECTORS, the threads selecting the ready
+	 * connections; -1 lets Jetty choose.
+	 */
+	public static final String PROPERTY_KEY_SELECTORS = "selectors";
+
+	/**
+	 * The Constant PROPERTY_KEY_ACCEPT_QUEUE_SIZE, the backlog of connections
+	 * waiting to be accepted; 0 uses the one of the operating system.
+	 */
+	public static final String PROPERTY_KEY_ACCEPT_QUEUE_SIZE = "acceptqueuesize";
+
+	/**
+	 * The Constant PROPERTY_KEY_IDLE_TIMEOUT, how long an idle connection is
+	 * kept open, in milliseconds.
+	 */
+	public static final String PROPERTY_KEY_IDLE_TIMEOUT = "idletimeout";
+
+	/**
+	 * The Constant PROPERTY_KEY_OUTPUT_BUFFER_SIZE, the bytes of a response
+	 * buffered before they are sent.
+	 */
+	public static final String PROPERTY_KEY_OUTPUT_BUFFER_SIZE = "outputbuffersize";
+
+	/**
+	 * The Constant PROPERTY_KEY_PERSISTENT_CONNECTIONS, whether connections are
+	 * kept open between HTTP/1.1 requests.
+	 */
+	public static final String PROPERTY_KEY_PERSISTENT_CONNECTIONS = "persistentconnections";
+
+	/**
+	 * The Constant PROPERTY_KEY_MAX_CONCURRENT_STREAMS, the most HTTP/2
+	 * requests in flight on one connection; 0 turns HTTP/2 off.
+	 */
+	public static final String PROPERTY_KEY_MAX_CONCURRENT_STREAMS = "maxconcurrentstreams";
+
+	/**
+	 * The Constant PROPERTY_KEY_THREADS, followed by a dot and the lower case
+	 * name of a namespace, the number of threads handling its requests.
+	 */
+	public static final String PROPERTY_KEY_THREADS = "threads";
+
+	/**
+	 * The Constant PROPERTY_KEY_QUEUE, followed by a dot and the lower case
+	 * name of a namespace, the number of its requests waiting for a thread.
+	 */
+	public static final String PROPERTY_KEY_QUEUE = "queue";
+
+	/**
+	 * The Constant PROPERTY_KEY_CONCURRENCY, followed by a dot and a message
+	 * tag, the most messages of the tag handled or waiting at once.
+	 */
+	public static final String PROPERTY_KEY_CONCURRENCY = "concurrency";
+
+	/** The Constant STREAM_CHUNK_SIZE, the most books in a chunk of a stream. */
+	public static final int STREAM_CHUNK_SIZE = 1024;
+
 	/** The Constant EPSILON used for floating point number comparison */
 	public static final float EPSILON = 0.000001F;
 
@@ -1,11 +1,11 @@
 package com.acertainbookstore.utils;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import com.acertainbookstore.business.ImmutableStockBook;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
 import com.acertainbookstore.interfaces.BookStoreSerializer;
 import com.esotericsoftware.kryo.Kryo;
 import com.esotericsoftware.kryo.io.Input;
@@ -14,22 +14,58 @@ import org.objenesis.strategy.StdInstantiatorStrategy;
 
 /**
  * {@link BookStoreKryoSerializer} serializes objects to arrays of bytes
- * representing strings using the Kryo library.
+ * representing strings using the Kryo library. The wire types are registered
+ * by {@link BookStoreKryoSerializers}.
+ *
+ * The {@link Output} and {@link Input} buffers are kept from one call to the
+ * next, so a serializer, which is thread-local, encodes into and decodes from
+ * the same arrays for its whole life. The growable output buffer is dropped
+ * once it exceeds {@link #MAX_RETAINED_BUFFER_SIZE}, so that one large
+ * message does not pin its buffer forever.
  * 
  * @see BookStoreSerializer
  */
 public final class BookStoreKryoSerializer implements BookStoreSerializer {
 
+	/** The size of the buffers between Kryo and a stream. */
+	private static final int STREAM_BUFFER_SIZE = 8 * 1024;
+
+	/** The initial size of the growable output buffer. */
+	private static final int INITIAL_BUFFER_SIZE = 4 * 1024;
+
+	/** The largest growable output buffer kept for the next call. */
+	private static final int MAX_RETAINED_BUFFER_SIZE = 1 << 20;
+
 	/** The binary stream. */
 	private final Kryo binaryStream;
 
+	/** The growable output buffer. */
+	private Output bufferOutput = new Output(INITIAL_BUFFER_SIZE, -1);
+
+	/** The output to streams. */
+	private final Output streamOutput = new Output(STREAM_BUFFER_SIZE);
+
+	/** The input from streams. */
+	private final Input streamInput = new Input(STREAM_BUFFER_SIZE);
+
 	/**
 	 * Instantiates a new {@link BookStoreKryoSerializer}.
 	 */
 	public BookStoreKryoSerializer() {
 		binaryStream = new Kryo();
 		binaryStream.setInstantiatorStrategy(new Kryo.DefaultInstantiatorStrategy(new StdInstantiatorStrategy()));
-		binaryStream.register(ImmutableStockBook.class);
+		BookStoreKryoSerializers.register(binaryStream);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.acertainbookstore.interfaces.BookStoreSerializer#getContentType()
+	 */
+	@Override
+	public String getContentType() {
+		return BookStoreSerializationFormat.KRYO.getContentType();
 	}
 
 	/*
@@ -41,10 +77,44 @@ public final class BookStoreKryoSerializer implements BookStoreSerializer {
 	 */
 	@Override
 	public byte[] serialize(Object object) throws IOException {
-		try (ByteArrayOutputStream outStream = new ByteArrayOutputStream(); Output out = new Output(outStream)) {
-			binaryStream.writeClassAndObject(out, object);
-			out.flush();
-			return outStream.toByteArray();
+		ByteBuffer buffer = serializeToBuffer(object);
+		return Arrays.copyOf(buffer.array(), buffer.limit());
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.acertainbookstore.interfaces.BookStoreSerializer#serializeToBuffer(
+	 * java.lang.Object)
+	 */
+	@Override
+	public ByteBuffer serializeToBuffer(Object object) throws IOException {
+		if (bufferOutput.getBuffer().length > MAX_RETAINED_BUFFER_SIZE) {
+			bufferOutput = new Output(INITIAL_BUFFER_SIZE, -1);
+		}
+
+		bufferOutput.clear();
+		binaryStream.writeClassAndObject(bufferOutput, object);
+		return ByteBuffer.wrap(bufferOutput.getBuffer(), 0, bufferOutput.position());
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.acertainbookstore.interfaces.BookStoreSerializer#serialize(java.lang.
+	 * Object, java.io.OutputStream)
+	 */
+	@Override
+	public void serialize(Object object, OutputStream out) throws IOException {
+		streamOutput.setOutputStream(out);
+
+		try {
+			binaryStream.writeClassAndObject(streamOutput, object);
+			streamOutput.flush();
+		} finally {
+			streamOutput.setOutputStream(null);
 		}
 	}
 
@@ -55,8 +125,25 @@ public final class BookStoreKryoSerializer implements BookStoreSerializer {
 	 */
 	@Override
 	public Object deserialize(byte[] bytes) throws IOException {
-		try (InputStream inStream = new ByteArrayInputStream(bytes); Input in = new Input(inStream)) {
-			return binaryStream.readClassAndObject(in);
+		// Reads the array in place.
+		return binaryStream.readClassAndObject(new Input(bytes));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.acertainbookstore.interfaces.BookStoreSerializer#deserialize(java.io.
+	 * InputStream)
+	 */
+	@Override
+	public Object deserialize(InputStream in) throws IOException {
+		streamInput.setInputStream(in);
+
+		try {
+			return binaryStream.readClassAndObject(streamInput);
+		} finally {
+			streamInput.setInputStream(null);
 		}
 	}
 }
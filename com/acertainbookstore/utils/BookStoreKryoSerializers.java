@@ -0,0 +1,306 @@
+package com.acertainbookstore.utils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
+import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.business.BookEditorPick;
+import com.acertainbookstore.business.BookRating;
+import com.acertainbookstore.business.ImmutableBook;
+import com.acertainbookstore.business.ImmutableStockBook;
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.Serializer;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import com.esotericsoftware.kryo.serializers.DefaultSerializers;
+
+/**
+ * {@link BookStoreKryoSerializers} registers every type sent between the
+ * bookstore client and server with Kryo, under fixed IDs so that both sides
+ * agree on them, and with hand-written serializers for the business types.
+ *
+ * Registered classes are written as a one-byte ID instead of their name, and
+ * the hand-written serializers call the constructors instead of going through
+ * reflection. Ints and longs are written as varints. The titles and authors of
+ * a message are written once each, and as a varint reference after that.
+ * Exceptions travel as their message only, as with
+ * {@link BookStoreBinarySerializer}, so that nothing reflects into
+ * {@link Throwable}.
+ */
+final class BookStoreKryoSerializers {
+
+	/**
+	 * The first ID used, above those Kryo registers itself. IDs must never be
+	 * reused for another class, since both ends of a connection rely on them.
+	 */
+	private static final int FIRST_ID = 20;
+
+	/** The key of the string table in the Kryo graph context. */
+	private static final String STRING_TABLE = "bookstore.strings";
+
+	/**
+	 * Prevents the instantiation of {@link BookStoreKryoSerializers}.
+	 */
+	private BookStoreKryoSerializers() {
+		// Prevent instantiation.
+	}
+
+	/**
+	 * Registers the wire types with a Kryo instance.
+	 *
+	 * @param kryo
+	 *            the Kryo instance
+	 */
+	static void register(Kryo kryo) {
+		int id = FIRST_ID;
+
+		kryo.register(BookStoreResponse.class, new ResponseSerializer(), id++);
+		kryo.register(BookStoreException.class, new ExceptionSerializer(), id++);
+		kryo.register(BookStoreBatchOperation.class, new BatchOperationSerializer(), id++);
+		kryo.register(BookStoreMessageTag.class, id++);
+		kryo.register(ImmutableBook.class, new BookSerializer(), id++);
+		kryo.register(ImmutableStockBook.class, new StockBookSerializer(), id++);
+		kryo.register(BookCopy.class, new BookCopySerializer(), id++);
+		kryo.register(BookRating.class, new BookRatingSerializer(), id++);
+		kryo.register(BookEditorPick.class, new BookEditorPickSerializer(), id++);
+		kryo.register(HashSet.class, id++);
+		kryo.register(LinkedHashSet.class, id++);
+		kryo.register(ArrayList.class, id++);
+		kryo.register(Collections.emptyList().getClass(), new DefaultSerializers.CollectionsEmptyListSerializer(),
+				id++);
+		kryo.register(Collections.emptySet().getClass(), new DefaultSerializers.CollectionsEmptySetSerializer(),
+				id++);
+		kryo.register(Collections.singletonList(null).getClass(),
+				new DefaultSerializers.CollectionsSingletonListSerializer(), id++);
+		kryo.register(Collections.singleton(null).getClass(),
+				new DefaultSerializers.CollectionsSingletonSetSerializer(), id++);
+	}
+
+	/**
+	 * Writes a string, or a reference to it if the message already holds it.
+	 * The table lives in the graph context, which Kryo clears after each
+	 * message.
+	 */
+	@SuppressWarnings("unchecked")
+	private static void writeString(Kryo kryo, Output output, String value) {
+		Map<String, Integer> table = (Map<String, Integer>) kryo.getGraphContext().get(STRING_TABLE);
+
+		if (table == null) {
+			table = new HashMap<>();
+			kryo.getGraphContext().put(STRING_TABLE, table);
+		}
+
+		Integer reference = (value == null) ? null : table.get(value);
+
+		if (reference != null) {
+			output.writeVarInt(reference, true);
+		} else {
+			// 0 announces a new string, numbered from 1 in order of appearance.
+			output.writeVarInt(0, true);
+			output.writeString(value);
+
+			if (value != null) {
+				table.put(value, table.size() + 1);
+			}
+		}
+	}
+
+	/**
+	 * Reads a string written by {@link #writeString(Kryo, Output, String)}.
+	 */
+	@SuppressWarnings("unchecked")
+	private static String readString(Kryo kryo, Input input) {
+		List<String> table = (List<String>) kryo.getGraphContext().get(STRING_TABLE);
+
+		if (table == null) {
+			table = new ArrayList<>();
+			kryo.getGraphContext().put(STRING_TABLE, table);
+		}
+
+		int reference = input.readVarInt(true);
+
+		if (reference > 0) {
+			return table.get(reference - 1);
+		}
+
+		String value = input.readString();
+
+		if (value != null) {
+			table.add(value);
+		}
+
+		return value;
+	}
+
+	/**
+	 * {@link ResponseSerializer} writes the exception and the list of a
+	 * {@link BookStoreResponse}.
+	 */
+	private static final class ResponseSerializer extends Serializer<BookStoreResponse> {
+
+		@Override
+		public void write(Kryo kryo, Output output, BookStoreResponse response) {
+			kryo.writeClassAndObject(output, response.getException());
+			kryo.writeClassAndObject(output, response.getList());
+		}
+
+		@Override
+		public BookStoreResponse read(Kryo kryo, Input input, Class<BookStoreResponse> type) {
+			BookStoreResponse response = new BookStoreResponse();
+			response.setException((BookStoreException) kryo.readClassAndObject(input));
+			response.setList((List<?>) kryo.readClassAndObject(input));
+			return response;
+		}
+	}
+
+	/**
+	 * {@link ExceptionSerializer} writes the message of a
+	 * {@link BookStoreException}; its cause and stack trace stay on the side
+	 * that threw it.
+	 */
+	private static final class ExceptionSerializer extends Serializer<BookStoreException> {
+
+		@Override
+		public void write(Kryo kryo, Output output, BookStoreException exception) {
+			output.writeString(exception.getMessage());
+		}
+
+		@Override
+		public BookStoreException read(Kryo kryo, Input input, Class<BookStoreException> type) {
+			return new BookStoreException(input.readString());
+		}
+	}
+
+	/**
+	 * {@link BatchOperationSerializer} writes the tag and the input of a
+	 * {@link BookStoreBatchOperation}.
+	 */
+	private static final class BatchOperationSerializer extends Serializer<BookStoreBatchOperation> {
+
+		BatchOperationSerializer() {
+			setImmutable(true);
+		}
+
+		@Override
+		public void write(Kryo kryo, Output output, BookStoreBatchOperation operation) {
+			kryo.writeObjectOrNull(output, operation.getMessageTag(), BookStoreMessageTag.class);
+			kryo.writeClassAndObject(output, operation.getInputValue());
+		}
+
+		@Override
+		public BookStoreBatchOperation read(Kryo kryo, Input input, Class<BookStoreBatchOperation> type) {
+			BookStoreMessageTag messageTag = kryo.readObjectOrNull(input, BookStoreMessageTag.class);
+			return new BookStoreBatchOperation(messageTag, kryo.readClassAndObject(input));
+		}
+	}
+
+	/**
+	 * {@link BookSerializer} writes an {@link ImmutableBook}.
+	 */
+	private static final class BookSerializer extends Serializer<ImmutableBook> {
+
+		BookSerializer() {
+			setImmutable(true);
+		}
+
+		@Override
+		public void write(Kryo kryo, Output output, ImmutableBook book) {
+			output.writeVarInt(book.getISBN(), true);
+			writeString(kryo, output, book.getTitle());
+			writeString(kryo, output, book.getAuthor());
+			output.writeFloat(book.getPrice());
+		}
+
+		@Override
+		public ImmutableBook read(Kryo kryo, Input input, Class<ImmutableBook> type) {
+			return new ImmutableBook(input.readVarInt(true), readString(kryo, input), readString(kryo, input),
+					input.readFloat());
+		}
+	}
+
+	/**
+	 * {@link StockBookSerializer} writes an {@link ImmutableStockBook}.
+	 */
+	private static final class StockBookSerializer extends Serializer<ImmutableStockBook> {
+
+		StockBookSerializer() {
+			setImmutable(true);
+		}
+
+		@Override
+		public void write(Kryo kryo, Output output, ImmutableStockBook book) {
+			output.writeVarInt(book.getISBN(), true);
+			writeString(kryo, output, book.getTitle());
+			writeString(kryo, output, book.getAuthor());
+			output.writeFloat(book.getPrice());
+			output.writeVarInt(book.getNumCopies(), true);
+			output.writeVarLong(book.getNumSaleMisses(), true);
+			output.writeVarLong(book.getNumTimesRated(), true);
+			output.writeVarLong(book.getTotalRating(), true);
+			output.writeBoolean(book.isEditorPick());
+		}
+
+		@Override
+		public ImmutableStockBook read(Kryo kryo, Input input, Class<ImmutableStockBook> type) {
+			return new ImmutableStockBook(input.readVarInt(true), readString(kryo, input), readString(kryo, input),
+					input.readFloat(), input.readVarInt(true), input.readVarLong(true), input.readVarLong(true),
+					input.readVarLong(true), input.readBoolean());
+		}
+	}
+
+	/**
+	 * {@link BookCopySerializer} writes a {@link BookCopy}.
+	 */
+	private static final class BookCopySerializer extends Serializer<BookCopy> {
+
+		@Override
+		public void write(Kryo kryo, Output output, BookCopy bookCopy) {
+			output.writeVarInt(bookCopy.getISBN(), true);
+			output.writeVarInt(bookCopy.getNumCopies(), true);
+		}
+
+		@Override
+		public BookCopy read(Kryo kryo, Input input, Class<BookCopy> type) {
+			return new BookCopy(input.readVarInt(true), input.readVarInt(true));
+		}
+	}
+
+	/**
+	 * {@link BookRatingSerializer} writes a {@link BookRating}.
+	 */
+	private static final class BookRatingSerializer extends Serializer<BookRating> {
+
+		@Override
+		public void write(Kryo kryo, Output output, BookRating bookRating) {
+			output.writeVarInt(bookRating.getISBN(), true);
+			output.writeVarInt(bookRating.getRating(), true);
+		}
+
+		@Override
+		public BookRating read(Kryo kryo, Input input, Class<BookRating> type) {
+			return new BookRating(input.readVarInt(true), input.readVarInt(true));
+		}
+	}
+
+	/**
+	 * {@link BookEditorPickSerializer} writes a {@link BookEditorPick}.
+	 */
+	private static final class BookEditorPickSerializer extends Serializer<BookEditorPick> {
+
+		@Override
+		public void write(Kryo kryo, Output output, BookEditorPick editorPick) {
+			output.writeVarInt(editorPick.getISBN(), true);
+			output.writeBoolean(editorPick.isEditorPick());
+		}
+
+		@Override
+		public BookEditorPick read(Kryo kryo, Input input, Class<BookEditorPick> type) {
+			return new BookEditorPick(input.readVarInt(true), input.readBoolean());
+		}
+	}
+}
@@ -40,5 +40,11 @@ public enum BookStoreMessageTag {
 	GETBOOKSINDEMAND,
 
 	/** The tag for the get stock books by ISBN message. */
-	GETSTOCKBOOKSBYISBN;
+	GETSTOCKBOOKSBYISBN,
+
+	/** The tag for a batch of messages handled in one round trip. */
+	BATCH,
+
+	/** The tag for the list books message, streamed in chunks. */
+	STREAMBOOKS;
 }
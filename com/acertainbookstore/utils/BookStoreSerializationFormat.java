@@ -0,0 +1,112 @@
+package com.acertainbookstore.utils;
+
+import com.acertainbookstore.interfaces.BookStoreSerializer;
+
+/**
+ * {@link BookStoreSerializationFormat} lists the formats the bookstore client
+ * and server can exchange messages in.
+ *
+ * A client names its format in the Content-Type and Accept headers of its
+ * requests, and the server answers in the same format. Requests naming no
+ * known format are handled in the default format of the server, so clients
+ * that send no such header keep working.
+ */
+public enum BookStoreSerializationFormat {
+
+	/** XML, serialized by {@link BookStoreStaxSerializer}. */
+	XML("xml", "application/xml"),
+
+	/** Kryo, serialized by {@link BookStoreKryoSerializer}. */
+	KRYO("kryo", "application/x-kryo"),
+
+	/** The compact binary codec of {@link BookStoreBinarySerializer}. */
+	BINARY("binary", "application/x-bookstore-binary");
+
+	/** The name of the format in the serializer property. */
+	private final String propertyValue;
+
+	/** The media type of the messages. */
+	private final String contentType;
+
+	private BookStoreSerializationFormat(String propertyValue, String contentType) {
+		this.propertyValue = propertyValue;
+		this.contentType = contentType;
+	}
+
+	/**
+	 * Gets the media type of the messages in this format.
+	 *
+	 * @return the content type
+	 */
+	public String getContentType() {
+		return contentType;
+	}
+
+	/**
+	 * Creates a serializer for this format. Serializers are not thread-safe.
+	 *
+	 * @return the serializer
+	 */
+	public BookStoreSerializer newSerializer() {
+		switch (this) {
+		case KRYO:
+			return new BookStoreKryoSerializer();
+
+		case BINARY:
+			return new BookStoreBinarySerializer();
+
+		default:
+			return new BookStoreStaxSerializer();
+		}
+	}
+
+	/**
+	 * Gets the format named by the
+	 * {@link BookStoreConstants#PROPERTY_KEY_SERIALIZER} system property, or
+	 * the one chosen by {@link BookStoreConstants#BINARY_SERIALIZATION} if it
+	 * is not set.
+	 *
+	 * @return the format
+	 * @throws IllegalArgumentException
+	 *             if the property names no format
+	 */
+	public static BookStoreSerializationFormat fromSystemProperty() {
+		String serializerProperty = System.getProperty(BookStoreConstants.PROPERTY_KEY_SERIALIZER);
+
+		if (serializerProperty == null) {
+			return BookStoreConstants.BINARY_SERIALIZATION ? KRYO : XML;
+		}
+
+		for (BookStoreSerializationFormat format : values()) {
+			if (format.propertyValue.equalsIgnoreCase(serializerProperty)) {
+				return format;
+			}
+		}
+
+		throw new IllegalArgumentException("Unknown serializer " + serializerProperty);
+	}
+
+	/**
+	 * Gets the format of a media type, ignoring its parameters.
+	 *
+	 * @param contentType
+	 *            the content type, possibly null
+	 * @return the format, or null if the media type is not one of ours
+	 */
+	public static BookStoreSerializationFormat fromContentType(String contentType) {
+		if (contentType == null) {
+			return null;
+		}
+
+		int parametersStart = contentType.indexOf(';');
+		String mediaType = (parametersStart < 0 ? contentType : contentType.substring(0, parametersStart)).trim();
+
+		for (BookStoreSerializationFormat format : values()) {
+			if (format.contentType.equalsIgnoreCase(mediaType)) {
+				return format;
+			}
+		}
+
+		return null;
+	}
+}
@@ -0,0 +1,603 @@
+package com.acertainbookstore.utils;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+
+import com.acertainbookstore.business.Book;
+import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.business.BookEditorPick;
+import com.acertainbookstore.business.BookRating;
+import com.acertainbookstore.business.ImmutableBook;
+import com.acertainbookstore.business.ImmutableStockBook;
+import com.acertainbookstore.business.StockBook;
+import com.acertainbookstore.interfaces.BookStoreSerializer;
+
+/**
+ * {@link BookStoreStaxSerializer} serializes the bookstore messages to XML
+ * with StAX, writing and parsing the document as it goes on the destination
+ * or source stream, in UTF-8.
+ *
+ * The documents have the layout XStream gives to the same objects, so that
+ * existing XML consumers and clients keep working: elements are named after
+ * the classes, fields after the fields, sets are {@code set} elements and
+ * lists {@code list} elements. Documents written by XStream for the message
+ * payloads can be read, except for object references. Sets are decoded as
+ * {@link HashSet}s and lists as {@link ArrayList}s. An exception only carries
+ * its message.
+ *
+ * @see BookStoreSerializer
+ */
+public final class BookStoreStaxSerializer implements BookStoreSerializer {
+
+	/** The element names of the payloads. */
+	private static final String RESPONSE = BookStoreResponse.class.getName();
+	private static final String BATCH_OPERATION = BookStoreBatchOperation.class.getName();
+	private static final String BOOK = ImmutableBook.class.getName();
+	private static final String STOCK_BOOK = ImmutableStockBook.class.getName();
+	private static final String BOOK_COPY = BookCopy.class.getName();
+	private static final String BOOK_RATING = BookRating.class.getName();
+	private static final String EDITOR_PICK = BookEditorPick.class.getName();
+	private static final String SET = "set";
+	private static final String LIST = "list";
+	private static final String NULL = "null";
+	private static final String INTEGER = "int";
+	private static final String STRING = "string";
+
+	/** The attribute naming the class of a field value. */
+	private static final String CLASS_ATTRIBUTE = "class";
+
+	/** The suffix of the element names of arrays. */
+	private static final String ARRAY_SUFFIX = "-array";
+
+	/** The initial size of the output buffer. */
+	private static final int INITIAL_BUFFER_SIZE = 4 * 1024;
+
+	/** The size of the buffer between the XML writer and the stream. */
+	private static final int WRITE_BUFFER_SIZE = 8 * 1024;
+
+	/** The largest output buffer kept for the next call. */
+	private static final int MAX_RETAINED_BUFFER_SIZE = 1 << 20;
+
+	/** The factory of the XML writers. */
+	private static final XMLOutputFactory OUTPUT_FACTORY = XMLOutputFactory.newFactory();
+
+	/** The factory of the XML readers, resolving no external entity. */
+	private static final XMLInputFactory INPUT_FACTORY = XMLInputFactory.newFactory();
+
+	static {
+		INPUT_FACTORY.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+		INPUT_FACTORY.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+	}
+
+	/** The output buffer. */
+	private ReusableOutputStream bufferOutput = new ReusableOutputStream();
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.BookStoreSerializer#getContentType()
+	 */
+	@Override
+	public String getContentType() {
+		return BookStoreSerializationFormat.XML.getContentType();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.BookStoreSerializer#serialize(java.lang.
+	 * Object)
+	 */
+	@Override
+	public byte[] serialize(Object object) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream(INITIAL_BUFFER_SIZE);
+		serialize(object, out);
+		return out.toByteArray();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.BookStoreSerializer#serializeToBuffer(
+	 * java.lang.Object)
+	 */
+	@Override
+	public ByteBuffer serializeToBuffer(Object object) throws IOException {
+		if (bufferOutput.capacity() > MAX_RETAINED_BUFFER_SIZE) {
+			bufferOutput = new ReusableOutputStream();
+		}
+
+		bufferOutput.reset();
+		serialize(object, bufferOutput);
+		return bufferOutput.toByteBuffer();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.BookStoreSerializer#serialize(java.lang.
+	 * Object, java.io.OutputStream)
+	 */
+	@Override
+	public void serialize(Object object, OutputStream out) throws IOException {
+		// The JDK writer encodes to a stream a byte at a time, and to a buffered
+		// writer several times faster.
+		Writer bufferedOut = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8),
+				WRITE_BUFFER_SIZE);
+
+		try {
+			XMLStreamWriter writer = OUTPUT_FACTORY.createXMLStreamWriter(bufferedOut);
+			writer.writeStartDocument(StandardCharsets.UTF_8.name(), "1.0");
+			writeValue(writer, object);
+			writer.writeEndDocument();
+
+			// Closing the XML writer leaves the stream open.
+			writer.close();
+			bufferedOut.flush();
+		} catch (XMLStreamException ex) {
+			throw new IOException(ex);
+		} catch (ClassCastException | NullPointerException ex) {
+			// A collection mixing shapes or holding nulls.
+			throw new IOException("Cannot encode " + object, ex);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.BookStoreSerializer#deserialize(byte[])
+	 */
+	@Override
+	public Object deserialize(byte[] bytes) throws IOException {
+		return deserialize(new ByteArrayInputStream(bytes));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.BookStoreSerializer#deserialize(java.io.
+	 * InputStream)
+	 */
+	@Override
+	public Object deserialize(InputStream in) throws IOException {
+		try {
+			XMLStreamReader reader = INPUT_FACTORY.createXMLStreamReader(in, StandardCharsets.UTF_8.name());
+
+			try {
+				reader.nextTag();
+				return readValue(reader, reader.getLocalName());
+			} finally {
+				reader.close();
+			}
+		} catch (XMLStreamException ex) {
+			throw new IOException(ex);
+		} catch (IllegalArgumentException ex) {
+			// A malformed number or message tag.
+			throw new IOException(ex);
+		}
+	}
+
+	// Writing.
+
+	private static void writeValue(XMLStreamWriter writer, Object value) throws XMLStreamException, IOException {
+		if (value == null) {
+			writeElement(writer, NULL, "");
+		} else if (value instanceof BookStoreResponse) {
+			writer.writeStartElement(RESPONSE);
+			writeResponse(writer, (BookStoreResponse) value);
+			writer.writeEndElement();
+		} else if (value instanceof Set) {
+			writer.writeStartElement(SET);
+			writeElements(writer, (Set<?>) value);
+			writer.writeEndElement();
+		} else if (value instanceof List) {
+			writer.writeStartElement(LIST);
+			writeElements(writer, (List<?>) value);
+			writer.writeEndElement();
+		} else if (value instanceof Integer) {
+			writeElement(writer, INTEGER, value.toString());
+		} else if (value instanceof String) {
+			writeElement(writer, STRING, (String) value);
+		} else {
+			throw new IOException("Cannot encode a " + value.getClass().getName());
+		}
+	}
+
+	private static void writeElements(XMLStreamWriter writer, Collection<?> collection)
+			throws XMLStreamException, IOException {
+		for (Object element : collection) {
+			if (element instanceof Integer) {
+				writeElement(writer, INTEGER, element.toString());
+			} else if (element instanceof StockBook) {
+				writer.writeStartElement(STOCK_BOOK);
+				writeStockBook(writer, (StockBook) element);
+				writer.writeEndElement();
+			} else if (element instanceof Book) {
+				writer.writeStartElement(BOOK);
+				writeBook(writer, (Book) element);
+				writer.writeEndElement();
+			} else if (element instanceof BookCopy) {
+				BookCopy bookCopy = (BookCopy) element;
+				writer.writeStartElement(BOOK_COPY);
+				writeElement(writer, "isbn", Integer.toString(bookCopy.getISBN()));
+				writeElement(writer, "numCopies", Integer.toString(bookCopy.getNumCopies()));
+				writer.writeEndElement();
+			} else if (element instanceof BookRating) {
+				BookRating bookRating = (BookRating) element;
+				writer.writeStartElement(BOOK_RATING);
+				writeElement(writer, "isbn", Integer.toString(bookRating.getISBN()));
+				writeElement(writer, "rating", Integer.toString(bookRating.getRating()));
+				writer.writeEndElement();
+			} else if (element instanceof BookEditorPick) {
+				BookEditorPick editorPick = (BookEditorPick) element;
+				writer.writeStartElement(EDITOR_PICK);
+				writeElement(writer, "isbn", Integer.toString(editorPick.getISBN()));
+				writeElement(writer, "editorPick", Boolean.toString(editorPick.isEditorPick()));
+				writer.writeEndElement();
+			} else if (element instanceof BookStoreResponse) {
+				writer.writeStartElement(RESPONSE);
+				writeResponse(writer, (BookStoreResponse) element);
+				writer.writeEndElement();
+			} else if (element instanceof BookStoreBatchOperation) {
+				writer.writeStartElement(BATCH_OPERATION);
+				writeBatchOperation(writer, (BookStoreBatchOperation) element);
+				writer.writeEndElement();
+			} else {
+				throw new IOException("Cannot encode a " + element.getClass().getName());
+			}
+		}
+	}
+
+	private static void writeResponse(XMLStreamWriter writer, BookStoreResponse response)
+			throws XMLStreamException, IOException {
+		BookStoreException exception = response.getException();
+
+		if (exception != null) {
+			writer.writeStartElement("exception");
+
+			if (exception.getMessage() != null) {
+				writeElement(writer, "detailMessage", exception.getMessage());
+			}
+
+			// What XStream needs to rebuild a throwable without a stack trace.
+			writeElement(writer, "stackTrace", "");
+			writer.writeStartElement("suppressedExceptions");
+			writer.writeAttribute(CLASS_ATTRIBUTE, "empty-list");
+			writer.writeEndElement();
+			writer.writeEndElement();
+		}
+
+		if (response.getList() != null) {
+			writer.writeStartElement(LIST);
+			writeElements(writer, response.getList());
+			writer.writeEndElement();
+		}
+	}
+
+	private static void writeBatchOperation(XMLStreamWriter writer, BookStoreBatchOperation operation)
+			throws XMLStreamException, IOException {
+		if (operation.getMessageTag() != null) {
+			writeElement(writer, "messageTag", operation.getMessageTag().name());
+		}
+
+		Object inputValue = operation.getInputValue();
+
+		if (inputValue instanceof Set) {
+			writer.writeStartElement("inputValue");
+			writer.writeAttribute(CLASS_ATTRIBUTE, SET);
+			writeElements(writer, (Set<?>) inputValue);
+			writer.writeEndElement();
+		} else if (inputValue instanceof Integer) {
+			writer.writeStartElement("inputValue");
+			writer.writeAttribute(CLASS_ATTRIBUTE, INTEGER);
+			writer.writeCharacters(inputValue.toString());
+			writer.writeEndElement();
+		} else if (inputValue != null) {
+			throw new IOException("Cannot encode a " + inputValue.getClass().getName());
+		}
+	}
+
+	private static void writeBook(XMLStreamWriter writer, Book book) throws XMLStreamException {
+		writeElement(writer, "isbn", Integer.toString(book.getISBN()));
+
+		if (book.getTitle() != null) {
+			writeElement(writer, "title", book.getTitle());
+		}
+
+		if (book.getAuthor() != null) {
+			writeElement(writer, "author", book.getAuthor());
+		}
+
+		writeElement(writer, "price", Float.toString(book.getPrice()));
+	}
+
+	private static void writeStockBook(XMLStreamWriter writer, StockBook book) throws XMLStreamException {
+		writeBook(writer, book);
+		writeElement(writer, "totalRating", Long.toString(book.getTotalRating()));
+		writeElement(writer, "numTimesRated", Long.toString(book.getNumTimesRated()));
+		writeElement(writer, "numCopies", Integer.toString(book.getNumCopies()));
+		writeElement(writer, "numSaleMisses", Long.toString(book.getNumSaleMisses()));
+		writeElement(writer, "editorPick", Boolean.toString(book.isEditorPick()));
+	}
+
+	private static void writeElement(XMLStreamWriter writer, String name, String text) throws XMLStreamException {
+		writer.writeStartElement(name);
+		writer.writeCharacters(text);
+		writer.writeEndElement();
+	}
+
+	// Reading. Each method starts on the start of an element and ends on its
+	// end.
+
+	/**
+	 * Reads a value of a type named as XStream names it, either by the element
+	 * or by its class attribute.
+	 */
+	private static Object readValue(XMLStreamReader reader, String type) throws XMLStreamException, IOException {
+		if (reader.getAttributeValue(null, "reference") != null) {
+			throw new IOException("Object references are not supported");
+		}
+
+		switch (type) {
+		case NULL:
+			skipElement(reader);
+			return null;
+
+		case INTEGER:
+			return Integer.valueOf(reader.getElementText().trim());
+
+		case STRING:
+			return reader.getElementText();
+
+		case SET:
+		case "linked-hash-set":
+		case "tree-set":
+		case "sorted-set":
+		case "empty-set":
+		case "singleton-set":
+			return readElements(reader, new HashSet<>());
+
+		case LIST:
+		case "linked-list":
+		case "empty-list":
+		case "singleton-list":
+		case "java.util.ArrayList":
+		case "java.util.Arrays$ArrayList":
+		case "java.util.Arrays_-ArrayList":
+			return readElements(reader, new ArrayList<>());
+
+		default:
+			if (type.equals(RESPONSE)) {
+				return readResponse(reader);
+			} else if (type.equals(BATCH_OPERATION)) {
+				return readBatchOperation(reader);
+			} else if (type.equals(BOOK) || type.equals(STOCK_BOOK) || type.equals(BOOK_COPY)
+					|| type.equals(BOOK_RATING) || type.equals(EDITOR_PICK)) {
+				return readBusinessObject(reader, type);
+			}
+
+			throw new IOException("Cannot decode a " + type);
+		}
+	}
+
+	private static <C extends Collection<Object>> C readElements(XMLStreamReader reader, C collection)
+			throws XMLStreamException, IOException {
+		while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+			String type = typeOf(reader);
+
+			if (type.endsWith(ARRAY_SUFFIX)) {
+				// The backing array of an Arrays$ArrayList.
+				readElements(reader, collection);
+			} else {
+				collection.add(readValue(reader, type));
+			}
+		}
+
+		return collection;
+	}
+
+	private static BookStoreResponse readResponse(XMLStreamReader reader) throws XMLStreamException, IOException {
+		BookStoreResponse response = new BookStoreResponse();
+
+		while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+			switch (reader.getLocalName()) {
+			case "exception":
+				response.setException(readException(reader));
+				break;
+
+			case LIST:
+				response.setList((List<?>) readValue(reader, typeOf(reader)));
+				break;
+
+			default:
+				skipElement(reader);
+				break;
+			}
+		}
+
+		return response;
+	}
+
+	private static BookStoreException readException(XMLStreamReader reader) throws XMLStreamException {
+		String message = null;
+
+		while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+			if (reader.getLocalName().equals("detailMessage")) {
+				message = reader.getElementText();
+			} else {
+				skipElement(reader);
+			}
+		}
+
+		return (message != null) ? new BookStoreException(message) : new BookStoreException();
+	}
+
+	private static BookStoreBatchOperation readBatchOperation(XMLStreamReader reader)
+			throws XMLStreamException, IOException {
+		BookStoreMessageTag messageTag = null;
+		Object inputValue = null;
+
+		while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+			switch (reader.getLocalName()) {
+			case "messageTag":
+				messageTag = BookStoreMessageTag.valueOf(reader.getElementText().trim());
+				break;
+
+			case "inputValue":
+				inputValue = readValue(reader, typeOf(reader));
+				break;
+
+			default:
+				skipElement(reader);
+				break;
+			}
+		}
+
+		return new BookStoreBatchOperation(messageTag, inputValue);
+	}
+
+	/**
+	 * Reads a business object, whose fields may come in any order.
+	 */
+	private static Object readBusinessObject(XMLStreamReader reader, String type) throws XMLStreamException {
+		int isbn = 0;
+		String title = null;
+		String author = null;
+		float price = 0;
+		int numCopies = 0;
+		long numSaleMisses = 0;
+		long numTimesRated = 0;
+		long totalRating = 0;
+		boolean editorPick = false;
+		int rating = 0;
+
+		while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+			switch (reader.getLocalName()) {
+			case "isbn":
+				isbn = Integer.parseInt(reader.getElementText().trim());
+				break;
+
+			case "title":
+				title = reader.getElementText();
+				break;
+
+			case "author":
+				author = reader.getElementText();
+				break;
+
+			case "price":
+				price = Float.parseFloat(reader.getElementText().trim());
+				break;
+
+			case "numCopies":
+				numCopies = Integer.parseInt(reader.getElementText().trim());
+				break;
+
+			case "numSaleMisses":
+				numSaleMisses = Long.parseLong(reader.getElementText().trim());
+				break;
+
+			case "numTimesRated":
+				numTimesRated = Long.parseLong(reader.getElementText().trim());
+				break;
+
+			case "totalRating":
+				totalRating = Long.parseLong(reader.getElementText().trim());
+				break;
+
+			case "editorPick":
+				editorPick = Boolean.parseBoolean(reader.getElementText().trim());
+				break;
+
+			case "rating":
+				rating = Integer.parseInt(reader.getElementText().trim());
+				break;
+
+			default:
+				skipElement(reader);
+				break;
+			}
+		}
+
+		if (type.equals(STOCK_BOOK)) {
+			return new ImmutableStockBook(isbn, title, author, price, numCopies, numSaleMisses, numTimesRated,
+					totalRating, editorPick);
+		} else if (type.equals(BOOK)) {
+			return new ImmutableBook(isbn, title, author, price);
+		} else if (type.equals(BOOK_COPY)) {
+			return new BookCopy(isbn, numCopies);
+		} else if (type.equals(BOOK_RATING)) {
+			return new BookRating(isbn, rating);
+		}
+
+		return new BookEditorPick(isbn, editorPick);
+	}
+
+	/**
+	 * Gets the type of the current element: its class attribute if it has one,
+	 * or else its name.
+	 */
+	private static String typeOf(XMLStreamReader reader) {
+		String type = reader.getAttributeValue(null, CLASS_ATTRIBUTE);
+		return (type != null) ? type : reader.getLocalName();
+	}
+
+	private static void skipElement(XMLStreamReader reader) throws XMLStreamException {
+		int depth = 1;
+
+		while (depth > 0) {
+			int event = reader.next();
+
+			if (event == XMLStreamConstants.START_ELEMENT) {
+				depth++;
+			} else if (event == XMLStreamConstants.END_ELEMENT) {
+				depth--;
+			}
+		}
+	}
+
+	/**
+	 * {@link ReusableOutputStream} exposes its array as a buffer instead of
+	 * copying it.
+	 */
+	private static final class ReusableOutputStream extends ByteArrayOutputStream {
+
+		ReusableOutputStream() {
+			super(INITIAL_BUFFER_SIZE);
+		}
+
+		int capacity() {
+			return buf.length;
+		}
+
+		ByteBuffer toByteBuffer() {
+			return ByteBuffer.wrap(buf, 0, count);
+		}
+	}
+}
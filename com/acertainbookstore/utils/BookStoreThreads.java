@@ -0,0 +1,131 @@
+package com.acertainbookstore.utils;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * {@link BookStoreThreads} creates the executors running one virtual thread
+ * per task, for the server and the clients to run the messages on when
+ * {@link BookStoreConstants#PROPERTY_KEY_VIRTUAL_THREADS} is set.
+ *
+ * Virtual threads are only final from Java 21 on, while the bookstore builds
+ * on Java 17, so they are looked up when the class is loaded; on an older JVM
+ * the virtual thread mode is turned down and the platform thread pools are
+ * kept.
+ */
+public final class BookStoreThreads {
+
+	/**
+	 * Creates the factory of the named virtual threads, or is null if the JVM
+	 * has none.
+	 */
+	private static final MethodHandle NEW_VIRTUAL_THREAD_FACTORY = findVirtualThreadFactory();
+
+	/**
+	 * Creates an executor running each task on a thread of its own, or is
+	 * null if the JVM has none.
+	 */
+	private static final MethodHandle NEW_THREAD_PER_TASK_EXECUTOR = findThreadPerTaskExecutor();
+
+	/**
+	 * Prevents the instantiation of {@link BookStoreThreads}.
+	 */
+	private BookStoreThreads() {
+		// Prevent instantiation.
+	}
+
+	/**
+	 * Looks up Thread.ofVirtual().name(prefix, 0).factory().
+	 */
+	private static MethodHandle findVirtualThreadFactory() {
+		try {
+			MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+			Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+			Class<?> virtualBuilderClass = Class.forName("java.lang.Thread$Builder$OfVirtual");
+
+			MethodHandle ofVirtual = lookup.findStatic(Thread.class, "ofVirtual", MethodType.methodType(virtualBuilderClass));
+			MethodHandle name = lookup.findVirtual(virtualBuilderClass, "name",
+					MethodType.methodType(virtualBuilderClass, String.class, long.class));
+			MethodHandle factory = lookup.findVirtual(builderClass, "factory", MethodType.methodType(ThreadFactory.class));
+
+			// (String prefix) -> ofVirtual().name(prefix, 0).factory()
+			MethodHandle named = MethodHandles.collectArguments(name, 0, ofVirtual);
+			named = MethodHandles.insertArguments(named, 1, 0L);
+			return MethodHandles.filterReturnValue(
+					named.asType(MethodType.methodType(builderClass, String.class)), factory);
+		} catch (ReflectiveOperationException ex) {
+			return null;
+		}
+	}
+
+	/**
+	 * Looks up Executors.newThreadPerTaskExecutor(ThreadFactory).
+	 */
+	private static MethodHandle findThreadPerTaskExecutor() {
+		try {
+			return MethodHandles.publicLookup().findStatic(Executors.class, "newThreadPerTaskExecutor",
+					MethodType.methodType(ExecutorService.class, ThreadFactory.class));
+		} catch (ReflectiveOperationException ex) {
+			return null;
+		}
+	}
+
+	/**
+	 * Checks whether the JVM has virtual threads.
+	 *
+	 * @return true if it has
+	 */
+	public static boolean isVirtualThreadsSupported() {
+		return NEW_VIRTUAL_THREAD_FACTORY != null && NEW_THREAD_PER_TASK_EXECUTOR != null;
+	}
+
+	/**
+	 * Checks whether the {@link BookStoreConstants#PROPERTY_KEY_VIRTUAL_THREADS}
+	 * system property asks for virtual threads, and the JVM has them.
+	 *
+	 * @return true if the messages are to run on virtual threads
+	 */
+	public static boolean fromSystemProperty() {
+		String virtualThreadsString = System.getProperty(BookStoreConstants.PROPERTY_KEY_VIRTUAL_THREADS);
+
+		if (virtualThreadsString == null || !Boolean.parseBoolean(virtualThreadsString)) {
+			return false;
+		}
+
+		if (!isVirtualThreadsSupported()) {
+			System.err.println("Virtual threads need Java 21, keeping the platform thread pools");
+			return false;
+		}
+
+		return true;
+	}
+
+	/**
+	 * Creates an executor running each task on a virtual thread of its own.
+	 *
+	 * @param namePrefix
+	 *            the prefix of the names of the threads, followed by their
+	 *            number
+	 * @return the executor
+	 * @throws UnsupportedOperationException
+	 *             if the JVM has no virtual threads
+	 */
+	public static ExecutorService newVirtualThreadPerTaskExecutor(String namePrefix) {
+		if (!isVirtualThreadsSupported()) {
+			throw new UnsupportedOperationException("Virtual threads need Java 21");
+		}
+
+		try {
+			ThreadFactory factory = (ThreadFactory) NEW_VIRTUAL_THREAD_FACTORY.invoke(namePrefix);
+			return (ExecutorService) NEW_THREAD_PER_TASK_EXECUTOR.invoke(factory);
+		} catch (RuntimeException | Error ex) {
+			throw ex;
+		} catch (Throwable ex) {
+			throw new IllegalStateException(ex);
+		}
+	}
+}
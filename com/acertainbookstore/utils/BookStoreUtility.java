@@ -1,20 +1,39 @@
 package com.acertainbookstore.utils;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
 
 import org.eclipse.jetty.client.HttpClient;
-import org.eclipse.jetty.client.api.ContentProvider;
 import org.eclipse.jetty.client.api.ContentResponse;
 import org.eclipse.jetty.client.api.Request;
-import org.eclipse.jetty.client.util.BytesContentProvider;
+import org.eclipse.jetty.client.api.Response;
+import org.eclipse.jetty.client.api.Result;
+import org.eclipse.jetty.client.util.BufferingResponseListener;
+import org.eclipse.jetty.client.util.ByteBufferContentProvider;
+import org.eclipse.jetty.http.HttpFields;
+import org.eclipse.jetty.http.HttpHeader;
 import org.eclipse.jetty.http.HttpMethod;
+import org.eclipse.jetty.http.HttpStatus;
+import org.eclipse.jetty.http.HttpURI;
 
+import com.acertainbookstore.business.StockBook;
 import com.acertainbookstore.client.BookStoreClientConstants;
+import com.acertainbookstore.client.BookStoreHTTP2Client;
 import com.acertainbookstore.interfaces.BookStoreSerializer;
-import com.thoughtworks.xstream.XStream;
-import com.thoughtworks.xstream.io.xml.StaxDriver;
 
 /**
  * {@link BookStoreUtility} implements utility methods used by the bookstore
@@ -22,15 +41,14 @@ import com.thoughtworks.xstream.io.xml.StaxDriver;
  */
 public final class BookStoreUtility {
 
-	/** The Constant XmlStreams. */
-	// We use pooling because creating an XStream object is expensive.
-	public static final ThreadLocal<XStream> XML_STREAMS = new ThreadLocal<XStream>() {
+	/** The name of the content coding used to compress bodies. */
+	private static final String GZIP = "gzip";
 
-		@Override
-		protected XStream initialValue() {
-			return new XStream(new StaxDriver());
-		}
-	};
+	/**
+	 * The origins of the servers that advertised accepting gzip-compressed
+	 * requests.
+	 */
+	private static final Set<String> GZIP_ACCEPTING_SERVERS = ConcurrentHashMap.newKeySet();
 
 	/**
 	 * Prevents the instantiation of a new {@link BookStoreUtility}.
@@ -50,6 +68,44 @@ public final class BookStoreUtility {
 		return isbn < 1;
 	}
 
+	/**
+	 * Unboxes a collection of ISBNs once, so that validation and lookup loops
+	 * can run over primitive ints.
+	 *
+	 * @param isbns
+	 *            the ISBNs
+	 * @return the ISBNs, in the iteration order of the collection
+	 */
+	public static int[] toIntArray(Collection<Integer> isbns) {
+		int[] array = new int[isbns.size()];
+		int i = 0;
+
+		for (int isbn : isbns) {
+			array[i++] = isbn;
+		}
+
+		return array;
+	}
+
+	/**
+	 * Keeps one book per ISBN, the last one in the iteration order of the set.
+	 * Books sharing an ISBN can be in one set, since books are equal by
+	 * content, and adding them one after the other to a map keeps the last.
+	 *
+	 * @param books
+	 *            the books
+	 * @return the last book of each ISBN, in the order the ISBNs first appear
+	 */
+	public static Collection<StockBook> lastBookPerISBN(Set<StockBook> books) {
+		Map<Integer, StockBook> booksByISBN = new LinkedHashMap<>();
+
+		for (StockBook book : books) {
+			booksByISBN.put(book.getISBN(), book);
+		}
+
+		return booksByISBN.values();
+	}
+
 	/**
 	 * Checks if is invalid rating.
 	 *
@@ -129,78 +185,425 @@ public final class BookStoreUtility {
 	}
 
 	/**
-	 * Convert a request URI to the message tags supported in CertainBookStore.
+	 * Perform HTTP exchange.
 	 *
-	 * @param requestURI
-	 *            the request URI
-	 * @return the book store message tag
+	 * @param client
+	 *            the client
+	 * @param bookStoreRequest
+	 *            the book store request
+	 * @param serializer
+	 *            the serializer
+	 * @return the book store response
+	 * @throws BookStoreException
+	 *             the book store exception
 	 */
-	public static BookStoreMessageTag convertURItoMessageTag(String requestURI) {
+	public static BookStoreResponse performHttpExchange(HttpClient client, BookStoreRequest bookStoreRequest,
+			BookStoreSerializer serializer) throws BookStoreException {
+		Request request = newHttpRequest(client, bookStoreRequest, serializer, true);
+		ContentResponse response;
 
 		try {
-			return BookStoreMessageTag.valueOf(requestURI.substring(1).toUpperCase());
-		} catch (IllegalArgumentException | NullPointerException ex) {
-			// Enumeration type matching failed so non supported message or the
-			// request URI was empty.
-			System.err.println(ex.getStackTrace());
+			response = request.send();
+		} catch (InterruptedException ex) {
+			throw new BookStoreException(BookStoreClientConstants.STR_ERR_CLIENT_REQUEST_SENDING, ex);
+		} catch (TimeoutException ex) {
+			throw new BookStoreException(BookStoreClientConstants.STR_ERR_CLIENT_REQUEST_TIMEOUT, ex);
+		} catch (ExecutionException ex) {
+			throw new BookStoreException(BookStoreClientConstants.STR_ERR_CLIENT_REQUEST_EXCEPTION, ex);
 		}
 
-		return null;
+		noteRequestCodings(request, response);
+		checkHttpStatus(response);
+		return readHttpResponse(response.getContent(), serializer);
 	}
 
 	/**
-	 * Perform HTTP exchange.
+	 * Checks that the server handled a request, rather than turning it away
+	 * or failing to route it.
+	 *
+	 * @param response
+	 *            the response
+	 * @throws BookStoreException
+	 *             if the status of the response is not OK
+	 */
+	public static void checkHttpStatus(Response response) throws BookStoreException {
+		checkHttpStatus(response.getStatus());
+	}
+
+	private static void checkHttpStatus(int status) throws BookStoreException {
+		switch (status) {
+		case HttpStatus.OK_200:
+			return;
+
+		case HttpStatus.SERVICE_UNAVAILABLE_503:
+			throw new BookStoreException(BookStoreClientConstants.STR_ERR_CLIENT_SERVER_OVERLOADED);
+
+		default:
+			throw new BookStoreException(BookStoreClientConstants.STR_ERR_CLIENT_REQUEST_EXCEPTION + " " + status);
+		}
+	}
+
+	/**
+	 * Performs an HTTP exchange without blocking the caller. The request is
+	 * serialized, and the response deserialized, on the executor of the
+	 * client, so that neither the caller nor the I/O threads of the client do
+	 * it.
 	 *
 	 * @param client
 	 *            the client
 	 * @param bookStoreRequest
 	 *            the book store request
 	 * @param serializer
+	 *            the serializer of the thread it is called from
+	 * @return the future book store response, failing with a
+	 *         {@link BookStoreException} as
+	 *         {@link #performHttpExchange(HttpClient, BookStoreRequest, BookStoreSerializer)}
+	 *         would throw it
+	 */
+	public static CompletableFuture<BookStoreResponse> performHttpExchangeAsync(HttpClient client,
+			BookStoreRequest bookStoreRequest, Supplier<BookStoreSerializer> serializer) {
+		CompletableFuture<BookStoreResponse> futureResponse = new CompletableFuture<>();
+		Executor executor = client.getExecutor();
+
+		executor.execute(() -> {
+			Request request;
+
+			try {
+				request = newHttpRequest(client, bookStoreRequest, serializer.get(), false);
+			} catch (BookStoreException ex) {
+				futureResponse.completeExceptionally(ex);
+				return;
+			}
+
+			request.send(new BufferingResponseListener() {
+
+				@Override
+				public void onComplete(Result result) {
+					if (result.isFailed()) {
+						String message = result.getFailure() instanceof TimeoutException
+								? BookStoreClientConstants.STR_ERR_CLIENT_REQUEST_TIMEOUT
+								: BookStoreClientConstants.STR_ERR_CLIENT_REQUEST_EXCEPTION;
+						futureResponse.completeExceptionally(new BookStoreException(message, result.getFailure()));
+						return;
+					}
+
+					noteRequestCodings(request, result.getResponse());
+
+					try {
+						checkHttpStatus(result.getResponse());
+					} catch (BookStoreException ex) {
+						futureResponse.completeExceptionally(ex);
+						return;
+					}
+
+					byte[] content = getContent();
+
+					executor.execute(() -> {
+						try {
+							futureResponse.complete(readHttpResponse(content, serializer.get()));
+						} catch (BookStoreException ex) {
+							futureResponse.completeExceptionally(ex);
+						}
+					});
+				}
+			});
+		});
+
+		return futureResponse;
+	}
+
+	/**
+	 * Performs an HTTP exchange over HTTP/2, as
+	 * {@link #performHttpExchange(HttpClient, BookStoreRequest, BookStoreSerializer)}
+	 * does over HTTP/1.1.
+	 *
+	 * @param client
+	 *            the HTTP/2 client
+	 * @param bookStoreRequest
+	 *            the book store request
+	 * @param serializer
 	 *            the serializer
 	 * @return the book store response
 	 * @throws BookStoreException
 	 *             the book store exception
 	 */
-	public static BookStoreResponse performHttpExchange(HttpClient client, BookStoreRequest bookStoreRequest,
-			BookStoreSerializer serializer) throws BookStoreException {
-		Request request;
+	public static BookStoreResponse performHttpExchange(BookStoreHTTP2Client client,
+			BookStoreRequest bookStoreRequest, BookStoreSerializer serializer) throws BookStoreException {
+		CompletableFuture<BookStoreHTTP2Client.Reply> futureReply = sendHttp2Request(client, bookStoreRequest,
+				serializer);
+		BookStoreHTTP2Client.Reply reply;
+
+		try {
+			reply = futureReply.get(BookStoreClientConstants.CLIENT_MAX_TIMEOUT_MILLISECS, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException ex) {
+			// Given up, so that the request is not sent later on
+			futureReply.cancel(false);
+			throw new BookStoreException(BookStoreClientConstants.STR_ERR_CLIENT_REQUEST_SENDING, ex);
+		} catch (TimeoutException ex) {
+			futureReply.cancel(false);
+			throw new BookStoreException(BookStoreClientConstants.STR_ERR_CLIENT_REQUEST_TIMEOUT, ex);
+		} catch (ExecutionException ex) {
+			throw new BookStoreException(ex.getCause() instanceof TimeoutException
+					? BookStoreClientConstants.STR_ERR_CLIENT_REQUEST_TIMEOUT
+					: BookStoreClientConstants.STR_ERR_CLIENT_REQUEST_EXCEPTION, ex.getCause());
+		}
+
+		noteRequestCodings(originOf(new HttpURI(bookStoreRequest.getURLString())), reply.getHeaders());
+		checkHttpStatus(reply.getStatus());
+		return readHttpResponse(reply.getContent(), serializer);
+	}
+
+	/**
+	 * Performs an HTTP exchange over HTTP/2 without blocking the caller, as
+	 * {@link #performHttpExchangeAsync(HttpClient, BookStoreRequest, Supplier)}
+	 * does over HTTP/1.1.
+	 *
+	 * @param client
+	 *            the HTTP/2 client
+	 * @param bookStoreRequest
+	 *            the book store request
+	 * @param serializer
+	 *            the serializer of the thread it is called from
+	 * @return the future book store response
+	 */
+	public static CompletableFuture<BookStoreResponse> performHttpExchangeAsync(BookStoreHTTP2Client client,
+			BookStoreRequest bookStoreRequest, Supplier<BookStoreSerializer> serializer) {
+		CompletableFuture<BookStoreResponse> futureResponse = new CompletableFuture<>();
+		Executor executor = client.getExecutor();
+
+		executor.execute(() -> {
+			CompletableFuture<BookStoreHTTP2Client.Reply> futureReply;
+
+			try {
+				futureReply = sendHttp2Request(client, bookStoreRequest, serializer.get());
+			} catch (BookStoreException ex) {
+				futureResponse.completeExceptionally(ex);
+				return;
+			}
+
+			futureReply.whenCompleteAsync((reply, failure) -> {
+				if (failure != null) {
+					String message = failure instanceof TimeoutException
+							? BookStoreClientConstants.STR_ERR_CLIENT_REQUEST_TIMEOUT
+							: BookStoreClientConstants.STR_ERR_CLIENT_REQUEST_EXCEPTION;
+					futureResponse.completeExceptionally(new BookStoreException(message, failure));
+					return;
+				}
+
+				noteRequestCodings(originOf(new HttpURI(bookStoreRequest.getURLString())), reply.getHeaders());
+
+				try {
+					checkHttpStatus(reply.getStatus());
+					futureResponse.complete(readHttpResponse(reply.getContent(), serializer.get()));
+				} catch (BookStoreException ex) {
+					futureResponse.completeExceptionally(ex);
+				}
+			}, executor);
+		});
+
+		return futureResponse;
+	}
+
+	/**
+	 * Sends the HTTP/2 request of a book store request. Its content is always
+	 * copied out of the serializer buffer, since a request given up by its
+	 * caller may still be waiting for a stream when the serializer is used
+	 * again.
+	 *
+	 * @param client
+	 *            the HTTP/2 client
+	 * @param bookStoreRequest
+	 *            the book store request
+	 * @param serializer
+	 *            the serializer
+	 * @return the future reply
+	 * @throws BookStoreException
+	 *             if the input value cannot be serialized
+	 */
+	private static CompletableFuture<BookStoreHTTP2Client.Reply> sendHttp2Request(BookStoreHTTP2Client client,
+			BookStoreRequest bookStoreRequest, BookStoreSerializer serializer) throws BookStoreException {
+		String contentType = serializer.getContentType();
+		String urlString = bookStoreRequest.getURLString();
+		HttpFields headers = new HttpFields();
+		headers.put(HttpHeader.ACCEPT, contentType);
 
 		switch (bookStoreRequest.getMethod()) {
 		case GET:
-			request = client.newRequest(bookStoreRequest.getURLString()).method(HttpMethod.GET);
-			break;
+			return client.send(HttpMethod.GET, urlString, headers, null);
 
 		case POST:
 			try {
-				byte[] serializedValue = serializer.serialize(bookStoreRequest.getInputValue());
-				ContentProvider contentProvider = new BytesContentProvider(serializedValue);
-				request = client.POST(bookStoreRequest.getURLString()).content(contentProvider);
+				ByteBuffer content = serializeContent(bookStoreRequest, serializer, false);
+				headers.put(HttpHeader.CONTENT_TYPE, contentType);
+
+				if (content.remaining() >= BookStoreConstants.COMPRESSION_THRESHOLD && client.isCompression()
+						&& GZIP_ACCEPTING_SERVERS.contains(originOf(new HttpURI(urlString)))) {
+					content = compress(content);
+					headers.put(HttpHeader.CONTENT_ENCODING, GZIP);
+				}
+
+				return client.send(HttpMethod.POST, urlString, headers, content);
 			} catch (IOException ex) {
 				throw new BookStoreException("Serialization error", ex);
 			}
 
-			break;
+		default:
+			throw new IllegalArgumentException("HTTP Method not supported.");
+		}
+	}
+
+	/**
+	 * Creates the HTTP request of a book store request.
+	 *
+	 * @param client
+	 *            the client
+	 * @param bookStoreRequest
+	 *            the book store request
+	 * @param serializer
+	 *            the serializer
+	 * @param blocking
+	 *            whether the request is sent before the serializer is used
+	 *            again, so that its content can stay in the serializer buffer
+	 * @return the HTTP request
+	 * @throws BookStoreException
+	 *             if the input value cannot be serialized
+	 */
+	private static Request newHttpRequest(HttpClient client, BookStoreRequest bookStoreRequest,
+			BookStoreSerializer serializer, boolean blocking) throws BookStoreException {
+		String contentType = serializer.getContentType();
+
+		switch (bookStoreRequest.getMethod()) {
+		case GET:
+			return client.newRequest(bookStoreRequest.getURLString()).method(HttpMethod.GET)
+					.header(HttpHeader.ACCEPT, contentType);
+
+		case POST:
+			try {
+				Request request = client.POST(bookStoreRequest.getURLString()).header(HttpHeader.ACCEPT, contentType);
+				ByteBuffer content = serializeContent(bookStoreRequest, serializer, blocking);
+
+				if (content.remaining() >= BookStoreConstants.COMPRESSION_THRESHOLD
+						&& acceptsCompressedRequests(client, request)) {
+					content = compress(content);
+					request.header(HttpHeader.CONTENT_ENCODING, GZIP);
+				}
+
+				return request.content(new ByteBufferContentProvider(contentType, content));
+			} catch (IOException ex) {
+				throw new BookStoreException("Serialization error", ex);
+			}
 
 		default:
 			throw new IllegalArgumentException("HTTP Method not supported.");
 		}
+	}
 
-		ContentResponse response;
+	/**
+	 * Serializes the input value of a book store request.
+	 *
+	 * @param bookStoreRequest
+	 *            the book store request
+	 * @param serializer
+	 *            the serializer
+	 * @param blocking
+	 *            whether the content is sent before the serializer is used
+	 *            again, so that it can stay in the serializer buffer
+	 * @return the content
+	 * @throws IOException
+	 *             if the input value cannot be serialized
+	 */
+	private static ByteBuffer serializeContent(BookStoreRequest bookStoreRequest, BookStoreSerializer serializer,
+			boolean blocking) throws IOException {
+		Object inputValue = bookStoreRequest.getInputValue();
+		return blocking ? serializer.serializeToBuffer(inputValue)
+				: ByteBuffer.wrap(serializer.serialize(inputValue));
+	}
 
-		try {
-			response = request.send();
-		} catch (InterruptedException ex) {
-			throw new BookStoreException(BookStoreClientConstants.STR_ERR_CLIENT_REQUEST_SENDING, ex);
-		} catch (TimeoutException ex) {
-			throw new BookStoreException(BookStoreClientConstants.STR_ERR_CLIENT_REQUEST_TIMEOUT, ex);
-		} catch (ExecutionException ex) {
-			throw new BookStoreException(BookStoreClientConstants.STR_ERR_CLIENT_REQUEST_EXCEPTION, ex);
+	/**
+	 * Checks whether the server of a request accepts compressed requests,
+	 * which it advertises in the Accept-Encoding header of its responses. The
+	 * client must accept compressed responses too, so that compression can be
+	 * turned off on either side.
+	 *
+	 * @param client
+	 *            the client
+	 * @param request
+	 *            the request
+	 * @return true if its body may be compressed
+	 */
+	private static boolean acceptsCompressedRequests(HttpClient client, Request request) {
+		return !client.getContentDecoderFactories().isEmpty() && GZIP_ACCEPTING_SERVERS.contains(originOf(request));
+	}
+
+	/**
+	 * Remembers whether the server of a request accepts compressed requests.
+	 *
+	 * @param request
+	 *            the request
+	 * @param response
+	 *            the response of the server
+	 */
+	private static void noteRequestCodings(Request request, Response response) {
+		noteRequestCodings(originOf(request), response.getHeaders());
+	}
+
+	private static void noteRequestCodings(String origin, HttpFields headers) {
+		if (headers.contains(HttpHeader.ACCEPT_ENCODING, GZIP)) {
+			GZIP_ACCEPTING_SERVERS.add(origin);
+		} else {
+			GZIP_ACCEPTING_SERVERS.remove(origin);
+		}
+	}
+
+	private static String originOf(Request request) {
+		return request.getScheme() + "://" + request.getHost() + ":" + request.getPort();
+	}
+
+	private static String originOf(HttpURI uri) {
+		return uri.getScheme() + "://" + uri.getHost() + ":" + uri.getPort();
+	}
+
+	/**
+	 * Compresses a request body with gzip, at the fastest level.
+	 *
+	 * @param content
+	 *            the body
+	 * @return the compressed body
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private static ByteBuffer compress(ByteBuffer content) throws IOException {
+		ByteArrayOutputStream compressedContent = new ByteArrayOutputStream(content.remaining() / 4);
+
+		try (GZIPOutputStream out = new GZIPOutputStream(compressedContent) {
+			{
+				def.setLevel(Deflater.BEST_SPEED);
+			}
+		}) {
+			out.write(content.array(), content.arrayOffset() + content.position(), content.remaining());
 		}
 
+		return ByteBuffer.wrap(compressedContent.toByteArray());
+	}
+
+	/**
+	 * Deserializes the content of an HTTP response.
+	 *
+	 * @param content
+	 *            the content
+	 * @param serializer
+	 *            the serializer
+	 * @return the book store response
+	 * @throws BookStoreException
+	 *             if the content cannot be deserialized, or holds the
+	 *             exception the server replied with
+	 */
+	private static BookStoreResponse readHttpResponse(byte[] content, BookStoreSerializer serializer)
+			throws BookStoreException {
 		BookStoreResponse bookStoreResponse;
 
 		try {
-			bookStoreResponse = (BookStoreResponse) serializer.deserialize(response.getContent());
+			bookStoreResponse = (BookStoreResponse) serializer.deserialize(content);
 		} catch (IOException ex) {
 			throw new BookStoreException("Deserialization error", ex);
 		}